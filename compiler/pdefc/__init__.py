@@ -14,10 +14,13 @@
 # See the License for the specific language governing permissions and
 # limitations under the License.
 import io
+import logging
 import os
+import time
 
 from pdefc.cli import main
 from pdefc.version import __version__
+from pdefc.cache import Cache, digest
 from pdefc import lang, parser, java, objc
 
 __title__ = 'pdef-compiler'
@@ -37,45 +40,75 @@ def version():
     return __version__
 
 
-def compile(path):
-    '''Compile a package from a path.'''
-    package = _parse(path)
+def compile(path, cache=None):
+    '''Compile a package from a path, parsed files are reused from an optional cache directory.'''
+    package = _parse(path, Cache(cache) if cache else None)
+
+    started = time.time()
     errors = package.compile()
     if errors:
         raise CompilerException('Compiler errors', errors)
 
+    logging.info('Linked %s files in %.3fs', len(package.files), time.time() - started)
     return package
 
 
-def generate_java(src, out, jpackage_name=None):
-    '''Generates java files.'''
-    package = compile(src)
-    java.generate(package, out, jpackage_name=jpackage_name)
+def generate_java(src, out, jpackage_name=None, immutable=False, primitive_collections=False,
+                  native_image=None, cache=None, jobs=1):
+    '''Generates java files, optionally with immutable structs, primitive collections
+    and GraalVM native-image configs in a native_image resources directory.
+
+    Parsed files and rendered java files are reused from a cache directory when their
+    sources do not change, files are rendered in parallel by a number of jobs.
+    '''
+    package = compile(src, cache=cache)
+    java.generate(package, out, jpackage_name=jpackage_name, immutable=immutable,
+                  primitive_collections=primitive_collections, native_image=native_image,
+                  cache=Cache(cache) if cache else None, jobs=jobs)
 
 
-def generate_objc(src, out, prefix=None):
+def generate_objc(src, out, prefix=None, cache=None):
     '''Generates objective-c files.'''
-    package = compile(src)
+    package = compile(src, cache=cache)
     objc.generate(package, out, prefix=prefix)
 
 
-def _parse(path):
-    '''Parse a package from a path.'''
-    parse = parser.Parser()
+def _parse(path, cache=None):
+    '''Parse a package from a path, reuse cached files with the same paths and sources.'''
+    parse = None
     errors = lang.Errors()
     package = lang.Package()
+    started = time.time()
+    cached = 0
 
     for fullpath, relpath in _walk(path):
         source = _read(fullpath)
+        key = digest(relpath, source)
+
+        file = cache.get(key) if cache else None
+        if file is not None:
+            cached += 1
+            package.add_file(file)
+            continue
+
+        # The parser builds its tables on creation, create it only when required.
+        parse = parse or parser.Parser()
         file, file_errors = parse.parse(source, relpath)
 
         if file_errors:
             errors.add_errors(file_errors)
-        else:
-            package.add_file(file)
+            continue
+
+        file.digest = key
+        if cache:
+            cache.put(key, file)
+        package.add_file(file)
 
     if errors:
         raise CompilerException('Syntax errors', errors)
+
+    logging.info('Parsed %s files in %.3fs, %s from cache', len(package.files),
+                 time.time() - started, cached)
     return package
 
 
@@ -0,0 +1,65 @@
+# encoding: utf-8
+import hashlib
+import logging
+import os
+import pickle
+import tempfile
+
+from pdefc.version import __version__
+
+
+class Cache(object):
+    '''Persistent compiler cache in a directory, values are pickled into files named by keys.
+
+    Keys are digests of values inputs, so entries are never invalidated, only replaced
+    by new entries when their inputs change::
+        >>> cache = Cache('.pdefc-cache')
+        >>> key = digest('file.pdef', source)
+        >>> cache.put(key, file)
+        >>> cache.get(key)
+
+    '''
+    def __init__(self, path):
+        self.path = path
+
+    def get(self, key):
+        '''Return a cached value or None, unreadable entries are ignored.'''
+        filepath = self._filepath(key)
+        if not os.path.exists(filepath):
+            return None
+
+        try:
+            with open(filepath, 'rb') as f:
+                return pickle.load(f)
+        except Exception as e:
+            logging.debug('Failed to read a cache entry %s, %s', filepath, e)
+            return None
+
+    def put(self, key, value):
+        '''Pickle a value into a temp file and move it to its entry path.'''
+        filepath = self._filepath(key)
+        dirpath = os.path.dirname(filepath)
+        if not os.path.exists(dirpath):
+            os.makedirs(dirpath)
+
+        fd, tmppath = tempfile.mkstemp(dir=dirpath)
+        try:
+            with os.fdopen(fd, 'wb') as f:
+                pickle.dump(value, f, pickle.HIGHEST_PROTOCOL)
+            os.rename(tmppath, filepath)
+        except Exception as e:
+            logging.debug('Failed to write a cache entry %s, %s', filepath, e)
+            if os.path.exists(tmppath):
+                os.remove(tmppath)
+
+    def _filepath(self, key):
+        return os.path.join(self.path, key[:2], key)
+
+
+def digest(*parts):
+    '''Return a hex digest of the compiler version and string parts.'''
+    sha = hashlib.sha1(__version__.encode('utf-8'))
+    for part in parts:
+        sha.update(b'\0')
+        sha.update(part.encode('utf-8'))
+    return sha.hexdigest()
@@ -69,7 +69,8 @@ def version_command(commands, compiler):
 
 def check(args, compiler):
     src = args.src
-    compiler.compile(src)
+    cache = args.cache
+    compiler.compile(src, cache=cache)
 
 
 def check_command(commands, compiler):
@@ -77,6 +78,7 @@ def check_command(commands, compiler):
     
     p = commands.add_parser('check', help='check a package')
     p.add_argument('src', help='path to a pdef package')
+    _cache_argument(p)
     p.set_defaults(command_func=func)
 
 
@@ -84,7 +86,14 @@ def gen_java(args, compiler):
     src = args.src
     dst = args.dst
     package = args.package
-    compiler.generate_java(src, dst, jpackage_name=package)
+    immutable = args.immutable
+    primitive_collections = args.primitive_collections
+    native_image = args.native_image
+    cache = args.cache
+    jobs = args.jobs
+    compiler.generate_java(src, dst, jpackage_name=package, immutable=immutable,
+                           primitive_collections=primitive_collections,
+                           native_image=native_image, cache=cache, jobs=jobs)
 
 
 def gen_java_command(commands, compiler):
@@ -94,6 +103,15 @@ def gen_java_command(commands, compiler):
     p.add_argument('src', help='pdef package path')
     p.add_argument('--dst', dest='dst', required=True, help='destination directory')
     p.add_argument('--package', dest='package', help='java package, i.e. "io.pdef"')
+    p.add_argument('--immutable', dest='immutable', action='store_true',
+                   help='generate immutable structs with builders')
+    p.add_argument('--primitive-collections', dest='primitive_collections', action='store_true',
+                   help='generate primitive collections for numeric lists, sets and maps')
+    p.add_argument('--native-image', dest='native_image', metavar='RESOURCES',
+                   help='write GraalVM native-image configs to a resources directory')
+    p.add_argument('-j', '--jobs', dest='jobs', type=int, default=1,
+                   help='number of parallel rendering processes')
+    _cache_argument(p)
     p.set_defaults(command_func=func)
 
 
@@ -101,7 +119,8 @@ def get_objc(args, compiler):
     src = args.src
     dst = args.dst
     prefix = args.prefix
-    compiler.generate_objc(src, dst, prefix=prefix)
+    cache = args.cache
+    compiler.generate_objc(src, dst, prefix=prefix, cache=cache)
 
 
 def gen_objc_command(commands, compiler):
@@ -111,4 +130,10 @@ def gen_objc_command(commands, compiler):
     p.add_argument('src', help='pdef package path')
     p.add_argument('--dst', dest='dst', required=True, help='destination directory')
     p.add_argument('--prefix', help='objective-c class prefix, i.e. "NS"')
+    _cache_argument(p)
     p.set_defaults(command_func=func)
+
+
+def _cache_argument(p):
+    p.add_argument('--cache', dest='cache', metavar='DIR',
+                   help='cache directory, files are not parsed again until they change')
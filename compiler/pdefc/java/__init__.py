@@ -1,40 +1,130 @@
 # encoding: utf-8
 from __future__ import unicode_literals
+import json
+import logging
 import os.path
+import re
+import time
 
 from pdefc import lang, __version__
-from pdefc.templates import Templates, write_file
+from pdefc.cache import digest
+from pdefc.templates import Templates, write_file, render_all
 
 
 ENUM_TEMPLATE = 'enum.jinja2'
 STRUCT_TEMPLATE = 'struct.jinja2'
+IMMUTABLE_STRUCT_TEMPLATE = 'immutable_struct.jinja2'
 INTERFACE_TEMPLATE = 'interface.jinja2'
 
+NATIVE_IMAGE_DIR = os.path.join('META-INF', 'native-image')
+REFLECT_CONFIG = 'reflect-config.json'
+PROXY_CONFIG = 'proxy-config.json'
+
 STRUCT_SUFFIX = 'Struct'
 INTERFACE_SUFFIX = 'Interface'
 GENERATED_BY = 'Generated by Pdef compiler %s. DO NOT EDIT.' % __version__
 
 
-def generate(package, dst, jpackage_name):
-    generator = Generator(jpackage_name)
-    return generator.generate(package, dst)
+def generate(package, dst, jpackage_name, immutable=False, primitive_collections=False,
+             native_image=None, cache=None, jobs=1):
+    generator = Generator(jpackage_name, immutable=immutable,
+                          primitive_collections=primitive_collections)
+    generator.generate(package, dst, cache=cache, jobs=jobs)
+    if native_image:
+        generator.generate_native_image(package, native_image)
 
 
 class Generator(object):
     def __init__(self, package_name=None, struct_suffix=STRUCT_SUFFIX, 
-                 iface_suffix=INTERFACE_SUFFIX):
+                 iface_suffix=INTERFACE_SUFFIX, immutable=False, primitive_collections=False):
         self.package_name = package_name
         self.struct_suffix = struct_suffix or ''
         self.iface_suffix = iface_suffix or ''
+        self.immutable = immutable
+        self.primitive_collections = primitive_collections
         
         self.templates = Templates(__file__, filters=self)
 
-    def generate(self, package, dst):
+    def generate(self, package, dst, cache=None, jobs=1):
+        '''Render pdef files into java files and write the changed ones.
+
+        Rendered files are reused from a cache when a pdef file, the files it references
+        and the generator options do not change. The other files are rendered by jobs.
+        '''
+        started = time.time()
+        outputs = []
+        missing = []
+
+        for file in package.files:
+            key = self._cache_key(file) if cache else None
+            rendered = cache.get(key) if key else None
+            if rendered is None:
+                missing.append((file, key))
+            else:
+                outputs.extend(rendered)
+
+        results = render_all(self._render_file, [file for file, _ in missing], jobs)
+        for (file, key), rendered in zip(missing, results):
+            if key:
+                cache.put(key, rendered)
+            outputs.extend(rendered)
+
+        written = 0
+        for filepath, code in outputs:
+            if write_file(dst, filepath, code):
+                written += 1
+
+        logging.info('Generated %s java files in %.3fs, rendered %s pdef files, %s from cache, '
+                     '%s unchanged files', len(outputs), time.time() - started, len(missing),
+                     len(package.files) - len(missing), len(outputs) - written)
+
+    def _render_file(self, file):
+        '''Return a list of (filepath, code) of file types.'''
+        return [(self._filepath(type0), self._render(type0, self.templates))
+                for type0 in file.types]
+
+    def _cache_key(self, file):
+        '''Return a digest of the generator options and the file with its referenced files,
+        or None when a file is not parsed from a source.'''
+        files = _referenced_files(file)
+        if any(f.digest is None for f in files):
+            return None
+
+        options = '%s %s %s %s %s' % (self.package_name, self.struct_suffix, self.iface_suffix,
+                                      self.immutable, self.primitive_collections)
+        digests = sorted(f.digest for f in files)
+        return digest('java', self.templates.digest(), options, file.digest, *digests)
+
+    def generate_native_image(self, package, dst):
+        '''Write GraalVM native-image reflection and proxy configs to a resources directory.'''
+        reflect = []
+        proxies = []
         for file in package.files:
             for type0 in file.types:
-                code = self._render(type0, self.templates)
-                filepath = self._filepath(type0)
-                write_file(dst, filepath, code)
+                reflect.extend(self.native_reflect_config(type0))
+                if type0.is_interface:
+                    proxies.append({'interfaces': [self.jtype(type0)]})
+
+        dirpath = os.path.join(NATIVE_IMAGE_DIR, self.package_name or 'pdef')
+        write_file(dst, os.path.join(dirpath, REFLECT_CONFIG), _json(reflect))
+        write_file(dst, os.path.join(dirpath, PROXY_CONFIG), _json(proxies))
+
+    def native_reflect_config(self, type0):
+        '''Return reflection config entries of a type, its members are accessed by the runtime.'''
+        name = self.jtype(type0)
+        if type0.is_enum:
+            return [{'name': name, 'allDeclaredFields': True, 'allPublicMethods': True}]
+
+        elif type0.is_interface:
+            return [{'name': name, 'allPublicMethods': True}]
+
+        elif self.is_immutable(type0):
+            # Immutable structs are parsed via their builders.
+            entry = _native_struct_config(name)
+            entry['allDeclaredClasses'] = True
+            return [entry, _native_struct_config(name + '$Builder')]
+
+        return [_native_struct_config(name)]
 
     def _render(self, type0, templates):
         name = self.jname(type0)
@@ -43,7 +133,9 @@ class Generator(object):
             return templates.render(ENUM_TEMPLATE, enum=type0, name=name,
                                     generated_by=GENERATED_BY)
         elif type0.is_struct:
-            return templates.render(STRUCT_TEMPLATE, struct=type0, name=name,
+            # Exceptions are always mutable, they extend java exceptions.
+            template = IMMUTABLE_STRUCT_TEMPLATE if self.is_immutable(type0) else STRUCT_TEMPLATE
+            return templates.render(template, struct=type0, name=name,
                                     generated_by=GENERATED_BY)
         elif type0.is_interface:
             return templates.render(INTERFACE_TEMPLATE, interface=type0, name=name,
@@ -79,10 +171,20 @@ class Generator(object):
         
         return name + suffix
 
+    def is_immutable(self, type0):
+        return self.immutable and type0.is_struct and not type0.is_exception
+
     def jtype(self, type0):
+        if self.immutable and type0 is lang.DATETIME:
+            return 'io.pdef.PdefInstant'
+
         if type0 in _TYPES:
             return _TYPES[type0]
 
+        primitive = self.jprimitive_collection(type0)
+        if primitive:
+            return primitive
+
         if isinstance(type0, lang.List):
             return 'java.util.List<%s>' % (self.jtype_boxed(type0.element))
 
@@ -100,6 +202,29 @@ class Generator(object):
         name = self.jname(type0)
         return '%s.%s' % (package, name)
 
+    def jprimitive_collection(self, type0):
+        '''Returns a primitive collection class for a numeric collection or None.'''
+        if not self.primitive_collections:
+            return None
+
+        if isinstance(type0, lang.List):
+            return _PRIMITIVE_LISTS.get(type0.element)
+
+        # Sets and maps store integers as longs.
+        if isinstance(type0, lang.Set) and type0.element in _INTEGER_TYPES:
+            return 'io.pdef.PdefLongSet'
+
+        if isinstance(type0, lang.Map) and type0.key in _INTEGER_TYPES:
+            if type0.value in _INTEGER_TYPES:
+                return 'io.pdef.PdefLongLongMap'
+            elif type0.value is lang.DOUBLE:
+                return 'io.pdef.PdefLongDoubleMap'
+
+        return None
+
+    def is_jprimitive_collection(self, type0):
+        return self.jprimitive_collection(type0) is not None
+
     def jtype_boxed(self, type0):
         if type0 in _BOXED_TYPES:
             return _BOXED_TYPES[type0]
@@ -107,19 +232,50 @@ class Generator(object):
         return self.jtype(type0)
     
     def jdefault(self, type0):
-        if type0.is_list:
+        if self.is_jprimitive_collection(type0):
+            return 'new %s()' % self.jtype(type0)
+        elif type0.is_list:
             return 'new java.util.ArrayList<%s>()' % (self.jtype_boxed(type0.element))
+        elif type0.is_set and type0.element.is_enum:
+            return 'java.util.EnumSet.noneOf(%s.class)' % self.jtype(type0.element)
         elif type0.is_set:
             return 'new java.util.HashSet<%s>()' % (self.jtype_boxed(type0.element))
         elif type0.is_map:
             return 'new java.util.HashMap<%s, %s>()' % (self.jtype_boxed(type0.key),
                                                         self.jtype_boxed(type0.value))
+        elif self.is_immutable(type0):
+            return '%s.getDefaultInstance()' % self.jtype(type0)
         elif type0.is_struct:
             return 'new %s()' % self.jtype(type0)
         
         raise ValueError('Type does not have a java default value %s' % type0)
+
+    def jdefault_immutable(self, type0):
+        if self.is_jprimitive_collection(type0):
+            return '%s.empty()' % self.jtype(type0)
+        elif type0.is_list:
+            return 'java.util.Collections.<%s>emptyList()' % (self.jtype_boxed(type0.element))
+        elif type0.is_set:
+            return 'java.util.Collections.<%s>emptySet()' % (self.jtype_boxed(type0.element))
+        elif type0.is_map:
+            return 'java.util.Collections.<%s, %s>emptyMap()' % (self.jtype_boxed(type0.key),
+                                                                 self.jtype_boxed(type0.value))
+
+        return self.jdefault(type0)
         
     
+    def jpriority(self, method):
+        '''Return a method priority from an "@priority name" docstring line or None.'''
+        match = _PRIORITY_PATTERN.search(method.doc or '')
+        if not match:
+            return None
+
+        priority = match.group(1).upper()
+        if priority not in _PRIORITIES:
+            raise ValueError('Unknown priority "%s" of method %s, expected one of %s'
+                             % (match.group(1), method, ', '.join(_PRIORITIES).lower()))
+        return 'io.pdef.PdefPriority.%s' % priority
+
     def is_jobject(self, type0):
         return type0.is_string \
                or type0.is_datetime \
@@ -129,6 +285,36 @@ class Generator(object):
                or type0.is_interface
 
 
+def _referenced_files(file):
+    '''Return a set of files which types are referenced by a file, directly or indirectly.'''
+    files = set()
+    queue = [file]
+    while queue:
+        file0 = queue.pop()
+        if file0 in files:
+            continue
+
+        files.add(file0)
+        for type0 in file0.types:
+            for referenced in type0.referenced_types:
+                if getattr(referenced, 'file', None):
+                    queue.append(referenced.file)
+    return files
+
+
+def _native_struct_config(name):
+    return {
+        'name': name,
+        'allDeclaredConstructors': True,
+        'allDeclaredFields': True,
+        'allPublicMethods': True,
+    }
+
+
+def _json(obj):
+    return json.dumps(obj, indent=2, sort_keys=True) + '\n'
+
+
 _TYPES = {
     lang.BOOL: 'boolean',
     lang.INT16: 'short',
@@ -141,6 +327,19 @@ _TYPES = {
     lang.DATETIME: 'java.util.Date',
 }
 
+_PRIORITY_PATTERN = re.compile(r'^\s*@priority\s+(\w+)\s*$', re.MULTILINE)
+_PRIORITIES = ('INTERACTIVE', 'NORMAL', 'BATCH')
+
+_INTEGER_TYPES = (lang.INT16, lang.INT32, lang.INT64)
+
+_PRIMITIVE_LISTS = {
+    lang.INT16: 'io.pdef.PdefIntList',
+    lang.INT32: 'io.pdef.PdefIntList',
+    lang.INT64: 'io.pdef.PdefLongList',
+    lang.FLOAT: 'io.pdef.PdefFloatList',
+    lang.DOUBLE: 'io.pdef.PdefDoubleList',
+}
+
 _BOXED_TYPES = {
     lang.BOOL: 'Boolean',
     lang.INT16: 'Short',
@@ -1,5 +1,6 @@
 # encoding: utf-8
 from __future__ import unicode_literals
+import json
 import os
 import shutil
 import tempfile
@@ -80,3 +81,144 @@ class TestGenerator(unittest.TestCase):
         s = self.generator.jtype(struct)
 
         assert s == 'io.pdef.test.TestStruct'
+
+    def test_jtype__datetime_immutable(self):
+        generator = java.Generator(package_name='io.pdef', immutable=True)
+
+        assert self.generator.jtype(lang.DATETIME) == 'java.util.Date'
+        assert generator.jtype(lang.DATETIME) == 'io.pdef.PdefInstant'
+
+    def test_jdefault__enum_set(self):
+        enum = lang.Enum('Number', values=['ONE', 'TWO'])
+        file = lang.File('test')
+        file.add_type(enum)
+
+        s = self.generator.jdefault(lang.Set(enum))
+        assert s == 'java.util.EnumSet.noneOf(io.pdef.test.Number.class)'
+
+    def test_jdefault__immutable_struct(self):
+        generator = java.Generator(package_name='io.pdef', immutable=True)
+        struct = lang.Struct('Test')
+        exc = lang.Struct('TestException', is_exception=True)
+        file = lang.File('test')
+        file.add_type(struct)
+        file.add_type(exc)
+
+        assert generator.jdefault(struct) == 'io.pdef.test.TestStruct.getDefaultInstance()'
+        assert generator.jdefault(exc) == 'new io.pdef.test.TestException()'
+
+    def test_jdefault_immutable__list(self):
+        generator = java.Generator(package_name='io.pdef', immutable=True)
+        s = generator.jdefault_immutable(lang.List(lang.INT32))
+
+        assert s == 'java.util.Collections.<Integer>emptyList()'
+
+    def test_generate__immutable(self):
+        dst = tempfile.mkdtemp('java-pdef-tests')
+
+        try:
+            package = self.package()
+            java.generate(package, dst, jpackage_name='io.pdef', immutable=True)
+
+            struct = os.path.join(dst, 'io', 'pdef', 'test', 'TestStruct.java')
+            exc = os.path.join(dst, 'io', 'pdef', 'test', 'TestException.java')
+
+            with open(struct, 'r') as f:
+                assert 'extends io.pdef.AbstractImmutableStruct' in f.read()
+            with open(exc, 'r') as f:
+                assert 'extends io.pdef.AbstractException' in f.read()
+
+        finally:
+            shutil.rmtree(dst, ignore_errors=True)
+
+    def test_jtype__primitive_collections(self):
+        generator = java.Generator(package_name='io.pdef', primitive_collections=True)
+
+        assert generator.jtype(lang.List(lang.INT32)) == 'io.pdef.PdefIntList'
+        assert generator.jtype(lang.List(lang.INT64)) == 'io.pdef.PdefLongList'
+        assert generator.jtype(lang.List(lang.DOUBLE)) == 'io.pdef.PdefDoubleList'
+        assert generator.jtype(lang.Set(lang.INT32)) == 'io.pdef.PdefLongSet'
+        assert generator.jtype(lang.Map(lang.INT64, lang.INT32)) == 'io.pdef.PdefLongLongMap'
+        assert generator.jtype(lang.Map(lang.INT32, lang.DOUBLE)) == 'io.pdef.PdefLongDoubleMap'
+
+    def test_jtype__primitive_collections_boxed(self):
+        generator = java.Generator(package_name='io.pdef', primitive_collections=True)
+
+        assert generator.jtype(lang.List(lang.STRING)) == 'java.util.List<String>'
+        assert generator.jtype(lang.Set(lang.DOUBLE)) == 'java.util.Set<Double>'
+        assert generator.jtype(lang.Map(lang.STRING, lang.INT32)) == 'java.util.Map<String, Integer>'
+        assert generator.jtype(lang.List(lang.List(lang.INT32))) \
+            == 'java.util.List<io.pdef.PdefIntList>'
+
+    def test_jpriority(self):
+        method = lang.Method('report')
+        assert self.generator.jpriority(method) is None
+
+        method.doc = 'Builds a report.\n\n@priority batch'
+        assert self.generator.jpriority(method) == 'io.pdef.PdefPriority.BATCH'
+
+    def test_jpriority__unknown(self):
+        method = lang.Method('report')
+        method.doc = '@priority urgent'
+        self.assertRaises(ValueError, self.generator.jpriority, method)
+
+    def test_generate_native_image(self):
+        dst = tempfile.mkdtemp('java-pdef-tests')
+
+        try:
+            generator = java.Generator(package_name='io.pdef', immutable=True)
+            generator.generate_native_image(self.package(), dst)
+
+            dirpath = os.path.join(dst, 'META-INF', 'native-image', 'io.pdef')
+            with open(os.path.join(dirpath, 'reflect-config.json'), 'r') as f:
+                reflect = dict((entry['name'], entry) for entry in json.load(f))
+            with open(os.path.join(dirpath, 'proxy-config.json'), 'r') as f:
+                proxies = json.load(f)
+
+            assert reflect['io.pdef.test.TestNumber']['allDeclaredFields']
+            assert reflect['io.pdef.test.TestStruct']['allDeclaredClasses']
+            assert reflect['io.pdef.test.TestStruct$Builder']['allDeclaredConstructors']
+            assert reflect['io.pdef.test.TestException']['allDeclaredFields']
+            assert reflect['io.pdef.test.TestInterface']['allPublicMethods']
+            assert {'interfaces': ['io.pdef.test.TestInterface']} in proxies
+            assert {'interfaces': ['io.pdef.test.TestSubInterface']} in proxies
+
+        finally:
+            shutil.rmtree(dst, ignore_errors=True)
+
+    def test_generate__jobs(self):
+        dst = tempfile.mkdtemp('java-pdef-tests')
+
+        try:
+            package = self.package()
+            java.generate(package, dst, jpackage_name='io.pdef', jobs=4)
+
+            struct = os.path.join(dst, 'io', 'pdef', 'test', 'TestStruct.java')
+            with open(struct, 'r') as f:
+                assert 'class TestStruct' in f.read()
+
+        finally:
+            shutil.rmtree(dst, ignore_errors=True)
+
+    def test_generate__cache(self):
+        src = os.path.join(os.path.dirname(__file__), 'test.pdef')
+        dst = tempfile.mkdtemp('java-pdef-tests')
+        cache = tempfile.mkdtemp('java-pdef-cache')
+
+        try:
+            pdefc.generate_java(src, dst, jpackage_name='io.pdef', cache=cache)
+            struct = os.path.join(dst, 'io', 'pdef', 'test', 'TestStruct.java')
+            os.utime(struct, (0, 0))
+
+            # Unchanged files are reused from the cache and are not rewritten.
+            pdefc.generate_java(src, dst, jpackage_name='io.pdef', cache=cache)
+            assert os.path.getmtime(struct) == 0
+
+            # Changed options are rendered again.
+            pdefc.generate_java(src, dst, jpackage_name='io.pdef', immutable=True, cache=cache)
+            with open(struct, 'r') as f:
+                assert 'extends io.pdef.AbstractImmutableStruct' in f.read()
+
+        finally:
+            shutil.rmtree(dst, ignore_errors=True)
+            shutil.rmtree(cache, ignore_errors=True)
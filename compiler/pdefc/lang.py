@@ -101,6 +101,7 @@ class File(Node):
 
         self.path = path
         self.package = None
+        self.digest = None
 
         self.types = []
         self.type_map = {}
@@ -246,6 +247,13 @@ class Type(Node):
     def __repr__(self):
         return '<%s %s at %s>' % (self.__class__.__name__, self.name, hex(id(self)))
 
+    def __reduce_ex__(self, protocol):
+        # Primitives are compared by identity, unpickle them as the module singletons.
+        if _PRIMITIVES.get(self.name) is self:
+            return _primitive, (self.name,)
+
+        return super(Type, self).__reduce_ex__(protocol)
+
     @property
     def is_number(self):
         return self in (INT16, INT32, INT64, FLOAT, DOUBLE)
@@ -620,3 +628,10 @@ DOUBLE = Type('double')
 STRING = Type('string')
 DATETIME = Type('datetime')
 VOID = Type('void')
+
+_PRIMITIVES = dict((type0.name, type0) for type0 in
+                   (BOOL, INT16, INT32, INT64, FLOAT, DOUBLE, STRING, DATETIME, VOID))
+
+
+def _primitive(name):
+    return _PRIMITIVES[name]
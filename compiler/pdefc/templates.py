@@ -1,7 +1,9 @@
 # encoding: utf-8
+import hashlib
 import io
 import inspect
 import logging
+import multiprocessing
 import os
 
 from jinja2 import Environment
@@ -30,6 +32,7 @@ class Templates(object):
 
         self._env = Environment(trim_blocks=True, lstrip_blocks=True)
         self._cache = {}
+        self._digest = None
 
         self.add_filter('upper_first', upper_first)
         if isinstance(filters, dict):
@@ -76,6 +79,24 @@ class Templates(object):
         template = self.get(template_name)
         return template.render(**kwargs)
 
+    def digest(self):
+        '''Return a hex digest of the templates directory files, i.e. templates and filters.'''
+        if self._digest:
+            return self._digest
+
+        sha = hashlib.sha1()
+        for filename in sorted(os.listdir(self._dir)):
+            path = os.path.join(self._dir, filename)
+            if not os.path.isfile(path) or filename.endswith(('.pyc', '.pyo')):
+                continue
+
+            with open(path, 'rb') as f:
+                sha.update(filename.encode(ENCODING))
+                sha.update(f.read())
+
+        self._digest = sha.hexdigest()
+        return self._digest
+
 
 def upper_first(s):
     '''Uppercase the first letter in a string.'''
@@ -108,7 +129,59 @@ def write_file(dst, filename, text):
     dirpath = os.path.dirname(filepath)
     mkdir_p(dirpath)
 
+    # Do not rewrite unchanged files, keep their modification times for incremental builds.
+    if os.path.isfile(filepath):
+        with io.open(filepath, 'rt', encoding=ENCODING) as f:
+            if f.read() == text:
+                logging.debug('Unchanged %s', filepath)
+                return False
+
     # Write the file contents.
     with io.open(filepath, 'wt', encoding=ENCODING) as f:
         f.write(text)
     logging.info('Created %s', filepath)
+    return True
+
+
+def render_all(render, items, jobs=1):
+    '''Return a list of render(item) results, render items in forked processes when jobs > 1.
+
+    Workers inherit the render function and the items on fork, so they do not have
+    to be pickled, only the results are.
+    '''
+    global _render, _items
+
+    items = list(items)
+    if jobs <= 1 or len(items) <= 1 or not _can_fork():
+        return [render(item) for item in items]
+
+    _render, _items = render, items
+    try:
+        pool = _fork_pool(min(jobs, len(items)))
+        try:
+            return pool.map(_render_item, range(len(items)))
+        finally:
+            pool.close()
+            pool.join()
+    finally:
+        _render, _items = None, None
+
+
+_render = None
+_items = None
+
+
+def _render_item(index):
+    return _render(_items[index])
+
+
+def _can_fork():
+    if hasattr(multiprocessing, 'get_all_start_methods'):
+        return 'fork' in multiprocessing.get_all_start_methods()
+    return os.name == 'posix'
+
+
+def _fork_pool(processes):
+    if hasattr(multiprocessing, 'get_context'):
+        return multiprocessing.get_context('fork').Pool(processes)
+    return multiprocessing.Pool(processes)
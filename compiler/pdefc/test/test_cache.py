@@ -0,0 +1,90 @@
+# encoding: utf-8
+from __future__ import unicode_literals
+import os
+import shutil
+import tempfile
+import unittest
+
+from pdefc import lang
+from pdefc.cache import Cache, digest
+from pdefc.templates import write_file, render_all
+
+
+class TestCache(unittest.TestCase):
+    def setUp(self):
+        self.dir = tempfile.mkdtemp('pdefc-cache-tests')
+        self.cache = Cache(self.dir)
+
+    def tearDown(self):
+        shutil.rmtree(self.dir, ignore_errors=True)
+
+    def test_get_put(self):
+        key = digest('test.pdef', 'struct Test {}')
+        assert self.cache.get(key) is None
+
+        self.cache.put(key, {'key': 'value'})
+        assert self.cache.get(key) == {'key': 'value'}
+
+    def test_get__broken_entry(self):
+        key = digest('test.pdef', 'struct Test {}')
+        self.cache.put(key, 'value')
+        with open(self.cache._filepath(key), 'wb') as f:
+            f.write(b'broken')
+
+        assert self.cache.get(key) is None
+
+    def test_digest(self):
+        assert digest('a', 'b') == digest('a', 'b')
+        assert digest('a', 'b') != digest('ab')
+        assert digest('a', 'b') != digest('b', 'a')
+
+    def test_put__file_should_keep_primitives(self):
+        struct = lang.Struct('Struct')
+        struct.create_field('id', lang.INT64)
+        struct.create_field('names', lang.List(lang.STRING))
+        struct.create_field('next', lang.Reference('Struct'))
+        file = lang.File('test.pdef', types=[struct])
+
+        key = digest('test.pdef', 'source')
+        self.cache.put(key, file)
+        file = self.cache.get(key)
+        package = lang.Package([file])
+        errors = package.compile()
+
+        struct = file.types[0]
+        assert not errors
+        assert struct.fields[0].type is lang.INT64
+        assert struct.fields[1].type.element is lang.STRING
+        assert struct.fields[2].type is struct
+
+
+class TestWriteFile(unittest.TestCase):
+    def setUp(self):
+        self.dir = tempfile.mkdtemp('pdefc-write-tests')
+
+    def tearDown(self):
+        shutil.rmtree(self.dir, ignore_errors=True)
+
+    def test_write_file__should_skip_unchanged_files(self):
+        path = os.path.join(self.dir, 'a', 'File.java')
+        assert write_file(self.dir, os.path.join('a', 'File.java'), 'code')
+        os.utime(path, (0, 0))
+
+        assert not write_file(self.dir, os.path.join('a', 'File.java'), 'code')
+        assert os.path.getmtime(path) == 0
+
+        assert write_file(self.dir, os.path.join('a', 'File.java'), 'changed code')
+        assert os.path.getmtime(path) != 0
+
+
+class TestRenderAll(unittest.TestCase):
+    def test_render_all(self):
+        assert render_all(_render, ['a', 'b']) == ['A', 'B']
+
+    def test_render_all__jobs(self):
+        items = ['item%s' % i for i in range(10)]
+        assert render_all(_render, items, jobs=4) == [item.upper() for item in items]
+
+
+def _render(item):
+    return item.upper()
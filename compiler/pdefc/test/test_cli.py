@@ -16,18 +16,53 @@ class TestCli(unittest.TestCase):
         args = ['check', 'file/path.pdef']
         cli.main(args, self.compiler)
         
-        self.compiler.compile.assert_called_once_with('file/path.pdef')
+        self.compiler.compile.assert_called_once_with('file/path.pdef', cache=None)
     
     def test_gen_java(self):
         args = ['gen-java', 'src/path.pdef', '--dst', 'dst/path', '--package', 'java.package']
         cli.main(args, self.compiler)
         
         self.compiler.generate_java.assert_called_once_with(
-            'src/path.pdef', 'dst/path', jpackage_name='java.package')
-    
+            'src/path.pdef', 'dst/path', jpackage_name='java.package', immutable=False,
+            primitive_collections=False, native_image=None, cache=None, jobs=1)
+
+    def test_gen_java__immutable(self):
+        args = ['gen-java', 'src/path.pdef', '--dst', 'dst/path', '--immutable']
+        cli.main(args, self.compiler)
+
+        self.compiler.generate_java.assert_called_once_with(
+            'src/path.pdef', 'dst/path', jpackage_name=None, immutable=True,
+            primitive_collections=False, native_image=None, cache=None, jobs=1)
+
+    def test_gen_java__primitive_collections(self):
+        args = ['gen-java', 'src/path.pdef', '--dst', 'dst/path', '--primitive-collections']
+        cli.main(args, self.compiler)
+
+        self.compiler.generate_java.assert_called_once_with(
+            'src/path.pdef', 'dst/path', jpackage_name=None, immutable=False,
+            primitive_collections=True, native_image=None, cache=None, jobs=1)
+
+    def test_gen_java__native_image(self):
+        args = ['gen-java', 'src/path.pdef', '--dst', 'dst/path', '--native-image', 'res/path']
+        cli.main(args, self.compiler)
+
+        self.compiler.generate_java.assert_called_once_with(
+            'src/path.pdef', 'dst/path', jpackage_name=None, immutable=False,
+            primitive_collections=False, native_image='res/path', cache=None,
+            jobs=1)
+
+    def test_gen_java__cache_jobs(self):
+        args = ['gen-java', 'src/path.pdef', '--dst', 'dst/path', '--cache', 'cache/path',
+                '--jobs', '4']
+        cli.main(args, self.compiler)
+
+        self.compiler.generate_java.assert_called_once_with(
+            'src/path.pdef', 'dst/path', jpackage_name=None, immutable=False,
+            primitive_collections=False, native_image=None, cache='cache/path', jobs=4)
+
     def test_gen_objc(self):
         args = ['gen-objc', 'src/path.pdef', '--dst', 'dst/path', '--prefix', 'NS']
         cli.main(args, self.compiler)
         
         self.compiler.generate_objc.assert_called_once_with(
-            'src/path.pdef', 'dst/path', prefix='NS')
+            'src/path.pdef', 'dst/path', prefix='NS', cache=None)
@@ -0,0 +1,10 @@
+package io.pdef;
+
+/** Benchmark interface, written as the pdef compiler generates interfaces. */
+public interface BenchmarkInterface {
+	@GET
+	BenchmarkSubInterface users(@Name("tenant") String tenant);
+
+	@GET
+	String echo(@Name("text") String text);
+}
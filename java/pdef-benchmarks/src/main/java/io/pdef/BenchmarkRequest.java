@@ -0,0 +1,83 @@
+package io.pdef;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Fake servlet request with a fixed uri and params, other methods are unsupported. */
+class BenchmarkRequest extends HttpServletRequestWrapper {
+	private final String method;
+	private final String uri;
+	private final Map<String, String[]> params;
+
+	BenchmarkRequest(final String method, final String uri, final Map<String, String> params) {
+		super(unsupported());
+		this.method = method;
+		this.uri = uri;
+
+		Map<String, String[]> map = new HashMap<String, String[]>();
+		for (Map.Entry<String, String> entry : params.entrySet()) {
+			map.put(entry.getKey(), new String[]{entry.getValue()});
+		}
+		this.params = Collections.unmodifiableMap(map);
+	}
+
+	@Override
+	public String getMethod() {
+		return method;
+	}
+
+	@Override
+	public String getContextPath() {
+		return "/context";
+	}
+
+	@Override
+	public String getServletPath() {
+		return "/app";
+	}
+
+	@Override
+	public String getPathInfo() {
+		return uri.substring("/context/app".length());
+	}
+
+	@Override
+	public String getRequestURI() {
+		return uri;
+	}
+
+	@Override
+	public String getContentType() {
+		return null;
+	}
+
+	@Override
+	public String getParameter(final String name) {
+		String[] values = params.get(name);
+		return values == null ? null : values[0];
+	}
+
+	@Override
+	public Map<String, String[]> getParameterMap() {
+		return params;
+	}
+
+	private static HttpServletRequest unsupported() {
+		return (HttpServletRequest) Proxy.newProxyInstance(
+				BenchmarkRequest.class.getClassLoader(),
+				new Class<?>[]{HttpServletRequest.class},
+				new InvocationHandler() {
+					@Override
+					public Object invoke(final Object proxy, final Method method,
+							final Object[] args) {
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+	}
+}
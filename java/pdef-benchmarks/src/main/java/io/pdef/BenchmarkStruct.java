@@ -0,0 +1,82 @@
+package io.pdef;
+
+/** Benchmark struct, written as the pdef compiler generates structs. */
+public class BenchmarkStruct extends AbstractStruct {
+	private long id;
+	private String name;
+	private double score;
+	private java.util.List<String> tags;
+
+	public BenchmarkStruct() {}
+
+	public BenchmarkStruct(final BenchmarkStruct another) {
+		this.id = another.id;
+		this.name = another.name;
+		this.score = another.score;
+		this.tags = io.pdef.PdefCopy.copy(another.tags);
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public BenchmarkStruct setId(long value) {
+		this.id = value;
+		return this;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public BenchmarkStruct setName(String value) {
+		this.name = value;
+		return this;
+	}
+
+	public double getScore() {
+		return score;
+	}
+
+	public BenchmarkStruct setScore(double value) {
+		this.score = value;
+		return this;
+	}
+
+	public java.util.List<String> getTags() {
+		return tags != null ? tags : (tags = new java.util.ArrayList<String>());
+	}
+
+	public BenchmarkStruct setTags(java.util.List<String> value) {
+		this.tags = value;
+		return this;
+	}
+
+	@Override
+	public BenchmarkStruct copy() {
+		return new BenchmarkStruct(this);
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+
+		final BenchmarkStruct that = (BenchmarkStruct) o;
+		if (this.id != that.id) return false;
+		if (this.name == null ? that.name != null : !this.name.equals(that.name)) return false;
+		if (Double.compare(this.score, that.score) != 0) return false;
+		if (this.tags == null ? that.tags != null : !this.tags.equals(that.tags)) return false;
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = 31;
+		result = 31 * result + (int) (this.id ^ (this.id >>> 32));
+		result = 31 * result + (this.name != null ? this.name.hashCode() : 0);
+		result = 31 * result + (int) (Double.doubleToLongBits(this.score) ^ (Double.doubleToLongBits(this.score) >>> 32));
+		result = 31 * result + (this.tags != null ? this.tags.hashCode() : 0);
+		return result;
+	}
+}
@@ -0,0 +1,7 @@
+package io.pdef;
+
+/** Benchmark subinterface, written as the pdef compiler generates interfaces. */
+public interface BenchmarkSubInterface {
+	@GET
+	String get(@Name("id") long id, @Name("name") String name);
+}
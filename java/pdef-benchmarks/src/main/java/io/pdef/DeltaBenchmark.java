@@ -0,0 +1,95 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares polling a large list result with full responses and with delta responses
+ * when one percent of its elements change between polls.
+ *
+ * <pre>
+ * mvn -Pbenchmarks package
+ * java -jar pdef-benchmarks/target/benchmarks.jar DeltaBenchmark -p size=10000,100000
+ * </pre>
+ * The full and delta response sizes are printed on setup. The client methods parse
+ * a response body, the diff method is the server cost of a delta.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DeltaBenchmark {
+	private static final Type TYPE = new TypeToken<List<BenchmarkStruct>>() {}.getType();
+
+	@Param({"10000", "100000"})
+	public int size;
+
+	private JsonElement base;
+	private JsonElement changed;
+	private String full;
+	private String delta;
+
+	@Setup
+	public void setUp() {
+		List<BenchmarkStruct> list = new ArrayList<BenchmarkStruct>(size);
+		for (int i = 0; i < size; i++) {
+			list.add(new BenchmarkStruct()
+					.setId(i)
+					.setName("Struct #" + i)
+					.setScore(i / 7.0)
+					.setTags(Arrays.asList("alpha", "beta", "gamma")));
+		}
+		base = PdefJson.toJsonTree(list);
+
+		for (int i = 0; i < size; i += 100) {
+			list.get(i).setScore(-i);
+		}
+		changed = PdefJson.toJsonTree(list);
+		full = PdefJson.serialize(changed);
+		delta = PdefJson.serialize(PdefDelta.diff(base, changed));
+		System.out.println("Full response " + full.length() + " chars, delta "
+				+ delta.length() + " chars");
+	}
+
+	@Benchmark
+	public Object full() {
+		return PdefJson.parse(full, TYPE);
+	}
+
+	@Benchmark
+	public Object delta() {
+		JsonElement patch = new JsonParser().parse(delta);
+		return PdefJson.parseTree(PdefDelta.apply(base, patch), TYPE);
+	}
+
+	@Benchmark
+	public Object diff() {
+		return PdefDelta.diff(base, changed);
+	}
+}
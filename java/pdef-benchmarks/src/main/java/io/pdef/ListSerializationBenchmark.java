@@ -0,0 +1,102 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares serial and parallel chunked serialization of large list responses.
+ *
+ * Run it across payload sizes and thread counts, threads=1 is the serial baseline:
+ * <pre>
+ * mvn -Pbenchmarks package
+ * java -jar pdef-benchmarks/target/benchmarks.jar ListSerializationBenchmark \
+ *     -p size=10000,100000,1000000 -p threads=1,2,4,8
+ * </pre>
+ * The speedup is serial time divided by parallel time for the same size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ListSerializationBenchmark {
+	@Param({"10000", "100000", "1000000"})
+	public int size;
+
+	@Param({"1", "2", "4", "8"})
+	public int threads;
+
+	private List<BenchmarkStruct> list;
+	private PdefResponse<Object> response;
+	private ExecutorService executor;
+
+	@Setup
+	public void setUp() {
+		list = new ArrayList<BenchmarkStruct>(size);
+		for (int i = 0; i < size; i++) {
+			list.add(new BenchmarkStruct()
+					.setId(i)
+					.setName("Struct #" + i)
+					.setScore(i / 7.0)
+					.setTags(Arrays.asList("alpha", "beta", "gamma")));
+		}
+
+		response = new PdefResponse<Object>().setData(list);
+		executor = Executors.newFixedThreadPool(threads);
+	}
+
+	@TearDown
+	public void tearDown() {
+		executor.shutdown();
+	}
+
+	@Benchmark
+	public void serial() {
+		response.toJson(new NullWriter());
+	}
+
+	@Benchmark
+	public void parallel() {
+		PdefJson.serializeParallel(list, new NullWriter(), executor, threads,
+				PdefServlet.PARALLEL_CHUNK_SIZE, null);
+	}
+
+	/** Discards written chars to measure only the encoding. */
+	private static class NullWriter extends Writer {
+		@Override
+		public void write(final char[] cbuf, final int off, final int len) {}
+
+		@Override
+		public void write(final String str, final int off, final int len) {}
+
+		@Override
+		public void flush() {}
+
+		@Override
+		public void close() {}
+	}
+}
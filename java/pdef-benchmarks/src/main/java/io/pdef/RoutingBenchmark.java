@@ -0,0 +1,79 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures request routing: the relative path, params and invocation chain parsing.
+ *
+ * Compare allocation rates with the gc profiler on two revisions:
+ * <pre>
+ * mvn -Pbenchmarks package
+ * java -jar pdef-benchmarks/target/benchmarks.jar RoutingBenchmark -prof gc
+ * </pre>
+ * and look at the gc.alloc.rate.norm (bytes per operation) lines.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RoutingBenchmark {
+	private PdefServlet<BenchmarkInterface> servlet;
+	private BenchmarkRequest request;
+
+	@Setup
+	public void setUp() {
+		BenchmarkInterface server = new BenchmarkInterface() {
+			@Override
+			public BenchmarkSubInterface users(final String tenant) {
+				return null;
+			}
+
+			@Override
+			public String echo(final String text) {
+				return text;
+			}
+		};
+		servlet = new PdefServlet<BenchmarkInterface>(BenchmarkInterface.class, server);
+
+		Map<String, String> params = new LinkedHashMap<String, String>();
+		params.put("id", "1234567");
+		params.put("name", "John Doe");
+		params.put("unused0", "value0");
+		params.put("unused1", "value1");
+		request = new BenchmarkRequest("GET", "/context/app/users/acme/get", params);
+	}
+
+	@Benchmark
+	public PdefRequest readRequest() throws Exception {
+		return servlet.readRequest(request);
+	}
+
+	@Benchmark
+	public List<PdefInvocation> route() throws Exception {
+		PdefRequest req = servlet.readRequest(request);
+		return PdefHandler.parseRequest(req, BenchmarkInterface.class);
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.pdef;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures time to the first served request in a fresh JVM, with and without warm-up.
+ * Each fork makes one call, so the results include reflection and JSON adapter creation
+ * which are otherwise hidden by the JMH warm-up.
+ *
+ * <ul>
+ *     <li>startup: creates a handler and a client, optionally warms them up,
+ *     and makes the first call.</li>
+ *     <li>firstRequest: makes the first call after the server and the client
+ *     have been created and optionally warmed up in the setup.</li>
+ * </ul>
+ *
+ * <pre>
+ * mvn -Pbenchmarks package
+ * java -jar pdef-benchmarks/target/benchmarks.jar StartupBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(20)
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+	@Param({"false", "true"})
+	public boolean warmUp;
+
+	private BenchmarkInterface server;
+	private BenchmarkInterface client;
+
+	@Setup
+	public void setUp(final BenchmarkParams params) {
+		server = new BenchmarkInterface() {
+			@Override
+			public BenchmarkSubInterface users(final String tenant) {
+				return new BenchmarkSubInterface() {
+					@Override
+					public String get(final long id, final String name) {
+						return tenant + "/" + id + "/" + name;
+					}
+				};
+			}
+
+			@Override
+			public String echo(final String text) {
+				return text;
+			}
+		};
+
+		if (params.getBenchmark().endsWith("firstRequest")) {
+			client = start();
+		}
+	}
+
+	@Benchmark
+	public String startup() {
+		return start().users("acme").get(1, "John Doe");
+	}
+
+	@Benchmark
+	public String firstRequest() {
+		return client.users("acme").get(1, "John Doe");
+	}
+
+	private BenchmarkInterface start() {
+		PdefHandler<BenchmarkInterface> handler =
+				new PdefHandler<BenchmarkInterface>(BenchmarkInterface.class, server);
+		PdefClient<BenchmarkInterface> pdefClient = new PdefClient<BenchmarkInterface>(
+				"local:", BenchmarkInterface.class)
+				.setTransport(new PdefLocalTransport(handler));
+
+		if (warmUp) {
+			handler.warmUp();
+			pdefClient.warmUp();
+		}
+		return pdefClient.proxy();
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares loopback echo calls over the servlet HTTP path (Jetty) and the binary framed
+ * TCP transport. Both clients share one server per trial.
+ *
+ * Run it with one thread for latency and with many threads for pipelined throughput:
+ * <pre>
+ * mvn -Pbenchmarks package
+ * java -jar pdef-benchmarks/target/benchmarks.jar TransportBenchmark -t 1
+ * java -jar pdef-benchmarks/target/benchmarks.jar TransportBenchmark -t 16 -bm thrpt
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransportBenchmark {
+	@Param({"16", "4096"})
+	public int size;
+
+	private String text;
+	private Server jetty;
+	private PdefTcpServer tcpServer;
+	private PdefTcpTransport tcpTransport;
+	private BenchmarkInterface httpClient;
+	private BenchmarkInterface tcpClient;
+
+	@Setup
+	public void setUp() throws Exception {
+		StringBuilder sb = new StringBuilder(size);
+		for (int i = 0; i < size; i++) {
+			sb.append((char) ('a' + i % 26));
+		}
+		text = sb.toString();
+
+		BenchmarkInterface server = new BenchmarkInterface() {
+			@Override
+			public BenchmarkSubInterface users(final String tenant) {
+				return null;
+			}
+
+			@Override
+			public String echo(final String text) {
+				return text;
+			}
+		};
+
+		ServletContextHandler context = new ServletContextHandler();
+		context.addServlet(new ServletHolder(
+				new PdefServlet<BenchmarkInterface>(BenchmarkInterface.class, server)), "/*");
+		jetty = new Server(new InetSocketAddress("127.0.0.1", 0));
+		jetty.setHandler(context);
+		jetty.start();
+		int port = jetty.getConnectors()[0].getLocalPort();
+		httpClient = new PdefClient<BenchmarkInterface>("http://127.0.0.1:" + port,
+				BenchmarkInterface.class).proxy();
+
+		tcpServer = new PdefTcpServer(
+				new PdefHandler<BenchmarkInterface>(BenchmarkInterface.class, server))
+				.bind(new InetSocketAddress("127.0.0.1", 0));
+		tcpTransport = new PdefTcpTransport(tcpServer.getAddress());
+		tcpClient = new PdefClient<BenchmarkInterface>("tcp://127.0.0.1",
+				BenchmarkInterface.class).setTransport(tcpTransport).proxy();
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		tcpTransport.close();
+		tcpServer.close();
+		jetty.stop();
+	}
+
+	@Benchmark
+	public String servlet() {
+		return httpClient.echo(text);
+	}
+
+	@Benchmark
+	public String tcp() {
+		return tcpClient.echo(text);
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares local echo calls over a unix domain socket and over loopback TCP,
+ * both use the same framing and persistent connections.
+ *
+ * <pre>
+ * mvn -Pbenchmarks package
+ * java -jar pdef-benchmarks/target/benchmarks.jar UnixSocketBenchmark -t 1
+ * java -jar pdef-benchmarks/target/benchmarks.jar UnixSocketBenchmark -t 16 -bm thrpt
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UnixSocketBenchmark {
+	@Param({"16", "4096"})
+	public int size;
+
+	private String text;
+	private Path dir;
+	private PdefUnixServer unixServer;
+	private PdefUnixTransport unixTransport;
+	private PdefTcpServer tcpServer;
+	private PdefTcpTransport tcpTransport;
+	private BenchmarkInterface unixClient;
+	private BenchmarkInterface tcpClient;
+
+	@Setup
+	public void setUp() throws Exception {
+		StringBuilder sb = new StringBuilder(size);
+		for (int i = 0; i < size; i++) {
+			sb.append((char) ('a' + i % 26));
+		}
+		text = sb.toString();
+
+		BenchmarkInterface server = new BenchmarkInterface() {
+			@Override
+			public BenchmarkSubInterface users(final String tenant) {
+				return null;
+			}
+
+			@Override
+			public String echo(final String text) {
+				return text;
+			}
+		};
+		PdefHandler<BenchmarkInterface> handler =
+				new PdefHandler<BenchmarkInterface>(BenchmarkInterface.class, server);
+
+		dir = Files.createTempDirectory("pdef-benchmark");
+		unixServer = new PdefUnixServer(handler).bind(dir.resolve("benchmark.sock"));
+		unixTransport = new PdefUnixTransport(unixServer.getPath());
+		unixClient = new PdefClient<BenchmarkInterface>("unix:" + unixServer.getPath(),
+				BenchmarkInterface.class).setTransport(unixTransport).proxy();
+
+		tcpServer = new PdefTcpServer(handler).bind(new InetSocketAddress("127.0.0.1", 0));
+		tcpTransport = new PdefTcpTransport(tcpServer.getAddress());
+		tcpClient = new PdefClient<BenchmarkInterface>("tcp://127.0.0.1",
+				BenchmarkInterface.class).setTransport(tcpTransport).proxy();
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		unixTransport.close();
+		unixServer.close();
+		tcpTransport.close();
+		tcpServer.close();
+		Files.deleteIfExists(dir);
+	}
+
+	@Benchmark
+	public String unix() {
+		return unixClient.echo(text);
+	}
+
+	@Benchmark
+	public String tcp() {
+		return tcpClient.echo(text);
+	}
+}
@@ -0,0 +1,493 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/** HPACK header compression (RFC 7541), headers are passed as {name, value} pairs. */
+final class Hpack {
+	static final int DEFAULT_TABLE_SIZE = 4096;
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	private static final int ENTRY_OVERHEAD = 32;
+
+	private Hpack() {}
+
+	/** Encodes header blocks, an encoder is bound to one connection direction. */
+	static class Encoder {
+		private final boolean huffman;
+		private final boolean indexing;
+		private final Table table = new Table(DEFAULT_TABLE_SIZE);
+
+		/** Creates an encoder which sends literal headers without indexing. */
+		Encoder() {
+			this(false, false);
+		}
+
+		Encoder(final boolean huffman, final boolean indexing) {
+			this.huffman = huffman;
+			this.indexing = indexing;
+		}
+
+		public byte[] encode(final List<String[]> headers) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			for (String[] header : headers) {
+				encode(header[0], header[1], out);
+			}
+			return out.toByteArray();
+		}
+
+		private void encode(final String name, final String value,
+				final ByteArrayOutputStream out) {
+			int index = table.find(name, value);
+			if (index > 0) {
+				writeInt(out, 0x80, 7, index);
+				return;
+			}
+
+			int nameIndex = -index;
+			if (indexing) {
+				writeInt(out, 0x40, 6, nameIndex);
+				table.add(name, value);
+			} else {
+				writeInt(out, 0x00, 4, nameIndex);
+			}
+
+			if (nameIndex == 0) {
+				writeString(out, name);
+			}
+			writeString(out, value);
+		}
+
+		private void writeString(final ByteArrayOutputStream out, final String s) {
+			byte[] bytes = s.getBytes(ISO_8859_1);
+			if (!huffman) {
+				writeInt(out, 0x00, 7, bytes.length);
+				out.write(bytes, 0, bytes.length);
+				return;
+			}
+
+			byte[] encoded = huffmanEncode(bytes);
+			writeInt(out, 0x80, 7, encoded.length);
+			out.write(encoded, 0, encoded.length);
+		}
+	}
+
+	/** Decodes header blocks, a decoder is bound to one connection direction. */
+	static class Decoder {
+		private final Table table = new Table(DEFAULT_TABLE_SIZE);
+		private final int maxTableSize;
+
+		Decoder() {
+			this(DEFAULT_TABLE_SIZE);
+		}
+
+		Decoder(final int maxTableSize) {
+			this.maxTableSize = maxTableSize;
+		}
+
+		public List<String[]> decode(final byte[] block) throws IOException {
+			List<String[]> headers = new ArrayList<String[]>();
+			int[] pos = {0};
+
+			while (pos[0] < block.length) {
+				int b = block[pos[0]] & 0xff;
+				if ((b & 0x80) != 0) {
+					// Indexed header field.
+					int index = readInt(block, pos, 7);
+					headers.add(table.get(index));
+
+				} else if ((b & 0x40) != 0) {
+					// Literal header field with incremental indexing.
+					String[] header = readLiteral(block, pos, 6);
+					table.add(header[0], header[1]);
+					headers.add(header);
+
+				} else if ((b & 0x20) != 0) {
+					// Dynamic table size update.
+					int size = readInt(block, pos, 5);
+					if (size > maxTableSize) {
+						throw new IOException("HPACK table size exceeds the limit, " + size);
+					}
+					table.setMaxSize(size);
+
+				} else {
+					// Literal header field without indexing or never indexed.
+					headers.add(readLiteral(block, pos, 4));
+				}
+			}
+
+			return headers;
+		}
+
+		private String[] readLiteral(final byte[] block, final int[] pos, final int prefix)
+				throws IOException {
+			int nameIndex = readInt(block, pos, prefix);
+			String name = nameIndex == 0 ? readString(block, pos) : table.get(nameIndex)[0];
+			String value = readString(block, pos);
+			return new String[]{name, value};
+		}
+
+		private String readString(final byte[] block, final int[] pos) throws IOException {
+			if (pos[0] >= block.length) {
+				throw new IOException("Truncated HPACK string");
+			}
+
+			boolean huffman = (block[pos[0]] & 0x80) != 0;
+			int length = readInt(block, pos, 7);
+			if (length > block.length - pos[0]) {
+				throw new IOException("Truncated HPACK string");
+			}
+
+			int offset = pos[0];
+			pos[0] += length;
+			if (huffman) {
+				return new String(huffmanDecode(block, offset, length), ISO_8859_1);
+			}
+			return new String(block, offset, length, ISO_8859_1);
+		}
+	}
+
+	/** Static and dynamic table, indexes start from 1, dynamic entries follow static ones. */
+	static class Table {
+		private final LinkedList<String[]> entries = new LinkedList<String[]>();
+		private int maxSize;
+		private int size;
+
+		Table(final int maxSize) {
+			this.maxSize = maxSize;
+		}
+
+		String[] get(final int index) throws IOException {
+			if (index > 0 && index <= STATIC_TABLE.length) {
+				return STATIC_TABLE[index - 1];
+			}
+
+			int dynamic = index - STATIC_TABLE.length - 1;
+			if (index <= 0 || dynamic >= entries.size()) {
+				throw new IOException("Invalid HPACK index " + index);
+			}
+			return entries.get(dynamic);
+		}
+
+		/** Returns a positive index of a header, a negative index of its name or zero. */
+		int find(final String name, final String value) {
+			int nameIndex = 0;
+			for (int i = 0; i < STATIC_TABLE.length; i++) {
+				String[] entry = STATIC_TABLE[i];
+				if (!entry[0].equals(name)) {
+					continue;
+				}
+				if (entry[1].equals(value)) {
+					return i + 1;
+				}
+				if (nameIndex == 0) {
+					nameIndex = i + 1;
+				}
+			}
+
+			int i = STATIC_TABLE.length + 1;
+			for (String[] entry : entries) {
+				if (entry[0].equals(name)) {
+					if (entry[1].equals(value)) {
+						return i;
+					}
+					if (nameIndex == 0) {
+						nameIndex = i;
+					}
+				}
+				i++;
+			}
+
+			return -nameIndex;
+		}
+
+		void add(final String name, final String value) {
+			int entrySize = entrySize(name, value);
+			if (entrySize > maxSize) {
+				entries.clear();
+				size = 0;
+				return;
+			}
+
+			entries.addFirst(new String[]{name, value});
+			size += entrySize;
+			evict();
+		}
+
+		void setMaxSize(final int maxSize) {
+			this.maxSize = maxSize;
+			evict();
+		}
+
+		private void evict() {
+			while (size > maxSize) {
+				String[] entry = entries.removeLast();
+				size -= entrySize(entry[0], entry[1]);
+			}
+		}
+
+		private static int entrySize(final String name, final String value) {
+			return name.length() + value.length() + ENTRY_OVERHEAD;
+		}
+	}
+
+	static void writeInt(final ByteArrayOutputStream out, final int mask, final int prefix,
+			final int value) {
+		int max = (1 << prefix) - 1;
+		if (value < max) {
+			out.write(mask | value);
+			return;
+		}
+
+		out.write(mask | max);
+		int rest = value - max;
+		while (rest >= 0x80) {
+			out.write((rest & 0x7f) | 0x80);
+			rest >>>= 7;
+		}
+		out.write(rest);
+	}
+
+	static int readInt(final byte[] block, final int[] pos, final int prefix)
+			throws IOException {
+		int max = (1 << prefix) - 1;
+		int value = block[pos[0]++] & max;
+		if (value < max) {
+			return value;
+		}
+
+		for (int shift = 0; shift < 28; shift += 7) {
+			if (pos[0] >= block.length) {
+				throw new IOException("Truncated HPACK integer");
+			}
+
+			int b = block[pos[0]++] & 0xff;
+			value += (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("HPACK integer overflow");
+	}
+
+	static byte[] huffmanEncode(final byte[] bytes) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length);
+		long bits = 0;
+		int count = 0;
+
+		for (byte b : bytes) {
+			int sym = b & 0xff;
+			bits = (bits << HUFFMAN_LENGTHS[sym]) | HUFFMAN_CODES[sym];
+			count += HUFFMAN_LENGTHS[sym];
+			while (count >= 8) {
+				count -= 8;
+				out.write((int) (bits >>> count));
+			}
+		}
+
+		if (count > 0) {
+			// Pad with the most significant bits of EOS, they are all ones.
+			bits = (bits << (8 - count)) | (0xff >>> count);
+			out.write((int) bits);
+		}
+		return out.toByteArray();
+	}
+
+	static byte[] huffmanDecode(final byte[] block, final int offset, final int length)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(length * 2);
+		int node = 0;
+		int depth = 0;
+		boolean padding = true;
+
+		for (int i = offset; i < offset + length; i++) {
+			int b = block[i] & 0xff;
+			for (int bit = 7; bit >= 0; bit--) {
+				int one = (b >>> bit) & 1;
+				padding &= one == 1;
+				node = HUFFMAN_TREE[node * 2 + one];
+				depth++;
+
+				if (node == 0) {
+					throw new IOException("Invalid HPACK huffman code");
+				} else if (node < 0) {
+					int sym = -node - 1;
+					if (sym == 256) {
+						throw new IOException("HPACK huffman string contains EOS");
+					}
+					out.write(sym);
+					node = 0;
+					depth = 0;
+					padding = true;
+				}
+			}
+		}
+
+		if (depth > 7 || !padding) {
+			throw new IOException("Invalid HPACK huffman padding");
+		}
+		return out.toByteArray();
+	}
+
+	private static final int[] HUFFMAN_CODES = {
+			0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+			0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+			0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+			0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+			0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+			0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+			0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+			0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+			0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+			0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+			0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+			0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+			0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+			0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+			0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+			0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+			0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+			0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+			0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+			0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+			0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+			0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+			0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+			0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+			0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+			0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+			0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+			0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+			0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+			0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+			0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+			0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee,
+			0x3fffffff
+	};
+
+	private static final byte[] HUFFMAN_LENGTHS = {
+			13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28, 28, 28, 28, 28,
+			28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28, 6, 10, 10, 12, 13, 6, 8, 11,
+			10, 10, 8, 11, 8, 6, 6, 6, 5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8,
+			15, 6, 12, 10, 13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+			7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6, 15, 5, 6, 5,
+			6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5, 6, 7, 6, 5, 5, 6, 7, 7,
+			7, 7, 7, 15, 11, 14, 13, 28, 20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23,
+			23, 23, 24, 23, 24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+			22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23, 21, 21, 22, 21,
+			23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23, 26, 26, 20, 19, 22, 23, 22, 25,
+			26, 26, 26, 27, 27, 26, 24, 25, 19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26,
+			28, 27, 27, 27, 20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+			26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26, 30
+	};
+
+	/**
+	 * A binary tree of huffman codes, each node has two children, zeros are absent nodes
+	 * and negative values are leaves with -(symbol + 1).
+	 */
+	private static final int[] HUFFMAN_TREE = buildHuffmanTree();
+
+	private static int[] buildHuffmanTree() {
+		int[] tree = new int[256 * 2 * 2];
+		int next = 1;
+
+		for (int sym = 0; sym < HUFFMAN_CODES.length; sym++) {
+			int code = HUFFMAN_CODES[sym];
+			int length = HUFFMAN_LENGTHS[sym];
+			int node = 0;
+
+			for (int bit = length - 1; bit > 0; bit--) {
+				int child = node * 2 + ((code >>> bit) & 1);
+				if (tree[child] == 0) {
+					tree[child] = next++;
+				}
+				node = tree[child];
+			}
+			tree[node * 2 + (code & 1)] = -(sym + 1);
+		}
+		return tree;
+	}
+
+	private static final String[][] STATIC_TABLE = {
+			{":authority", ""},
+			{":method", "GET"},
+			{":method", "POST"},
+			{":path", "/"},
+			{":path", "/index.html"},
+			{":scheme", "http"},
+			{":scheme", "https"},
+			{":status", "200"},
+			{":status", "204"},
+			{":status", "206"},
+			{":status", "304"},
+			{":status", "400"},
+			{":status", "404"},
+			{":status", "500"},
+			{"accept-charset", ""},
+			{"accept-encoding", "gzip, deflate"},
+			{"accept-language", ""},
+			{"accept-ranges", ""},
+			{"accept", ""},
+			{"access-control-allow-origin", ""},
+			{"age", ""},
+			{"allow", ""},
+			{"authorization", ""},
+			{"cache-control", ""},
+			{"content-disposition", ""},
+			{"content-encoding", ""},
+			{"content-language", ""},
+			{"content-length", ""},
+			{"content-location", ""},
+			{"content-range", ""},
+			{"content-type", ""},
+			{"cookie", ""},
+			{"date", ""},
+			{"etag", ""},
+			{"expect", ""},
+			{"expires", ""},
+			{"from", ""},
+			{"host", ""},
+			{"if-match", ""},
+			{"if-modified-since", ""},
+			{"if-none-match", ""},
+			{"if-range", ""},
+			{"if-unmodified-since", ""},
+			{"last-modified", ""},
+			{"link", ""},
+			{"location", ""},
+			{"max-forwards", ""},
+			{"proxy-authenticate", ""},
+			{"proxy-authorization", ""},
+			{"range", ""},
+			{"referer", ""},
+			{"refresh", ""},
+			{"retry-after", ""},
+			{"server", ""},
+			{"set-cookie", ""},
+			{"strict-transport-security", ""},
+			{"transfer-encoding", ""},
+			{"user-agent", ""},
+			{"vary", ""},
+			{"via", ""},
+			{"www-authenticate", ""}
+	};
+}
@@ -0,0 +1,647 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Client HTTP/2 connection with prior knowledge (h2c), it multiplexes concurrent requests
+ * as streams over one socket. Frames are read by a daemon thread, writes are serialized
+ * by a write lock which also guards stream ids and flow control windows.
+ */
+class Http2Connection {
+	private static final Logger logger = Logger.getLogger(Http2Connection.class.getName());
+
+	static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n"
+			.getBytes(Charset.forName("US-ASCII"));
+
+	static final int DATA = 0x0;
+	static final int HEADERS = 0x1;
+	static final int PRIORITY = 0x2;
+	static final int RST_STREAM = 0x3;
+	static final int SETTINGS = 0x4;
+	static final int PUSH_PROMISE = 0x5;
+	static final int PING = 0x6;
+	static final int GOAWAY = 0x7;
+	static final int WINDOW_UPDATE = 0x8;
+	static final int CONTINUATION = 0x9;
+
+	static final int FLAG_END_STREAM = 0x1;
+	static final int FLAG_ACK = 0x1;
+	static final int FLAG_END_HEADERS = 0x4;
+	static final int FLAG_PADDED = 0x8;
+	static final int FLAG_PRIORITY = 0x20;
+
+	static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+	static final int SETTINGS_ENABLE_PUSH = 0x2;
+	static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+	static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+	static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+	static final int NO_ERROR = 0x0;
+	static final int PROTOCOL_ERROR = 0x1;
+	static final int CANCEL = 0x8;
+
+	static final int DEFAULT_WINDOW = 65535;
+	static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+	static final int MAX_FRAME_SIZE = (1 << 24) - 1;
+
+	/** Receive window of streams and the connection. */
+	static final int LOCAL_WINDOW = 16 * 1024 * 1024;
+	private static final int MAX_STREAM_ID = Integer.MAX_VALUE;
+
+	private final Socket socket;
+	private final DataInputStream in;
+	private final OutputStream out;
+	private final Object writeLock = new Object();
+	private final Map<Integer, Http2Stream> streams =
+			new ConcurrentHashMap<Integer, Http2Stream>();
+	private final AtomicInteger reservedStreams = new AtomicInteger();
+	private final Hpack.Encoder encoder = new Hpack.Encoder();
+	private final Hpack.Decoder decoder = new Hpack.Decoder();
+	private final Thread reader;
+
+	// Guarded by the write lock.
+	private int nextStreamId = 1;
+	private int sendWindow = DEFAULT_WINDOW;
+	private int peerInitialWindow = DEFAULT_WINDOW;
+	private int peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+	private int peerMaxStreams = Integer.MAX_VALUE;
+	private int unackedBytes;
+
+	private volatile boolean goingAway;
+	private volatile IOException failure;
+
+	Http2Connection(final Socket socket) throws IOException {
+		if (socket == null) throw new NullPointerException("socket");
+		this.socket = socket;
+		this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		this.out = new BufferedOutputStream(socket.getOutputStream());
+
+		synchronized (writeLock) {
+			out.write(PREFACE);
+			writeSettings(out, new int[]{
+					SETTINGS_ENABLE_PUSH, 0,
+					SETTINGS_INITIAL_WINDOW_SIZE, LOCAL_WINDOW});
+			writeWindowUpdate(out, 0, LOCAL_WINDOW - DEFAULT_WINDOW);
+			out.flush();
+		}
+
+		reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				readFrames();
+			}
+		}, "pdef-http2-" + socket.getRemoteSocketAddress());
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/** Returns true when the connection can open new streams. */
+	public boolean isAvailable() {
+		return failure == null && !goingAway && nextStreamId < MAX_STREAM_ID;
+	}
+
+	/** Returns the number of open and reserved streams. */
+	public int getActiveStreams() {
+		return streams.size() + reservedStreams.get();
+	}
+
+	/** Reserves a stream before sending, so that concurrent callers see it as active. */
+	void reserveStream() {
+		reservedStreams.incrementAndGet();
+	}
+
+	/** Releases a reserved stream after it has been sent or has failed. */
+	void releaseStream() {
+		reservedStreams.decrementAndGet();
+	}
+
+	/**
+	 * Sends request headers and an optional body in a new stream, waits while the server
+	 * maximum concurrent streams limit is reached.
+	 */
+	public Http2Stream send(final List<String[]> headers, final byte[] body)
+			throws IOException {
+		boolean hasBody = body != null && body.length > 0;
+		Http2Stream stream;
+
+		synchronized (writeLock) {
+			while (failure == null && !goingAway && streams.size() >= peerMaxStreams) {
+				awaitWriteLock();
+			}
+			if (!isAvailable()) {
+				throw failure != null ? failure : new IOException("Connection is closed");
+			}
+
+			int id = nextStreamId;
+			nextStreamId += 2;
+			stream = new Http2Stream(this, id, peerInitialWindow);
+			streams.put(id, stream);
+
+			byte[] block = encoder.encode(headers);
+			int flags = hasBody ? 0 : FLAG_END_STREAM;
+			writeHeaderBlock(id, flags, block);
+			if (!hasBody) {
+				out.flush();
+			}
+		}
+
+		if (hasBody) {
+			writeBody(stream, body);
+		}
+		return stream;
+	}
+
+	/** Sends RST_STREAM CANCEL and removes a stream. */
+	public void reset(final Http2Stream stream) {
+		if (streams.remove(stream.getId()) == null) {
+			return;
+		}
+
+		stream.onError(new IOException("Stream " + stream.getId() + " is cancelled"));
+		try {
+			synchronized (writeLock) {
+				writeFrame(out, RST_STREAM, 0, stream.getId(), int32(CANCEL));
+				out.flush();
+				writeLock.notifyAll();
+			}
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/** Closes the connection and fails all open streams. */
+	public void close() {
+		if (failure == null) {
+			try {
+				synchronized (writeLock) {
+					writeGoAway(NO_ERROR);
+				}
+			} catch (IOException e) {
+				logger.log(Level.FINE, "Failed to send GOAWAY", e);
+			}
+		}
+		fail(new IOException("Connection is closed"));
+	}
+
+	/** Sends a stream window update when a half of its window has been consumed. */
+	void consumed(final Http2Stream stream, final int bytes) {
+		try {
+			synchronized (writeLock) {
+				stream.unackedBytes += bytes;
+				if (stream.unackedBytes < LOCAL_WINDOW / 2 || stream.isClosed()) {
+					return;
+				}
+
+				writeWindowUpdate(out, stream.getId(), stream.unackedBytes);
+				out.flush();
+				stream.unackedBytes = 0;
+			}
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	private void writeHeaderBlock(final int id, final int flags, final byte[] block)
+			throws IOException {
+		int length = Math.min(block.length, peerMaxFrameSize);
+		boolean last = length == block.length;
+		writeFrame(out, HEADERS, flags | (last ? FLAG_END_HEADERS : 0), id, block, 0, length);
+
+		int offset = length;
+		while (offset < block.length) {
+			length = Math.min(block.length - offset, peerMaxFrameSize);
+			last = offset + length == block.length;
+			writeFrame(out, CONTINUATION, last ? FLAG_END_HEADERS : 0, id, block, offset,
+					length);
+			offset += length;
+		}
+	}
+
+	private void writeBody(final Http2Stream stream, final byte[] body) throws IOException {
+		int offset = 0;
+		synchronized (writeLock) {
+			while (offset < body.length) {
+				while (failure == null && streams.containsKey(stream.getId())
+						&& (sendWindow <= 0 || stream.sendWindow <= 0)) {
+					out.flush();
+					awaitWriteLock();
+				}
+				if (failure != null) {
+					throw failure;
+				}
+				if (!streams.containsKey(stream.getId())) {
+					// The stream has been reset or completed by the server.
+					return;
+				}
+
+				int length = Math.min(body.length - offset, peerMaxFrameSize);
+				length = Math.min(length, Math.min(sendWindow, stream.sendWindow));
+				boolean last = offset + length == body.length;
+
+				writeFrame(out, DATA, last ? FLAG_END_STREAM : 0, stream.getId(), body, offset,
+						length);
+				sendWindow -= length;
+				stream.sendWindow -= length;
+				offset += length;
+			}
+			out.flush();
+		}
+	}
+
+	private void awaitWriteLock() throws IOException {
+		try {
+			writeLock.wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	// Reader.
+
+	private void readFrames() {
+		try {
+			// The server preface is a SETTINGS frame.
+			Frame first = readFrame(in, MAX_FRAME_SIZE);
+			if (first.type != SETTINGS) {
+				throw new IOException("Expected a SETTINGS frame, got " + first.type);
+			}
+
+			handleFrame(first);
+			while (true) {
+				handleFrame(readFrame(in, MAX_FRAME_SIZE));
+			}
+		} catch (IOException e) {
+			fail(e);
+		} catch (RuntimeException e) {
+			fail(new IOException(e));
+		}
+	}
+
+	private void handleFrame(final Frame frame) throws IOException {
+		switch (frame.type) {
+			case DATA:
+				onData(frame);
+				break;
+			case HEADERS:
+				onHeaders(frame);
+				break;
+			case RST_STREAM:
+				onReset(frame);
+				break;
+			case SETTINGS:
+				onSettings(frame);
+				break;
+			case PUSH_PROMISE:
+				protocolError("Received PUSH_PROMISE when push is disabled");
+				break;
+			case PING:
+				onPing(frame);
+				break;
+			case GOAWAY:
+				onGoAway(frame);
+				break;
+			case WINDOW_UPDATE:
+				onWindowUpdate(frame);
+				break;
+			case CONTINUATION:
+				protocolError("Unexpected CONTINUATION frame");
+				break;
+			default:
+				// PRIORITY and unknown frames are ignored.
+		}
+	}
+
+	private void onData(final Frame frame) throws IOException {
+		int length = frame.payload.length;
+		byte[] data = unpad(frame);
+
+		synchronized (writeLock) {
+			// Padding counts towards flow control, so it is consumed at once.
+			unackedBytes += length;
+			if (unackedBytes >= LOCAL_WINDOW / 2) {
+				writeWindowUpdate(out, 0, unackedBytes);
+				out.flush();
+				unackedBytes = 0;
+			}
+		}
+
+		Http2Stream stream = streams.get(frame.streamId);
+		if (stream == null) {
+			return;
+		}
+
+		boolean end = (frame.flags & FLAG_END_STREAM) != 0;
+		if (end) {
+			streamClosed(stream);
+		} else if (length > data.length) {
+			consumed(stream, length - data.length);
+		}
+		stream.onData(data, end);
+	}
+
+	private void onHeaders(final Frame frame) throws IOException {
+		byte[] block = unpad(frame);
+		int offset = 0;
+		if ((frame.flags & FLAG_PRIORITY) != 0) {
+			offset = 5;
+		}
+
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		buffer.write(block, offset, block.length - offset);
+
+		int flags = frame.flags;
+		while ((flags & FLAG_END_HEADERS) == 0) {
+			Frame next = readFrame(in, MAX_FRAME_SIZE);
+			if (next.type != CONTINUATION || next.streamId != frame.streamId) {
+				protocolError("Expected a CONTINUATION frame");
+			}
+			buffer.write(next.payload);
+			flags = next.flags;
+		}
+
+		// Always decode headers to keep the HPACK table in sync.
+		List<String[]> headers = decoder.decode(buffer.toByteArray());
+		Http2Stream stream = streams.get(frame.streamId);
+		if (stream == null) {
+			return;
+		}
+
+		boolean end = (frame.flags & FLAG_END_STREAM) != 0;
+		if (end) {
+			streamClosed(stream);
+		}
+		stream.onHeaders(headers, end);
+	}
+
+	private void onReset(final Frame frame) throws IOException {
+		int code = readInt32(frame.payload, 0);
+		Http2Stream stream = streams.remove(frame.streamId);
+		if (stream != null) {
+			stream.onError(new IOException("Stream " + frame.streamId + " is reset, code "
+					+ code));
+			synchronized (writeLock) {
+				writeLock.notifyAll();
+			}
+		}
+	}
+
+	private void onSettings(final Frame frame) throws IOException {
+		if ((frame.flags & FLAG_ACK) != 0) {
+			return;
+		}
+
+		synchronized (writeLock) {
+			byte[] p = frame.payload;
+			for (int i = 0; i + 6 <= p.length; i += 6) {
+				int id = ((p[i] & 0xff) << 8) | (p[i + 1] & 0xff);
+				int value = readInt32(p, i + 2);
+
+				switch (id) {
+					case SETTINGS_MAX_CONCURRENT_STREAMS:
+						peerMaxStreams = value;
+						break;
+					case SETTINGS_INITIAL_WINDOW_SIZE:
+						int delta = value - peerInitialWindow;
+						peerInitialWindow = value;
+						for (Http2Stream stream : streams.values()) {
+							stream.sendWindow += delta;
+						}
+						break;
+					case SETTINGS_MAX_FRAME_SIZE:
+						peerMaxFrameSize = value;
+						break;
+					default:
+						// The encoder does not use the dynamic table, push is disabled.
+				}
+			}
+
+			writeFrame(out, SETTINGS, FLAG_ACK, 0, new byte[0]);
+			out.flush();
+			writeLock.notifyAll();
+		}
+	}
+
+	private void onPing(final Frame frame) throws IOException {
+		if ((frame.flags & FLAG_ACK) != 0) {
+			return;
+		}
+
+		synchronized (writeLock) {
+			writeFrame(out, PING, FLAG_ACK, 0, frame.payload);
+			out.flush();
+		}
+	}
+
+	private void onGoAway(final Frame frame) {
+		int lastStreamId = readInt32(frame.payload, 0) & MAX_STREAM_ID;
+		goingAway = true;
+
+		for (Http2Stream stream : streams.values()) {
+			if (stream.getId() > lastStreamId) {
+				streams.remove(stream.getId());
+				stream.onError(new IOException("Stream " + stream.getId()
+						+ " is refused by GOAWAY"));
+			}
+		}
+
+		synchronized (writeLock) {
+			writeLock.notifyAll();
+		}
+	}
+
+	private void onWindowUpdate(final Frame frame) throws IOException {
+		int increment = readInt32(frame.payload, 0) & MAX_STREAM_ID;
+		synchronized (writeLock) {
+			if (frame.streamId == 0) {
+				sendWindow += increment;
+			} else {
+				Http2Stream stream = streams.get(frame.streamId);
+				if (stream != null) {
+					stream.sendWindow += increment;
+				}
+			}
+			writeLock.notifyAll();
+		}
+	}
+
+	private void streamClosed(final Http2Stream stream) {
+		streams.remove(stream.getId());
+		synchronized (writeLock) {
+			writeLock.notifyAll();
+		}
+	}
+
+	private void protocolError(final String message) throws IOException {
+		synchronized (writeLock) {
+			writeGoAway(PROTOCOL_ERROR);
+		}
+		throw new IOException(message);
+	}
+
+	private void writeGoAway(final int code) throws IOException {
+		int lastStreamId = 0;
+		byte[] payload = new byte[8];
+		System.arraycopy(int32(lastStreamId), 0, payload, 0, 4);
+		System.arraycopy(int32(code), 0, payload, 4, 4);
+		writeFrame(out, GOAWAY, 0, 0, payload);
+		out.flush();
+	}
+
+	private void fail(final IOException e) {
+		synchronized (writeLock) {
+			if (failure != null) {
+				return;
+			}
+			failure = e;
+			writeLock.notifyAll();
+		}
+
+		try {
+			socket.close();
+		} catch (IOException e1) {
+			logger.log(Level.FINE, "Failed to close a socket", e1);
+		}
+
+		for (Http2Stream stream : new ArrayList<Http2Stream>(streams.values())) {
+			stream.onError(e);
+		}
+		streams.clear();
+	}
+
+	// Frames.
+
+	/** HTTP/2 frame, it is also used by test servers. */
+	static class Frame {
+		final int type;
+		final int flags;
+		final int streamId;
+		final byte[] payload;
+
+		Frame(final int type, final int flags, final int streamId, final byte[] payload) {
+			this.type = type;
+			this.flags = flags;
+			this.streamId = streamId;
+			this.payload = payload;
+		}
+	}
+
+	static Frame readFrame(final DataInputStream in, final int maxFrameSize)
+			throws IOException {
+		int b0 = in.read();
+		if (b0 == -1) {
+			throw new EOFException("Connection is closed by the peer");
+		}
+
+		int length = (b0 << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+		if (length > maxFrameSize) {
+			throw new IOException("Frame size exceeds the limit, " + length);
+		}
+
+		int type = in.readUnsignedByte();
+		int flags = in.readUnsignedByte();
+		int streamId = in.readInt() & MAX_STREAM_ID;
+		byte[] payload = new byte[length];
+		in.readFully(payload);
+		return new Frame(type, flags, streamId, payload);
+	}
+
+	static void writeFrame(final OutputStream out, final int type, final int flags,
+			final int streamId, final byte[] payload) throws IOException {
+		writeFrame(out, type, flags, streamId, payload, 0, payload.length);
+	}
+
+	static void writeFrame(final OutputStream out, final int type, final int flags,
+			final int streamId, final byte[] payload, final int offset, final int length)
+			throws IOException {
+		out.write(length >>> 16);
+		out.write(length >>> 8);
+		out.write(length);
+		out.write(type);
+		out.write(flags);
+		out.write(int32(streamId));
+		out.write(payload, offset, length);
+	}
+
+	static void writeSettings(final OutputStream out, final int[] settings)
+			throws IOException {
+		byte[] payload = new byte[settings.length * 3];
+		for (int i = 0; i < settings.length; i += 2) {
+			int j = i * 3;
+			payload[j] = (byte) (settings[i] >>> 8);
+			payload[j + 1] = (byte) settings[i];
+			System.arraycopy(int32(settings[i + 1]), 0, payload, j + 2, 4);
+		}
+		writeFrame(out, SETTINGS, 0, 0, payload);
+	}
+
+	static void writeWindowUpdate(final OutputStream out, final int streamId,
+			final int increment) throws IOException {
+		writeFrame(out, WINDOW_UPDATE, 0, streamId, int32(increment));
+	}
+
+	/** Returns a frame payload without padding and priority fields. */
+	static byte[] unpad(final Frame frame) throws IOException {
+		if ((frame.flags & FLAG_PADDED) == 0) {
+			return frame.payload;
+		}
+
+		byte[] payload = frame.payload;
+		if (payload.length == 0) {
+			throw new IOException("Invalid padded frame");
+		}
+
+		int padding = payload[0] & 0xff;
+		int length = payload.length - 1 - padding;
+		if (length < 0) {
+			throw new IOException("Invalid frame padding");
+		}
+
+		byte[] result = new byte[length];
+		System.arraycopy(payload, 1, result, 0, length);
+		return result;
+	}
+
+	static byte[] int32(final int value) {
+		return new byte[]{
+				(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8),
+				(byte) value};
+	}
+
+	static int readInt32(final byte[] bytes, final int offset) {
+		return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16)
+				| ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+	}
+}
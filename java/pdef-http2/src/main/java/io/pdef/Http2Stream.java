@@ -0,0 +1,215 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/** Client HTTP/2 stream, it receives response headers and data from a connection reader. */
+class Http2Stream {
+	private static final Object END = new Object();
+
+	private final Http2Connection connection;
+	private final int id;
+	private final CountDownLatch headersLatch = new CountDownLatch(1);
+	private final BlockingQueue<Object> data = new LinkedBlockingQueue<Object>();
+	private final Body body = new Body();
+
+	private volatile List<String[]> headers;
+	private volatile IOException error;
+	private volatile boolean remoteClosed;
+	private volatile int readTimeout;
+
+	// Guarded by the connection write lock.
+	int sendWindow;
+	int unackedBytes;
+
+	Http2Stream(final Http2Connection connection, final int id, final int sendWindow) {
+		this.connection = connection;
+		this.id = id;
+		this.sendWindow = sendWindow;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	/** Returns true when the stream has been fully received, reset or failed. */
+	public boolean isClosed() {
+		return remoteClosed || error != null;
+	}
+
+	/** Sets a timeout in milliseconds to wait for headers and data, zero means no timeout. */
+	public void setReadTimeout(final int readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+
+	/** Waits for the final response headers and returns them. */
+	public List<String[]> awaitHeaders() throws IOException {
+		try {
+			if (readTimeout > 0) {
+				if (!headersLatch.await(readTimeout, TimeUnit.MILLISECONDS)) {
+					throw new SocketTimeoutException("Read timed out");
+				}
+			} else {
+				headersLatch.await();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted");
+		}
+
+		if (headers == null) {
+			throw error != null ? error : new IOException("Stream closed without headers");
+		}
+		return headers;
+	}
+
+	/** Returns the response body stream. */
+	public InputStream getBody() {
+		return body;
+	}
+
+	/** Cancels the stream if it has not been completely received. */
+	public void cancel() {
+		if (!isClosed()) {
+			connection.reset(this);
+		}
+	}
+
+	// Connection reader callbacks.
+
+	void onHeaders(final List<String[]> headers, final boolean endStream) {
+		if (this.headers == null) {
+			String status = Http2URLConnection.findHeader(headers, ":status");
+			if (status != null && status.startsWith("1")) {
+				// Skip informational responses.
+				return;
+			}
+
+			this.headers = headers;
+			headersLatch.countDown();
+		}
+
+		// Trailers are ignored.
+		if (endStream) {
+			onEnd();
+		}
+	}
+
+	void onData(final byte[] bytes, final boolean endStream) {
+		if (bytes.length > 0) {
+			data.add(bytes);
+		}
+		if (endStream) {
+			onEnd();
+		}
+	}
+
+	void onError(final IOException e) {
+		if (remoteClosed || error != null) {
+			return;
+		}
+
+		error = e;
+		data.add(END);
+		headersLatch.countDown();
+	}
+
+	private void onEnd() {
+		remoteClosed = true;
+		data.add(END);
+		headersLatch.countDown();
+	}
+
+	private class Body extends InputStream {
+		private byte[] chunk;
+		private int pos;
+		private boolean eof;
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int n = read(b, 0, 1);
+			return n == -1 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+
+			if (chunk == null || pos == chunk.length) {
+				if (!nextChunk()) {
+					return -1;
+				}
+			}
+
+			int n = Math.min(len, chunk.length - pos);
+			System.arraycopy(chunk, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return chunk == null ? 0 : chunk.length - pos;
+		}
+
+		@Override
+		public void close() throws IOException {
+			cancel();
+		}
+
+		private boolean nextChunk() throws IOException {
+			if (eof) {
+				return false;
+			}
+
+			Object next;
+			try {
+				int timeout = readTimeout;
+				next = timeout > 0 ? data.poll(timeout, TimeUnit.MILLISECONDS) : data.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted");
+			}
+
+			if (next == null) {
+				throw new SocketTimeoutException("Read timed out");
+			} else if (next == END) {
+				eof = true;
+				if (error != null) {
+					throw error;
+				}
+				return false;
+			}
+
+			chunk = (byte[]) next;
+			pos = 0;
+			connection.consumed(Http2Stream.this, chunk.length);
+			return true;
+		}
+	}
+}
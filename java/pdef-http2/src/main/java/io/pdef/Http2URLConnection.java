@@ -0,0 +1,305 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * HttpURLConnection facade over an HTTP/2 stream. The request body is buffered and sent
+ * with the headers when the response is requested, so the facade supports the usual
+ * connect, write, read sequence and passes unchanged to client sessions.
+ */
+class Http2URLConnection extends HttpURLConnection {
+	/** Connection-specific headers are not allowed in HTTP/2. */
+	private static final Set<String> EXCLUDED_HEADERS = new HashSet<String>(Arrays.asList(
+			"connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade",
+			"host"));
+
+	private final PdefHttp2ConnectionFactory factory;
+	private ByteArrayOutputStream body;
+	private Map<String, List<String>> requestHeaders;
+	private Http2Stream stream;
+	private List<String[]> responseHeaders;
+	private IOException failure;
+
+	Http2URLConnection(final URL url, final PdefHttp2ConnectionFactory factory) {
+		super(url);
+		if (factory == null) throw new NullPointerException("factory");
+		this.factory = factory;
+	}
+
+	@Override
+	public void connect() throws IOException {
+		if (connected) {
+			return;
+		}
+
+		// Request properties are not accessible after connecting.
+		requestHeaders = getRequestProperties();
+		connected = true;
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		if (!doOutput) {
+			throw new ProtocolException("The connection does not support output");
+		}
+		if (stream != null) {
+			throw new ProtocolException("Cannot write output after reading input");
+		}
+		if ("GET".equals(method)) {
+			method = "POST";
+		}
+
+		connect();
+		if (body == null) {
+			body = new ByteArrayOutputStream();
+		}
+		return body;
+	}
+
+	@Override
+	public void setChunkedStreamingMode(final int chunklen) {
+		// HTTP/2 streams are always framed.
+	}
+
+	@Override
+	public void setFixedLengthStreamingMode(final int contentLength) {
+		// HTTP/2 streams are always framed.
+	}
+
+	@Override
+	public int getResponseCode() throws IOException {
+		exchange();
+		return responseCode();
+	}
+
+	@Override
+	public String getResponseMessage() throws IOException {
+		// HTTP/2 has no reason phrases.
+		getResponseCode();
+		return null;
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		if (!doInput) {
+			throw new ProtocolException("The connection does not support input");
+		}
+
+		int status = getResponseCode();
+		if (status >= HTTP_BAD_REQUEST) {
+			throw new IOException("Server returned HTTP response code: " + status
+					+ " for URL: " + url);
+		}
+		return stream.getBody();
+	}
+
+	@Override
+	public InputStream getErrorStream() {
+		if (stream == null || responseHeaders == null) {
+			return null;
+		}
+		return responseCode() >= HTTP_BAD_REQUEST ? stream.getBody() : null;
+	}
+
+	@Override
+	public String getHeaderField(final String name) {
+		if (name == null || !tryExchange()) {
+			return null;
+		}
+
+		String value = null;
+		String lowercase = name.toLowerCase(Locale.ENGLISH);
+		for (String[] header : responseHeaders) {
+			if (header[0].equals(lowercase)) {
+				// The last value wins as in HttpURLConnection.
+				value = header[1];
+			}
+		}
+		return value;
+	}
+
+	@Override
+	public String getHeaderFieldKey(final int n) {
+		if (!tryExchange()) {
+			return null;
+		}
+
+		List<String[]> fields = regularHeaders();
+		return n > 0 && n <= fields.size() ? fields.get(n - 1)[0] : null;
+	}
+
+	@Override
+	public String getHeaderField(final int n) {
+		if (!tryExchange()) {
+			return null;
+		}
+		if (n == 0) {
+			return "HTTP/2 " + responseCode();
+		}
+
+		List<String[]> fields = regularHeaders();
+		return n > 0 && n <= fields.size() ? fields.get(n - 1)[1] : null;
+	}
+
+	@Override
+	public Map<String, List<String>> getHeaderFields() {
+		if (!tryExchange()) {
+			return Collections.emptyMap();
+		}
+
+		Map<String, List<String>> map = new LinkedHashMap<String, List<String>>();
+		for (String[] header : regularHeaders()) {
+			List<String> values = map.get(header[0]);
+			if (values == null) {
+				values = new ArrayList<String>();
+				map.put(header[0], values);
+			}
+			values.add(header[1]);
+		}
+		return Collections.unmodifiableMap(map);
+	}
+
+	@Override
+	public void disconnect() {
+		if (stream != null) {
+			stream.cancel();
+		}
+	}
+
+	@Override
+	public boolean usingProxy() {
+		return false;
+	}
+
+	/** Sends the request once and waits for the response headers. */
+	private void exchange() throws IOException {
+		if (failure != null) {
+			throw failure;
+		}
+		if (responseHeaders != null) {
+			return;
+		}
+
+		try {
+			connect();
+			if (stream == null) {
+				Http2Connection connection = factory.acquire(url, getConnectTimeout());
+				try {
+					byte[] data = body == null ? null : body.toByteArray();
+					stream = connection.send(requestHeaders(data), data);
+				} finally {
+					connection.releaseStream();
+				}
+				stream.setReadTimeout(getReadTimeout());
+			}
+			responseHeaders = stream.awaitHeaders();
+		} catch (IOException e) {
+			failure = e;
+			throw e;
+		}
+	}
+
+	private boolean tryExchange() {
+		try {
+			exchange();
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private List<String[]> requestHeaders(@Nullable final byte[] data) {
+		String path = url.getFile();
+		int port = url.getPort();
+
+		List<String[]> headers = new ArrayList<String[]>();
+		headers.add(new String[]{":method", method});
+		headers.add(new String[]{":scheme", url.getProtocol()});
+		headers.add(new String[]{":authority", port == -1 ? url.getHost()
+				: url.getHost() + ":" + port});
+		headers.add(new String[]{":path", path.isEmpty() ? "/" : path});
+
+		boolean hasLength = false;
+		for (Map.Entry<String, List<String>> entry : requestHeaders.entrySet()) {
+			if (entry.getKey() == null) {
+				continue;
+			}
+
+			String name = entry.getKey().toLowerCase(Locale.ENGLISH);
+			if (EXCLUDED_HEADERS.contains(name)) {
+				continue;
+			}
+
+			hasLength |= name.equals("content-length");
+			for (String value : entry.getValue()) {
+				headers.add(new String[]{name, value});
+			}
+		}
+
+		if (data != null && !hasLength) {
+			headers.add(new String[]{"content-length", String.valueOf(data.length)});
+		}
+		return headers;
+	}
+
+	private List<String[]> regularHeaders() {
+		List<String[]> result = new ArrayList<String[]>(responseHeaders.size());
+		for (String[] header : responseHeaders) {
+			if (!header[0].startsWith(":")) {
+				result.add(header);
+			}
+		}
+		return result;
+	}
+
+	private int responseCode() {
+		String status = findHeader(responseHeaders, ":status");
+		try {
+			return status == null ? -1 : Integer.parseInt(status);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	@Nullable
+	static String findHeader(final List<String[]> headers, final String name) {
+		for (String[] header : headers) {
+			if (header[0].equals(name)) {
+				return header[1];
+			}
+		}
+		return null;
+	}
+}
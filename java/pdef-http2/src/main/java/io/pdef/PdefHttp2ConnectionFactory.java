@@ -0,0 +1,174 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HTTP/2 connection factory, it multiplexes concurrent client requests over a few pooled
+ * cleartext connections per host (h2c with prior knowledge, the server must support it).
+ *
+ * <pre>
+ * PdefHttp2ConnectionFactory http2 = new PdefHttp2ConnectionFactory();
+ * PdefClient&lt;Blog&gt; client = new PdefClient&lt;Blog&gt;(Blog.class, url)
+ *         .setConnectionFactory(http2);
+ * </pre>
+ *
+ * Share one factory between clients and close it on shutdown.
+ */
+public class PdefHttp2ConnectionFactory implements PdefConnectionFactory, Closeable {
+	public static final int DEFAULT_MAX_CONNECTIONS = 2;
+	public static final int DEFAULT_MAX_STREAMS = 100;
+
+	private final int maxConnections;
+	private final int maxStreams;
+	private final Map<String, List<Http2Connection>> pools =
+			new HashMap<String, List<Http2Connection>>();
+	private boolean closed;
+
+	public PdefHttp2ConnectionFactory() {
+		this(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_STREAMS);
+	}
+
+	/**
+	 * Creates a factory.
+	 *
+	 * @param maxConnections Max connections per host.
+	 * @param maxStreams     Concurrent streams per connection before opening another one.
+	 */
+	public PdefHttp2ConnectionFactory(final int maxConnections, final int maxStreams) {
+		if (maxConnections < 1) throw new IllegalArgumentException("maxConnections < 1");
+		if (maxStreams < 1) throw new IllegalArgumentException("maxStreams < 1");
+		this.maxConnections = maxConnections;
+		this.maxStreams = maxStreams;
+	}
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	public int getMaxStreams() {
+		return maxStreams;
+	}
+
+	@Override
+	public HttpURLConnection openConnection(final URL url) throws IOException {
+		if (url == null) throw new NullPointerException("url");
+		if (!"http".equals(url.getProtocol())) {
+			throw new IOException("Only cleartext http urls are supported, " + url);
+		}
+		return new Http2URLConnection(url, this);
+	}
+
+	/** Returns the number of open connections to all hosts. */
+	public synchronized int getConnectionCount() {
+		int count = 0;
+		for (List<Http2Connection> pool : pools.values()) {
+			for (Http2Connection connection : pool) {
+				if (connection.isAvailable()) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/** Closes all connections, open streams fail with IOExceptions. */
+	@Override
+	public void close() {
+		List<Http2Connection> connections = new ArrayList<Http2Connection>();
+		synchronized (this) {
+			closed = true;
+			for (List<Http2Connection> pool : pools.values()) {
+				connections.addAll(pool);
+			}
+			pools.clear();
+		}
+
+		for (Http2Connection connection : connections) {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Returns the least loaded connection to a url host, opens a new one when all connections
+	 * have max streams and the pool is not full. The returned connection has a reserved
+	 * stream, the caller must release it after sending a request.
+	 */
+	synchronized Http2Connection acquire(final URL url, final int connectTimeout)
+			throws IOException {
+		if (closed) {
+			throw new IOException("Connection factory is closed");
+		}
+
+		int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+		String key = url.getHost() + ":" + port;
+		List<Http2Connection> pool = pools.get(key);
+		if (pool == null) {
+			pool = new ArrayList<Http2Connection>();
+			pools.put(key, pool);
+		}
+
+		Http2Connection best = null;
+		for (Iterator<Http2Connection> it = pool.iterator(); it.hasNext(); ) {
+			Http2Connection connection = it.next();
+			if (!connection.isAvailable()) {
+				// Streams of a connection going away still complete.
+				if (connection.getActiveStreams() == 0) {
+					connection.close();
+				}
+				it.remove();
+				continue;
+			}
+
+			if (best == null || connection.getActiveStreams() < best.getActiveStreams()) {
+				best = connection;
+			}
+		}
+
+		if (best != null && (best.getActiveStreams() < maxStreams
+				|| pool.size() >= maxConnections)) {
+			best.reserveStream();
+			return best;
+		}
+
+		Socket socket = new Socket();
+		Http2Connection connection;
+		try {
+			socket.setTcpNoDelay(true);
+			socket.connect(new InetSocketAddress(url.getHost(), port), connectTimeout);
+			connection = new Http2Connection(socket);
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+
+		pool.add(connection);
+		connection.reserveStream();
+		return connection;
+	}
+}
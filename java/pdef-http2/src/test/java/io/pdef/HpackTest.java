@@ -0,0 +1,121 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class HpackTest {
+	@Test
+	public void testWriteInt() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Hpack.writeInt(out, 0x00, 5, 1337);
+		byte[] bytes = out.toByteArray();
+
+		assertThat(hex(bytes)).isEqualTo("1f9a0a");
+		assertThat(Hpack.readInt(bytes, new int[]{0}, 5)).isEqualTo(1337);
+	}
+
+	@Test
+	public void testEncode_huffmanIndexing() throws Exception {
+		// RFC 7541, C.4.1 and C.4.2.
+		Hpack.Encoder encoder = new Hpack.Encoder(true, true);
+		List<String[]> first = headers(":method", "GET", ":scheme", "http", ":path", "/",
+				":authority", "www.example.com");
+		List<String[]> second = headers(":method", "GET", ":scheme", "http", ":path", "/",
+				":authority", "www.example.com", "cache-control", "no-cache");
+
+		assertThat(hex(encoder.encode(first)))
+				.isEqualTo("828684418cf1e3c2e5f23a6ba0ab90f4ff");
+		assertThat(hex(encoder.encode(second))).isEqualTo("828684be5886a8eb10649cbf");
+	}
+
+	@Test
+	public void testDecode() throws Exception {
+		Hpack.Encoder encoder = new Hpack.Encoder(true, true);
+		Hpack.Decoder decoder = new Hpack.Decoder();
+		List<String[]> headers = headers(":status", "200", "content-type", "application/json",
+				"x-custom", "hello, world");
+
+		for (int i = 0; i < 3; i++) {
+			List<String[]> result = decoder.decode(encoder.encode(headers));
+			assertThat(toString(result)).isEqualTo(toString(headers));
+		}
+	}
+
+	@Test
+	public void testDecode_literalWithoutIndexing() throws Exception {
+		Hpack.Encoder encoder = new Hpack.Encoder();
+		Hpack.Decoder decoder = new Hpack.Decoder();
+		List<String[]> headers = headers(":method", "POST", "content-length", "10");
+
+		byte[] block = encoder.encode(headers);
+		assertThat(hex(block)).isEqualTo("83" + "0f0d023130");
+		assertThat(toString(decoder.decode(block))).isEqualTo(toString(headers));
+	}
+
+	@Test
+	public void testDecode_invalidIndex() throws Exception {
+		try {
+			new Hpack.Decoder().decode(new byte[]{(byte) 0xbe});
+			fail("Expected an IOException");
+		} catch (IOException e) {
+			assertThat(e.getMessage()).contains("Invalid HPACK index");
+		}
+	}
+
+	@Test
+	public void testHuffman() throws Exception {
+		byte[] bytes = new byte[256];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) i;
+		}
+
+		byte[] encoded = Hpack.huffmanEncode(bytes);
+		assertThat(Hpack.huffmanDecode(encoded, 0, encoded.length)).isEqualTo(bytes);
+	}
+
+	private static List<String[]> headers(final String... pairs) {
+		List<String[]> headers = new ArrayList<String[]>();
+		for (int i = 0; i < pairs.length; i += 2) {
+			headers.add(new String[]{pairs[i], pairs[i + 1]});
+		}
+		return headers;
+	}
+
+	private static String toString(final List<String[]> headers) {
+		StringBuilder sb = new StringBuilder();
+		for (String[] header : headers) {
+			sb.append(header[0]).append(": ").append(header[1]).append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static String hex(final byte[] bytes) {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : bytes) {
+			sb.append(String.format("%02x", b & 0xff));
+		}
+		return sb.toString();
+	}
+}
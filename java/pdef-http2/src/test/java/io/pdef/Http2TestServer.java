@@ -0,0 +1,269 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.pdef.Http2Connection.*;
+
+/**
+ * Stand-in h2c server for tests, it dispatches requests to a handler. It compresses
+ * response headers with huffman codes and indexing to test the client decoder.
+ */
+class Http2TestServer {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final PdefHandler<?> handler;
+	private final ServerSocket serverSocket;
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private final AtomicInteger connections = new AtomicInteger();
+	private final List<Socket> sockets = new ArrayList<Socket>();
+	private volatile Map<String, String> lastHeaders;
+
+	Http2TestServer(final PdefHandler<?> handler) throws IOException {
+		this.handler = handler;
+		this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		});
+	}
+
+	public String getUrl() {
+		return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/";
+	}
+
+	/** Returns the number of accepted connections. */
+	public int getConnections() {
+		return connections.get();
+	}
+
+	/** Returns the last request headers. */
+	public Map<String, String> getLastHeaders() {
+		return lastHeaders;
+	}
+
+	public void close() throws IOException {
+		serverSocket.close();
+		synchronized (sockets) {
+			for (Socket socket : sockets) {
+				socket.close();
+			}
+		}
+		executor.shutdownNow();
+	}
+
+	private void accept() {
+		while (!serverSocket.isClosed()) {
+			final Socket socket;
+			try {
+				socket = serverSocket.accept();
+			} catch (IOException e) {
+				return;
+			}
+
+			connections.incrementAndGet();
+			synchronized (sockets) {
+				sockets.add(socket);
+			}
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						new ServerConnection(socket).run();
+					} catch (IOException e) {
+						// The client has closed the connection.
+					}
+				}
+			});
+		}
+	}
+
+	private class ServerConnection {
+		private final DataInputStream in;
+		private final OutputStream out;
+		private final Hpack.Decoder decoder = new Hpack.Decoder();
+		private final Hpack.Encoder encoder = new Hpack.Encoder(true, true);
+		private final Map<Integer, List<String[]>> headers =
+				new HashMap<Integer, List<String[]>>();
+		private final Map<Integer, ByteArrayOutputStream> bodies =
+				new HashMap<Integer, ByteArrayOutputStream>();
+
+		ServerConnection(final Socket socket) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			out = new BufferedOutputStream(socket.getOutputStream());
+		}
+
+		void run() throws IOException {
+			byte[] preface = new byte[PREFACE.length];
+			in.readFully(preface);
+			synchronized (out) {
+				writeSettings(out, new int[]{SETTINGS_MAX_CONCURRENT_STREAMS, 100});
+				out.flush();
+			}
+
+			while (true) {
+				Frame frame = readFrame(in, DEFAULT_MAX_FRAME_SIZE);
+				switch (frame.type) {
+					case SETTINGS:
+						if ((frame.flags & FLAG_ACK) == 0) {
+							write(SETTINGS, FLAG_ACK, 0, new byte[0]);
+						}
+						break;
+					case HEADERS:
+						headers.put(frame.streamId, decoder.decode(frame.payload));
+						bodies.put(frame.streamId, new ByteArrayOutputStream());
+						break;
+					case DATA:
+						int length = frame.payload.length;
+						if (length > 0) {
+							write(WINDOW_UPDATE, 0, 0, int32(length));
+							write(WINDOW_UPDATE, 0, frame.streamId, int32(length));
+						}
+						if (!bodies.containsKey(frame.streamId)) {
+							// The stream has been reset.
+							continue;
+						}
+						bodies.get(frame.streamId).write(frame.payload);
+						break;
+					case RST_STREAM:
+						headers.remove(frame.streamId);
+						bodies.remove(frame.streamId);
+						break;
+					default:
+				}
+
+				if ((frame.type == HEADERS || frame.type == DATA)
+						&& (frame.flags & FLAG_END_STREAM) != 0) {
+					final int streamId = frame.streamId;
+					final List<String[]> requestHeaders = headers.remove(streamId);
+					final byte[] body = bodies.remove(streamId).toByteArray();
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							respond(streamId, requestHeaders, body);
+						}
+					});
+				}
+			}
+		}
+
+		private void respond(final int streamId, final List<String[]> requestHeaders,
+				final byte[] body) {
+			int status = 200;
+			String contentType = "application/json;charset=utf-8";
+			String content;
+			try {
+				PdefRequest request = readRequest(requestHeaders, body);
+				StringWriter writer = new StringWriter();
+				handler.handle(request).toJson(writer);
+				content = writer.toString();
+			} catch (PdefException e) {
+				status = 400;
+				contentType = "text/plain;charset=utf-8";
+				content = e.getMessage();
+			} catch (Exception e) {
+				status = 500;
+				contentType = "text/plain;charset=utf-8";
+				content = "Internal server error";
+			}
+
+			byte[] data = content.getBytes(UTF8);
+			List<String[]> responseHeaders = new ArrayList<String[]>();
+			responseHeaders.add(new String[]{":status", String.valueOf(status)});
+			responseHeaders.add(new String[]{"content-type", contentType});
+			responseHeaders.add(new String[]{"content-length", String.valueOf(data.length)});
+
+			try {
+				synchronized (out) {
+					writeFrame(out, HEADERS, FLAG_END_HEADERS, streamId,
+							encoder.encode(responseHeaders));
+					writeFrame(out, DATA, FLAG_END_STREAM, streamId, data);
+					out.flush();
+				}
+			} catch (IOException e) {
+				// The client has closed the connection.
+			}
+		}
+
+		private void write(final int type, final int flags, final int streamId,
+				final byte[] payload) throws IOException {
+			synchronized (out) {
+				writeFrame(out, type, flags, streamId, payload);
+				out.flush();
+			}
+		}
+	}
+
+	private PdefRequest readRequest(final List<String[]> requestHeaders, final byte[] body)
+			throws IOException {
+		Map<String, String> map = new HashMap<String, String>();
+		for (String[] header : requestHeaders) {
+			map.put(header[0], header[1]);
+		}
+		lastHeaders = map;
+
+		String path = map.get(":path");
+		int q = path.indexOf('?');
+		String query = q == -1 ? "" : path.substring(q + 1);
+		path = q == -1 ? path : path.substring(0, q);
+
+		PdefRequest request = new PdefRequest()
+				.setMethod(map.get(":method"))
+				.setRelativePath(path)
+				.setQuery(parseParams(query));
+		if (request.isPost()) {
+			request.setPost(parseParams(new String(body, UTF8)));
+		}
+		return request;
+	}
+
+	private static Map<String, String> parseParams(final String s) throws IOException {
+		Map<String, String> params = new HashMap<String, String>();
+		for (String pair : s.split("&")) {
+			if (pair.isEmpty()) {
+				continue;
+			}
+
+			int eq = pair.indexOf('=');
+			String key = eq == -1 ? pair : pair.substring(0, eq);
+			String value = eq == -1 ? "" : pair.substring(eq + 1);
+			params.put(URLDecoder.decode(key, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+		}
+		return params;
+	}
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import io.pdef.test.TestInterface;
+import io.pdef.test.TestStruct;
+import io.pdef.test.TestSubInterface;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class PdefHttp2ConnectionFactoryTest {
+	TestInterface server;
+	TestSubInterface subServer;
+	Http2TestServer http2;
+	PdefHttp2ConnectionFactory factory;
+	PdefClient<TestInterface> client;
+
+	@Before
+	public void setUp() throws Exception {
+		server = mock(TestInterface.class);
+		subServer = mock(TestSubInterface.class);
+		when(server.interface0(anyBoolean(), anyInt(), anyString())).thenReturn(subServer);
+
+		http2 = new Http2TestServer(new PdefHandler<TestInterface>(TestInterface.class, server));
+		factory = new PdefHttp2ConnectionFactory();
+		client = new PdefClient<TestInterface>(http2.getUrl(), TestInterface.class)
+				.setConnectionFactory(factory);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		factory.close();
+		http2.close();
+	}
+
+	@Test
+	public void testGet() throws Exception {
+		when(subServer.get(1, "hello")).thenReturn(2);
+
+		int result = client.proxy().interface0(true, 0, "world").get(1, "hello");
+		assertThat(result).isEqualTo(2);
+		assertThat(http2.getLastHeaders().get(":method")).isEqualTo("GET");
+		assertThat(http2.getLastHeaders().get(":path"))
+				.isEqualTo("/interface0/1/0/world/get?int0=1&string0=hello");
+	}
+
+	@Test
+	public void testPost() throws Exception {
+		TestStruct struct = new TestStruct().setInt0(10).setString0("hello");
+		when(subServer.post(1, "привет")).thenReturn(3);
+		when(server.request(any(TestStruct.class))).thenReturn(struct);
+
+		assertThat(client.proxy().interface0(false, 0, "world").post(1, "привет")).isEqualTo(3);
+		assertThat(http2.getLastHeaders().get(":method")).isEqualTo("POST");
+		assertThat(http2.getLastHeaders().get("content-type"))
+				.isEqualTo("application/x-www-form-urlencoded;charset=utf-8");
+		assertThat(client.proxy().request(struct).getString0()).isEqualTo("hello");
+	}
+
+	@Test
+	public void testMultiplexing() throws Exception {
+		int calls = 20;
+		final CountDownLatch started = new CountDownLatch(calls);
+		final CountDownLatch release = new CountDownLatch(1);
+		when(subServer.get(anyInt(), anyString())).thenAnswer(new Answer<Integer>() {
+			@Override
+			public Integer answer(final InvocationOnMock invocation) throws Throwable {
+				// Block until all calls are in flight.
+				started.countDown();
+				release.await(10, TimeUnit.SECONDS);
+				return (Integer) invocation.getArguments()[0];
+			}
+		});
+
+		ExecutorService executor = Executors.newFixedThreadPool(calls);
+		try {
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for (int i = 0; i < calls; i++) {
+				final int n = i;
+				futures.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						return client.proxy().interface0(true, n, "a").get(n, "b");
+					}
+				}));
+			}
+
+			assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+			release.countDown();
+			for (int i = 0; i < calls; i++) {
+				assertThat(futures.get(i).get(10, TimeUnit.SECONDS)).isEqualTo(i);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertThat(http2.getConnections()).isEqualTo(1);
+		assertThat(factory.getConnectionCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void testMultiplexing_maxStreams() throws Exception {
+		factory.close();
+		factory = new PdefHttp2ConnectionFactory(2, 1);
+		client.setConnectionFactory(factory);
+
+		final CountDownLatch started = new CountDownLatch(2);
+		final CountDownLatch release = new CountDownLatch(1);
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(final InvocationOnMock invocation) throws Throwable {
+				started.countDown();
+				release.await(10, TimeUnit.SECONDS);
+				return null;
+			}
+		}).when(server).void0();
+
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int i = 0; i < 3; i++) {
+				futures.add(executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						client.proxy().void0();
+					}
+				}));
+			}
+
+			assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+			release.countDown();
+			for (Future<?> future : futures) {
+				future.get(10, TimeUnit.SECONDS);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertThat(http2.getConnections()).isEqualTo(2);
+	}
+
+	@Test
+	public void testSession() throws Exception {
+		PdefClientSession session = new PdefClient.DefaultSession() {
+			@Override
+			public void connectionOpened(final HttpURLConnection connection) {
+				connection.setRequestProperty("Authorization", "Bearer token");
+			}
+
+			@Override
+			public void responseReceived(final HttpURLConnection connection)
+					throws IOException {
+				assertThat(connection.getResponseCode()).isEqualTo(200);
+				assertThat(connection.getContentType())
+						.isEqualTo("application/json;charset=utf-8");
+			}
+		};
+		client = new PdefClient<TestInterface>(http2.getUrl(), TestInterface.class, session)
+				.setConnectionFactory(factory);
+
+		client.proxy().void0();
+		assertThat(http2.getLastHeaders().get("authorization")).isEqualTo("Bearer token");
+	}
+
+	@Test
+	public void testError() throws Exception {
+		try {
+			client.handle(new PdefRequest().setMethod("GET").setRelativePath("/unknown"),
+					Void.class);
+			fail("Expected a PdefClientException");
+		} catch (PdefClientException e) {
+			assertThat(e.getMessage()).startsWith("Status: 400");
+			assertThat(e.getMessage()).contains("Method is not found unknown");
+		}
+	}
+
+	@Test
+	public void testServerClosed() throws Exception {
+		client.proxy().void0();
+		http2.close();
+
+		try {
+			client.proxy().void0();
+			fail("Expected a PdefClientException");
+		} catch (PdefClientException e) {
+			assertThat(e.getCause()).isInstanceOf(IOException.class);
+		}
+	}
+}
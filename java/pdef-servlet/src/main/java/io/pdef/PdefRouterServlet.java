@@ -0,0 +1,359 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import javax.annotation.Nullable;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Routing servlet which serves many pdef interfaces under path prefixes in one mapping,
+ * i.e. "/users/get?id=1" and "/billing/invoices/list". A service and the first method
+ * of a request are resolved by a precomputed trie in one pass over the relative path.
+ *
+ * Services are {@link PdefServlet}s, they keep their own limiters and quotas, and share
+ * the router serialization executor and scheduler. Services must be added before
+ * the router serves requests.
+ */
+public final class PdefRouterServlet extends HttpServlet {
+	private final transient Map<String, Service> services = new LinkedHashMap<String, Service>();
+	private final transient AtomicLong notFoundCount = new AtomicLong();
+	private transient volatile Node root = buildTrie(Collections.<Service>emptyList());
+
+	private transient ExecutorService serializer;
+	private int serializerThreads;
+	private int parallelListSize;
+	private transient PdefScheduler scheduler;
+
+	/** Adds a service at a path prefix, i.e. "/users", an empty prefix serves the root. */
+	public <T> PdefRouterServlet addService(final String prefix, final Class<T> iface,
+			final T server) {
+		return addService(prefix, new PdefServlet<T>(iface, server));
+	}
+
+	public PdefRouterServlet addService(final String prefix, final PdefHandler<?> handler) {
+		if (handler == null) throw new NullPointerException("handler");
+		return addService(prefix, newServlet(handler));
+	}
+
+	/** Adds a service servlet at a path prefix, the servlet is not registered in a container. */
+	public synchronized PdefRouterServlet addService(final String prefix,
+			final PdefServlet<?> servlet) {
+		if (prefix == null) throw new NullPointerException("prefix");
+		if (servlet == null) throw new NullPointerException("servlet");
+
+		String normalized = normalizePrefix(prefix);
+		if (services.containsKey(normalized)) {
+			throw new IllegalArgumentException("Duplicate service prefix \"" + prefix + "\"");
+		}
+
+		Service service = new Service(normalized, servlet);
+		services.put(normalized, service);
+		share(service);
+
+		root = buildTrie(services.values());
+		return this;
+	}
+
+	/** Returns an unmodifiable map of services by their normalized prefixes. */
+	public synchronized Map<String, Service> getServices() {
+		return Collections.unmodifiableMap(new LinkedHashMap<String, Service>(services));
+	}
+
+	/** Returns the number of requests which did not match any service. */
+	public long getNotFoundCount() {
+		return notFoundCount.get();
+	}
+
+	@Nullable
+	public ExecutorService getSerializer() {
+		return serializer;
+	}
+
+	/** Sets parallel serialization in all services, see {@link PdefServlet}. */
+	public synchronized PdefRouterServlet setParallelSerialization(
+			@Nullable final ExecutorService serializer, final int threads,
+			final int parallelListSize) {
+		if (threads < 1) throw new IllegalArgumentException("threads must be positive");
+		if (parallelListSize < 1) {
+			throw new IllegalArgumentException("parallelListSize must be positive");
+		}
+
+		this.serializer = serializer;
+		this.serializerThreads = threads;
+		this.parallelListSize = parallelListSize;
+		for (Service service : services.values()) {
+			share(service);
+		}
+		return this;
+	}
+
+	@Nullable
+	public PdefScheduler getScheduler() {
+		return scheduler;
+	}
+
+	/** Sets a scheduler in all service handlers, see {@link PdefHandler#setScheduler}. */
+	public synchronized PdefRouterServlet setScheduler(@Nullable final PdefScheduler scheduler) {
+		this.scheduler = scheduler;
+		for (Service service : services.values()) {
+			share(service);
+		}
+		return this;
+	}
+
+	/** Warms up the service handlers before the router serves requests. */
+	@Override
+	public void init() throws ServletException {
+		for (Service service : getServices().values()) {
+			service.servlet.init();
+		}
+	}
+
+	@Override
+	protected void service(final HttpServletRequest req, final HttpServletResponse resp)
+			throws ServletException, IOException {
+		if (req == null) throw new NullPointerException("request");
+		if (resp == null) throw new NullPointerException("response");
+
+		String path = PdefServlet.getRelativePath(req);
+		Route route = resolve(root, path);
+		if (route == null) {
+			notFoundCount.incrementAndGet();
+			resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		Service service = route.service;
+		String relativePath = route.end == 0 ? path
+				: route.end == path.length() ? "/" : path.substring(route.end);
+		service.serve(req, resp, relativePath, route.method);
+	}
+
+	/** Shares the router executor and scheduler with a service, skips unset ones. */
+	private void share(final Service service) {
+		if (serializer != null) {
+			service.servlet.setParallelSerialization(serializer, serializerThreads,
+					parallelListSize);
+		}
+		if (scheduler != null) {
+			service.servlet.getHandler().setScheduler(scheduler);
+		}
+	}
+
+	private static <T> PdefServlet<T> newServlet(final PdefHandler<T> handler) {
+		return new PdefServlet<T>(handler);
+	}
+
+	/** Returns a prefix without a trailing slash and with a leading one, or an empty string. */
+	static String normalizePrefix(final String prefix) {
+		String result = prefix;
+		while (result.endsWith("/")) {
+			result = result.substring(0, result.length() - 1);
+		}
+		if (result.length() > 0 && result.charAt(0) != '/') {
+			result = '/' + result;
+		}
+		return result;
+	}
+
+	/** Builds a trie of service prefixes and of "prefix/method" paths of their methods. */
+	static Node buildTrie(final Collection<Service> services) {
+		Node root = new Node();
+		for (Service service : services) {
+			Node node = root.insert(service.prefix);
+			node.service = service;
+
+			Class<?> iface = service.servlet.getHandler().getInterface();
+			for (PdefMethodDescriptor method : PdefMethodDescriptor.forInterface(iface)) {
+				Node methodNode = node.insert("/" + method.getName());
+				if (methodNode.methodService == null) {
+					methodNode.methodService = service;
+					methodNode.method = method.getName();
+				}
+			}
+		}
+		return root.freeze();
+	}
+
+	/**
+	 * Resolves a service with the longest prefix which ends at a path segment boundary,
+	 * and its first method when the next segment is a method name.
+	 */
+	@Nullable
+	static Route resolve(final Node root, final String path) {
+		Service service = null;
+		String method = null;
+		int end = 0;
+
+		Node node = root;
+		int length = path.length();
+		for (int i = 0; ; i++) {
+			if (i == length || path.charAt(i) == '/') {
+				if (node.service != null) {
+					service = node.service;
+					method = null;
+					end = i;
+				} else if (node.methodService != null && node.methodService == service
+						&& method == null) {
+					method = node.method;
+				}
+			}
+
+			if (i == length) {
+				break;
+			}
+
+			node = node.child(path.charAt(i));
+			if (node == null) {
+				break;
+			}
+		}
+
+		return service == null ? null : new Route(service, end, method);
+	}
+
+	/** Service stats and its servlet. */
+	public static final class Service {
+		private final String prefix;
+		private final PdefServlet<?> servlet;
+		private final AtomicInteger active = new AtomicInteger();
+		private final AtomicLong requestCount = new AtomicLong();
+		private final AtomicLong errorCount = new AtomicLong();
+		private final AtomicLong totalNanos = new AtomicLong();
+
+		private Service(final String prefix, final PdefServlet<?> servlet) {
+			this.prefix = prefix;
+			this.servlet = servlet;
+		}
+
+		public String getPrefix() {
+			return prefix;
+		}
+
+		public PdefServlet<?> getServlet() {
+			return servlet;
+		}
+
+		/** Returns the number of requests in progress. */
+		public int getActive() {
+			return active.get();
+		}
+
+		public long getRequestCount() {
+			return requestCount.get();
+		}
+
+		/** Returns the number of requests which failed with exceptions. */
+		public long getErrorCount() {
+			return errorCount.get();
+		}
+
+		/** Returns the total time of completed requests in nanoseconds. */
+		public long getTotalNanos() {
+			return totalNanos.get();
+		}
+
+		private void serve(final HttpServletRequest req, final HttpServletResponse resp,
+				final String relativePath, @Nullable final String method) throws IOException {
+			requestCount.incrementAndGet();
+			active.incrementAndGet();
+			long start = System.nanoTime();
+			boolean ok = false;
+			try {
+				servlet.service(req, resp, relativePath, method);
+				ok = true;
+			} finally {
+				active.decrementAndGet();
+				totalNanos.addAndGet(System.nanoTime() - start);
+				if (!ok) {
+					errorCount.incrementAndGet();
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "Service{'" + prefix + "', requests=" + requestCount + ", active=" + active
+					+ ", errors=" + errorCount + '}';
+		}
+	}
+
+	static final class Route {
+		final Service service;
+		final int end;
+		@Nullable final String method;
+
+		Route(final Service service, final int end, @Nullable final String method) {
+			this.service = service;
+			this.end = end;
+			this.method = method;
+		}
+	}
+
+	/** Trie node, children are sorted by their chars and are searched by a binary search. */
+	static final class Node {
+		private Map<Character, Node> building = new TreeMap<Character, Node>();
+		private char[] chars;
+		private Node[] children;
+		private Service service;
+		private Service methodService;
+		private String method;
+
+		private Node insert(final String s) {
+			Node node = this;
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				Node child = node.building.get(c);
+				if (child == null) {
+					child = new Node();
+					node.building.put(c, child);
+				}
+				node = child;
+			}
+			return node;
+		}
+
+		private Node freeze() {
+			chars = new char[building.size()];
+			children = new Node[building.size()];
+
+			int i = 0;
+			for (Map.Entry<Character, Node> entry : building.entrySet()) {
+				chars[i] = entry.getKey();
+				children[i] = entry.getValue().freeze();
+				i++;
+			}
+
+			building = null;
+			return this;
+		}
+
+		@Nullable
+		private Node child(final char c) {
+			int index = Arrays.binarySearch(chars, c);
+			return index < 0 ? null : children[index];
+		}
+	}
+}
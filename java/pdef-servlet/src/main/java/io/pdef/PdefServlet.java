@@ -16,19 +16,46 @@
 
 package io.pdef;
 
+import com.google.gson.JsonElement;
+
 import javax.annotation.Nullable;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.PrintWriter;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public final class PdefServlet<T> extends HttpServlet {
 	static final String JSON_CONTENT_TYPE = "application/json; charset=utf-8";
+	static final String JSON_MIME_TYPE = "application/json";
+	static final String UTF8 = "UTF-8";
+	static final String RETRY_AFTER_HEADER = "Retry-After";
+	static final String RETRY_AFTER_SECONDS = "1";
+	static final int SC_TOO_MANY_REQUESTS = 429;
+	static final String PRIORITY_HEADER = "X-Pdef-Priority";
+	static final String TIMEOUT_HEADER = "X-Pdef-Timeout";
+	static final int STREAM_FLUSH_SIZE = 100;
+	static final int PARALLEL_CHUNK_SIZE = 1000;
+	private static final Logger logger = Logger.getLogger(PdefServlet.class.getName());
 
 	private final transient PdefHandler<T> server;
+	private transient PdefLimiter limiter;
+	private transient PdefQuotas quotas;
+	private transient PdefCallerExtractor callerExtractor;
+	private transient ExecutorService serializer;
+	private transient PdefDeltaCache deltas;
+	private transient PdefSubscriptions subscriptions;
+	private int serializerThreads;
+	private int parallelListSize;
 
 	public PdefServlet(final Class<T> iface, final T server) {
 		this(new PdefHandler<T>(iface, server));
@@ -39,88 +66,677 @@ public final class PdefServlet<T> extends HttpServlet {
 		this.server = server;
 	}
 
+	PdefHandler<T> getHandler() {
+		return server;
+	}
+
+	@Nullable
+	public PdefLimiter getLimiter() {
+		return limiter;
+	}
+
+	/**
+	 * Sets an adaptive concurrency limiter, requests above its limit are shed with 503.
+	 * Per-method bulkheads are configured in {@link PdefHandler#addBulkhead}.
+	 */
+	public PdefServlet<T> setLimiter(@Nullable final PdefLimiter limiter) {
+		this.limiter = limiter;
+		return this;
+	}
+
+	@Nullable
+	public PdefQuotas getQuotas() {
+		return quotas;
+	}
+
+	@Nullable
+	public PdefCallerExtractor getCallerExtractor() {
+		return callerExtractor;
+	}
+
+	/** Sets per-caller quotas, callers are identified by a request header. */
+	public PdefServlet<T> setQuotas(@Nullable final PdefQuotas quotas, final String header) {
+		if (header == null) throw new NullPointerException("header");
+		return setQuotas(quotas, new HeaderCallerExtractor(header));
+	}
+
+	/**
+	 * Sets per-caller quotas, requests are admitted before they are parsed. Callers above
+	 * their rates are rejected with 429, callers which do not get a slot when the server
+	 * is saturated are shed with 503.
+	 */
+	public PdefServlet<T> setQuotas(@Nullable final PdefQuotas quotas,
+			final PdefCallerExtractor callerExtractor) {
+		if (callerExtractor == null) throw new NullPointerException("callerExtractor");
+
+		this.quotas = quotas;
+		this.callerExtractor = callerExtractor;
+		return this;
+	}
+
+	@Nullable
+	public ExecutorService getSerializer() {
+		return serializer;
+	}
+
+	public int getParallelListSize() {
+		return parallelListSize;
+	}
+
+	/**
+	 * Enables parallel serialization of list results with at least parallelListSize elements.
+	 * The lists are split into chunks which are encoded on the executor with up to threads
+	 * chunks per response in flight, the output is identical to the serial one.
+	 */
+	public PdefServlet<T> setParallelSerialization(@Nullable final ExecutorService serializer,
+			final int threads, final int parallelListSize) {
+		if (threads < 1) throw new IllegalArgumentException("threads must be positive");
+		if (parallelListSize < 1) {
+			throw new IllegalArgumentException("parallelListSize must be positive");
+		}
+
+		this.serializer = serializer;
+		this.serializerThreads = threads;
+		this.parallelListSize = parallelListSize;
+		return this;
+	}
+
+	@Nullable
+	public PdefDeltaCache getDeltas() {
+		return deltas;
+	}
+
+	/**
+	 * Enables delta responses for GET results, see {@link PdefDelta}. The cache keeps
+	 * recently sent results by their versions, clients which hold one of them receive
+	 * structural diffs or 304 Not Modified when a result is unchanged.
+	 */
+	public PdefServlet<T> setDeltas(@Nullable final PdefDeltaCache deltas) {
+		this.deltas = deltas;
+		return this;
+	}
+
+	@Nullable
+	public PdefSubscriptions getSubscriptions() {
+		return subscriptions;
+	}
+
+	/**
+	 * Enables long-poll subscriptions to GET results, see {@link PdefSubscriptions}.
+	 * Subscribers are parked in async requests without container threads, the servlet
+	 * must support async requests. They are parked after they release their quotas and
+	 * limiter permits, shared re-evaluations on changes are admitted by the limiter only.
+	 */
+	public PdefServlet<T> setSubscriptions(@Nullable final PdefSubscriptions subscriptions) {
+		this.subscriptions = subscriptions;
+		return this;
+	}
+
+	/** Warms up the handler, so that the servlet is ready before it serves requests. */
+	@Override
+	public void init() throws ServletException {
+		server.warmUp();
+	}
+
 	@Override
 	protected void service(final HttpServletRequest req, final HttpServletResponse resp)
 			throws ServletException, IOException {
 		if (req == null) throw new NullPointerException("request");
 		if (resp == null) throw new NullPointerException("response");
 
-		PdefRequest request = readRequest(req);
+		service(req, resp, null, null);
+	}
+
+	/**
+	 * Serves a request with an optional relative path and its first method resolved
+	 * by a router, the path is computed from the request when it is null.
+	 */
+	void service(final HttpServletRequest req, final HttpServletResponse resp,
+			@Nullable final String path, @Nullable final String firstMethod)
+			throws IOException {
+		// Callers are admitted before parsing requests, so that rejections are cheap.
+		String caller = quotas == null ? null : callerExtractor.getCaller(req);
+		Permit permit = new Permit(caller);
+		PdefQuotas.Admission admission = permit.acquireQuota();
+		if (admission == PdefQuotas.Admission.RATE_LIMITED) {
+			rateLimit(resp);
+			return;
+		} else if (admission == PdefQuotas.Admission.SHED) {
+			shed(resp);
+			return;
+		}
+
+		Subscriber subscriber;
+		try {
+			String relativePath = path != null ? path : getRelativePath(req);
+			if (limiter != null && !permit.acquireLimiter(firstMethod != null
+					? firstMethod : getFirstMethod(relativePath))) {
+				shed(resp);
+				return;
+			}
+
+			subscriber = subscriber(req);
+			handle(req, resp, relativePath, subscriber);
+		} finally {
+			permit.release();
+		}
+
+		// Subscribers are parked after they have released their quotas and limiter permits.
+		if (subscriber != null && subscriber.request != null) {
+			park(subscriber, req, resp);
+		}
+	}
+
+	private void handle(final HttpServletRequest req, final HttpServletResponse resp,
+			final String relativePath, @Nullable final Subscriber subscriber) throws IOException {
+		PdefRequest request = readRequest(req, relativePath);
 		PdefResponse<?> response;
 		try {
 			response = server.handle(request);
+		} catch (PdefOverloadException e) {
+			shed(resp);
+			return;
 		} catch (RuntimeException e) {
 			throw e;
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
 
+		Object data = response.getData();
+		PdefFieldMask fields = request.getFields();
+		boolean stream = data instanceof PdefStreamList;
+		PdefDeltaCache deltas = this.deltas;
+		if (deltas != null && (fields != null || request.isPost() || stream
+				|| !PdefDelta.acceptsDelta(req.getHeader(PdefDelta.A_IM_HEADER)))) {
+			deltas = null;
+		}
+
+		if (deltas != null || (subscriber != null && !stream)) {
+			JsonElement tree = PdefJson.toJsonTree(data);
+			String json = PdefJson.serialize(tree);
+			String version = PdefDelta.version(json);
+			if (subscriber != null && version.equals(subscriber.base)) {
+				subscriber.hold(request, relativePath);
+				return;
+			}
+
+			writeVersioned(tree, json, version, deltas, req, resp);
+			return;
+		}
+
 		resp.setStatus(HttpServletResponse.SC_OK);
 		resp.setContentType(JSON_CONTENT_TYPE);
-		response.toJson(resp.getWriter());
+
+		if (data instanceof PdefStreamList) {
+			writeStream((PdefStreamList<?>) data, fields, resp);
+		} else if (isParallel(data)) {
+			PdefJson.serializeParallel((List<?>) data, resp.getWriter(), serializer,
+					serializerThreads, PARALLEL_CHUNK_SIZE, fields);
+		} else if (fields != null) {
+			PdefJson.serializeData(data, fields, resp.getWriter());
+		} else {
+			response.toJson(resp.getWriter());
+		}
+		resp.flushBuffer();
+	}
+
+	private boolean isParallel(@Nullable final Object data) {
+		return serializer != null
+				&& data instanceof List
+				&& data instanceof RandomAccess
+				&& ((List<?>) data).size() >= parallelListSize;
+	}
+
+	/**
+	 * Writes 304 when a client holds the current result version, a delta against the held
+	 * version when it is cached and smaller than the result, or the full result.
+	 */
+	private void writeVersioned(final JsonElement tree, final String json, final String version,
+			@Nullable final PdefDeltaCache deltas, final HttpServletRequest req,
+			final HttpServletResponse resp) throws IOException {
+		String base = PdefDelta.parseETag(req.getHeader(PdefDelta.IF_NONE_MATCH_HEADER));
+		resp.setHeader(PdefDelta.ETAG_HEADER, PdefDelta.etag(version));
+
+		if (version.equals(base)) {
+			resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		PdefDeltaCache.Entry held = null;
+		if (deltas != null) {
+			held = base == null ? null : deltas.get(base);
+			deltas.put(version, version, tree);
+		}
+
+		String body = null;
+		// Equal trees may serialize differently, i.e. hash maps, they have no patch.
+		JsonElement patch = held == null ? null : PdefDelta.diff(held.data, tree);
+		if (patch != null) {
+			String delta = PdefJson.serialize(patch);
+			if (delta.length() < json.length()) {
+				resp.setStatus(PdefDelta.STATUS_IM_USED);
+				resp.setHeader(PdefDelta.IM_HEADER, PdefDelta.PDEF_DELTA);
+				resp.setHeader(PdefDelta.DELTA_BASE_HEADER, PdefDelta.etag(base));
+				body = "{\"" + PdefDelta.DELTA_FIELD + "\":" + delta + "}";
+			}
+		}
+
+		if (body == null) {
+			resp.setStatus(HttpServletResponse.SC_OK);
+			body = "{\"" + PdefJson.DATA_FIELD + "\":" + json + "}";
+		}
+
+		resp.setContentType(JSON_CONTENT_TYPE);
+		resp.getWriter().write(body);
 		resp.flushBuffer();
 	}
 
+	/**
+	 * Returns a subscriber when subscriptions are enabled and a request is a GET which holds
+	 * a result version and waits for it to change, otherwise returns null.
+	 */
+	@Nullable
+	private Subscriber subscriber(final HttpServletRequest req) {
+		PdefSubscriptions subscriptions = this.subscriptions;
+		if (subscriptions == null || !PdefClient.GET.equals(req.getMethod())
+				|| !req.isAsyncSupported()) {
+			return null;
+		}
+
+		long waitMillis = parseTimeout(req.getHeader(PdefSubscriptions.WAIT_HEADER));
+		String base = PdefDelta.parseETag(req.getHeader(PdefDelta.IF_NONE_MATCH_HEADER));
+		if (waitMillis == 0 || base == null || req.getParameter(PdefFieldMask.PARAM) != null) {
+			return null;
+		}
+		return new Subscriber(subscriptions, base, waitMillis, req.getQueryString());
+	}
+
+	/**
+	 * Parks a subscriber in an async request until its held result changes, it receives
+	 * a new result shared by all subscribers of its invocation chain, or 304 Not Modified
+	 * on timeout.
+	 */
+	private void park(final Subscriber subscriber, final HttpServletRequest req,
+			final HttpServletResponse resp) throws IOException {
+		String key = subscriber.query == null
+				? subscriber.relativePath : subscriber.relativePath + '?' + subscriber.query;
+		PdefSubscriptions subscriptions = subscriber.subscriptions;
+
+		AsyncContext async = req.startAsync();
+		async.setTimeout(Math.min(subscriber.waitMillis, subscriptions.getMaxWaitMillis()));
+		async.addListener(new ParkedListener(subscriber));
+		subscriber.async = async;
+
+		try {
+			subscriber.subscription = subscriptions.subscribe(key, subscriber.method,
+					subscriber.base, subscriber.changes, subscriber, subscriber);
+		} catch (PdefOverloadException e) {
+			shed(resp);
+			async.complete();
+		}
+	}
+
+	/** Encodes a stream list element by element, flushes the response periodically. */
+	private void writeStream(final PdefStreamList<?> list, @Nullable final PdefFieldMask fields,
+			final HttpServletResponse resp) throws IOException {
+		try {
+			PdefJson.serializeStream(list.iterator(), resp.getWriter(), STREAM_FLUSH_SIZE, fields);
+		} finally {
+			list.close();
+		}
+	}
+
+	/** Rejects an overloaded request with 503 Service Unavailable and a Retry-After header. */
+	static void shed(final HttpServletResponse resp) throws IOException {
+		resp.setHeader(RETRY_AFTER_HEADER, RETRY_AFTER_SECONDS);
+		resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+	}
+
+	/** Rejects a request above its caller rate with 429 Too Many Requests. */
+	static void rateLimit(final HttpServletResponse resp) throws IOException {
+		resp.setHeader(RETRY_AFTER_HEADER, RETRY_AFTER_SECONDS);
+		resp.sendError(SC_TOO_MANY_REQUESTS);
+	}
+
 	// VisibleForTesting
-	PdefRequest readRequest(final HttpServletRequest request) {
+	PdefRequest readRequest(final HttpServletRequest request) throws IOException {
+		return readRequest(request, getRelativePath(request));
+	}
+
+	private PdefRequest readRequest(final HttpServletRequest request, final String relativePath)
+			throws IOException {
 		String method = request.getMethod();
-		String relativePath = getRelativePath(request);
+		PdefRequest result = new PdefRequest()
+				.setMethod(method)
+				.setRelativePath(relativePath)
+				.setFields(PdefFieldMask.parse(request.getParameter(PdefFieldMask.PARAM)))
+				.setPriority(PdefPriority.find(request.getHeader(PRIORITY_HEADER)))
+				.setTimeoutMillis(parseTimeout(request.getHeader(TIMEOUT_HEADER)));
+
+		// JSON posts are parsed directly from the body by the handler.
+		if (result.isPost() && isJson(request.getContentType())) {
+			if (request.getCharacterEncoding() == null) {
+				request.setCharacterEncoding(UTF8);
+			}
+			return result.setJsonPostReader(request.getReader());
+		}
 
 		// In servlets we cannot distinguish between query and post params,
 		// so we use the same map for both. It is safe because Pdef HTTP RPC
 		// always uses only one of them.
 		Map<String, String> params = getParams(request);
 
-		return new PdefRequest()
-				.setMethod(method)
-				.setRelativePath(relativePath)
+		return result
 				.setQuery(params)
 				.setPost(params);
 	}
 
-	String getRelativePath(final HttpServletRequest request) {
+	static boolean isJson(@Nullable final String contentType) {
+		return contentType != null
+				&& contentType.regionMatches(true, 0, JSON_MIME_TYPE, 0, JSON_MIME_TYPE.length());
+	}
+
+	static String getRelativePath(final HttpServletRequest request) {
 		// It is voodoo magic.
 		// I consulted the servlet specs to write it. 
 		// But I don't remember how it works.
-		
+		// The relative path is the request uri after the "context/servlet/" base path,
+		// it is computed from lengths to copy the uri only once.
+
 		@Nullable
 		String pathInfo = request.getPathInfo();
-		String contextPath = nullToEmpty(request.getContextPath());
-		String servletPath = nullToEmpty(request.getServletPath());
-		String basePath = pathInfo == null ? contextPath + "/" : contextPath + servletPath + "/";
+		int basePathLength = length(request.getContextPath()) + 1;
+		if (pathInfo != null) {
+			basePathLength += length(request.getServletPath());
+		}
 
-		String relativePath = request.getRequestURI();
-		if (basePath.length() > relativePath.length()) {
-			relativePath = "";
-		} else {
-			relativePath = relativePath.substring(basePath.length());
+		String uri = request.getRequestURI();
+		if (basePathLength >= uri.length()) {
+			return "/";
 		}
-		
-		if (relativePath.isEmpty()) {
-			relativePath = "/";
+
+		if (uri.charAt(basePathLength) == '/') {
+			return uri.substring(basePathLength);
+		} else if (uri.charAt(basePathLength - 1) == '/') {
+			return uri.substring(basePathLength - 1);
 		}
-		return relativePath.charAt(0) == '/' ? relativePath : '/' + relativePath;
+		return '/' + uri.substring(basePathLength);
 	}
 
+	/** Returns a lazy view of the request params, values are read by their names. */
 	Map<String, String> getParams(final HttpServletRequest request) {
-		Map<String, String> result = new HashMap<String, String>();
-		Map<String, String[]> params = request.getParameterMap();
+		return new ParamsMap(request);
+	}
+
+	/** Returns the first method name in a relative path, i.e. "method" in "/method/1/2". */
+	static String getFirstMethod(final String relativePath) {
+		int start = relativePath.startsWith("/") ? 1 : 0;
+		int end = relativePath.indexOf('/', start);
+		return end == -1 ? relativePath.substring(start) : relativePath.substring(start, end);
+	}
+
+	/** Parses a scheduling timeout in milliseconds, invalid timeouts are ignored. */
+	static long parseTimeout(@Nullable final String header) {
+		if (header == null) {
+			return 0;
+		}
+
+		try {
+			long timeout = Long.parseLong(header.trim());
+			return timeout > 0 ? timeout : 0;
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
 
-		for (Map.Entry<String, String[]> entry : params.entrySet()) {
-			String key = entry.getKey();
-			String[] values = entry.getValue();
-			if (values == null || values.length == 0) {
-				continue;
+	private static int length(@Nullable final String s) {
+		return s == null ? 0 : s.length();
+	}
+
+	/** Caller quota and limiter permit of a request, they are acquired in this order. */
+	private final class Permit {
+		@Nullable private final String caller;
+		private PdefQuotas.Caller quota;
+		private PdefLimiter limiter;
+		private long start;
+
+		private Permit(@Nullable final String caller) {
+			this.caller = caller;
+		}
+
+		/** Acquires a caller quota, admits all requests when quotas are disabled. */
+		private PdefQuotas.Admission acquireQuota() {
+			PdefQuotas quotas = PdefServlet.this.quotas;
+			if (quotas == null) {
+				return PdefQuotas.Admission.ADMITTED;
+			}
+
+			PdefQuotas.Caller quota = quotas.forCaller(caller);
+			PdefQuotas.Admission admission = quota.acquire();
+			if (admission == PdefQuotas.Admission.ADMITTED) {
+				this.quota = quota;
+			}
+			return admission;
+		}
+
+		/** Acquires a limiter permit for a method, admits all requests without a limiter. */
+		private boolean acquireLimiter(final String method) {
+			PdefLimiter limiter = PdefServlet.this.limiter;
+			if (limiter == null) {
+				return true;
+			}
+
+			limiter = limiter.forMethod(server.getInterface(), method);
+			if (!limiter.tryAcquire()) {
+				return false;
 			}
 
-			String value = values[0];
-			result.put(key, value);
+			this.limiter = limiter;
+			this.start = System.nanoTime();
+			return true;
 		}
 
-		return result;
+		private void release() {
+			if (limiter != null) {
+				limiter.release(System.nanoTime() - start);
+			}
+			if (quota != null) {
+				quota.release();
+			}
+		}
 	}
 
-	private static String nullToEmpty(final String s) {
-		return s == null ? "" : s;
+	/** Subscription request, it holds its parsed request when its result is unchanged. */
+	private final class Subscriber implements Callable<String>, PdefSubscriptions.Listener {
+		private final PdefSubscriptions subscriptions;
+		private final String base;
+		private final long waitMillis;
+		private final long changes;
+		@Nullable private final String query;
+
+		private PdefRequest request;
+		private String relativePath;
+		private String method;
+		private volatile AsyncContext async;
+		private volatile PdefSubscriptions.Subscription subscription;
+
+		private Subscriber(final PdefSubscriptions subscriptions, final String base,
+				final long waitMillis, @Nullable final String query) {
+			this.subscriptions = subscriptions;
+			this.base = base;
+			this.waitMillis = waitMillis;
+			this.query = query;
+			this.changes = subscriptions.getChanges();
+		}
+
+		/** Holds a request, its params are copied to re-evaluate it after the request ends. */
+		private void hold(final PdefRequest request, final String relativePath) {
+			Map<String, String> params = new HashMap<String, String>(request.getQuery());
+			this.request = request.setQuery(params).setPost(params);
+			this.relativePath = relativePath;
+			this.method = getFirstMethod(relativePath);
+		}
+
+		/**
+		 * Re-evaluates and serializes the held request result. The result is shared by all
+		 * subscribers of a topic, so it is admitted by the server limiter, not by a caller quota.
+		 */
+		@Override
+		public String call() throws Exception {
+			Permit permit = new Permit(null);
+			try {
+				if (!permit.acquireLimiter(method)) {
+					throw new PdefOverloadException("Subscription re-evaluation is rejected");
+				}
+
+				Object data = server.handle(request).getData();
+				return PdefJson.serialize(PdefJson.toJsonTree(data));
+			} finally {
+				permit.release();
+			}
+		}
+
+		@Override
+		public void onResult(final PdefSubscriptions.Result result) {
+			AsyncContext async = this.async;
+			HttpServletResponse resp = (HttpServletResponse) async.getResponse();
+			try {
+				resp.setStatus(HttpServletResponse.SC_OK);
+				resp.setHeader(PdefDelta.ETAG_HEADER, PdefDelta.etag(result.getVersion()));
+				resp.setContentType(JSON_CONTENT_TYPE);
+				PrintWriter writer = resp.getWriter();
+				writer.write("{\"" + PdefJson.DATA_FIELD + "\":");
+				writer.write(result.getJson());
+				writer.write('}');
+				resp.flushBuffer();
+			} catch (IOException e) {
+				// The client has disconnected.
+			} finally {
+				async.complete();
+			}
+		}
+
+		/** Sheds a subscriber when its re-evaluation is rejected, or fails it with 500. */
+		@Override
+		public void onError(final Exception e) {
+			AsyncContext async = this.async;
+			HttpServletResponse resp = (HttpServletResponse) async.getResponse();
+			try {
+				if (e instanceof PdefOverloadException) {
+					shed(resp);
+				} else {
+					logger.log(Level.WARNING, "Failed to re-evaluate a subscription", e);
+					resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+				}
+			} catch (IOException e1) {
+				// The client has disconnected.
+			} finally {
+				async.complete();
+			}
+		}
+	}
+
+	/** Writes 304 Not Modified on a subscriber timeout, cancels it when a request ends. */
+	private final class ParkedListener implements AsyncListener {
+		private final Subscriber subscriber;
+
+		private ParkedListener(final Subscriber subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void onTimeout(final AsyncEvent event) throws IOException {
+			// A subscriber which has been completed by a result is written by its listener.
+			PdefSubscriptions.Subscription subscription = subscriber.subscription;
+			if (subscription == null || !subscription.cancel()) {
+				return;
+			}
+
+			AsyncContext async = event.getAsyncContext();
+			HttpServletResponse resp = (HttpServletResponse) async.getResponse();
+			resp.setHeader(PdefDelta.ETAG_HEADER, PdefDelta.etag(subscriber.base));
+			resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			async.complete();
+		}
+
+		@Override
+		public void onComplete(final AsyncEvent event) {
+			cancel();
+		}
+
+		@Override
+		public void onError(final AsyncEvent event) {
+			cancel();
+		}
+
+		@Override
+		public void onStartAsync(final AsyncEvent event) {}
+
+		private void cancel() {
+			PdefSubscriptions.Subscription subscription = subscriber.subscription;
+			if (subscription != null) {
+				subscription.cancel();
+			}
+		}
+	}
+
+	/** Identifies callers by a request header. */
+	private static class HeaderCallerExtractor implements PdefCallerExtractor {
+		private final String header;
+
+		private HeaderCallerExtractor(final String header) {
+			this.header = header;
+		}
+
+		@Override
+		public String getCaller(final HttpServletRequest request) {
+			return request.getHeader(header);
+		}
+	}
+
+	/**
+	 * Lazy request params map, gets the first param values by their names
+	 * without copying the request parameter map.
+	 */
+	private static class ParamsMap extends AbstractMap<String, String> {
+		private final HttpServletRequest request;
+		private Set<Entry<String, String>> entries;
+
+		private ParamsMap(final HttpServletRequest request) {
+			this.request = request;
+		}
+
+		@Override
+		public String get(final Object key) {
+			return key instanceof String ? request.getParameter((String) key) : null;
+		}
+
+		@Override
+		public boolean containsKey(final Object key) {
+			return get(key) != null;
+		}
+
+		@Override
+		public Set<Entry<String, String>> entrySet() {
+			if (entries != null) {
+				return entries;
+			}
+
+			Map<String, String> result = new HashMap<String, String>();
+			Map<String, String[]> params = request.getParameterMap();
+
+			for (Map.Entry<String, String[]> entry : params.entrySet()) {
+				String key = entry.getKey();
+				String[] values = entry.getValue();
+				if (values == null || values.length == 0) {
+					continue;
+				}
+
+				String value = values[0];
+				result.put(key, value);
+			}
+
+			return entries = Collections.unmodifiableMap(result).entrySet();
+		}
 	}
 }
@@ -0,0 +1,191 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import io.pdef.test.TestInterface;
+import io.pdef.test.TestSubInterface;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+import org.junit.Before;
+import org.junit.Test;
+import static org.mockito.Mockito.*;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+public class PdefRouterServletTest {
+	TestInterface server;
+	TestSubInterface subServer;
+	PdefRouterServlet router;
+
+	@Before
+	public void setUp() throws Exception {
+		server = mock(TestInterface.class);
+		subServer = mock(TestSubInterface.class);
+		router = new PdefRouterServlet()
+				.addService("", TestInterface.class, server)
+				.addService("/sub/", TestSubInterface.class, subServer)
+				.addService("sub/deep",
+						new PdefHandler<TestInterface>(TestInterface.class, server));
+	}
+
+	@Test
+	public void testResolve() throws Exception {
+		PdefRouterServlet.Node root = trie();
+
+		PdefRouterServlet.Route route = PdefRouterServlet.resolve(root, "/sub/get/1");
+		assertThat(route.service.getPrefix()).isEqualTo("/sub");
+		assertThat(route.end).isEqualTo(4);
+		assertThat(route.method).isEqualTo("get");
+
+		route = PdefRouterServlet.resolve(root, "/sub/deep/void0");
+		assertThat(route.service.getPrefix()).isEqualTo("/sub/deep");
+		assertThat(route.method).isEqualTo("void0");
+
+		route = PdefRouterServlet.resolve(root, "/interface0/true/1/a/get");
+		assertThat(route.service.getPrefix()).isEqualTo("");
+		assertThat(route.end).isEqualTo(0);
+		assertThat(route.method).isEqualTo("interface0");
+
+		route = PdefRouterServlet.resolve(root, "/subway/get");
+		assertThat(route.service.getPrefix()).isEqualTo("");
+		assertThat(route.method).isNull();
+	}
+
+	@Test
+	public void testResolve_notFound() throws Exception {
+		router = new PdefRouterServlet().addService("/sub", TestSubInterface.class, subServer);
+
+		assertThat(PdefRouterServlet.resolve(trie(), "/")).isNull();
+		assertThat(PdefRouterServlet.resolve(trie(), "/subway/get")).isNull();
+		assertThat(PdefRouterServlet.resolve(trie(), "/sub")).isNotNull();
+	}
+
+	@Test
+	public void testNormalizePrefix() throws Exception {
+		assertThat(PdefRouterServlet.normalizePrefix("")).isEqualTo("");
+		assertThat(PdefRouterServlet.normalizePrefix("/")).isEqualTo("");
+		assertThat(PdefRouterServlet.normalizePrefix("users/")).isEqualTo("/users");
+		assertThat(PdefRouterServlet.normalizePrefix("/users")).isEqualTo("/users");
+	}
+
+	@Test
+	public void testAddService_duplicate() throws Exception {
+		try {
+			router.addService("/sub", TestSubInterface.class, subServer);
+			fail("Expected a duplicate prefix exception");
+		} catch (IllegalArgumentException e) {
+			assertThat(e.getMessage()).contains("/sub");
+		}
+	}
+
+	@Test
+	public void testService() throws Exception {
+		when(subServer.get(1, "hello")).thenReturn(3);
+		HttpServletRequest request = request("/sub/get");
+		when(request.getParameter("int0")).thenReturn("1");
+		when(request.getParameter("string0")).thenReturn("hello");
+
+		StringWriter out = new StringWriter();
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		when(response.getWriter()).thenReturn(new PrintWriter(out));
+		router.service(request, response);
+
+		verify(response).setStatus(200);
+		assertThat(out.toString()).isEqualTo("{\"data\":3}");
+
+		PdefRouterServlet.Service service = router.getServices().get("/sub");
+		assertThat(service.getRequestCount()).isEqualTo(1);
+		assertThat(service.getActive()).isEqualTo(0);
+		assertThat(service.getErrorCount()).isEqualTo(0);
+		assertThat(router.getServices().get("").getRequestCount()).isEqualTo(0);
+	}
+
+	@Test
+	public void testService_limiter() throws Exception {
+		PdefLimiter limiter = mock(PdefLimiter.class);
+		PdefLimiter methodLimiter = mock(PdefLimiter.class);
+		when(limiter.forMethod(TestSubInterface.class, "get")).thenReturn(methodLimiter);
+		when(methodLimiter.tryAcquire()).thenReturn(false);
+		router.getServices().get("/sub").getServlet().setLimiter(limiter);
+
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		router.service(request("/sub/get"), response);
+
+		verify(response).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		verifyZeroInteractions(subServer);
+	}
+
+	@Test
+	public void testService_notFound() throws Exception {
+		router = new PdefRouterServlet().addService("/sub", TestSubInterface.class, subServer);
+
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		router.service(request("/users/get"), response);
+
+		verify(response).sendError(HttpServletResponse.SC_NOT_FOUND);
+		assertThat(router.getNotFoundCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void testService_error() throws Exception {
+		when(subServer.get(1, "hello")).thenThrow(new IllegalStateException());
+		HttpServletRequest request = request("/sub/get");
+		when(request.getParameter("int0")).thenReturn("1");
+		when(request.getParameter("string0")).thenReturn("hello");
+
+		try {
+			router.service(request, mock(HttpServletResponse.class));
+			fail("Expected an exception");
+		} catch (IllegalStateException e) {
+			PdefRouterServlet.Service service = router.getServices().get("/sub");
+			assertThat(service.getErrorCount()).isEqualTo(1);
+			assertThat(service.getActive()).isEqualTo(0);
+		}
+	}
+
+	@Test
+	public void testSetScheduler() throws Exception {
+		PdefScheduler scheduler = new PdefScheduler(1);
+		try {
+			router.setScheduler(scheduler);
+			router.addService("/other", TestSubInterface.class, subServer);
+
+			for (PdefRouterServlet.Service service : router.getServices().values()) {
+				assertThat(service.getServlet().getHandler().getScheduler()).isSameAs(scheduler);
+			}
+		} finally {
+			scheduler.close();
+		}
+	}
+
+	private PdefRouterServlet.Node trie() {
+		return PdefRouterServlet.buildTrie(router.getServices().values());
+	}
+
+	private static HttpServletRequest request(final String uri) {
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getMethod()).thenReturn("GET");
+		when(request.getContextPath()).thenReturn("");
+		when(request.getServletPath()).thenReturn("");
+		when(request.getPathInfo()).thenReturn(uri);
+		when(request.getRequestURI()).thenReturn(uri);
+		return request;
+	}
+}
@@ -18,15 +18,27 @@ package io.pdef;
 
 import com.google.common.collect.ImmutableMap;
 import io.pdef.test.TestInterface;
+import io.pdef.test.TestStruct;
 import static org.fest.assertions.api.Assertions.assertThat;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import static org.mockito.Mockito.*;
 import org.mockito.MockitoAnnotations;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class PdefServletTest {
 	@Mock
@@ -54,6 +66,325 @@ public class PdefServletTest {
 		verify(response).setContentType(PdefServlet.JSON_CONTENT_TYPE);
 	}
 
+	@Test
+	public void testHandle_fields() throws Exception {
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getMethod()).thenReturn("GET");
+		when(request.getServletPath()).thenReturn("/get");
+		when(request.getRequestURI()).thenReturn("/get");
+		when(request.getParameter(PdefFieldMask.PARAM)).thenReturn("int0,string0");
+		when(handler.handle(any(PdefRequest.class))).thenReturn(new PdefResponse<Object>()
+				.setData(new TestStruct().setInt0(1).setLong0(2).setString0("hello")));
+
+		StringWriter out = new StringWriter();
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		when(response.getWriter()).thenReturn(new PrintWriter(out));
+		servlet.service(request, response);
+
+		verify(response).setStatus(200);
+		assertThat(out.toString()).isEqualTo("{\"data\":{\"int0\":1,\"string0\":\"hello\"}}");
+	}
+
+	@Test
+	public void testHandle_stream() throws Exception {
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getMethod()).thenReturn("GET");
+		when(request.getServletPath()).thenReturn("/get");
+		when(request.getRequestURI()).thenReturn("/get");
+		when(handler.handle(any(PdefRequest.class))).thenReturn(new PdefResponse<Object>()
+				.setData(PdefStreamList.of(Arrays.asList("a", "b", "c"))));
+
+		StringWriter out = new StringWriter();
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		when(response.getWriter()).thenReturn(new PrintWriter(out));
+		servlet.service(request, response);
+
+		verify(response).setStatus(200);
+		assertThat(out.toString()).isEqualTo("{\"data\":[\"a\",\"b\",\"c\"]}");
+	}
+
+	@Test
+	public void testHandle_shed() throws Exception {
+		PdefLimiter limiter = new PdefLimiter(1, 1, 1, false);
+		limiter.tryAcquire();
+		servlet.setLimiter(limiter);
+
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getMethod()).thenReturn("GET");
+		when(request.getServletPath()).thenReturn("/get");
+		when(request.getRequestURI()).thenReturn("/get");
+
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		servlet.service(request, response);
+		verify(response).setHeader("Retry-After", "1");
+		verify(response).sendError(503);
+		verify(handler, never()).handle(any(PdefRequest.class));
+		assertThat(limiter.getShedCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void testHandle_quotas() throws Exception {
+		PdefQuotas quotas = new PdefQuotas(10, 1, 10, 0);
+		servlet.setQuotas(quotas, "X-Caller");
+
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getHeader("X-Caller")).thenReturn("caller");
+		when(request.getMethod()).thenReturn("GET");
+		when(request.getServletPath()).thenReturn("/get");
+		when(request.getRequestURI()).thenReturn("/get");
+		when(handler.handle(any(PdefRequest.class)))
+				.thenReturn(new PdefResponse<Object>().setData("hello, world"));
+
+		HttpServletResponse response = mock(HttpServletResponse.class, RETURNS_DEEP_STUBS);
+		servlet.service(request, response);
+		verify(response).setStatus(200);
+
+		PdefQuotas.Caller caller = quotas.getCallers().get("caller");
+		assertThat(caller.getAdmittedCount()).isEqualTo(1);
+		assertThat(caller.getInFlight()).isEqualTo(0);
+		assertThat(quotas.getInFlight()).isEqualTo(0);
+	}
+
+	@Test
+	public void testHandle_rateLimited() throws Exception {
+		PdefQuotas quotas = new PdefQuotas(1, 1, 10, 0);
+		quotas.forCaller("caller").acquire();
+		servlet.setQuotas(quotas, "X-Caller");
+
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getHeader("X-Caller")).thenReturn("caller");
+
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		servlet.service(request, response);
+		verify(response).setHeader("Retry-After", "1");
+		verify(response).sendError(429);
+		verify(request, never()).getServletPath();
+		verifyZeroInteractions(handler);
+	}
+
+	@Test
+	public void testHandle_delta() throws Exception {
+		servlet.setDeltas(new PdefDeltaCache(10));
+		TestStruct from = new TestStruct().setInt0(1).setString0("hello");
+		TestStruct to = new TestStruct().setInt0(1).setString0("changed");
+		when(handler.handle(any(PdefRequest.class))).thenReturn(
+				new PdefResponse<Object>().setData(from),
+				new PdefResponse<Object>().setData(from),
+				new PdefResponse<Object>().setData(to));
+
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getMethod()).thenReturn("GET");
+		when(request.getServletPath()).thenReturn("/get");
+		when(request.getRequestURI()).thenReturn("/get");
+		when(request.getHeader("A-IM")).thenReturn("pdef-delta");
+
+		// Full result.
+		StringWriter out = new StringWriter();
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		when(response.getWriter()).thenReturn(new PrintWriter(out));
+		servlet.service(request, response);
+
+		String etag = PdefDelta.etag(PdefDelta.version(PdefJson.serialize(from)));
+		verify(response).setStatus(200);
+		verify(response).setHeader("ETag", etag);
+		assertThat(out.toString()).isEqualTo("{\"data\":" + PdefJson.serialize(from) + "}");
+
+		// Unchanged result.
+		when(request.getHeader("If-None-Match")).thenReturn(etag);
+		response = mock(HttpServletResponse.class);
+		servlet.service(request, response);
+		verify(response).setStatus(304);
+		verify(response, never()).getWriter();
+
+		// Delta.
+		out = new StringWriter();
+		response = mock(HttpServletResponse.class);
+		when(response.getWriter()).thenReturn(new PrintWriter(out));
+		servlet.service(request, response);
+
+		verify(response).setStatus(226);
+		verify(response).setHeader("Delta-Base", etag);
+		assertThat(out.toString()).isEqualTo(
+				"{\"delta\":{\"fields\":{\"string0\":{\"set\":\"changed\"}}}}");
+	}
+
+	@Test
+	public void testHandle_deltaEqualTreesSerializedDifferently() throws Exception {
+		servlet.setDeltas(new PdefDeltaCache(10));
+		Map<String, Integer> from = new LinkedHashMap<String, Integer>();
+		from.put("a", 1);
+		from.put("b", 2);
+		Map<String, Integer> to = new LinkedHashMap<String, Integer>();
+		to.put("b", 2);
+		to.put("a", 1);
+		when(handler.handle(any(PdefRequest.class))).thenReturn(
+				new PdefResponse<Object>().setData(from),
+				new PdefResponse<Object>().setData(to));
+
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getMethod()).thenReturn("GET");
+		when(request.getServletPath()).thenReturn("/get");
+		when(request.getRequestURI()).thenReturn("/get");
+		when(request.getHeader("A-IM")).thenReturn("pdef-delta");
+		servlet.service(request, mock(HttpServletResponse.class, RETURNS_DEEP_STUBS));
+
+		// The versions differ, but there is no patch, the full result is sent.
+		when(request.getHeader("If-None-Match")).thenReturn(
+				PdefDelta.etag(PdefDelta.version(PdefJson.serialize(from))));
+		StringWriter out = new StringWriter();
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		when(response.getWriter()).thenReturn(new PrintWriter(out));
+		servlet.service(request, response);
+
+		verify(response).setStatus(200);
+		assertThat(out.toString()).isEqualTo("{\"data\":{\"b\":2,\"a\":1}}");
+	}
+
+	@Test
+	public void testHandle_subscription() throws Exception {
+		PdefSubscriptions subscriptions = new PdefSubscriptions(10, 10000);
+		servlet.setSubscriptions(subscriptions);
+		TestStruct from = new TestStruct().setInt0(1);
+		TestStruct to = new TestStruct().setInt0(2);
+		when(handler.handle(any(PdefRequest.class))).thenReturn(
+				new PdefResponse<Object>().setData(from),
+				new PdefResponse<Object>().setData(to));
+
+		StringWriter out = new StringWriter();
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		when(response.getWriter()).thenReturn(new PrintWriter(out));
+		AsyncContext async = asyncContext(response);
+		servlet.service(subscriptionRequest(from, async), response);
+
+		verify(async).setTimeout(10000);
+		verify(response, never()).setStatus(anyInt());
+		assertThat(subscriptions.getSubscribers()).isEqualTo(1);
+
+		subscriptions.changed("get");
+		verify(response).setStatus(200);
+		verify(response).setHeader("ETag",
+				PdefDelta.etag(PdefDelta.version(PdefJson.serialize(to))));
+		verify(async).complete();
+		assertThat(out.toString()).isEqualTo("{\"data\":" + PdefJson.serialize(to) + "}");
+		assertThat(subscriptions.getSubscribers()).isEqualTo(0);
+	}
+
+	@Test
+	public void testHandle_subscriptionTimeout() throws Exception {
+		PdefSubscriptions subscriptions = new PdefSubscriptions(10, 10);
+		servlet.setSubscriptions(subscriptions);
+		TestStruct from = new TestStruct().setInt0(1);
+		when(handler.handle(any(PdefRequest.class)))
+				.thenReturn(new PdefResponse<Object>().setData(from));
+
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		AsyncContext async = asyncContext(response);
+		servlet.service(subscriptionRequest(from, async), response);
+		verify(async).setTimeout(10);
+
+		ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+		verify(async).addListener(listener.capture());
+		listener.getValue().onTimeout(new AsyncEvent(async));
+
+		verify(response).setStatus(304);
+		verify(response).setHeader("ETag", PdefDelta.etag(PdefDelta.version(
+				PdefJson.serialize(from))));
+		verify(response, never()).getWriter();
+		verify(async).complete();
+		assertThat(subscriptions.getSubscribers()).isEqualTo(0);
+	}
+
+	@Test
+	public void testHandle_subscriptionShedOnChange() throws Exception {
+		PdefSubscriptions subscriptions = new PdefSubscriptions(10, 10000);
+		PdefLimiter limiter = new PdefLimiter(1, 1, 1, false);
+		servlet.setSubscriptions(subscriptions).setLimiter(limiter);
+		TestStruct from = new TestStruct().setInt0(1);
+		when(handler.handle(any(PdefRequest.class)))
+				.thenReturn(new PdefResponse<Object>().setData(from));
+
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		AsyncContext async = asyncContext(response);
+		servlet.service(subscriptionRequest(from, async), response);
+
+		// Re-evaluations are admitted by the limiter as new requests.
+		limiter.tryAcquire();
+		subscriptions.changed();
+
+		verify(response).sendError(503);
+		verify(async).complete();
+		verify(handler, times(1)).handle(any(PdefRequest.class));
+		assertThat(limiter.getShedCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void testHandle_subscriptionCallerOverQuota() throws Exception {
+		PdefSubscriptions subscriptions = new PdefSubscriptions(10, 10000);
+		PdefQuotas quotas = new PdefQuotas(1, 1, 10, 0);
+		servlet.setSubscriptions(subscriptions).setQuotas(quotas, "X-Caller");
+		TestStruct from = new TestStruct().setInt0(1);
+		TestStruct to = new TestStruct().setInt0(2);
+		when(handler.handle(any(PdefRequest.class))).thenReturn(
+				new PdefResponse<Object>().setData(from),
+				new PdefResponse<Object>().setData(from),
+				new PdefResponse<Object>().setData(to));
+
+		// Both callers spend their quotas on their subscription requests.
+		HttpServletResponse[] responses = new HttpServletResponse[2];
+		String[] callers = {"a", "b"};
+		for (int i = 0; i < callers.length; i++) {
+			responses[i] = mock(HttpServletResponse.class);
+			when(responses[i].getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+			HttpServletRequest request = subscriptionRequest(from, asyncContext(responses[i]));
+			when(request.getHeader("X-Caller")).thenReturn(callers[i]);
+			servlet.service(request, responses[i]);
+		}
+		assertThat(subscriptions.getSubscribers()).isEqualTo(2);
+
+		// The shared re-evaluation is not charged to any of the subscribed callers.
+		subscriptions.changed("get");
+		for (HttpServletResponse response : responses) {
+			verify(response).setStatus(200);
+			verify(response, never()).sendError(anyInt());
+		}
+		assertThat(quotas.getCallers().get("a").getAdmittedCount()).isEqualTo(1);
+		assertThat(quotas.getCallers().get("b").getAdmittedCount()).isEqualTo(1);
+	}
+
+	private static HttpServletRequest subscriptionRequest(final Object held,
+			final AsyncContext async) {
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getMethod()).thenReturn("GET");
+		when(request.getServletPath()).thenReturn("/get");
+		when(request.getRequestURI()).thenReturn("/get");
+		when(request.getHeader("If-None-Match")).thenReturn(
+				PdefDelta.etag(PdefDelta.version(PdefJson.serialize(held))));
+		when(request.getHeader("X-Pdef-Wait")).thenReturn("10000");
+		when(request.isAsyncSupported()).thenReturn(true);
+		when(request.startAsync()).thenReturn(async);
+		return request;
+	}
+
+	private static AsyncContext asyncContext(final HttpServletResponse response) {
+		AsyncContext async = mock(AsyncContext.class);
+		when(async.getResponse()).thenReturn(response);
+		return async;
+	}
+
+	@Test
+	public void testHandle_overload() throws Exception {
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getMethod()).thenReturn("GET");
+		when(request.getServletPath()).thenReturn("/get");
+		when(request.getRequestURI()).thenReturn("/get");
+		when(handler.handle(any(PdefRequest.class))).thenThrow(new PdefOverloadException());
+
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		servlet.service(request, response);
+		verify(response).setHeader("Retry-After", "1");
+		verify(response).sendError(503);
+	}
+
 	@Test
 	public void testReadRequest() throws Exception {
 		HttpServletRequest request = mock(HttpServletRequest.class);
@@ -73,6 +404,67 @@ public class PdefServletTest {
 		assertThat(req.getPost()).isEqualTo(ImmutableMap.of("key0", "value0", "key1", "value1"));
 	}
 
+	@Test
+	public void testReadRequest_priority() throws Exception {
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getMethod()).thenReturn("GET");
+		when(request.getServletPath()).thenReturn("/get");
+		when(request.getRequestURI()).thenReturn("/get");
+		when(request.getHeader("X-Pdef-Priority")).thenReturn("batch");
+		when(request.getHeader("X-Pdef-Timeout")).thenReturn("250");
+
+		PdefRequest req = servlet.readRequest(request);
+		assertThat(req.getPriority()).isEqualTo(PdefPriority.BATCH);
+		assertThat(req.getTimeoutMillis()).isEqualTo(250);
+	}
+
+	@Test
+	public void testParseTimeout() throws Exception {
+		assertThat(PdefServlet.parseTimeout(null)).isEqualTo(0);
+		assertThat(PdefServlet.parseTimeout("100")).isEqualTo(100);
+		assertThat(PdefServlet.parseTimeout("-1")).isEqualTo(0);
+		assertThat(PdefServlet.parseTimeout("soon")).isEqualTo(0);
+	}
+
+	@Test
+	public void testReadRequest_jsonPost() throws Exception {
+		BufferedReader reader = new BufferedReader(new StringReader("{\"int0\": 1}"));
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getMethod()).thenReturn("POST");
+		when(request.getServletPath()).thenReturn("/post");
+		when(request.getRequestURI()).thenReturn("/post");
+		when(request.getContentType()).thenReturn("application/json;charset=utf-8");
+		when(request.getReader()).thenReturn(reader);
+
+		PdefRequest req = servlet.readRequest(request);
+		assertThat(req.getJsonPostReader()).isSameAs(reader);
+		assertThat(req.getPost()).isEmpty();
+		verify(request, never()).getParameterMap();
+		verify(request).setCharacterEncoding("UTF-8");
+	}
+
+	@Test
+	public void testGetParams_lazy() throws Exception {
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getParameter("key0")).thenReturn("value0");
+
+		Map<String, String> params = servlet.getParams(request);
+		assertThat(params.get("key0")).isEqualTo("value0");
+		assertThat(params.get("key1")).isNull();
+		verify(request, never()).getParameterMap();
+	}
+
+	@Test
+	public void testGetRelativePath_root() throws Exception {
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getPathInfo()).thenReturn(null);
+		when(request.getContextPath()).thenReturn("");
+		when(request.getServletPath()).thenReturn("");
+		when(request.getRequestURI()).thenReturn("/");
+
+		assertThat(servlet.getRelativePath(request)).isEqualTo("/");
+	}
+
 	@Test
 	public void testGetRelativePath() throws Exception {
 		HttpServletRequest request = mock(HttpServletRequest.class);
@@ -96,4 +488,11 @@ public class PdefServletTest {
 		String relativePath = servlet.getRelativePath(request);
 		assertThat(relativePath).isEqualTo("/method/1/2");
 	}
+
+	@Test
+	public void testGetFirstMethod() throws Exception {
+		assertThat(PdefServlet.getFirstMethod("/method/1/2")).isEqualTo("method");
+		assertThat(PdefServlet.getFirstMethod("/method")).isEqualTo("method");
+		assertThat(PdefServlet.getFirstMethod("/")).isEqualTo("");
+	}
 }
@@ -0,0 +1,376 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pdef TCP server, it reads binary request frames from long-lived NIO connections and
+ * dispatches them to a handler. Requests are handled concurrently by an executor
+ * and their responses are written as soon as they are ready, in any order.
+ *
+ * <pre>
+ * PdefTcpServer server = new PdefTcpServer(new PdefHandler&lt;Blog&gt;(Blog.class, blog))
+ *         .bind(new InetSocketAddress(9090));
+ * </pre>
+ */
+public class PdefTcpServer implements Closeable {
+	private static final Logger logger = Logger.getLogger(PdefTcpServer.class.getName());
+	private static final int READ_BUFFER_SIZE = 8192;
+
+	private final PdefHandler<?> handler;
+	private final ExecutorService executor;
+	private final boolean ownsExecutor;
+	private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<Connection>();
+	private Selector selector;
+	private ServerSocketChannel serverChannel;
+	private Thread thread;
+	private volatile boolean closed;
+
+	/** Creates a server which handles requests in a cached thread pool. */
+	public PdefTcpServer(final PdefHandler<?> handler) {
+		this(handler, Executors.newCachedThreadPool(), true);
+	}
+
+	/** Creates a server which handles requests in an executor, the executor is not shut down. */
+	public PdefTcpServer(final PdefHandler<?> handler, final ExecutorService executor) {
+		this(handler, executor, false);
+	}
+
+	private PdefTcpServer(final PdefHandler<?> handler, final ExecutorService executor,
+			final boolean ownsExecutor) {
+		if (handler == null) throw new NullPointerException("handler");
+		if (executor == null) throw new NullPointerException("executor");
+		this.handler = handler;
+		this.executor = executor;
+		this.ownsExecutor = ownsExecutor;
+	}
+
+	/** Binds the server to an address and starts accepting connections. */
+	public PdefTcpServer bind(final SocketAddress address) throws IOException {
+		if (address == null) throw new NullPointerException("address");
+
+		ServerSocketChannel channel = ServerSocketChannel.open();
+		try {
+			channel.socket().setReuseAddress(true);
+			channel.socket().bind(address);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		return start(channel);
+	}
+
+	/**
+	 * Warms up the handler and starts accepting connections from a bound server channel,
+	 * the server closes the channel.
+	 */
+	public synchronized PdefTcpServer start(final ServerSocketChannel channel)
+			throws IOException {
+		if (channel == null) throw new NullPointerException("channel");
+		if (serverChannel != null) throw new IllegalStateException("Server is already started");
+
+		handler.warmUp();
+		channel.configureBlocking(false);
+		selector = Selector.open();
+		channel.register(selector, SelectionKey.OP_ACCEPT);
+		serverChannel = channel;
+
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loop();
+			}
+		}, "pdef-tcp-server");
+		thread.setDaemon(true);
+		thread.start();
+		return this;
+	}
+
+	/** Returns a bound TCP server address or null. */
+	@Nullable
+	public SocketAddress getAddress() {
+		ServerSocketChannel channel = serverChannel;
+		if (channel == null) {
+			return null;
+		}
+
+		try {
+			return channel.socket().getLocalSocketAddress();
+		} catch (UnsupportedOperationException e) {
+			// It is not a TCP channel, i.e. a unix domain socket one.
+			return null;
+		}
+	}
+
+	/** Stops the server and closes all connections. */
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+
+		closed = true;
+		if (selector != null) {
+			selector.wakeup();
+			try {
+				thread.join(1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (ownsExecutor) {
+			executor.shutdownNow();
+		}
+	}
+
+	// Selector thread.
+
+	private void loop() {
+		try {
+			while (!closed) {
+				selector.select();
+				registerWrites();
+
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					handleKey(key);
+				}
+			}
+		} catch (ClosedSelectorException e) {
+			// The server is closed.
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, "Pdef TCP server failed", e);
+		} finally {
+			closeAll();
+		}
+	}
+
+	private void handleKey(final SelectionKey key) {
+		if (!key.isValid()) {
+			return;
+		}
+
+		if (key.isAcceptable()) {
+			accept();
+			return;
+		}
+
+		Connection connection = (Connection) key.attachment();
+		try {
+			if (key.isReadable()) {
+				connection.read();
+			}
+			if (key.isValid() && key.isWritable()) {
+				connection.write();
+			}
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Closing a pdef TCP connection", e);
+			connection.close();
+		}
+	}
+
+	private void accept() {
+		try {
+			SocketChannel channel = serverChannel.accept();
+			if (channel == null) {
+				return;
+			}
+
+			channel.configureBlocking(false);
+			setTcpNoDelay(channel);
+
+			Connection connection = new Connection(channel);
+			connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Failed to accept a pdef TCP connection", e);
+		}
+	}
+
+	/** Disables Nagle's algorithm on TCP channels, other channels do not support it. */
+	static void setTcpNoDelay(final SocketChannel channel) throws IOException {
+		try {
+			channel.socket().setTcpNoDelay(true);
+		} catch (UnsupportedOperationException e) {
+			// It is not a TCP channel.
+		}
+	}
+
+	private void registerWrites() {
+		Connection connection;
+		while ((connection = pendingWrites.poll()) != null) {
+			SelectionKey key = connection.key;
+			if (key.isValid()) {
+				key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+			}
+		}
+	}
+
+	private void closeAll() {
+		for (SelectionKey key : selector.keys()) {
+			try {
+				key.channel().close();
+			} catch (IOException e) {
+				logger.log(Level.FINE, "Failed to close a channel", e);
+			}
+		}
+
+		try {
+			selector.close();
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Failed to close a selector", e);
+		}
+	}
+
+	// Requests.
+
+	private void dispatch(final Connection connection, final int requestId,
+			final ByteBuffer body) {
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					connection.send(handle(requestId, body));
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			connection.send(error(requestId, TcpFrames.STATUS_UNAVAILABLE,
+					"Service unavailable"));
+		}
+	}
+
+	/** Handles a request frame and returns a response frame. */
+	ByteBuffer handle(final int requestId, final ByteBuffer body) {
+		try {
+			PdefRequest request = TcpFrames.decodeRequest(body);
+			PdefResponse<Object> response = handler.handle(request);
+			return TcpFrames.encodeResponse(requestId, TcpFrames.STATUS_OK,
+					PdefJson.serializeResponse(response, request.getFields()));
+
+		} catch (PdefOverloadException e) {
+			return error(requestId, TcpFrames.STATUS_UNAVAILABLE, "Service unavailable");
+		} catch (PdefException e) {
+			String message = e.getMessage();
+			return error(requestId, TcpFrames.STATUS_BAD_REQUEST,
+					message == null ? "Bad request" : message);
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Failed to handle a pdef TCP request", e);
+			return error(requestId, TcpFrames.STATUS_SERVER_ERROR, "Internal server error");
+		}
+	}
+
+	private static ByteBuffer error(final int requestId, final int status, final String message) {
+		return TcpFrames.encodeResponse(requestId, status, message.getBytes(TcpFrames.UTF8));
+	}
+
+	/** Server connection, it is read and written only by the selector thread. */
+	private class Connection {
+		private final SocketChannel channel;
+		private final Queue<ByteBuffer> writes = new ConcurrentLinkedQueue<ByteBuffer>();
+		private ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		private SelectionKey key;
+
+		Connection(final SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		void read() throws IOException {
+			int n = channel.read(buffer);
+			if (n == -1) {
+				close();
+				return;
+			}
+
+			buffer.flip();
+			while (buffer.remaining() >= TcpFrames.HEADER_SIZE) {
+				int length = buffer.getInt(buffer.position());
+				if (length < 4 || length > TcpFrames.MAX_FRAME_SIZE) {
+					throw new IOException("Invalid frame length " + length);
+				}
+				if (buffer.remaining() < length + 4) {
+					break;
+				}
+
+				buffer.getInt();
+				int requestId = buffer.getInt();
+				byte[] body = new byte[length - 4];
+				buffer.get(body);
+				dispatch(this, requestId, ByteBuffer.wrap(body));
+			}
+			buffer.compact();
+
+			// Grow the buffer to fit a large frame.
+			if (!buffer.hasRemaining()) {
+				ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+				buffer.flip();
+				larger.put(buffer);
+				buffer = larger;
+			}
+		}
+
+		void send(final ByteBuffer response) {
+			writes.add(response);
+			pendingWrites.add(this);
+			selector.wakeup();
+		}
+
+		void write() throws IOException {
+			ByteBuffer next;
+			while ((next = writes.peek()) != null) {
+				channel.write(next);
+				if (next.hasRemaining()) {
+					return;
+				}
+				writes.poll();
+			}
+
+			key.interestOps(SelectionKey.OP_READ);
+			if (!writes.isEmpty()) {
+				// A response has been added after the queue has been drained.
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		}
+
+		void close() {
+			key.cancel();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.log(Level.FINE, "Failed to close a channel", e);
+			}
+		}
+	}
+}
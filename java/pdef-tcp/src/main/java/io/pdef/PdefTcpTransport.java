@@ -0,0 +1,122 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pdef TCP client transport, it sends binary request frames over a few long-lived
+ * connections to a {@link PdefTcpServer}. Each connection pipelines many outstanding
+ * requests, their responses complete in any order.
+ *
+ * <pre>
+ * PdefTcpTransport transport = new PdefTcpTransport(new InetSocketAddress("blog", 9090));
+ * PdefClient&lt;Blog&gt; client = new PdefClient&lt;Blog&gt;("tcp://blog:9090", Blog.class)
+ *         .setTransport(transport);
+ * </pre>
+ *
+ * Share one transport between clients and close it on shutdown.
+ */
+public class PdefTcpTransport implements PdefTransport, Closeable {
+	public static final int DEFAULT_CONNECTIONS = 1;
+
+	private final SocketAddress address;
+	private final TcpConnection[] connections;
+	private final AtomicInteger next = new AtomicInteger();
+	private volatile int timeout;
+	private boolean closed;
+
+	public PdefTcpTransport(final SocketAddress address) {
+		this(address, DEFAULT_CONNECTIONS);
+	}
+
+	/** Creates a transport which spreads requests over several connections. */
+	public PdefTcpTransport(final SocketAddress address, final int connections) {
+		if (address == null) throw new NullPointerException("address");
+		if (connections < 1) throw new IllegalArgumentException("connections < 1");
+
+		this.address = address;
+		this.connections = new TcpConnection[connections];
+	}
+
+	public SocketAddress getAddress() {
+		return address;
+	}
+
+	public int getTimeout() {
+		return timeout;
+	}
+
+	/** Sets a response timeout in milliseconds, zero means no timeout (the default). */
+	public PdefTcpTransport setTimeout(final int timeout) {
+		if (timeout < 0) throw new IllegalArgumentException("timeout < 0");
+		this.timeout = timeout;
+		return this;
+	}
+
+	@Override
+	public byte[] send(final PdefRequest request) throws IOException {
+		if (request == null) throw new NullPointerException("request");
+
+		TcpConnection connection = connection((next.getAndIncrement() & Integer.MAX_VALUE)
+				% connections.length);
+		return connection.call(request, timeout);
+	}
+
+	/** Closes all connections, pending calls fail with IOExceptions. */
+	@Override
+	public synchronized void close() {
+		closed = true;
+		for (int i = 0; i < connections.length; i++) {
+			if (connections[i] != null) {
+				connections[i].close();
+				connections[i] = null;
+			}
+		}
+	}
+
+	/** Returns an open connection at an index, reconnects a failed one. */
+	private synchronized TcpConnection connection(final int index) throws IOException {
+		if (closed) {
+			throw new IOException("Transport is closed");
+		}
+
+		TcpConnection connection = connections[index];
+		if (connection != null && connection.isOpen()) {
+			return connection;
+		}
+
+		connection = new TcpConnection(openChannel());
+		connections[index] = connection;
+		return connection;
+	}
+
+	private SocketChannel openChannel() throws IOException {
+		SocketChannel channel = SocketChannel.open(address);
+		try {
+			PdefTcpServer.setTcpNoDelay(channel);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		return channel;
+	}
+}
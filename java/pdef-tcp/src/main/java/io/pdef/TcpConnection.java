@@ -0,0 +1,211 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Client pdef TCP connection, it pipelines requests from many threads. Writes are serialized,
+ * a reader thread completes pending calls by their request ids in any order.
+ */
+class TcpConnection {
+	private static final Logger logger = Logger.getLogger(TcpConnection.class.getName());
+	private static final int MAX_MESSAGE_LEN = 256;
+
+	private final SocketChannel channel;
+	private final Object writeLock = new Object();
+	private final AtomicInteger nextRequestId = new AtomicInteger();
+	private final Map<Integer, Call> calls = new ConcurrentHashMap<Integer, Call>();
+	private volatile IOException failure;
+
+	TcpConnection(final SocketChannel channel) {
+		if (channel == null) throw new NullPointerException("channel");
+		this.channel = channel;
+
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				readResponses();
+			}
+		}, "pdef-tcp-client");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	public boolean isOpen() {
+		return failure == null;
+	}
+
+	/** Returns the number of pending calls. */
+	public int getPendingCalls() {
+		return calls.size();
+	}
+
+	/**
+	 * Sends a request and waits for its response.
+	 *
+	 * @param timeout Timeout in milliseconds, zero means no timeout.
+	 * @return A JSON response body.
+	 * @throws PdefClientException on error responses.
+	 */
+	public byte[] call(final PdefRequest request, final int timeout) throws IOException {
+		int requestId = nextRequestId.incrementAndGet();
+		ByteBuffer frame = TcpFrames.encodeRequest(requestId, request);
+
+		Call call = new Call();
+		calls.put(requestId, call);
+		try {
+			write(frame);
+			return call.await(timeout);
+		} finally {
+			calls.remove(requestId);
+		}
+	}
+
+	public void close() {
+		fail(new IOException("Connection is closed"));
+	}
+
+	private void write(final ByteBuffer frame) throws IOException {
+		if (failure != null) {
+			throw failure;
+		}
+
+		try {
+			synchronized (writeLock) {
+				while (frame.hasRemaining()) {
+					channel.write(frame);
+				}
+			}
+		} catch (IOException e) {
+			fail(e);
+			throw e;
+		}
+	}
+
+	private void readResponses() {
+		ByteBuffer header = ByteBuffer.allocate(TcpFrames.HEADER_SIZE);
+		try {
+			while (true) {
+				header.clear();
+				readFully(header);
+				int length = header.getInt(0);
+				int requestId = header.getInt(4);
+				if (length < 6 || length > TcpFrames.MAX_FRAME_SIZE) {
+					throw new IOException("Invalid frame length " + length);
+				}
+
+				ByteBuffer body = ByteBuffer.allocate(length - 4);
+				readFully(body);
+				int status = body.getShort(0);
+				byte[] bytes = new byte[body.capacity() - 2];
+				System.arraycopy(body.array(), 2, bytes, 0, bytes.length);
+
+				Call call = calls.get(requestId);
+				if (call != null) {
+					call.complete(status, bytes);
+				}
+			}
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	private void readFully(final ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) == -1) {
+				throw new EOFException("Connection is closed by the server");
+			}
+		}
+	}
+
+	private void fail(final IOException e) {
+		synchronized (this) {
+			if (failure != null) {
+				return;
+			}
+			failure = e;
+		}
+
+		try {
+			channel.close();
+		} catch (IOException e1) {
+			logger.log(Level.FINE, "Failed to close a channel", e1);
+		}
+
+		for (Call call : new ArrayList<Call>(calls.values())) {
+			call.fail(e);
+		}
+	}
+
+	private static class Call {
+		private final CountDownLatch latch = new CountDownLatch(1);
+		private volatile int status;
+		private volatile byte[] body;
+		private volatile IOException error;
+
+		void complete(final int status, final byte[] body) {
+			this.status = status;
+			this.body = body;
+			latch.countDown();
+		}
+
+		void fail(final IOException error) {
+			this.error = error;
+			latch.countDown();
+		}
+
+		byte[] await(final int timeout) throws IOException {
+			try {
+				if (timeout <= 0) {
+					latch.await();
+				} else if (!latch.await(timeout, TimeUnit.MILLISECONDS)) {
+					throw new SocketTimeoutException("Read timed out");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+
+			if (body == null) {
+				throw error;
+			}
+			if (status != TcpFrames.STATUS_OK) {
+				String message = new String(body, TcpFrames.UTF8);
+				if (message.length() > MAX_MESSAGE_LEN) {
+					message = message.substring(0, MAX_MESSAGE_LEN) + "...";
+				}
+				message = message.replace("\n", " ").replace("\r", " ");
+				throw new PdefClientException("Status: " + status + ", message=" + message);
+			}
+			return body;
+		}
+	}
+}
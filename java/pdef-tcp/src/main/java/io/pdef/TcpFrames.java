@@ -0,0 +1,190 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Binary frames of the pdef TCP protocol. Each frame is prefixed with its length and
+ * a request id, responses carry the id of their request and complete in any order.
+ *
+ * <pre>
+ * frame:    int length, int requestId, byte[length - 4] body
+ * request:  byte method, string relativePath, params query, params post,
+ *           bytes jsonPost, string fields
+ * response: short status, byte[] JSON response or a UTF-8 error message
+ * params:   int count, (string key, string value)[count]
+ * string:   int length or -1 for null, UTF-8 bytes
+ * </pre>
+ *
+ * Statuses are HTTP status codes.
+ */
+final class TcpFrames {
+	static final Charset UTF8 = Charset.forName("UTF-8");
+	static final int HEADER_SIZE = 8;
+	static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+	static final int STATUS_OK = 200;
+	static final int STATUS_BAD_REQUEST = 400;
+	static final int STATUS_SERVER_ERROR = 500;
+	static final int STATUS_UNAVAILABLE = 503;
+
+	private static final byte GET = 0;
+	private static final byte POST = 1;
+
+	private TcpFrames() {}
+
+	static ByteBuffer encodeRequest(final int requestId, final PdefRequest request)
+			throws IOException {
+		FrameOutput out = new FrameOutput(requestId);
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeByte(request.isPost() ? POST : GET);
+		writeString(data, request.getRelativePath());
+		writeParams(data, request.getQuery());
+		writeParams(data, request.getPost());
+
+		Object jsonPost = request.getJsonPost();
+		writeBytes(data, jsonPost == null ? null : PdefJson.serialize(jsonPost).getBytes(UTF8));
+
+		PdefFieldMask fields = request.getFields();
+		writeString(data, fields == null ? null : fields.toString());
+		return out.toFrame();
+	}
+
+	/** Decodes a request from a frame body. */
+	static PdefRequest decodeRequest(final ByteBuffer buffer) throws IOException {
+		try {
+			PdefRequest request = new PdefRequest()
+					.setMethod(buffer.get() == POST ? "POST" : "GET")
+					.setRelativePath(readString(buffer))
+					.setQuery(readParams(buffer))
+					.setPost(readParams(buffer));
+
+			byte[] jsonPost = readBytes(buffer);
+			if (jsonPost != null) {
+				request.setJsonPostReader(new InputStreamReader(
+						new ByteArrayInputStream(jsonPost), UTF8));
+			}
+
+			request.setFields(PdefFieldMask.parse(readString(buffer)));
+			return request;
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated request frame");
+		}
+	}
+
+	static ByteBuffer encodeResponse(final int requestId, final int status, final byte[] body) {
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 2 + body.length);
+		buffer.putInt(4 + 2 + body.length);
+		buffer.putInt(requestId);
+		buffer.putShort((short) status);
+		buffer.put(body);
+		buffer.flip();
+		return buffer;
+	}
+
+	private static void writeParams(final DataOutputStream out, final Map<String, String> params)
+			throws IOException {
+		out.writeInt(params.size());
+		for (Map.Entry<String, String> entry : params.entrySet()) {
+			writeString(out, entry.getKey());
+			writeString(out, entry.getValue());
+		}
+	}
+
+	private static Map<String, String> readParams(final ByteBuffer buffer) throws IOException {
+		int count = buffer.getInt();
+		if (count < 0 || count > buffer.remaining()) {
+			throw new IOException("Invalid params count " + count);
+		}
+
+		Map<String, String> params = new LinkedHashMap<String, String>();
+		for (int i = 0; i < count; i++) {
+			params.put(readString(buffer), readString(buffer));
+		}
+		return params;
+	}
+
+	private static void writeString(final DataOutputStream out, @Nullable final String s)
+			throws IOException {
+		writeBytes(out, s == null ? null : s.getBytes(UTF8));
+	}
+
+	@Nullable
+	private static String readString(final ByteBuffer buffer) throws IOException {
+		byte[] bytes = readBytes(buffer);
+		return bytes == null ? null : new String(bytes, UTF8);
+	}
+
+	private static void writeBytes(final DataOutputStream out, @Nullable final byte[] bytes)
+			throws IOException {
+		if (bytes == null) {
+			out.writeInt(-1);
+			return;
+		}
+
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	@Nullable
+	private static byte[] readBytes(final ByteBuffer buffer) throws IOException {
+		int length = buffer.getInt();
+		if (length == -1) {
+			return null;
+		}
+		if (length < 0 || length > buffer.remaining()) {
+			throw new IOException("Invalid length " + length);
+		}
+
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	/** Frame output which reserves the header and fills it in without copying the body. */
+	private static class FrameOutput extends ByteArrayOutputStream {
+		FrameOutput(final int requestId) {
+			super(256);
+			count = HEADER_SIZE;
+			buf[4] = (byte) (requestId >>> 24);
+			buf[5] = (byte) (requestId >>> 16);
+			buf[6] = (byte) (requestId >>> 8);
+			buf[7] = (byte) requestId;
+		}
+
+		ByteBuffer toFrame() throws IOException {
+			if (count > MAX_FRAME_SIZE) {
+				throw new IOException("Request frame is too large, " + count + " bytes");
+			}
+
+			ByteBuffer buffer = ByteBuffer.wrap(buf, 0, count);
+			buffer.putInt(0, count - 4);
+			return buffer;
+		}
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import com.google.common.collect.ImmutableMap;
+import io.pdef.test.TestInterface;
+import io.pdef.test.TestStruct;
+import io.pdef.test.TestSubInterface;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class PdefTcpTransportTest {
+	TestInterface server;
+	TestSubInterface subServer;
+	PdefTcpServer tcpServer;
+	PdefTcpTransport transport;
+	PdefClient<TestInterface> client;
+
+	@Before
+	public void setUp() throws Exception {
+		server = mock(TestInterface.class);
+		subServer = mock(TestSubInterface.class);
+		when(server.interface0(anyBoolean(), anyInt(), anyString())).thenReturn(subServer);
+
+		tcpServer = new PdefTcpServer(new PdefHandler<TestInterface>(TestInterface.class, server))
+				.bind(new InetSocketAddress("127.0.0.1", 0));
+		transport = new PdefTcpTransport(tcpServer.getAddress());
+		client = new PdefClient<TestInterface>("tcp://localhost", TestInterface.class)
+				.setTransport(transport);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		transport.close();
+		tcpServer.close();
+	}
+
+	@Test
+	public void testFrames() throws Exception {
+		PdefRequest request = new PdefRequest()
+				.setMethod("POST")
+				.setRelativePath("/interface0/1/0/привет/post")
+				.setPost(ImmutableMap.of("int0", "1", "string0", "hello"))
+				.setFields(PdefFieldMask.parse("id,name"));
+
+		ByteBuffer frame = TcpFrames.encodeRequest(7, request);
+		assertThat(frame.getInt()).isEqualTo(frame.limit() - 4);
+		assertThat(frame.getInt()).isEqualTo(7);
+
+		PdefRequest decoded = TcpFrames.decodeRequest(frame.slice());
+		assertThat(decoded.isPost()).isTrue();
+		assertThat(decoded.getRelativePath()).isEqualTo(request.getRelativePath());
+		assertThat(decoded.getQuery()).isEmpty();
+		assertThat(decoded.getPost()).isEqualTo(request.getPost());
+		assertThat(decoded.getFields().toString()).isEqualTo("id,name");
+	}
+
+	@Test
+	public void testGet() throws Exception {
+		when(subServer.get(1, "hello")).thenReturn(2);
+
+		int result = client.proxy().interface0(true, 0, "world").get(1, "hello");
+		assertThat(result).isEqualTo(2);
+	}
+
+	@Test
+	public void testPost() throws Exception {
+		TestStruct struct = new TestStruct().setInt0(10).setString0("hello");
+		when(subServer.post(1, "привет")).thenReturn(3);
+		when(server.request(any(TestStruct.class))).thenReturn(struct);
+
+		assertThat(client.proxy().interface0(false, 0, "world").post(1, "привет")).isEqualTo(3);
+		assertThat(client.proxy().request(struct).getString0()).isEqualTo("hello");
+	}
+
+	@Test
+	public void testJsonPost() throws Exception {
+		when(subServer.post(1, "привет")).thenReturn(3);
+		client.setJsonPost(true);
+
+		assertThat(client.proxy().interface0(false, 0, "world").post(1, "привет")).isEqualTo(3);
+	}
+
+	@Test
+	public void testPipelining() throws Exception {
+		// The first call completes only after the second one, both share one connection.
+		final CountDownLatch second = new CountDownLatch(1);
+		when(subServer.get(anyInt(), anyString())).thenAnswer(new Answer<Integer>() {
+			@Override
+			public Integer answer(final InvocationOnMock invocation) throws Throwable {
+				int n = (Integer) invocation.getArguments()[0];
+				if (n == 1) {
+					assertThat(second.await(10, TimeUnit.SECONDS)).isTrue();
+				}
+				return n;
+			}
+		});
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<Integer> first = executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					return client.proxy().interface0(true, 0, "a").get(1, "b");
+				}
+			});
+
+			assertThat(client.proxy().interface0(true, 0, "a").get(2, "b")).isEqualTo(2);
+			second.countDown();
+			assertThat(first.get(10, TimeUnit.SECONDS)).isEqualTo(1);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testError() throws Exception {
+		try {
+			client.handle(new PdefRequest().setMethod("GET").setRelativePath("/unknown"),
+					Void.class);
+			fail("Expected a PdefClientException");
+		} catch (PdefClientException e) {
+			assertThat(e.getMessage()).startsWith("Status: 400");
+			assertThat(e.getMessage()).contains("Method is not found unknown");
+		}
+	}
+
+	@Test
+	public void testServerClosed() throws Exception {
+		client.proxy().void0();
+		tcpServer.close();
+
+		try {
+			client.proxy().void0();
+			fail("Expected a PdefClientException");
+		} catch (PdefClientException e) {
+			assertThat(e.getCause()).isInstanceOf(IOException.class);
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pdef unix domain socket server, it serves the pdef TCP protocol on a socket file for
+ * clients on the same host, i.e. sidecars. Connect to it with a {@link PdefUnixTransport}.
+ *
+ * <pre>
+ * PdefUnixServer server = new PdefUnixServer(new PdefHandler&lt;Blog&gt;(Blog.class, blog))
+ *         .bind(Paths.get("/var/run/blog.sock"));
+ * </pre>
+ *
+ * The server replaces a stale socket file on bind and deletes it on close, it never
+ * deletes other files or sockets of running servers.
+ */
+public class PdefUnixServer extends PdefTcpServer {
+	private static final Logger logger = Logger.getLogger(PdefUnixServer.class.getName());
+
+	private volatile Path path;
+
+	/** Creates a server which handles requests in a cached thread pool. */
+	public PdefUnixServer(final PdefHandler<?> handler) {
+		super(handler);
+	}
+
+	/** Creates a server which handles requests in an executor, the executor is not shut down. */
+	public PdefUnixServer(final PdefHandler<?> handler, final ExecutorService executor) {
+		super(handler, executor);
+	}
+
+	/**
+	 * Binds the server to a socket file and starts accepting connections.
+	 * @throws IOException if a path is not a socket or another server listens on it.
+	 */
+	public synchronized PdefUnixServer bind(final Path path) throws IOException {
+		if (path == null) throw new NullPointerException("path");
+
+		deleteStaleSocket(path);
+		ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		try {
+			channel.bind(UnixDomainSocketAddress.of(path));
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+
+		start(channel);
+		this.path = path;
+		return this;
+	}
+
+	/** Deletes a socket file which no server listens on, fails on any other file. */
+	private static void deleteStaleSocket(final Path path) throws IOException {
+		BasicFileAttributes attrs;
+		try {
+			attrs = Files.readAttributes(path, BasicFileAttributes.class,
+					LinkOption.NOFOLLOW_LINKS);
+		} catch (NoSuchFileException e) {
+			return;
+		}
+
+		// Sockets are neither regular files, directories nor links.
+		if (!attrs.isOther()) {
+			throw new IOException("Path exists and is not a socket file " + path);
+		}
+
+		boolean live;
+		SocketChannel probe = SocketChannel.open(StandardProtocolFamily.UNIX);
+		try {
+			live = probe.connect(UnixDomainSocketAddress.of(path));
+		} catch (IOException e) {
+			live = false;
+		} finally {
+			probe.close();
+		}
+
+		if (live) {
+			throw new IOException("Socket file is in use by another server " + path);
+		}
+		Files.deleteIfExists(path);
+	}
+
+	/** Binds the server to a unix domain socket address or to a TCP one. */
+	@Override
+	public PdefTcpServer bind(final SocketAddress address) throws IOException {
+		if (address instanceof UnixDomainSocketAddress) {
+			return bind(((UnixDomainSocketAddress) address).getPath());
+		}
+		return super.bind(address);
+	}
+
+	/** Returns a bound socket file or null. */
+	@Nullable
+	public Path getPath() {
+		return path;
+	}
+
+	@Nullable
+	@Override
+	public SocketAddress getAddress() {
+		Path path = this.path;
+		return path == null ? super.getAddress() : UnixDomainSocketAddress.of(path);
+	}
+
+	/** Stops the server, closes all connections and deletes the socket file. */
+	@Override
+	public synchronized void close() {
+		super.close();
+
+		Path path = this.path;
+		if (path == null) {
+			return;
+		}
+
+		try {
+			Files.deleteIfExists(path);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Failed to delete a socket file " + path, e);
+		}
+	}
+}
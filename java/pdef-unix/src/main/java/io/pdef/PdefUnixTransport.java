@@ -0,0 +1,47 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import java.net.UnixDomainSocketAddress;
+import java.nio.file.Path;
+
+/**
+ * Pdef unix domain socket client transport, it pipelines requests over a few long-lived
+ * connections to a {@link PdefUnixServer} on the same host.
+ *
+ * <pre>
+ * PdefUnixTransport transport = new PdefUnixTransport(Paths.get("/var/run/blog.sock"));
+ * PdefClient&lt;Blog&gt; client = new PdefClient&lt;Blog&gt;("unix:/var/run/blog.sock", Blog.class)
+ *         .setTransport(transport);
+ * </pre>
+ *
+ * Share one transport between clients and close it on shutdown.
+ */
+public class PdefUnixTransport extends PdefTcpTransport {
+	public PdefUnixTransport(final Path path) {
+		this(path, DEFAULT_CONNECTIONS);
+	}
+
+	/** Creates a transport which spreads requests over several connections. */
+	public PdefUnixTransport(final Path path, final int connections) {
+		super(UnixDomainSocketAddress.of(path), connections);
+	}
+
+	public Path getPath() {
+		return ((UnixDomainSocketAddress) getAddress()).getPath();
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import io.pdef.test.TestInterface;
+import io.pdef.test.TestSubInterface;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class PdefUnixServerTest {
+	Path dir;
+	Path path;
+	TestInterface server;
+	TestSubInterface subServer;
+	PdefUnixServer unixServer;
+	PdefUnixTransport transport;
+	PdefClient<TestInterface> client;
+
+	@Before
+	public void setUp() throws Exception {
+		server = mock(TestInterface.class);
+		subServer = mock(TestSubInterface.class);
+		when(server.interface0(anyBoolean(), anyInt(), anyString())).thenReturn(subServer);
+
+		dir = Files.createTempDirectory("pdef");
+		path = dir.resolve("test.sock");
+		unixServer = new PdefUnixServer(
+				new PdefHandler<TestInterface>(TestInterface.class, server)).bind(path);
+		transport = new PdefUnixTransport(path);
+		client = new PdefClient<TestInterface>("unix:" + path, TestInterface.class)
+				.setTransport(transport);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		transport.close();
+		unixServer.close();
+		Files.deleteIfExists(path);
+		Files.delete(dir);
+	}
+
+	@Test
+	public void testGet() throws Exception {
+		when(subServer.get(1, "привет")).thenReturn(2);
+
+		int result = client.proxy().interface0(true, 0, "world").get(1, "привет");
+		assertThat(result).isEqualTo(2);
+		assertThat(unixServer.getPath()).isEqualTo(path);
+	}
+
+	@Test
+	public void testReuseConnection() throws Exception {
+		when(subServer.get(anyInt(), anyString())).thenReturn(2);
+
+		for (int i = 0; i < 10; i++) {
+			assertThat(client.proxy().interface0(true, i, "a").get(i, "b")).isEqualTo(2);
+		}
+	}
+
+	@Test
+	public void testBind_staleSocket() throws Exception {
+		unixServer.close();
+		ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		channel.bind(UnixDomainSocketAddress.of(path));
+		channel.close();
+		assertThat(Files.exists(path)).isTrue();
+
+		unixServer = new PdefUnixServer(
+				new PdefHandler<TestInterface>(TestInterface.class, server)).bind(path);
+		client.proxy().void0();
+	}
+
+	@Test
+	public void testBind_regularFile() throws Exception {
+		unixServer.close();
+		Files.write(path, "data".getBytes("UTF-8"));
+
+		PdefUnixServer other = new PdefUnixServer(
+				new PdefHandler<TestInterface>(TestInterface.class, server));
+		try {
+			other.bind(path);
+			fail("Expected an IOException");
+		} catch (IOException e) {
+			assertThat(new String(Files.readAllBytes(path), "UTF-8")).isEqualTo("data");
+		} finally {
+			other.close();
+		}
+	}
+
+	@Test
+	public void testBind_socketInUse() throws Exception {
+		PdefUnixServer other = new PdefUnixServer(
+				new PdefHandler<TestInterface>(TestInterface.class, server));
+		try {
+			other.bind(path);
+			fail("Expected an IOException");
+		} catch (IOException e) {
+			assertThat(other.getPath()).isNull();
+		}
+
+		client.proxy().void0();
+	}
+
+	@Test
+	public void testClose_deletesFile() throws Exception {
+		assertThat(Files.exists(path)).isTrue();
+
+		unixServer.close();
+		assertThat(Files.exists(path)).isFalse();
+	}
+}
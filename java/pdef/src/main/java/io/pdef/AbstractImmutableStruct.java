@@ -0,0 +1,58 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+/**
+ * Abstract immutable struct, the base class of structs generated with the immutable option.
+ *
+ * Immutable structs are never copied, {@link #copy()} returns the struct itself,
+ * and their hash codes are computed only once.
+ */
+public abstract class AbstractImmutableStruct extends AbstractStruct {
+	private transient int hash;
+
+	@Override
+	public Struct copy() {
+		return this;
+	}
+
+	/** Returns a builder initialized with this struct fields, the fields are shared, not copied. */
+	public abstract StructBuilder<?> toBuilder();
+
+	@Override
+	public final int hashCode() {
+		int h = hash;
+		if (h == 0) {
+			h = computeHashCode();
+			hash = h;
+		}
+		return h;
+	}
+
+	protected abstract int computeHashCode();
+
+	/** Returns a nested builder class of an immutable struct. */
+	static Class<?> getBuilderClass(final Class<?> cls) {
+		for (Class<?> nested : cls.getDeclaredClasses()) {
+			if (StructBuilder.class.isAssignableFrom(nested)) {
+				return nested;
+			}
+		}
+
+		throw new IllegalArgumentException("No struct builder in " + cls);
+	}
+}
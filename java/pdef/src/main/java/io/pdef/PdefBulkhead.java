@@ -0,0 +1,205 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bulkhead isolates pdef methods by capping their in-flight invocations.
+ *
+ * Invocations above the cap wait for a bounded time and then are rejected with
+ * {@link PdefOverloadException}. When an executor is set, the invocations run on it,
+ * so that a slow method uses only its own threads. Invocations which return
+ * {@link PdefStreamList}s hold their slots until the lists are closed.
+ */
+public class PdefBulkhead {
+	private final int maxInFlight;
+	private final long maxWaitMillis;
+	private final ExecutorService executor;
+
+	private final Semaphore permits;
+	private final AtomicInteger waiting = new AtomicInteger();
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	/** Creates a bulkhead which runs invocations on the calling threads. */
+	public PdefBulkhead(final int maxInFlight, final long maxWaitMillis) {
+		this(maxInFlight, maxWaitMillis, null);
+	}
+
+	/**
+	 * Creates a bulkhead.
+	 *
+	 * @param maxInFlight   max concurrent invocations.
+	 * @param maxWaitMillis max time to wait for a free slot, zero to reject immediately.
+	 * @param executor      optional dedicated executor to run invocations on.
+	 */
+	public PdefBulkhead(final int maxInFlight, final long maxWaitMillis,
+			@Nullable final ExecutorService executor) {
+		if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight must be positive");
+		if (maxWaitMillis < 0) throw new IllegalArgumentException("maxWaitMillis is negative");
+
+		this.maxInFlight = maxInFlight;
+		this.maxWaitMillis = maxWaitMillis;
+		this.executor = executor;
+		this.permits = new Semaphore(maxInFlight, true);
+	}
+
+	/**
+	 * Executes a callable within this bulkhead or throws PdefOverloadException.
+	 * A stream list result is returned as a list which releases the slot on close.
+	 */
+	@SuppressWarnings("unchecked")
+	public <V> V execute(final Callable<V> callable) {
+		if (callable == null) throw new NullPointerException("callable");
+
+		acquire();
+		boolean release = true;
+		try {
+			V result = executor == null ? call(callable) : submit(callable);
+			if (result instanceof PdefStreamList) {
+				// Streams are iterated after the invocation, i.e. during serialization.
+				release = false;
+				return (V) hold((PdefStreamList<?>) result);
+			}
+			return result;
+		} finally {
+			if (release) {
+				permits.release();
+			}
+		}
+	}
+
+	/** Returns a stream list which releases a slot once when it is closed. */
+	private <E> PdefStreamList<E> hold(final PdefStreamList<E> list) {
+		final AtomicBoolean released = new AtomicBoolean();
+		return new PdefStreamList<E>(list.iterator(), new Closeable() {
+			@Override
+			public void close() throws IOException {
+				try {
+					list.close();
+				} finally {
+					if (released.compareAndSet(false, true)) {
+						permits.release();
+					}
+				}
+			}
+		});
+	}
+
+	private void acquire() {
+		if (permits.tryAcquire()) {
+			return;
+		}
+
+		boolean acquired = false;
+		if (maxWaitMillis > 0) {
+			waiting.incrementAndGet();
+			try {
+				acquired = permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				waiting.decrementAndGet();
+			}
+		}
+
+		if (!acquired) {
+			rejectedCount.incrementAndGet();
+			throw new PdefOverloadException("Bulkhead is full, maxInFlight=" + maxInFlight);
+		}
+	}
+
+	private <V> V call(final Callable<V> callable) {
+		try {
+			return callable.call();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private <V> V submit(final Callable<V> callable) {
+		Future<V> future;
+		try {
+			future = executor.submit(callable);
+		} catch (RejectedExecutionException e) {
+			rejectedCount.incrementAndGet();
+			throw new PdefOverloadException("Bulkhead executor rejected an invocation", e);
+		}
+
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new PdefException("Interrupted while waiting for an invocation", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else {
+				throw new RuntimeException(cause);
+			}
+		}
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	public long getMaxWaitMillis() {
+		return maxWaitMillis;
+	}
+
+	@Nullable
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	/** Returns the number of running invocations. */
+	public int getInFlight() {
+		return maxInFlight - permits.availablePermits();
+	}
+
+	/** Returns the number of invocations waiting for a free slot. */
+	public int getWaiting() {
+		return waiting.get();
+	}
+
+	/** Returns the number of rejected invocations. */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return "PdefBulkhead{maxInFlight=" + maxInFlight
+				+ ", inFlight=" + getInFlight()
+				+ ", waiting=" + waiting.get()
+				+ ", rejectedCount=" + rejectedCount.get()
+				+ '}';
+	}
+}
@@ -1,18 +1,16 @@
 package io.pdef;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
 import javax.annotation.Nullable;
 import java.io.*;
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLEncoder;
 import java.nio.charset.Charset;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.*;
 
 public class PdefClient<T> {
@@ -24,20 +22,43 @@ public class PdefClient<T> {
 	static final String CONTENT_LENGTH_HEADER = "Content-Length";
 	static final String APPLICATION_X_WWW_FORM_URLENCODED =
 			"application/x-www-form-urlencoded;charset=utf-8";
+	static final String APPLICATION_JSON = "application/json;charset=utf-8";
 	static final int MAX_RPC_EXCEPTION_MESSAGE_LEN = 256;
 
-	private static final ThreadLocal<DateFormat> DATE_FORMAT = new ThreadLocal<DateFormat>() {
+	private static final int MAX_URL_BUFFER_SIZE = 8192;
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	/** Reusable url buffers, large buffers are not kept. */
+	private static final ThreadLocal<StringBuilder> URL_BUFFER = new ThreadLocal<StringBuilder>() {
 		@Override
-		protected DateFormat initialValue() {
-			DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-			dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-			return dateFormat;
+		protected StringBuilder initialValue() {
+			return new StringBuilder(256);
 		}
 	};
 
+	private static final Map<Class<?>, Class<?>> PRIMITIVE_WRAPPERS;
+	static {
+		Map<Class<?>, Class<?>> map = new HashMap<Class<?>, Class<?>>();
+		map.put(void.class, Void.class);
+		map.put(boolean.class, Boolean.class);
+		map.put(short.class, Short.class);
+		map.put(int.class, Integer.class);
+		map.put(long.class, Long.class);
+		map.put(float.class, Float.class);
+		map.put(double.class, Double.class);
+		PRIMITIVE_WRAPPERS = map;
+	}
+
 	private final String url;
 	private final Class<T> iface;
 	private final PdefClientSession session;
+	private PdefConnectionFactory connectionFactory = new DefaultConnectionFactory();
+	private PdefTransport transport;
+	private boolean streamLists;
+	private boolean jsonPost;
+	private boolean lazyResults;
+	private PdefInterner interner;
+	private PdefDeltaCache deltas;
 
 	public PdefClient(final String url, final Class<T> iface) {
 		this(url, iface, new DefaultSession());
@@ -61,22 +82,206 @@ public class PdefClient<T> {
 		return iface;
 	}
 
+	public PdefConnectionFactory getConnectionFactory() {
+		return connectionFactory;
+	}
+
+	/** Sets a connection factory, it opens URL connections by default. */
+	public PdefClient<T> setConnectionFactory(final PdefConnectionFactory connectionFactory) {
+		if (connectionFactory == null) throw new NullPointerException("connectionFactory");
+		this.connectionFactory = connectionFactory;
+		return this;
+	}
+
+	@Nullable
+	public PdefTransport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * Sets a custom transport, it replaces HTTP connections and the client session,
+	 * the url is not used then. Results are parsed as usual.
+	 */
+	public PdefClient<T> setTransport(@Nullable final PdefTransport transport) {
+		this.transport = transport;
+		return this;
+	}
+
+	public boolean isStreamLists() {
+		return streamLists;
+	}
+
+	/**
+	 * Enables the streaming mode for list results. In this mode, list results are returned
+	 * as {@link PdefStreamList}s which parse elements from a connection as they arrive.
+	 * The lists must be fully iterated or closed to release their connections. Iterate them
+	 * once to stream the elements, size, get and other list methods buffer them first.
+	 */
+	public PdefClient<T> setStreamLists(final boolean streamLists) {
+		this.streamLists = streamLists;
+		return this;
+	}
+
+	public boolean isJsonPost() {
+		return jsonPost;
+	}
+
+	/**
+	 * Enables the JSON post mode. In this mode, post arguments are streamed as
+	 * one application/json object instead of an urlencoded form, and the server parses
+	 * them directly into the argument types. Servers negotiate the mode by the content type.
+	 */
+	public PdefClient<T> setJsonPost(final boolean jsonPost) {
+		this.jsonPost = jsonPost;
+		return this;
+	}
+
+	public boolean isLazyResults() {
+		return lazyResults;
+	}
+
+	/**
+	 * Enables the lazy mode for results. In this mode, responses are read as bytes and
+	 * lists and maps of structs and collections are returned as read-only views which decode
+	 * their elements on first access, unread elements are skipped without parsing them.
+	 * Streamed list results take precedence over lazy ones.
+	 */
+	public PdefClient<T> setLazyResults(final boolean lazyResults) {
+		this.lazyResults = lazyResults;
+		return this;
+	}
+
+	@Nullable
+	public PdefInterner getInterner() {
+		return interner;
+	}
+
+	/**
+	 * Sets an interner to deduplicate strings, map keys and optionally small values
+	 * in parsed results, lazy results are not deduplicated.
+	 */
+	public PdefClient<T> setInterner(@Nullable final PdefInterner interner) {
+		this.interner = interner;
+		return this;
+	}
+
+	@Nullable
+	public PdefDeltaCache getDeltas() {
+		return deltas;
+	}
+
+	/**
+	 * Enables delta responses for HTTP GET results. In this mode, the client keeps copies
+	 * of results by their urls, sends their versions and applies structural diffs returned
+	 * by the server, or reuses a copy when a result is unchanged. Streamed list results
+	 * take precedence over deltas, deltas take precedence over lazy results.
+	 */
+	public PdefClient<T> setDeltas(@Nullable final PdefDeltaCache deltas) {
+		this.deltas = deltas;
+		return this;
+	}
+
 	public T proxy() {
 		return PdefProxy.create(iface, this);
 	}
 
+	/**
+	 * Returns a proxy which requests only the result fields selected by a mask,
+	 * unselected fields are absent in results.
+	 */
+	public T proxy(final PdefFieldMask fields) {
+		if (fields == null) throw new NullPointerException("fields");
+		return PdefProxy.create(iface, this, fields);
+	}
+
+	/**
+	 * Returns a proxy which subscribes to GET results, see {@link PdefSubscriptions}.
+	 * A call returns a result when it differs from the copy held by the client, otherwise
+	 * the server holds the request until the result changes or up to waitMillis, and
+	 * the call returns the held copy on timeout. First calls return immediately.
+	 * Results are held in the delta cache, so that watching requires {@link #setDeltas}.
+	 */
+	public T watch(final long waitMillis) {
+		if (waitMillis < 1) throw new IllegalArgumentException("waitMillis must be positive");
+		if (deltas == null) throw new IllegalStateException("Watching requires deltas");
+		return PdefProxy.create(iface, this, null, waitMillis);
+	}
+
+	/**
+	 * Creates proxy classes, request encoders and JSON adapters of the interface and its
+	 * subinterfaces, so that first calls do not pay for reflection.
+	 */
+	public PdefClient<T> warmUp() {
+		for (Class<?> cls : PdefMethodDescriptor.withSubinterfaces(iface)) {
+			PdefProxy.warmUp(cls);
+
+			for (PdefMethodDescriptor method : PdefMethodDescriptor.forInterface(cls)) {
+				PdefMethodEncoder.forMethod(method.getMethod());
+				for (Type type : method.getArgTypes()) {
+					PdefJson.warmUp(type);
+				}
+
+				if (method.hasDataTypeResult()) {
+					Type resultType = method.getMethod().getGenericReturnType();
+					PdefJson.warmUp(resultType);
+					PdefJson.warmUp(PdefResponse.generic(boxed(resultType)));
+				}
+			}
+		}
+		return this;
+	}
+
 	public Object handle(final List<PdefInvocation> invocations) {
-		PdefRequest request = serializeInvocations(invocations);
+		return handle(invocations, null);
+	}
+
+	public Object handle(final List<PdefInvocation> invocations,
+			@Nullable final PdefFieldMask fields) {
+		return handle(invocations, fields, 0);
+	}
+
+	/** Handles invocations, waits up to waitMillis for a held GET result to change. */
+	public Object handle(final List<PdefInvocation> invocations,
+			@Nullable final PdefFieldMask fields, final long waitMillis) {
+		if (fields == null && transport instanceof PdefLocalTransport) {
+			PdefLocalTransport local = (PdefLocalTransport) transport;
+			if (local.isCopyResults()) {
+				return local.invoke(invocations);
+			}
+		}
+
+		PdefRequest request = serializeInvocations(invocations, jsonPost)
+				.setFields(fields)
+				.setWaitMillis(waitMillis);
 		PdefInvocation last = invocations.get(invocations.size() - 1);
 		Type resultType = last.getMethod().getGenericReturnType();
 		return handle(request, resultType);
 	}
 
 	public Object handle(final PdefRequest request, final Type resultType) {
+		if (transport != null) {
+			return handleTransport(request, resultType);
+		}
+
 		try {
 			URL url = buildUrl(this.url, request);
 			HttpURLConnection connection = openConnection(url, request);
 			session.connectionOpened(connection);
+			boolean streaming = false;
+
+			PdefDeltaCache deltas = isDelta(request, resultType) ? this.deltas : null;
+			String key = deltas == null ? null : url.toString();
+			PdefDeltaCache.Entry held = deltas == null ? null : deltas.get(key);
+			if (deltas != null) {
+				connection.setRequestProperty(PdefDelta.A_IM_HEADER, PdefDelta.PDEF_DELTA);
+				if (held != null) {
+					connection.setRequestProperty(PdefDelta.IF_NONE_MATCH_HEADER,
+							PdefDelta.etag(held.version));
+					if (request.getWaitMillis() > 0) {
+						setWait(connection, request.getWaitMillis());
+					}
+				}
+			}
 
 			try {
 				if (request.isPost()) {
@@ -87,12 +292,29 @@ public class PdefClient<T> {
 				int status = connection.getResponseCode();
 				session.responseReceived(connection);
 
+				if (deltas != null && (status == HttpURLConnection.HTTP_OK || (held != null
+						&& (status == HttpURLConnection.HTTP_NOT_MODIFIED
+						|| status == PdefDelta.STATUS_IM_USED)))) {
+					return readDelta(connection, status, deltas, key, held, resultType);
+				}
+
 				if (status == HttpURLConnection.HTTP_OK) {
 					// It's a successful response, try to read the result.
 					InputStream stream = new BufferedInputStream(connection.getInputStream());
-					Type type = PdefResponse.generic(resultType);
-					PdefResponse<?> response = (PdefResponse<?>) PdefJson.parse(stream, type);
-					return response == null ? null : response.getData();
+					Type elementType = streamLists ? getListElementType(resultType) : null;
+					if (elementType != null) {
+						streaming = true;
+						return interner == null
+								? PdefJson.parseStream(stream, elementType)
+								: PdefJson.parseStream(stream, elementType, interner);
+					}
+
+					if (lazyResults) {
+						byte[] bytes = readBytes(connection, stream);
+						return PdefJson.parseLazyData(bytes, resultType);
+					}
+
+					return parseResponse(stream, resultType);
 				}
 				
 				session.handleError(connection);
@@ -112,62 +334,154 @@ public class PdefClient<T> {
 					closeLogExc(input);
 				}
 			} finally {
-				connection.disconnect();
+				if (!streaming) {
+					connection.disconnect();
+				}
 			}
 		} catch (IOException e) {
 			throw new PdefClientException(e);
 		}
 	}
 
+	private Object handleTransport(final PdefRequest request, final Type resultType) {
+		byte[] bytes;
+		try {
+			bytes = transport.send(request);
+		} catch (IOException e) {
+			throw new PdefClientException(e);
+		}
+
+		InputStream stream = new ByteArrayInputStream(bytes);
+		Type elementType = streamLists ? getListElementType(resultType) : null;
+		if (elementType != null) {
+			return interner == null
+					? PdefJson.parseStream(stream, elementType)
+					: PdefJson.parseStream(stream, elementType, interner);
+		}
+
+		if (lazyResults) {
+			return PdefJson.parseLazyData(bytes, resultType);
+		}
+		return parseResponse(stream, resultType);
+	}
+
+	private boolean isDelta(final PdefRequest request, final Type resultType) {
+		return deltas != null
+				&& !request.isPost()
+				&& !(streamLists && getListElementType(resultType) != null);
+	}
+
+	/** Sets a subscription wait header, extends a read timeout to outlast the wait. */
+	private static void setWait(final HttpURLConnection connection, final long waitMillis) {
+		connection.setRequestProperty(PdefSubscriptions.WAIT_HEADER, String.valueOf(waitMillis));
+
+		int readTimeout = connection.getReadTimeout();
+		if (readTimeout > 0) {
+			connection.setReadTimeout((int) Math.min(Integer.MAX_VALUE, readTimeout + waitMillis));
+		}
+	}
+
+	/**
+	 * Reads a full result, applies a delta to a held copy or reuses an unchanged copy,
+	 * keeps a new copy when the server returns its version.
+	 */
+	private Object readDelta(final HttpURLConnection connection, final int status,
+			final PdefDeltaCache deltas, final String key,
+			@Nullable final PdefDeltaCache.Entry held, final Type resultType)
+			throws IOException {
+		JsonElement data;
+		if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+			data = held.data;
+		} else {
+			InputStream stream = new BufferedInputStream(connection.getInputStream());
+			JsonObject body;
+			try {
+				body = PdefJson.parseTree(stream).getAsJsonObject();
+			} finally {
+				closeLogExc(stream);
+			}
+
+			data = status == PdefDelta.STATUS_IM_USED
+					? PdefDelta.apply(held.data, body.get(PdefDelta.DELTA_FIELD))
+					: body.get(PdefJson.DATA_FIELD);
+		}
+
+		String version = PdefDelta.parseETag(connection.getHeaderField(PdefDelta.ETAG_HEADER));
+		if (version != null && data != null) {
+			deltas.put(key, version, data);
+		}
+		return PdefJson.parseTree(data, boxed(resultType));
+	}
+
+	/** Parses a {"data": result} response and returns its data. */
+	private Object parseResponse(final InputStream stream, final Type resultType) {
+		Type type = PdefResponse.generic(boxed(resultType));
+		PdefResponse<?> response = (PdefResponse<?>) (interner == null
+				? PdefJson.parse(stream, type)
+				: PdefJson.parse(stream, type, interner));
+		return response == null ? null : response.getData();
+	}
+
 	private URL buildUrl(final String url, final PdefRequest request)
-			throws MalformedURLException, UnsupportedEncodingException {
-		StringBuilder sb = new StringBuilder(url);
+			throws MalformedURLException {
+		StringBuilder sb = urlBuffer();
+		sb.append(url);
 		if (!url.endsWith("/")) {
-			sb.append("/");
+			sb.append('/');
 		}
 
 		String relPath = request.getRelativePath();
-		if (relPath.startsWith("/")) {
-			relPath = relPath.substring(1);
-		}
-		sb.append(relPath);
+		sb.append(relPath, relPath.startsWith("/") ? 1 : 0, relPath.length());
 
 		Map<String, String> query = request.getQuery();
 		if (!query.isEmpty()) {
-			sb.append("?");
-			sb.append(buildParamsQuery(query));
+			sb.append('?');
+			appendParams(sb, query);
+		}
+
+		PdefFieldMask fields = request.getFields();
+		if (fields != null) {
+			sb.append(query.isEmpty() ? '?' : '&');
+			sb.append(PdefFieldMask.PARAM).append('=');
+			urlencode(sb, fields.toString());
 		}
 
 		return new URL(sb.toString());
 	}
 
-	/** Builds a urlencoded query string from a param map. */
-	private String buildParamsQuery(final Map<String, String> params)
-			throws UnsupportedEncodingException {
-		StringBuilder builder = new StringBuilder();
-		if (params.isEmpty()) {
-			return builder.toString();
+	/** Returns a cleared thread-local url buffer. */
+	private static StringBuilder urlBuffer() {
+		StringBuilder sb = URL_BUFFER.get();
+		if (sb.capacity() > MAX_URL_BUFFER_SIZE) {
+			sb = new StringBuilder(256);
+			URL_BUFFER.set(sb);
 		}
+		sb.setLength(0);
+		return sb;
+	}
 
-		String sep = "";
+	/** Appends urlencoded params to a buffer. */
+	private static void appendParams(final StringBuilder sb, final Map<String, String> params) {
+		boolean first = true;
 		for (Map.Entry<String, String> entry : params.entrySet()) {
-			builder.append(sep);
-			builder.append(urlencode(entry.getKey()));
-			builder.append("=");
-			builder.append(urlencode(entry.getValue()));
-			sep = "&";
+			if (!first) {
+				sb.append('&');
+			}
+			urlencode(sb, entry.getKey());
+			sb.append('=');
+			urlencode(sb, entry.getValue());
+			first = false;
 		}
-
-		return builder.toString();
 	}
 
 	/** Opens a connection and sets its HTTP method. */
 	private HttpURLConnection openConnection(final URL url, final PdefRequest request)
 			throws IOException {
-		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		HttpURLConnection connection = connectionFactory.openConnection(url);
 		if (request.isPost()) {
 			connection.setRequestMethod(POST);
-			connection.setRequestProperty(CONTENT_TYPE_HEADER, APPLICATION_X_WWW_FORM_URLENCODED);
+			connection.setRequestProperty(CONTENT_TYPE_HEADER, request.getJsonPost() != null
+					? APPLICATION_JSON : APPLICATION_X_WWW_FORM_URLENCODED);
 			connection.setDoOutput(true);
 		} else {
 			connection.setRequestMethod(GET);
@@ -178,8 +492,14 @@ public class PdefClient<T> {
 	/** Sets the connection content-type and content-length and sends the post data. */
 	private void sendPostData(final HttpURLConnection connection, final PdefRequest request)
 			throws IOException {
-		String post = buildParamsQuery(request.getPost());
-		byte[] data = post.getBytes(UTF8);
+		if (request.getJsonPost() != null) {
+			sendJsonPostData(connection, request.getJsonPost());
+			return;
+		}
+
+		StringBuilder post = urlBuffer();
+		appendParams(post, request.getPost());
+		byte[] data = post.toString().getBytes(UTF8);
 
 		connection.setRequestProperty(CONTENT_TYPE_HEADER, APPLICATION_X_WWW_FORM_URLENCODED);
 		connection.setRequestProperty(CONTENT_LENGTH_HEADER, String.valueOf(data.length));
@@ -191,6 +511,58 @@ public class PdefClient<T> {
 		}
 	}
 
+	/** Returns a wrapper class for a primitive result type, gson cannot parse primitives. */
+	static Type boxed(final Type type) {
+		if (!(type instanceof Class<?>) || !((Class<?>) type).isPrimitive()) {
+			return type;
+		}
+
+		return PRIMITIVE_WRAPPERS.get(type);
+	}
+
+	/** Returns a list element type or null when a type is not a list. */
+	@Nullable
+	static Type getListElementType(final Type type) {
+		if (!(type instanceof ParameterizedType)) {
+			return null;
+		}
+
+		ParameterizedType ptype = (ParameterizedType) type;
+		return ptype.getRawType() == List.class ? ptype.getActualTypeArguments()[0] : null;
+	}
+
+	/** Streams post arguments as a JSON object in the chunked mode without buffering them. */
+	private void sendJsonPostData(final HttpURLConnection connection, final Object post)
+			throws IOException {
+		connection.setRequestProperty(CONTENT_TYPE_HEADER, APPLICATION_JSON);
+		connection.setChunkedStreamingMode(0);
+
+		Writer writer = new BufferedWriter(
+				new OutputStreamWriter(connection.getOutputStream(), UTF8));
+		try {
+			PdefJson.serialize(post, writer);
+		} finally {
+			closeLogExc(writer);
+		}
+	}
+
+	/** Reads a response body, presizes the buffer by the content length. */
+	private byte[] readBytes(final HttpURLConnection connection, final InputStream input)
+			throws IOException {
+		int length = connection.getContentLength();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(length > 0 ? length : 8192);
+		try {
+			byte[] buffer = new byte[8192];
+			for (int n; (n = input.read(buffer)) != -1; ) {
+				out.write(buffer, 0, n);
+			}
+		} finally {
+			closeLogExc(input);
+		}
+
+		return out.toByteArray();
+	}
+
 	/** Reads a string from an input stream, gets the charset from the content-type header. */
 	private String readString(final HttpURLConnection connection, final InputStream input)
 			throws IOException {
@@ -237,123 +609,59 @@ public class PdefClient<T> {
 	}
 
 	static PdefRequest serializeInvocations(final List<PdefInvocation> invocations) {
+		return serializeInvocations(invocations, false);
+	}
+
+	/**
+	 * Serializes invocations into a request, in the JSON post mode post arguments
+	 * are kept as objects and are set as the request JSON post.
+	 */
+	static PdefRequest serializeInvocations(final List<PdefInvocation> invocations,
+			final boolean jsonPost) {
 		if (invocations == null) throw new NullPointerException("invocations");
 		if (invocations.isEmpty()) throw new IllegalArgumentException("empty invocations");
 
 		String httpMethod = GET;
-		List<String> path = new ArrayList<String>();
+		StringBuilder path = new StringBuilder();
 		Map<String, String> params = new LinkedHashMap<String, String>();
+		Object json = null;
 
 		for (int i = 0; i < invocations.size(); i++) {
 			PdefInvocation invocation = invocations.get(i);
-			Method method = invocation.getMethod();
-			path.add(method.getName());
-			if (isPost(method)) {
+			PdefMethodEncoder encoder = PdefMethodEncoder.forMethod(invocation.getMethod());
+			path.append(encoder.getPath());
+			if (encoder.isPost()) {
 				httpMethod = POST;
 			}
 
-			Object[] args = invocation.getArgs();
-			Annotation[][] annotations = method.getParameterAnnotations();
+			Object[] args = invocation.args();
 			if (args.length == 0) {
 				continue;
 			}
 
 			boolean isLast = i == invocations.size() - 1;
-			if (isRequestMethod(method)) {
-				Map<String, String> requestParams = serializeRequestArg(args[0]);
-				params.putAll(requestParams);
-
-			} else if (isPost(method) || isLast) {
-				for (int j = 0; j < args.length; j++) {
-					Object arg = args[j];
-					String name = getArgName(annotations, j);
-					String value = serializeArg(arg);
-					params.put(name, value);
-				}
-
+			if (jsonPost && encoder.isPost()) {
+				json = encoder.toJsonPost(args);
+			} else if (encoder.isRequest() || encoder.isPost() || isLast) {
+				encoder.writeParams(params, args);
 			} else {
-				for (Object arg : args) {
-					String value = serializeArg(arg);
-					path.add(value);
-				}
+				encoder.writePathArgs(path, args);
 			}
 		}
 
 		PdefRequest request = new PdefRequest();
 		request.setMethod(httpMethod);
-		request.setRelativePath(join(path));
+		request.setRelativePath(path.toString());
 		if (httpMethod.equals(GET)) {
 			request.setQuery(params);
 		} else {
 			request.setPost(params);
+			request.setJsonPost(json);
 		}
 
 		return request;
 	}
 
-	private static Map<String, String> serializeRequestArg(final Object request) {
-		if (request == null) return new HashMap<String, String>();
-
-		Map<String, String> params = new HashMap<String, String>();
-		Field[] fields = request.getClass().getFields();
-
-		for (Field field : fields) {
-			String name = field.getName();
-			Object value;
-			try {
-				value = field.get(request);
-			} catch (IllegalAccessException e) {
-				throw new RuntimeException(e);
-			}
-
-			String param = serializeArg(value);
-			params.put(name, param);
-		}
-
-		return params;
-	}
-
-	private static String serializeArg(final Object arg) {
-		if (arg == null) return "";
-		else if (arg instanceof String) return (String) arg;
-		else if (arg instanceof Boolean) return ((Boolean) arg) ? "1" : "0";
-		else if (arg instanceof Number) return arg.toString();
-		else if (arg instanceof Date) return DATE_FORMAT.get().format((Date) arg);
-		else if (arg instanceof Enum<?>) return ((Enum<?>) arg).name().toLowerCase();
-		else return PdefJson.serialize(arg);
-	}
-
-	private static String join(final List<String> path) {
-		StringBuilder sb = new StringBuilder();
-		for (String s : path) {
-			sb.append("/");
-			sb.append(s);
-		}
-		return sb.toString();
-	}
-
-	private static boolean isRequestMethod(final Method method) {
-		return method.isAnnotationPresent(Request.class);
-	}
-
-	private static boolean isPost(final Method method) {
-		return method.isAnnotationPresent(POST.class);
-	}
-
-	private static String getArgName(final Annotation[][] annotations, final int index) {
-		Annotation[] argAnns = annotations[index];
-		for (int i = 0; i < argAnns.length; i++) {
-			Annotation ann = argAnns[i];
-			if (ann instanceof Name) {
-				return ((Name) ann).value();
-			}
-		}
-
-		throw new IllegalArgumentException("No method argument name, "
-				+ "pdef method arguments must be annotated with @io.pdef.Name"
-		);
-	}
-
 	/** Closes a closeable and logs an exception if any. */
 	static void closeLogExc(@Nullable final Closeable closeable) {
 		if (closeable == null) {
@@ -367,8 +675,51 @@ public class PdefClient<T> {
 		}
 	}
 
-	static String urlencode(final String s) throws UnsupportedEncodingException {
-		return URLEncoder.encode(s, UTF8_NAME);
+	static String urlencode(final String s) {
+		StringBuilder sb = new StringBuilder(s.length() + 16);
+		urlencode(sb, s);
+		return sb.toString();
+	}
+
+	/**
+	 * Appends a form urlencoded string to a buffer, the result is the same as of
+	 * {@link java.net.URLEncoder#encode(String, String)} in UTF-8 but without
+	 * intermediate strings and byte arrays.
+	 */
+	static void urlencode(final StringBuilder sb, final String s) {
+		int length = s.length();
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+					|| c == '.' || c == '-' || c == '*' || c == '_') {
+				sb.append(c);
+			} else if (c == ' ') {
+				sb.append('+');
+			} else if (c < 0x80) {
+				appendEscaped(sb, c);
+			} else if (c < 0x800) {
+				appendEscaped(sb, 0xc0 | (c >> 6));
+				appendEscaped(sb, 0x80 | (c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length
+					&& Character.isLowSurrogate(s.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				appendEscaped(sb, 0xf0 | (cp >> 18));
+				appendEscaped(sb, 0x80 | ((cp >> 12) & 0x3f));
+				appendEscaped(sb, 0x80 | ((cp >> 6) & 0x3f));
+				appendEscaped(sb, 0x80 | (cp & 0x3f));
+			} else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				// Unpaired surrogates are replaced with '?' as in String.getBytes.
+				appendEscaped(sb, '?');
+			} else {
+				appendEscaped(sb, 0xe0 | (c >> 12));
+				appendEscaped(sb, 0x80 | ((c >> 6) & 0x3f));
+				appendEscaped(sb, 0x80 | (c & 0x3f));
+			}
+		}
+	}
+
+	private static void appendEscaped(final StringBuilder sb, final int b) {
+		sb.append('%').append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
 	}
 
 	static class DefaultSession implements PdefClientSession {
@@ -381,4 +732,11 @@ public class PdefClient<T> {
 		@Override
 		public void handleError(final HttpURLConnection connection) throws IOException {}
 	}
+
+	static class DefaultConnectionFactory implements PdefConnectionFactory {
+		@Override
+		public HttpURLConnection openConnection(final URL url) throws IOException {
+			return (HttpURLConnection) url.openConnection();
+		}
+	}
 }
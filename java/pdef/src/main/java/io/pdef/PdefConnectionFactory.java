@@ -0,0 +1,14 @@
+package io.pdef;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Opens client HTTP connections, it is used to plug alternative transports into
+ * {@link PdefClient}. Connections are passed to {@link PdefClientSession} as usual.
+ */
+public interface PdefConnectionFactory {
+	/** Returns a new unconnected connection to a url. */
+	HttpURLConnection openConnection(URL url) throws IOException;
+}
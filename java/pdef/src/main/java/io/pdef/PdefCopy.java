@@ -18,13 +18,15 @@ package io.pdef;
 
 import java.util.*;
 
-/** Returns deep copies of pdef types. */
+/** Returns deep copies of pdef types, immutable structs and collections are not copied. */
 public class PdefCopy {
 	private PdefCopy() {}
 
 	@SuppressWarnings("unchecked")
 	public static <T> T copy(T object) {
 		if (object == null) return null;
+		else if (PdefImmutable.isImmutable(object)) return object;
+		else if (object instanceof PrimitiveCollection) return (T) ((PrimitiveCollection) object).copy();
 		else if (object instanceof Struct) return (T) copy((Struct) object);
 		else if (object instanceof List) return (T) copy((List<?>) object);
 		else if (object instanceof Set) return (T) copy((Set<?>) object);
@@ -38,12 +40,17 @@ public class PdefCopy {
 		return struct == null ? null : (T) struct.copy();
 	}
 
+	@SuppressWarnings("unchecked")
 	public static <T> List<T> copy(List<T> list) {
 		if (list == null) {
 			return null;
+		} else if (PdefImmutable.isImmutable(list)) {
+			return list;
+		} else if (list instanceof PrimitiveCollection) {
+			return (List<T>) ((PrimitiveCollection) list).copy();
 		}
 
-		List<T> copy = new ArrayList<T>();
+		List<T> copy = new ArrayList<T>(list.size());
 		for (T element : list) {
 			T elementCopy = copy(element);
 			copy.add(elementCopy);
@@ -52,12 +59,20 @@ public class PdefCopy {
 		return copy;
 	}
 
+	@SuppressWarnings("unchecked")
 	public static <T> Set<T> copy(Set<T> set) {
 		if (set == null) {
 			return null;
+		} else if (PdefImmutable.isImmutable(set)) {
+			return set;
+		} else if (set instanceof PrimitiveCollection) {
+			return (Set<T>) ((PrimitiveCollection) set).copy();
+		} else if (set instanceof EnumSet) {
+			// Enums are immutable, enum sets are bit vectors.
+			return (Set<T>) ((EnumSet<?>) set).clone();
 		}
 
-		Set<T> copy = new HashSet<T>();
+		Set<T> copy = new HashSet<T>(hashCapacity(set.size()));
 		for (T element : set) {
 			T elementCopy = copy(element);
 			copy.add(elementCopy);
@@ -66,12 +81,19 @@ public class PdefCopy {
 		return copy;
 	}
 
+	@SuppressWarnings("unchecked")
 	public static <K, V> Map<K, V> copy(Map<K, V> map) {
 		if (map == null) {
 			return null;
+		} else if (PdefImmutable.isImmutable(map)) {
+			return map;
+		} else if (map instanceof PrimitiveCollection) {
+			return (Map<K, V>) ((PrimitiveCollection) map).copy();
+		} else if (map instanceof EnumMap) {
+			return copyEnumMap(map);
 		}
 
-		Map<K, V> copy = new HashMap<K, V>();
+		Map<K, V> copy = new HashMap<K, V>(hashCapacity(map.size()));
 		for (Map.Entry<K, V> entry : map.entrySet()) {
 			K keyCopy = copy(entry.getKey());
 			V valueCopy = copy(entry.getValue());
@@ -81,6 +103,17 @@ public class PdefCopy {
 		return copy;
 	}
 
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static <K, V> Map<K, V> copyEnumMap(final Map<K, V> map) {
+		EnumMap copy = new EnumMap((EnumMap) map);
+		for (Object o : copy.entrySet()) {
+			Map.Entry entry = (Map.Entry) o;
+			entry.setValue(copy(entry.getValue()));
+		}
+
+		return copy;
+	}
+
 	public static Date copy(Date date) {
 		if (date == null) {
 			return null;
@@ -88,4 +121,9 @@ public class PdefCopy {
 
 		return new Date(date.getTime());
 	}
+
+	/** Returns a hash set/map capacity which holds a number of elements without rehashing. */
+	static int hashCapacity(final int size) {
+		return size < 3 ? size + 1 : (int) (size / 0.75f) + 1;
+	}
 }
@@ -0,0 +1,327 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import javax.annotation.Nullable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Structural diffs of JSON results, used by the HTTP delta encoding of GET results.
+ *
+ * A client sends the version of a result it holds in an If-None-Match header and
+ * "A-IM: pdef-delta", the server responds with 304 when the result is unchanged,
+ * with 226 and a {"delta": patch} body computed against the held version, or with
+ * a full 200 response. Results are versioned by hashes of their JSON.
+ *
+ * Patches are JSON objects:
+ * <pre>
+ * {"set": value}                               replaces a value;
+ * {"fields": {"name": patch}, "remove": [...]} patches and removes object fields;
+ * {"items": {"index": patch}}                  patches array elements in place;
+ * {"splice": [start, deleteCount, [values]]}   replaces an array region.
+ * </pre>
+ */
+public final class PdefDelta {
+	static final String A_IM_HEADER = "A-IM";
+	static final String IM_HEADER = "IM";
+	static final String DELTA_BASE_HEADER = "Delta-Base";
+	static final String ETAG_HEADER = "ETag";
+	static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+	static final String PDEF_DELTA = "pdef-delta";
+	static final String DELTA_FIELD = "delta";
+	static final int STATUS_IM_USED = 226;
+
+	static final String SET = "set";
+	static final String FIELDS = "fields";
+	static final String REMOVE = "remove";
+	static final String ITEMS = "items";
+	static final String SPLICE = "splice";
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private PdefDelta() {}
+
+	/** Returns a patch which transforms one value into another, or null when they are equal. */
+	@Nullable
+	public static JsonElement diff(@Nullable final JsonElement from,
+			@Nullable final JsonElement to) {
+		JsonElement from0 = nonNull(from);
+		JsonElement to0 = nonNull(to);
+		if (from0.equals(to0)) {
+			return null;
+		}
+
+		if (from0.isJsonObject() && to0.isJsonObject()) {
+			return diffObjects(from0.getAsJsonObject(), to0.getAsJsonObject());
+		} else if (from0.isJsonArray() && to0.isJsonArray()) {
+			return diffArrays(from0.getAsJsonArray(), to0.getAsJsonArray());
+		}
+		return set(to0);
+	}
+
+	/**
+	 * Applies a patch and returns a new value, the base value is not modified.
+	 * Unchanged object fields and array elements are shared with the base value.
+	 * A null or empty patch returns the base value, {@link #diff} returns it for equal values.
+	 *
+	 * @throws IllegalArgumentException if the patch does not match the base value.
+	 */
+	public static JsonElement apply(@Nullable final JsonElement base,
+			@Nullable final JsonElement patch) {
+		if (patch == null || patch.isJsonNull()
+				|| (patch.isJsonObject() && patch.getAsJsonObject().entrySet().isEmpty())) {
+			return nonNull(base);
+		}
+		if (!patch.isJsonObject()) {
+			throw new IllegalArgumentException("Wrong delta patch " + patch);
+		}
+
+		JsonObject object = patch.getAsJsonObject();
+		if (object.has(SET)) {
+			return object.get(SET);
+		}
+
+		JsonElement base0 = nonNull(base);
+		if (base0.isJsonObject() && (object.has(FIELDS) || object.has(REMOVE))) {
+			return applyObject(base0.getAsJsonObject(), object);
+		} else if (base0.isJsonArray() && (object.has(ITEMS) || object.has(SPLICE))) {
+			return applyArray(base0.getAsJsonArray(), object);
+		}
+
+		throw new IllegalArgumentException("Delta patch " + patch + " does not match " + base0);
+	}
+
+	/** Returns a hex SHA-1 digest of a JSON string, it is used as a result version. */
+	public static String version(final String json) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+
+		byte[] bytes = digest.digest(json.getBytes(PdefClient.UTF8));
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+			chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+		}
+		return new String(chars);
+	}
+
+	/** Returns a quoted entity tag of a version. */
+	static String etag(final String version) {
+		return '"' + version + '"';
+	}
+
+	/** Returns a version from an entity tag, i.e. from "v" or W/"v", or null. */
+	@Nullable
+	static String parseETag(@Nullable final String etag) {
+		if (etag == null) {
+			return null;
+		}
+
+		String s = etag.trim();
+		if (s.startsWith("W/")) {
+			s = s.substring(2);
+		}
+		if (s.length() >= 2 && s.charAt(0) == '"' && s.charAt(s.length() - 1) == '"') {
+			s = s.substring(1, s.length() - 1);
+		}
+		return s.length() == 0 ? null : s;
+	}
+
+	/** Returns true when an A-IM header accepts the pdef delta encoding. */
+	static boolean acceptsDelta(@Nullable final String header) {
+		if (header == null) {
+			return false;
+		}
+
+		for (String token : header.split(",")) {
+			int semicolon = token.indexOf(';');
+			String name = semicolon == -1 ? token : token.substring(0, semicolon);
+			if (name.trim().equalsIgnoreCase(PDEF_DELTA)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static JsonObject diffObjects(final JsonObject from, final JsonObject to) {
+		JsonObject fields = new JsonObject();
+		for (Map.Entry<String, JsonElement> entry : to.entrySet()) {
+			String name = entry.getKey();
+			JsonElement value = nonNull(entry.getValue());
+			if (!from.has(name)) {
+				fields.add(name, set(value));
+				continue;
+			}
+
+			JsonElement patch = diff(from.get(name), value);
+			if (patch != null) {
+				fields.add(name, patch);
+			}
+		}
+
+		JsonArray remove = new JsonArray();
+		for (Map.Entry<String, JsonElement> entry : from.entrySet()) {
+			if (!to.has(entry.getKey())) {
+				remove.add(new JsonPrimitive(entry.getKey()));
+			}
+		}
+
+		JsonObject patch = new JsonObject();
+		if (!fields.entrySet().isEmpty()) {
+			patch.add(FIELDS, fields);
+		}
+		if (remove.size() > 0) {
+			patch.add(REMOVE, remove);
+		}
+		return patch;
+	}
+
+	/**
+	 * Diffs arrays by their common prefix and suffix. A changed middle region of the same
+	 * length is patched element by element, otherwise it is replaced by a splice.
+	 */
+	private static JsonObject diffArrays(final JsonArray from, final JsonArray to) {
+		int fromSize = from.size();
+		int toSize = to.size();
+
+		int prefix = 0;
+		int max = Math.min(fromSize, toSize);
+		while (prefix < max && from.get(prefix).equals(to.get(prefix))) {
+			prefix++;
+		}
+
+		int suffix = 0;
+		max -= prefix;
+		while (suffix < max
+				&& from.get(fromSize - 1 - suffix).equals(to.get(toSize - 1 - suffix))) {
+			suffix++;
+		}
+
+		int deleted = fromSize - prefix - suffix;
+		int inserted = toSize - prefix - suffix;
+		JsonObject patch = new JsonObject();
+
+		if (deleted == inserted) {
+			JsonObject items = new JsonObject();
+			for (int i = prefix; i < prefix + inserted; i++) {
+				JsonElement item = diff(from.get(i), to.get(i));
+				if (item != null) {
+					items.add(String.valueOf(i), item);
+				}
+			}
+			patch.add(ITEMS, items);
+			return patch;
+		}
+
+		JsonArray values = new JsonArray();
+		for (int i = prefix; i < prefix + inserted; i++) {
+			values.add(to.get(i));
+		}
+
+		JsonArray splice = new JsonArray();
+		splice.add(new JsonPrimitive(prefix));
+		splice.add(new JsonPrimitive(deleted));
+		splice.add(values);
+		patch.add(SPLICE, splice);
+		return patch;
+	}
+
+	private static JsonObject applyObject(final JsonObject base, final JsonObject patch) {
+		JsonObject fields = patch.has(FIELDS) ? patch.getAsJsonObject(FIELDS) : new JsonObject();
+		Set<String> remove = new HashSet<String>();
+		if (patch.has(REMOVE)) {
+			for (JsonElement name : patch.getAsJsonArray(REMOVE)) {
+				remove.add(name.getAsString());
+			}
+		}
+
+		// Keep the base field order, append new fields.
+		JsonObject result = new JsonObject();
+		for (Map.Entry<String, JsonElement> entry : base.entrySet()) {
+			String name = entry.getKey();
+			if (remove.contains(name)) {
+				continue;
+			}
+
+			JsonElement fieldPatch = fields.get(name);
+			result.add(name, fieldPatch == null
+					? entry.getValue() : apply(entry.getValue(), fieldPatch));
+		}
+
+		for (Map.Entry<String, JsonElement> entry : fields.entrySet()) {
+			if (!base.has(entry.getKey())) {
+				result.add(entry.getKey(), apply(null, entry.getValue()));
+			}
+		}
+		return result;
+	}
+
+	private static JsonArray applyArray(final JsonArray base, final JsonObject patch) {
+		JsonArray result = new JsonArray();
+		if (patch.has(ITEMS)) {
+			JsonObject items = patch.getAsJsonObject(ITEMS);
+			for (int i = 0; i < base.size(); i++) {
+				JsonElement item = items.get(String.valueOf(i));
+				result.add(item == null ? base.get(i) : apply(base.get(i), item));
+			}
+			return result;
+		}
+
+		JsonArray splice = patch.getAsJsonArray(SPLICE);
+		int start = splice.get(0).getAsInt();
+		int deleted = splice.get(1).getAsInt();
+		if (start < 0 || deleted < 0 || start + deleted > base.size()) {
+			throw new IllegalArgumentException("Delta splice " + splice + " is out of bounds, "
+					+ "array size is " + base.size());
+		}
+
+		for (int i = 0; i < start; i++) {
+			result.add(base.get(i));
+		}
+		for (JsonElement value : splice.get(2).getAsJsonArray()) {
+			result.add(value);
+		}
+		for (int i = start + deleted; i < base.size(); i++) {
+			result.add(base.get(i));
+		}
+		return result;
+	}
+
+	private static JsonObject set(final JsonElement value) {
+		JsonObject patch = new JsonObject();
+		patch.add(SET, value);
+		return patch;
+	}
+
+	private static JsonElement nonNull(@Nullable final JsonElement element) {
+		return element == null ? JsonNull.INSTANCE : element;
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import com.google.gson.JsonElement;
+
+import javax.annotation.Nullable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of versioned JSON results for delta responses, see {@link PdefDelta}.
+ * Servers keep recently sent results by their versions, clients keep their copies
+ * by request urls. Values are JSON trees, size the cache by the result sizes.
+ */
+public class PdefDeltaCache {
+	private final int maxEntries;
+	private final Map<String, Entry> entries;
+
+	public PdefDeltaCache(final int maxEntries) {
+		if (maxEntries < 1) throw new IllegalArgumentException("maxEntries must be positive");
+
+		this.maxEntries = maxEntries;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(
+					final Map.Entry<String, PdefDeltaCache.Entry> eldest) {
+				return size() > PdefDeltaCache.this.maxEntries;
+			}
+		};
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	@Nullable
+	synchronized Entry get(final String key) {
+		return entries.get(key);
+	}
+
+	synchronized void put(final String key, final String version, final JsonElement data) {
+		entries.put(key, new Entry(version, data));
+	}
+
+	/** Cached result version and data, the data must not be modified. */
+	static final class Entry {
+		final String version;
+		final JsonElement data;
+
+		Entry(final String version, final JsonElement data) {
+			this.version = version;
+			this.data = data;
+		}
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Growable double list, stores pdef double elements without boxing.
+ *
+ * It is a {@code List<Double>}, use the primitive methods to avoid boxing.
+ */
+public class PdefDoubleList extends AbstractList<Double>
+		implements RandomAccess, PrimitiveCollection, Serializable {
+	private static final long serialVersionUID = 1L;
+	private static final double[] EMPTY_ELEMENTS = new double[0];
+	private static final PdefDoubleList EMPTY = new PdefDoubleList(EMPTY_ELEMENTS, 0, true);
+
+	private double[] elements;
+	private int size;
+	private final boolean immutable;
+
+	public PdefDoubleList() {
+		this(EMPTY_ELEMENTS, 0, false);
+	}
+
+	public PdefDoubleList(final int capacity) {
+		this(new double[capacity], 0, false);
+	}
+
+	private PdefDoubleList(final double[] elements, final int size, final boolean immutable) {
+		this.elements = elements;
+		this.size = size;
+		this.immutable = immutable;
+	}
+
+	/** Returns a new mutable list with the elements. */
+	public static PdefDoubleList of(final double... elements) {
+		return new PdefDoubleList(elements.clone(), elements.length, false);
+	}
+
+	/** Returns an empty immutable list. */
+	public static PdefDoubleList empty() {
+		return EMPTY;
+	}
+
+	public double getDouble(final int index) {
+		checkIndex(index);
+		return elements[index];
+	}
+
+	public double setDouble(final int index, final double element) {
+		checkMutable();
+		checkIndex(index);
+		double old = elements[index];
+		elements[index] = element;
+		return old;
+	}
+
+	public void addDouble(final double element) {
+		checkMutable();
+		if (size == elements.length) {
+			grow(size + 1);
+		}
+		elements[size++] = element;
+		modCount++;
+	}
+
+	public void addDouble(final int index, final double element) {
+		checkMutable();
+		if (index < 0 || index > size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		}
+		if (size == elements.length) {
+			grow(size + 1);
+		}
+		System.arraycopy(elements, index, elements, index + 1, size - index);
+		elements[index] = element;
+		size++;
+		modCount++;
+	}
+
+	public double removeDoubleAt(final int index) {
+		checkMutable();
+		checkIndex(index);
+		double old = elements[index];
+		System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+		size--;
+		modCount++;
+		return old;
+	}
+
+	public int indexOfDouble(final double element) {
+		for (int i = 0; i < size; i++) {
+			if (Double.doubleToLongBits(elements[i]) == Double.doubleToLongBits(element)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public boolean containsDouble(final double element) {
+		return indexOfDouble(element) >= 0;
+	}
+
+	/** Returns a new array of the list elements. */
+	public double[] toDoubleArray() {
+		return Arrays.copyOf(elements, size);
+	}
+
+	public void ensureCapacity(final int capacity) {
+		checkMutable();
+		if (capacity > elements.length) {
+			grow(capacity);
+		}
+	}
+
+	@Override
+	public Double get(final int index) {
+		return getDouble(index);
+	}
+
+	@Override
+	public Double set(final int index, final Double element) {
+		return setDouble(index, element);
+	}
+
+	@Override
+	public boolean add(final Double element) {
+		addDouble(element);
+		return true;
+	}
+
+	@Override
+	public void add(final int index, final Double element) {
+		addDouble(index, element);
+	}
+
+	@Override
+	public Double remove(final int index) {
+		return removeDoubleAt(index);
+	}
+
+	@Override
+	public int indexOf(final Object o) {
+		return o instanceof Double ? indexOfDouble((Double) o) : -1;
+	}
+
+	@Override
+	public boolean contains(final Object o) {
+		return indexOf(o) >= 0;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void clear() {
+		checkMutable();
+		size = 0;
+		modCount++;
+	}
+
+	@Override
+	public PdefDoubleList copy() {
+		return immutable ? this : new PdefDoubleList(toDoubleArray(), size, false);
+	}
+
+	@Override
+	public PdefDoubleList toImmutable() {
+		if (immutable) {
+			return this;
+		}
+		return size == 0 ? EMPTY : new PdefDoubleList(toDoubleArray(), size, true);
+	}
+
+	@Override
+	public boolean isImmutable() {
+		return immutable;
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o) return true;
+		if (!(o instanceof PdefDoubleList)) return super.equals(o);
+
+		PdefDoubleList that = (PdefDoubleList) o;
+		if (size != that.size) return false;
+		for (int i = 0; i < size; i++) {
+			if (Double.doubleToLongBits(elements[i]) != Double.doubleToLongBits(that.elements[i])) return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = 1;
+		for (int i = 0; i < size; i++) {
+			long bits = Double.doubleToLongBits(elements[i]);
+			result = 31 * result + (int) (bits ^ (bits >>> 32));
+		}
+		return result;
+	}
+
+	private void grow(final int minCapacity) {
+		int capacity = Math.max(elements.length + (elements.length >> 1), 10);
+		elements = Arrays.copyOf(elements, Math.max(capacity, minCapacity));
+	}
+
+	private void checkIndex(final int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		}
+	}
+
+	private void checkMutable() {
+		if (immutable) {
+			throw new UnsupportedOperationException("Immutable list");
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Pdef enum names, enums are encoded as lowercase strings.
+ *
+ * Lowercase names and lookups are computed once per enum class,
+ * so enums are written and parsed without allocating strings.
+ */
+final class PdefEnums {
+	private static final ConcurrentMap<Class<?>, PdefEnums> cache =
+			new ConcurrentHashMap<Class<?>, PdefEnums>();
+
+	private final Enum<?>[] constants;
+	private final String[] names;
+	private final Map<String, Enum<?>> lookup;
+
+	private PdefEnums(final Class<?> cls) {
+		constants = (Enum<?>[]) cls.getEnumConstants();
+		names = new String[constants.length];
+		lookup = new HashMap<String, Enum<?>>();
+
+		for (Enum<?> constant : constants) {
+			String name = constant.name().toLowerCase(Locale.US);
+			names[constant.ordinal()] = name;
+			lookup.put(name, constant);
+		}
+	}
+
+	/** Returns cached names of an enum class. */
+	static PdefEnums forClass(final Class<?> cls) {
+		PdefEnums enums = cache.get(cls);
+		if (enums != null) {
+			return enums;
+		}
+
+		enums = new PdefEnums(cls);
+		PdefEnums existing = cache.putIfAbsent(cls, enums);
+		return existing != null ? existing : enums;
+	}
+
+	/** Returns a cached lowercase enum name. */
+	static String toLowercase(final Enum<?> constant) {
+		return forClass(constant.getDeclaringClass()).names[constant.ordinal()];
+	}
+
+	/** Returns a lowercase name of an enum constant. */
+	String name(final Enum<?> constant) {
+		return names[constant.ordinal()];
+	}
+
+	/** Finds an enum constant by its case-insensitive name, returns null when it is absent. */
+	@Nullable
+	Enum<?> find(final String name) {
+		Enum<?> constant = lookup.get(name);
+		if (constant != null) {
+			return constant;
+		}
+
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equalsIgnoreCase(name)) {
+				return constants[i];
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Field mask of a sparse fieldset, selects result fields at every nesting level.
+ *
+ * Masks are comma-separated dotted field paths, i.e. "id,title,author.name,comments.text".
+ * Paths pass through lists, sets and maps to their elements, a selected field includes
+ * all its nested fields. Clients send masks as the {@link #PARAM} request param,
+ * servers write only the selected fields of data type results.
+ */
+public final class PdefFieldMask {
+	/** Request param of a field mask, it cannot clash with argument names. */
+	public static final String PARAM = "_fields";
+
+	private static final PdefFieldMask ALL = new PdefFieldMask(null);
+
+	// Null fields select all fields.
+	private final Map<String, PdefFieldMask> fields;
+
+	private PdefFieldMask(@Nullable final Map<String, PdefFieldMask> fields) {
+		this.fields = fields;
+	}
+
+	/** Creates a mask from field paths. */
+	public static PdefFieldMask of(final String... paths) {
+		if (paths == null) throw new NullPointerException("paths");
+
+		Map<String, PdefFieldMask> fields = new LinkedHashMap<String, PdefFieldMask>();
+		for (String path : paths) {
+			if (path == null) throw new NullPointerException("path");
+			add(fields, path.trim(), 0);
+		}
+
+		if (fields.isEmpty()) throw new PdefException("Empty field mask");
+		return new PdefFieldMask(fields);
+	}
+
+	/** Parses a comma-separated mask, returns null when the string is null or empty. */
+	@Nullable
+	public static PdefFieldMask parse(@Nullable final String s) {
+		if (s == null || s.trim().isEmpty()) {
+			return null;
+		}
+
+		return of(s.split(","));
+	}
+
+	private static void add(final Map<String, PdefFieldMask> fields, final String path,
+			final int start) {
+		int end = path.indexOf('.', start);
+		String name = path.substring(start, end == -1 ? path.length() : end);
+		if (!isIdentifier(name)) {
+			throw new PdefException("Invalid field mask path \"" + path + "\"");
+		}
+
+		PdefFieldMask child = fields.get(name);
+		if (end == -1) {
+			// A selected field includes all its nested fields.
+			fields.put(name, ALL);
+		} else if (child == null) {
+			child = new PdefFieldMask(new LinkedHashMap<String, PdefFieldMask>());
+			fields.put(name, child);
+			add(child.fields, path, end + 1);
+		} else if (child != ALL) {
+			add(child.fields, path, end + 1);
+		} else if (!isIdentifierPath(path, end + 1)) {
+			throw new PdefException("Invalid field mask path \"" + path + "\"");
+		}
+	}
+
+	private static boolean isIdentifierPath(final String path, final int start) {
+		for (String name : path.substring(start).split("\\.", -1)) {
+			if (!isIdentifier(name)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isIdentifier(final String name) {
+		if (name.isEmpty() || !isLatinLetter(name.charAt(0))) {
+			return false;
+		}
+
+		for (int i = 1; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (!isLatinLetter(c) && !(c >= '0' && c <= '9') && c != '_') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isLatinLetter(final char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	/** Returns true when the mask selects all fields. */
+	public boolean isAll() {
+		return fields == null;
+	}
+
+	/** Returns true when a field is selected. */
+	public boolean includes(final String field) {
+		return fields == null || fields.containsKey(field);
+	}
+
+	/** Returns a mask of a selected field or null when the field is not selected. */
+	@Nullable
+	public PdefFieldMask get(final String field) {
+		return fields == null ? ALL : fields.get(field);
+	}
+
+	/** Returns an unmodifiable map of selected fields to their masks, or null when all are selected. */
+	@Nullable
+	public Map<String, PdefFieldMask> getFields() {
+		return fields == null ? null : Collections.unmodifiableMap(fields);
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+
+		PdefFieldMask that = (PdefFieldMask) o;
+		return fields == null ? that.fields == null : fields.equals(that.fields);
+	}
+
+	@Override
+	public int hashCode() {
+		return fields != null ? fields.hashCode() : 0;
+	}
+
+	/** Returns a comma-separated mask string which can be parsed back. */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		append(sb, "");
+		return sb.toString();
+	}
+
+	private void append(final StringBuilder sb, final String prefix) {
+		if (fields == null) {
+			return;
+		}
+
+		for (Map.Entry<String, PdefFieldMask> entry : fields.entrySet()) {
+			PdefFieldMask child = entry.getValue();
+			if (child.isAll()) {
+				if (sb.length() > 0) {
+					sb.append(',');
+				}
+				sb.append(prefix).append(entry.getKey());
+			} else {
+				child.append(sb, prefix + entry.getKey() + '.');
+			}
+		}
+	}
+}
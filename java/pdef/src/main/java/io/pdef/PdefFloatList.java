@@ -0,0 +1,238 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Growable float list, stores pdef float elements without boxing.
+ *
+ * It is a {@code List<Float>}, use the primitive methods to avoid boxing.
+ */
+public class PdefFloatList extends AbstractList<Float>
+		implements RandomAccess, PrimitiveCollection, Serializable {
+	private static final long serialVersionUID = 1L;
+	private static final float[] EMPTY_ELEMENTS = new float[0];
+	private static final PdefFloatList EMPTY = new PdefFloatList(EMPTY_ELEMENTS, 0, true);
+
+	private float[] elements;
+	private int size;
+	private final boolean immutable;
+
+	public PdefFloatList() {
+		this(EMPTY_ELEMENTS, 0, false);
+	}
+
+	public PdefFloatList(final int capacity) {
+		this(new float[capacity], 0, false);
+	}
+
+	private PdefFloatList(final float[] elements, final int size, final boolean immutable) {
+		this.elements = elements;
+		this.size = size;
+		this.immutable = immutable;
+	}
+
+	/** Returns a new mutable list with the elements. */
+	public static PdefFloatList of(final float... elements) {
+		return new PdefFloatList(elements.clone(), elements.length, false);
+	}
+
+	/** Returns an empty immutable list. */
+	public static PdefFloatList empty() {
+		return EMPTY;
+	}
+
+	public float getFloat(final int index) {
+		checkIndex(index);
+		return elements[index];
+	}
+
+	public float setFloat(final int index, final float element) {
+		checkMutable();
+		checkIndex(index);
+		float old = elements[index];
+		elements[index] = element;
+		return old;
+	}
+
+	public void addFloat(final float element) {
+		checkMutable();
+		if (size == elements.length) {
+			grow(size + 1);
+		}
+		elements[size++] = element;
+		modCount++;
+	}
+
+	public void addFloat(final int index, final float element) {
+		checkMutable();
+		if (index < 0 || index > size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		}
+		if (size == elements.length) {
+			grow(size + 1);
+		}
+		System.arraycopy(elements, index, elements, index + 1, size - index);
+		elements[index] = element;
+		size++;
+		modCount++;
+	}
+
+	public float removeFloatAt(final int index) {
+		checkMutable();
+		checkIndex(index);
+		float old = elements[index];
+		System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+		size--;
+		modCount++;
+		return old;
+	}
+
+	public int indexOfFloat(final float element) {
+		for (int i = 0; i < size; i++) {
+			if (Float.floatToIntBits(elements[i]) == Float.floatToIntBits(element)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public boolean containsFloat(final float element) {
+		return indexOfFloat(element) >= 0;
+	}
+
+	/** Returns a new array of the list elements. */
+	public float[] toFloatArray() {
+		return Arrays.copyOf(elements, size);
+	}
+
+	public void ensureCapacity(final int capacity) {
+		checkMutable();
+		if (capacity > elements.length) {
+			grow(capacity);
+		}
+	}
+
+	@Override
+	public Float get(final int index) {
+		return getFloat(index);
+	}
+
+	@Override
+	public Float set(final int index, final Float element) {
+		return setFloat(index, element);
+	}
+
+	@Override
+	public boolean add(final Float element) {
+		addFloat(element);
+		return true;
+	}
+
+	@Override
+	public void add(final int index, final Float element) {
+		addFloat(index, element);
+	}
+
+	@Override
+	public Float remove(final int index) {
+		return removeFloatAt(index);
+	}
+
+	@Override
+	public int indexOf(final Object o) {
+		return o instanceof Float ? indexOfFloat((Float) o) : -1;
+	}
+
+	@Override
+	public boolean contains(final Object o) {
+		return indexOf(o) >= 0;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void clear() {
+		checkMutable();
+		size = 0;
+		modCount++;
+	}
+
+	@Override
+	public PdefFloatList copy() {
+		return immutable ? this : new PdefFloatList(toFloatArray(), size, false);
+	}
+
+	@Override
+	public PdefFloatList toImmutable() {
+		if (immutable) {
+			return this;
+		}
+		return size == 0 ? EMPTY : new PdefFloatList(toFloatArray(), size, true);
+	}
+
+	@Override
+	public boolean isImmutable() {
+		return immutable;
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o) return true;
+		if (!(o instanceof PdefFloatList)) return super.equals(o);
+
+		PdefFloatList that = (PdefFloatList) o;
+		if (size != that.size) return false;
+		for (int i = 0; i < size; i++) {
+			if (Float.floatToIntBits(elements[i]) != Float.floatToIntBits(that.elements[i])) return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = 1;
+		for (int i = 0; i < size; i++) {
+			result = 31 * result + Float.floatToIntBits(elements[i]);
+		}
+		return result;
+	}
+
+	private void grow(final int minCapacity) {
+		int capacity = Math.max(elements.length + (elements.length >> 1), 10);
+		elements = Arrays.copyOf(elements, Math.max(capacity, minCapacity));
+	}
+
+	private void checkIndex(final int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		}
+	}
+
+	private void checkMutable() {
+		if (immutable) {
+			throw new UnsupportedOperationException("Immutable list");
+		}
+	}
+}
@@ -2,8 +2,8 @@ package io.pdef;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
-import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
@@ -12,6 +12,9 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class PdefHandler<T> {
 	private static final String CHARSET_NAME = "UTF-8";
@@ -24,8 +27,14 @@ public class PdefHandler<T> {
 		}
 	};
 
+	private static final ConcurrentMap<Class<?>, Field[]> requestFields =
+			new ConcurrentHashMap<Class<?>, Field[]>();
+
 	private final T server;
 	private final Class<T> iface;
+	private final Map<String, PdefBulkhead> bulkheads =
+			new ConcurrentHashMap<String, PdefBulkhead>();
+	private volatile PdefScheduler scheduler;
 
 	public PdefHandler(final Class<T> iface, final T server) {
 		if (iface == null) throw new NullPointerException("iface");
@@ -35,15 +44,159 @@ public class PdefHandler<T> {
 		this.server = server;
 	}
 
+	public Class<T> getInterface() {
+		return iface;
+	}
+
+	/**
+	 * Adds a bulkhead for invocation chains which start with a prefix.
+	 *
+	 * Chains are matched by their method names joined with dots on whole names, i.e. "report"
+	 * matches "report" and "report.daily" but not "reportDaily", "articles.query" matches
+	 * only the query method of the articles subinterface. The longest matching prefix is used.
+	 */
+	public PdefHandler<T> addBulkhead(final String prefix, final PdefBulkhead bulkhead) {
+		if (prefix == null) throw new NullPointerException("prefix");
+		if (bulkhead == null) throw new NullPointerException("bulkhead");
+
+		bulkheads.put(prefix, bulkhead);
+		return this;
+	}
+
+	/** Returns an unmodifiable map of bulkheads by their prefixes. */
+	public Map<String, PdefBulkhead> getBulkheads() {
+		return Collections.unmodifiableMap(bulkheads);
+	}
+
+	/**
+	 * Creates method descriptors, request struct fields, enum lookups and JSON adapters
+	 * of the interface and its subinterfaces. Call it before a server reports ready,
+	 * so that first requests do not pay for reflection.
+	 */
+	public PdefHandler<T> warmUp() {
+		for (Class<?> cls : PdefMethodDescriptor.withSubinterfaces(iface)) {
+			for (PdefMethodDescriptor method : PdefMethodDescriptor.forInterface(cls)) {
+				for (Type type : method.getArgTypes()) {
+					PdefJson.warmUp(type);
+				}
+
+				if (hasRequestArg(method)) {
+					Class<?> request = method.getArgClasses()[0];
+					getRequestFields(AbstractImmutableStruct.class.isAssignableFrom(request)
+							? AbstractImmutableStruct.getBuilderClass(request) : request);
+				}
+
+				if (method.hasDataTypeResult()) {
+					PdefJson.warmUp(method.getMethod().getGenericReturnType());
+				}
+			}
+		}
+		return this;
+	}
+
+	@Nullable
+	public PdefScheduler getScheduler() {
+		return scheduler;
+	}
+
+	/**
+	 * Sets a scheduler to run requests in priority classes. A request priority is set
+	 * by the request or by the last method in its invocation chain with
+	 * a {@link Priority} annotation, the default one is {@link PdefPriority#NORMAL}.
+	 */
+	public PdefHandler<T> setScheduler(@Nullable final PdefScheduler scheduler) {
+		this.scheduler = scheduler;
+		return this;
+	}
+
 	public PdefResponse<Object> handle(final PdefRequest request) {
-		List<PdefInvocation> invocations = parseRequest(request, iface);
+		final List<PdefInvocation> invocations = parseRequest(request, iface);
+		PdefScheduler scheduler = this.scheduler;
+		if (scheduler == null) {
+			return new PdefResponse<Object>().setData(handle(invocations));
+		}
 
+		Object data = scheduler.execute(getPriority(request, invocations),
+				request.getTimeoutMillis(), new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						return handle(invocations);
+					}
+				});
+		return new PdefResponse<Object>().setData(data);
+	}
+
+	/** Returns a request priority or the priority of the last annotated method. */
+	static PdefPriority getPriority(final PdefRequest request,
+			final List<PdefInvocation> invocations) {
+		PdefPriority priority = request.getPriority();
+		if (priority != null) {
+			return priority;
+		}
+
+		for (int i = invocations.size() - 1; i >= 0; i--) {
+			Method method = invocations.get(i).getMethod();
+			priority = PdefMethodDescriptor.forMethod(method).getPriority();
+			if (priority != null) {
+				return priority;
+			}
+		}
+		return PdefPriority.NORMAL;
+	}
+
+	/** Invokes a parsed invocation chain in its bulkhead if any and returns the result. */
+	Object handle(final List<PdefInvocation> invocations) {
+		PdefBulkhead bulkhead = getBulkhead(invocations);
+		if (bulkhead == null) {
+			return invoke(invocations);
+		}
+
+		return bulkhead.execute(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return invoke(invocations);
+			}
+		});
+	}
+
+	private Object invoke(final List<PdefInvocation> invocations) {
 		Object result = server;
 		for (PdefInvocation inv : invocations) {
 			result = inv.invoke(result);
 		}
+		return result;
+	}
 
-		return new PdefResponse<Object>().setData(result);
+	@Nullable
+	PdefBulkhead getBulkhead(final List<PdefInvocation> invocations) {
+		if (bulkheads.isEmpty()) {
+			return null;
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for (PdefInvocation invocation : invocations) {
+			if (sb.length() > 0) {
+				sb.append('.');
+			}
+			sb.append(invocation.getMethod().getName());
+		}
+		String chain = sb.toString();
+
+		String prefix = null;
+		for (String key : bulkheads.keySet()) {
+			if (matchesPrefix(chain, key)
+					&& (prefix == null || key.length() > prefix.length())) {
+				prefix = key;
+			}
+		}
+
+		return prefix == null ? null : bulkheads.get(prefix);
+	}
+
+	/** Returns true when a chain starts with a prefix followed by a dot or the chain end. */
+	static boolean matchesPrefix(final String chain, final String prefix) {
+		return chain.startsWith(prefix)
+				&& (chain.length() == prefix.length() || chain.charAt(prefix.length()) == '.');
 	}
 	
 	@Nonnull
@@ -63,52 +216,112 @@ public class PdefHandler<T> {
 		if (request == null) throw new NullPointerException("request");
 		if (iface == null) throw new NullPointerException("iface");
 
-		List<PdefInvocation> invocations = new ArrayList<PdefInvocation>();
-		LinkedList<String> path = splitPath(request.getRelativePath());
-		Map<String, String> params = request.isPost() ? request.getPost() : request.getQuery();
+		// The path is tokenized in place, only argument segments are copied and decoded.
+		String path = request.getRelativePath();
+		int end = path.length();
+		int pos = path.startsWith("/") ? 1 : 0;
+
+		List<PdefInvocation> invocations = new ArrayList<PdefInvocation>(4);
+		Map<String, String> params = null;
 
-		while (!path.isEmpty()) {
+		while (pos < end) {
 
 			// Find a method by a name.
-			String name = path.removeFirst();
-			Method method = getMethod(iface, name);
-			assertThat(method != null, "Method is not found %s", name);
+			int next = segmentEnd(path, pos);
+			PdefMethodDescriptor method = PdefMethodDescriptor.find(iface, path, pos, next);
+			if (method == null) {
+				throw new PdefException("Method is not found " + path.substring(pos, next));
+			}
+			pos = next + 1;
 
 			// Check the required HTTP method.
-			if (isPost(method)) {
-				assertThat(request.isPost(), "Method not allowed, POST required");
+			if (method.isPost() && !request.isPost()) {
+				throw new PdefException("Method not allowed, POST required");
 			}
 
 			// Parse arguments and create a next invocation.
-			Object[] args = hasRequestArg(method) ? parseArgRequest(method, params)
-			                                      : parseArgs(method, path, params);
-			PdefInvocation invocation = new PdefInvocation(method, args);
-			invocations.add(invocation);
+			Object[] args;
+			if (request.getJsonPostReader() != null && method.hasDataTypeResult()) {
+				args = parseJsonArgs(method, request.getJsonPostReader());
+
+			} else if (method.hasInterfaceResult()) {
+				args = new Object[method.getArgCount()];
+				for (int i = 0; i < args.length; i++) {
+					if (pos >= end) {
+						throw new PdefException("Wrong number of arguments for method \""
+								+ method.getName() + "\"");
+					}
+
+					next = segmentEnd(path, pos);
+					String value = urldecode(path, pos, next);
+					args[i] = parseArg(method.getArgTypes()[i], value, method.getArgName(i));
+					pos = next + 1;
+				}
+
+			} else {
+				if (params == null) {
+					params = request.isPost() ? request.getPost() : request.getQuery();
+				}
+				args = hasRequestArg(method) ? parseArgRequest(method, params)
+				                             : parseArgs(method, params);
+			}
+			invocations.add(PdefInvocation.wrap(method.getMethod(), args));
 
 			// Stop on a terminal method, otherwise, proceed parsing the request.
-			if (hasDataTypeResult(method)) {
+			if (method.hasDataTypeResult()) {
 				break;
 			} else {
-				assert method != null;
-				iface = method.getReturnType();
+				iface = method.getMethod().getReturnType();
 			}
 		}
 
-		assertThat(path.isEmpty(), "Failed to parse an invocation chain");
-		assertThat(!invocations.isEmpty(), "Method invocation required");
-		assertThat(hasDataTypeResult(invocations.get(invocations.size() - 1).getMethod()),
-				"The last method must be void or return a data type.");
+		if (pos < end) throw new PdefException("Failed to parse an invocation chain");
+		if (invocations.isEmpty()) throw new PdefException("Method invocation required");
+		if (!hasDataTypeResult(invocations.get(invocations.size() - 1).getMethod())) {
+			throw new PdefException("The last method must be void or return a data type.");
+		}
 
 		return invocations;
 	}
 
-	private static Object[] parseArgRequest(final Method method, final Map<String, String> params)
-			throws Exception {
-		Class<?> cls = method.getParameterTypes()[0];
-		Object request = cls.newInstance();
-		Field[] fields = cls.getDeclaredFields();
+	/** Returns the end index of a path segment which starts at an index. */
+	private static int segmentEnd(final String path, final int start) {
+		int end = path.indexOf('/', start);
+		return end == -1 ? path.length() : end;
+	}
 
-		for (Field field : fields) {
+	/** Parses arguments directly from a JSON object body into the argument types. */
+	private static Object[] parseJsonArgs(final PdefMethodDescriptor method, final Reader reader) {
+		Type[] types = method.getArgTypes();
+		try {
+			if (hasRequestArg(method)) {
+				return new Object[]{PdefJson.parse(reader, types[0])};
+			}
+
+			String[] names = new String[types.length];
+			for (int i = 0; i < types.length; i++) {
+				names[i] = method.getArgName(i);
+			}
+
+			return PdefJson.parseFields(reader, names, types);
+		} catch (PdefException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new PdefException("Failed to parse a JSON post body", e);
+		}
+	}
+
+	private static Object[] parseArgRequest(final PdefMethodDescriptor method,
+			final Map<String, String> params) throws Exception {
+		// Immutable requests are parsed via their builders.
+		Class<?> cls = method.getArgClasses()[0];
+		boolean immutable = AbstractImmutableStruct.class.isAssignableFrom(cls);
+		if (immutable) {
+			cls = AbstractImmutableStruct.getBuilderClass(cls);
+		}
+
+		Object request = cls.newInstance();
+		for (Field field : getRequestFields(cls)) {
 			String name = field.getName();
 			String value = params.get(name);
 			if (value == null) {
@@ -117,37 +330,39 @@ public class PdefHandler<T> {
 
 			Type type = field.getGenericType();
 			Object arg = parseArg(type, value, name);
-			field.setAccessible(true);
 			field.set(request, arg);
 		}
 
+		if (immutable) {
+			request = ((StructBuilder<?>) request).build();
+		}
 		return new Object[]{request};
 	}
 
-	private static Object[] parseArgs(final Method method,
-			final LinkedList<String> path, final Map<String, String> params) throws Exception {
-		Type[] types = method.getGenericParameterTypes();
-		Annotation[][] annotations = method.getParameterAnnotations();
+	/** Returns cached accessible declared fields of a request struct. */
+	private static Field[] getRequestFields(final Class<?> cls) {
+		Field[] fields = requestFields.get(cls);
+		if (fields != null) {
+			return fields;
+		}
 
-		Object[] args = new Object[types.length];
-		if (args.length == 0) {
-			return args;
+		fields = cls.getDeclaredFields();
+		for (Field field : fields) {
+			field.setAccessible(true);
 		}
+		requestFields.put(cls, fields);
+		return fields;
+	}
 
-		for (int i = 0; i < types.length; i++) {
-			Type type = types[i];
-			String name = getArgName(annotations, i);
-			String value;
-
-			if (hasInterfaceResult(method)) {
-				assertThat(!path.isEmpty(), "Wrong number of arguments for method \"%s\"",
-						method.getName());
-				value = urldecode(path.removeFirst());
-			} else {
-				value = params.get(name);
-			}
+	private static Object[] parseArgs(final PdefMethodDescriptor method,
+			final Map<String, String> params) throws Exception {
+		Type[] types = method.getArgTypes();
+		Object[] args = new Object[types.length];
 
-			args[i] = value == null ? null : parseArg(type, value, name);
+		for (int i = 0; i < types.length; i++) {
+			String name = method.getArgName(i);
+			String value = params.get(name);
+			args[i] = value == null ? null : parseArg(types[i], value, name);
 		}
 
 		return args;
@@ -165,6 +380,7 @@ public class PdefHandler<T> {
 			else if (type == float.class || type == Float.class) return Float.parseFloat(value);
 			else if (type == double.class || type == Double.class) return Double.parseDouble(value);
 			else if (type == Date.class) return parseDate(value);
+			else if (type == PdefInstant.class) return PdefInstant.fromDate(parseDate(value));
 			else if (type instanceof Class<?> && ((Class) type).isEnum()) {
 				return parseEnum(type, value);
 			}
@@ -188,57 +404,39 @@ public class PdefHandler<T> {
 
 	@SuppressWarnings("unchecked")
 	private static Enum<?> parseEnum(final Type type, final String value) {
-		if (value == null) return null;
-		String name = value.toUpperCase();
-
-		try {
-			return Enum.valueOf((Class<? extends Enum>) type, name);
-		} catch (IllegalArgumentException e) {
-			// Parse unknown enums as null.
-			return null;
-		}
+		// Parse unknown enums as null.
+		return value == null ? null : PdefEnums.forClass((Class<?>) type).find(value);
 	}
 
-	private static LinkedList<String> splitPath(String path) {
-		if (path.startsWith("/")) {
-			path = path.substring(1);
+	/** Returns a decoded path segment, copies it without decoding when possible. */
+	private static String urldecode(final String path, final int start, final int end) {
+		String segment = path.substring(start, end);
+		if (segment.indexOf('%') == -1 && segment.indexOf('+') == -1) {
+			return segment;
 		}
-		if (path.isEmpty()) {
-			return new LinkedList<String>();
-		}
-
-		// The split() method discards trailing empty strings (i.e. the last slash).
-		String[] partsArray = path.split("/");
-		LinkedList<String> parts = new LinkedList<String>();
-		Collections.addAll(parts, partsArray);
-		return parts;
-	}
 
-	private static String urldecode(final String s) {
 		try {
-			return URLDecoder.decode(s, CHARSET_NAME);
+			return URLDecoder.decode(segment, CHARSET_NAME);
 		} catch (UnsupportedEncodingException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
-	private static boolean isPost(final Method method) {
-		return method.isAnnotationPresent(POST.class);
-	}
-
-	private static boolean hasRequestArg(final Method method) {
-		if (!method.isAnnotationPresent(Request.class)) {
+	private static boolean hasRequestArg(final PdefMethodDescriptor method) {
+		if (!method.isRequest()) {
 			return false;
 		}
 
 		String name = method.getName();
-		Class<?>[] params = method.getParameterTypes();
-		assertThat(params.length == 1,
-				"Method \"%s\" must have one struct request argument", name);
+		Class<?>[] params = method.getArgClasses();
+		if (params.length != 1) {
+			throw new PdefException("Method \"" + name + "\" must have one struct request argument");
+		}
 
 		Class<?> param = params[0];
-		assertThat(!param.isPrimitive() && !param.isInterface() && !param.isEnum(),
-				"Method \"%s\" must have one struct request argument", name);
+		if (param.isPrimitive() || param.isInterface() || param.isEnum()) {
+			throw new PdefException("Method \"" + name + "\" must have one struct request argument");
+		}
 		return true;
 	}
 
@@ -251,40 +449,12 @@ public class PdefHandler<T> {
 	}
 
 	static boolean isDataType(final Class<?> cls) {
-		return !cls.isInterface() || cls == List.class || cls == Set.class || cls == Map.class;
+		return PdefMethodDescriptor.isDataType(cls);
 	}
 
 	@Nullable
 	static Method getMethod(Class<?> iface, String name) {
-		Method[] methods = iface.getMethods();
-		for (Method method : methods) {
-			String name1 = method.getName();
-			if (name1.equals(name)) {
-				return method;
-			}
-		}
-
-		return null;
-	}
-
-	private static String getArgName(final Annotation[][] annotations, final int index) {
-		Annotation[] argAnns = annotations[index];
-		for (int i = 0; i < argAnns.length; i++) {
-			Annotation ann = argAnns[i];
-			if (ann instanceof Name) {
-				return ((Name) ann).value();
-			}
-		}
-
-		throw new IllegalArgumentException("No method argument name, "
-				+ "pdef method arguments must be annotated with @io.pdef.Name"
-		);
-	}
-
-	private static void assertThat(final boolean expr, final String msg, final Object... objects) {
-		if (expr) return;
-
-		String message = String.format(msg, objects);
-		throw new PdefException(message);
+		PdefMethodDescriptor descriptor = PdefMethodDescriptor.find(iface, name, 0, name.length());
+		return descriptor == null ? null : descriptor.getMethod();
 	}
 }
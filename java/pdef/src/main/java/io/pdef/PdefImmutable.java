@@ -0,0 +1,196 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Immutable pdef collections, immutable structs use them for their collection fields.
+ *
+ * The copies are deep, nested collections are copied too, but already immutable collections
+ * and immutable structs are returned as they are. So an immutable value is copied only once,
+ * and modified struct copies share its unchanged fields.
+ */
+public final class PdefImmutable {
+	private static final List<Object> EMPTY_LIST = new ImmutableList<Object>(new Object[0]);
+
+	private PdefImmutable() {}
+
+	/** Returns true when an object is an immutable pdef collection. */
+	public static boolean isImmutable(final Object object) {
+		return object instanceof Immutable || (object instanceof PrimitiveCollection
+				&& ((PrimitiveCollection) object).isImmutable());
+	}
+
+	@SuppressWarnings("unchecked")
+	public static <T extends Struct> T copyOf(final T struct) {
+		return struct == null ? null : (T) struct.copy();
+	}
+
+	/** Returns an immutable deep copy of a list or the list itself when it is immutable. */
+	@SuppressWarnings("unchecked")
+	public static <T> List<T> copyOf(final List<T> list) {
+		if (list == null) {
+			return null;
+		} else if (list instanceof Immutable) {
+			return list;
+		} else if (list instanceof PrimitiveCollection) {
+			return (List<T>) ((PrimitiveCollection) list).toImmutable();
+		} else if (list.isEmpty()) {
+			return (List<T>) EMPTY_LIST;
+		}
+
+		Object[] elements = new Object[list.size()];
+		int i = 0;
+		for (T element : list) {
+			elements[i++] = copyElement(element);
+		}
+
+		return new ImmutableList<T>(elements);
+	}
+
+	/** Returns an immutable deep copy of a set or the set itself when it is immutable. */
+	@SuppressWarnings("unchecked")
+	public static <T> Set<T> copyOf(final Set<T> set) {
+		if (set == null) {
+			return null;
+		} else if (set instanceof Immutable) {
+			return set;
+		} else if (set instanceof PrimitiveCollection) {
+			return (Set<T>) ((PrimitiveCollection) set).toImmutable();
+		} else if (set instanceof EnumSet) {
+			return new ImmutableSet<T>((Set<T>) ((EnumSet<?>) set).clone());
+		}
+
+		Set<T> copy = new HashSet<T>(PdefCopy.hashCapacity(set.size()));
+		for (T element : set) {
+			copy.add(copyElement(element));
+		}
+
+		return new ImmutableSet<T>(copy);
+	}
+
+	/** Returns an immutable deep copy of a map or the map itself when it is immutable. */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public static <K, V> Map<K, V> copyOf(final Map<K, V> map) {
+		if (map == null) {
+			return null;
+		} else if (map instanceof Immutable) {
+			return map;
+		} else if (map instanceof PrimitiveCollection) {
+			return (Map<K, V>) ((PrimitiveCollection) map).toImmutable();
+		}
+
+		Map<K, V> copy = map instanceof EnumMap
+				? new EnumMap((EnumMap) map)
+				: new HashMap<K, V>(PdefCopy.hashCapacity(map.size()));
+		for (Map.Entry<K, V> entry : map.entrySet()) {
+			copy.put(copyElement(entry.getKey()), copyElement(entry.getValue()));
+		}
+
+		return new ImmutableMap<K, V>(copy);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T copyElement(final T element) {
+		if (element == null) return null;
+		else if (element instanceof Struct) return (T) ((Struct) element).copy();
+		else if (element instanceof List) return (T) copyOf((List<?>) element);
+		else if (element instanceof Set) return (T) copyOf((Set<?>) element);
+		else if (element instanceof Map) return (T) copyOf((Map<?, ?>) element);
+		return element;
+	}
+
+	/** Marker of immutable collections. */
+	private interface Immutable {}
+
+	private static class ImmutableList<T> extends AbstractList<T>
+			implements RandomAccess, Immutable, Serializable {
+		private static final long serialVersionUID = 1L;
+		private final Object[] elements;
+
+		private ImmutableList(final Object[] elements) {
+			this.elements = elements;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public T get(final int index) {
+			return (T) elements[index];
+		}
+
+		@Override
+		public int size() {
+			return elements.length;
+		}
+	}
+
+	private static class ImmutableSet<T> extends AbstractSet<T> implements Immutable, Serializable {
+		private static final long serialVersionUID = 1L;
+		private final Set<T> set;
+
+		private ImmutableSet(final Set<T> set) {
+			this.set = Collections.unmodifiableSet(set);
+		}
+
+		@Override
+		public Iterator<T> iterator() {
+			return set.iterator();
+		}
+
+		@Override
+		public int size() {
+			return set.size();
+		}
+
+		@Override
+		public boolean contains(final Object o) {
+			return set.contains(o);
+		}
+	}
+
+	private static class ImmutableMap<K, V> extends AbstractMap<K, V>
+			implements Immutable, Serializable {
+		private static final long serialVersionUID = 1L;
+		private final Map<K, V> map;
+
+		private ImmutableMap(final Map<K, V> map) {
+			this.map = Collections.unmodifiableMap(map);
+		}
+
+		@Override
+		public Set<Entry<K, V>> entrySet() {
+			return map.entrySet();
+		}
+
+		@Override
+		public int size() {
+			return map.size();
+		}
+
+		@Override
+		public boolean containsKey(final Object key) {
+			return map.containsKey(key);
+		}
+
+		@Override
+		public V get(final Object key) {
+			return map.get(key);
+		}
+	}
+}
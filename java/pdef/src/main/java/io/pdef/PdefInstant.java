@@ -0,0 +1,92 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import javax.annotation.Nullable;
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Immutable UTC instant with millisecond precision, immutable structs use it for datetime fields.
+ *
+ * It is a minimal replacement of {@code java.time.Instant} for Java 6, and
+ * is encoded in JSON the same way as {@link Date}.
+ */
+public final class PdefInstant implements Comparable<PdefInstant>, Serializable {
+	private static final long serialVersionUID = 1L;
+	private final long epochMilli;
+
+	private PdefInstant(final long epochMilli) {
+		this.epochMilli = epochMilli;
+	}
+
+	/** Returns the current instant. */
+	public static PdefInstant now() {
+		return new PdefInstant(System.currentTimeMillis());
+	}
+
+	/** Returns an instant from milliseconds since the epoch. */
+	public static PdefInstant ofEpochMilli(final long epochMilli) {
+		return new PdefInstant(epochMilli);
+	}
+
+	/** Returns an instant from a date or null. */
+	@Nullable
+	public static PdefInstant fromDate(@Nullable final Date date) {
+		return date == null ? null : new PdefInstant(date.getTime());
+	}
+
+	/** Returns milliseconds since the epoch. */
+	public long toEpochMilli() {
+		return epochMilli;
+	}
+
+	/** Returns a new date, dates are mutable. */
+	public Date toDate() {
+		return new Date(epochMilli);
+	}
+
+	public boolean isBefore(final PdefInstant other) {
+		return epochMilli < other.epochMilli;
+	}
+
+	public boolean isAfter(final PdefInstant other) {
+		return epochMilli > other.epochMilli;
+	}
+
+	@Override
+	public int compareTo(final PdefInstant o) {
+		return epochMilli < o.epochMilli ? -1 : (epochMilli == o.epochMilli ? 0 : 1);
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		return epochMilli == ((PdefInstant) o).epochMilli;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (epochMilli ^ (epochMilli >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		return "PdefInstant{" + epochMilli + '}';
+	}
+}
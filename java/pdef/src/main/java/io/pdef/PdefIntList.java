@@ -0,0 +1,238 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Growable int list, stores pdef int16 and int32 elements without boxing.
+ *
+ * It is a {@code List<Integer>}, use the primitive methods to avoid boxing.
+ */
+public class PdefIntList extends AbstractList<Integer>
+		implements RandomAccess, PrimitiveCollection, Serializable {
+	private static final long serialVersionUID = 1L;
+	private static final int[] EMPTY_ELEMENTS = new int[0];
+	private static final PdefIntList EMPTY = new PdefIntList(EMPTY_ELEMENTS, 0, true);
+
+	private int[] elements;
+	private int size;
+	private final boolean immutable;
+
+	public PdefIntList() {
+		this(EMPTY_ELEMENTS, 0, false);
+	}
+
+	public PdefIntList(final int capacity) {
+		this(new int[capacity], 0, false);
+	}
+
+	private PdefIntList(final int[] elements, final int size, final boolean immutable) {
+		this.elements = elements;
+		this.size = size;
+		this.immutable = immutable;
+	}
+
+	/** Returns a new mutable list with the elements. */
+	public static PdefIntList of(final int... elements) {
+		return new PdefIntList(elements.clone(), elements.length, false);
+	}
+
+	/** Returns an empty immutable list. */
+	public static PdefIntList empty() {
+		return EMPTY;
+	}
+
+	public int getInt(final int index) {
+		checkIndex(index);
+		return elements[index];
+	}
+
+	public int setInt(final int index, final int element) {
+		checkMutable();
+		checkIndex(index);
+		int old = elements[index];
+		elements[index] = element;
+		return old;
+	}
+
+	public void addInt(final int element) {
+		checkMutable();
+		if (size == elements.length) {
+			grow(size + 1);
+		}
+		elements[size++] = element;
+		modCount++;
+	}
+
+	public void addInt(final int index, final int element) {
+		checkMutable();
+		if (index < 0 || index > size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		}
+		if (size == elements.length) {
+			grow(size + 1);
+		}
+		System.arraycopy(elements, index, elements, index + 1, size - index);
+		elements[index] = element;
+		size++;
+		modCount++;
+	}
+
+	public int removeIntAt(final int index) {
+		checkMutable();
+		checkIndex(index);
+		int old = elements[index];
+		System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+		size--;
+		modCount++;
+		return old;
+	}
+
+	public int indexOfInt(final int element) {
+		for (int i = 0; i < size; i++) {
+			if (elements[i] == element) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public boolean containsInt(final int element) {
+		return indexOfInt(element) >= 0;
+	}
+
+	/** Returns a new array of the list elements. */
+	public int[] toIntArray() {
+		return Arrays.copyOf(elements, size);
+	}
+
+	public void ensureCapacity(final int capacity) {
+		checkMutable();
+		if (capacity > elements.length) {
+			grow(capacity);
+		}
+	}
+
+	@Override
+	public Integer get(final int index) {
+		return getInt(index);
+	}
+
+	@Override
+	public Integer set(final int index, final Integer element) {
+		return setInt(index, element);
+	}
+
+	@Override
+	public boolean add(final Integer element) {
+		addInt(element);
+		return true;
+	}
+
+	@Override
+	public void add(final int index, final Integer element) {
+		addInt(index, element);
+	}
+
+	@Override
+	public Integer remove(final int index) {
+		return removeIntAt(index);
+	}
+
+	@Override
+	public int indexOf(final Object o) {
+		return o instanceof Integer ? indexOfInt((Integer) o) : -1;
+	}
+
+	@Override
+	public boolean contains(final Object o) {
+		return indexOf(o) >= 0;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void clear() {
+		checkMutable();
+		size = 0;
+		modCount++;
+	}
+
+	@Override
+	public PdefIntList copy() {
+		return immutable ? this : new PdefIntList(toIntArray(), size, false);
+	}
+
+	@Override
+	public PdefIntList toImmutable() {
+		if (immutable) {
+			return this;
+		}
+		return size == 0 ? EMPTY : new PdefIntList(toIntArray(), size, true);
+	}
+
+	@Override
+	public boolean isImmutable() {
+		return immutable;
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o) return true;
+		if (!(o instanceof PdefIntList)) return super.equals(o);
+
+		PdefIntList that = (PdefIntList) o;
+		if (size != that.size) return false;
+		for (int i = 0; i < size; i++) {
+			if (elements[i] != that.elements[i]) return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = 1;
+		for (int i = 0; i < size; i++) {
+			result = 31 * result + elements[i];
+		}
+		return result;
+	}
+
+	private void grow(final int minCapacity) {
+		int capacity = Math.max(elements.length + (elements.length >> 1), 10);
+		elements = Arrays.copyOf(elements, Math.max(capacity, minCapacity));
+	}
+
+	private void checkIndex(final int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		}
+	}
+
+	private void checkMutable() {
+		if (immutable) {
+			throw new UnsupportedOperationException("Immutable list");
+		}
+	}
+}
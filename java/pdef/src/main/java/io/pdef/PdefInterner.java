@@ -0,0 +1,117 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import com.google.gson.Gson;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded concurrent canonicalization table of parsed strings and small immutable values.
+ *
+ * Pass it to {@link PdefJson} or {@link PdefClient#setInterner} to deduplicate repeated
+ * strings and map keys in parsed data, so that large results held in memory share equal
+ * strings. The table is a fixed size lossy cache, a colliding value replaces an older one,
+ * so it never grows and never blocks. Boxed numbers and instants are interned only when
+ * enabled, they are usually cheaper to keep than to look up.
+ */
+public final class PdefInterner {
+	public static final int DEFAULT_SIZE = 1 << 12;
+	public static final int DEFAULT_MAX_LENGTH = 64;
+
+	private final AtomicReferenceArray<String> strings;
+	private final AtomicReferenceArray<Object> values;
+	private final int mask;
+	private final int maxLength;
+	private volatile Gson gson;
+
+	public PdefInterner() {
+		this(DEFAULT_SIZE, DEFAULT_MAX_LENGTH, false);
+	}
+
+	/**
+	 * Creates an interner with a table size rounded up to a power of two, strings longer
+	 * than maxLength are not interned.
+	 */
+	public PdefInterner(final int size, final int maxLength, final boolean internValues) {
+		if (size < 1 || size > 1 << 24) throw new IllegalArgumentException("Wrong size " + size);
+		if (maxLength < 0) throw new IllegalArgumentException("maxLength is negative");
+
+		int capacity = Integer.highestOneBit(size);
+		if (capacity < size) {
+			capacity <<= 1;
+		}
+
+		this.strings = new AtomicReferenceArray<String>(capacity);
+		this.values = internValues ? new AtomicReferenceArray<Object>(capacity) : null;
+		this.mask = capacity - 1;
+		this.maxLength = maxLength;
+	}
+
+	/** Returns true when boxed numbers and instants are interned. */
+	public boolean isInternValues() {
+		return values != null;
+	}
+
+	/** Returns a canonical instance of a short string or the string itself. */
+	public String intern(final String s) {
+		if (s == null || s.length() > maxLength) {
+			return s;
+		}
+
+		int slot = slot(s.hashCode());
+		String cached = strings.get(slot);
+		if (s.equals(cached)) {
+			return cached;
+		}
+
+		strings.set(slot, s);
+		return s;
+	}
+
+	/** Returns a canonical instance of a boxed number or an instant when values are interned. */
+	public <T> T internValue(final T value) {
+		if (value == null || values == null) {
+			return value;
+		}
+
+		int slot = slot(value.hashCode() ^ value.getClass().hashCode());
+		Object cached = values.get(slot);
+		if (value.equals(cached)) {
+			@SuppressWarnings("unchecked")
+			T result = (T) cached;
+			return result;
+		}
+
+		values.set(slot, value);
+		return value;
+	}
+
+	private int slot(final int hash) {
+		int h = hash * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/** Returns a gson instance which interns parsed values, it is created once per interner. */
+	Gson getGson() {
+		return gson;
+	}
+
+	void setGson(final Gson gson) {
+		this.gson = gson;
+	}
+}
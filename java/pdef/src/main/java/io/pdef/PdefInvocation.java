@@ -9,10 +9,20 @@ public class PdefInvocation {
 	private final Object[] args;
 
 	public PdefInvocation(final Method method, final Object[] args) {
+		this(method, args == null ? new Object[0] : args, true);
+	}
+
+	private PdefInvocation(final Method method, final Object[] args, final boolean copy) {
 		if (method == null) throw new NullPointerException("method");
 
 		this.method = method;
-		this.args = args == null ? new Object[0] : args.clone();
+		this.args = copy ? args.clone() : args;
+	}
+
+	/** Creates an invocation which owns the args array without copying it. */
+	static PdefInvocation wrap(final Method method, final Object[] args) {
+		if (args == null) throw new NullPointerException("args");
+		return new PdefInvocation(method, args, false);
 	}
 
 	public Method getMethod() {
@@ -23,6 +33,11 @@ public class PdefInvocation {
 		return args.clone();
 	}
 
+	/** Returns the args array without copying it, the array must not be modified. */
+	Object[] args() {
+		return args;
+	}
+
 	public Object invoke(final Object o) {
 		try {
 			return method.invoke(o, args);
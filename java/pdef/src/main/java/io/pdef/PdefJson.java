@@ -6,22 +6,55 @@ import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 
+import javax.annotation.Nullable;
 import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class PdefJson {
+	static final String DATA_FIELD = "data";
 	private static final Gson gson;
+	private static final ConcurrentMap<Class<?>, Field[]> structFields =
+			new ConcurrentHashMap<Class<?>, Field[]>();
 
 	static {
-		gson = new GsonBuilder()
+		gson = newBuilder().create();
+	}
+
+	private static GsonBuilder newBuilder() {
+		return new GsonBuilder()
 				.setExclusionStrategies(new ExceptionExclusionStrategy())
 				.registerTypeAdapterFactory(new LowercaseEnumTypeAdapterFactory())
+				.registerTypeAdapterFactory(new EnumCollectionTypeAdapterFactory())
+				.registerTypeAdapterFactory(new ImmutableStructTypeAdapterFactory())
 				.registerTypeAdapter(Date.class, new DateAdapter())
-				.create();
+				.registerTypeAdapter(PdefInstant.class, new InstantAdapter())
+				.registerTypeAdapter(PdefIntList.class, new IntListAdapter())
+				.registerTypeAdapter(PdefLongList.class, new LongListAdapter())
+				.registerTypeAdapter(PdefFloatList.class, new FloatListAdapter())
+				.registerTypeAdapter(PdefDoubleList.class, new DoubleListAdapter())
+				.registerTypeAdapter(PdefLongSet.class, new LongSetAdapter())
+				.registerTypeAdapter(PdefLongLongMap.class, new LongLongMapAdapter())
+				.registerTypeAdapter(PdefLongDoubleMap.class, new LongDoubleMapAdapter());
+	}
+
+	/** Returns a gson instance of an interner, its string and value adapters intern parsed data. */
+	private static Gson getGson(final PdefInterner interner) {
+		Gson result = interner.getGson();
+		if (result == null) {
+			result = newBuilder()
+					.registerTypeAdapterFactory(new InterningTypeAdapterFactory(interner))
+					.create();
+			interner.setGson(result);
+		}
+		return result;
 	}
 
 	public static Object parse(final String s, final Type type) {
@@ -48,6 +81,19 @@ public class PdefJson {
 		return gson.fromJson(new InputStreamReader(stream), cls);
 	}
 
+	/** Parses a value, deduplicates strings, map keys and optionally values with an interner. */
+	public static Object parse(final Reader reader, final Type type,
+			final PdefInterner interner) {
+		if (interner == null) throw new NullPointerException("interner");
+		return getGson(interner).fromJson(reader, type);
+	}
+
+	/** Parses a UTF-8 value, deduplicates strings, map keys and values with an interner. */
+	public static Object parse(final InputStream stream, final Type type,
+			final PdefInterner interner) {
+		return parse(new InputStreamReader(stream, PdefClient.UTF8), type, interner);
+	}
+
 	public static String serialize(final Object o) {
 		return gson.toJson(o);
 	}
@@ -67,6 +113,521 @@ public class PdefJson {
 		}
 	}
 
+	/** Serializes an object into a JSON tree, the tree is used to compute delta responses. */
+	static JsonElement toJsonTree(@Nullable final Object o) {
+		return gson.toJsonTree(o);
+	}
+
+	/** Parses a UTF-8 JSON tree. */
+	static JsonElement parseTree(final InputStream stream) {
+		return new JsonParser().parse(new InputStreamReader(stream, PdefClient.UTF8));
+	}
+
+	/** Parses a value from a JSON tree. */
+	static Object parseTree(@Nullable final JsonElement tree, final Type type) {
+		return gson.fromJson(tree, type);
+	}
+
+	/**
+	 * Serializes an object, writes only the struct fields selected by a field mask
+	 * at every nesting level. Collections and maps pass the mask to their elements.
+	 */
+	public static void serialize(final Object o, final PdefFieldMask fields,
+			final Writer writer) {
+		if (fields == null) throw new NullPointerException("fields");
+		if (writer == null) throw new NullPointerException("writer");
+
+		try {
+			JsonWriter out = new JsonWriter(writer);
+			write(out, o, fields);
+			out.flush();
+		} catch (IOException e) {
+			throw new JsonIOException(e);
+		}
+	}
+
+	/** Serializes a {"data": ...} response, writes only the data fields selected by a mask. */
+	public static void serializeData(@Nullable final Object data, final PdefFieldMask fields,
+			final Writer writer) {
+		if (fields == null) throw new NullPointerException("fields");
+		if (writer == null) throw new NullPointerException("writer");
+
+		try {
+			JsonWriter out = new JsonWriter(writer);
+			out.beginObject();
+			if (data != null) {
+				out.name(DATA_FIELD);
+				write(out, data, fields);
+			}
+			out.endObject();
+			out.flush();
+		} catch (IOException e) {
+			throw new JsonIOException(e);
+		}
+	}
+
+	private static void write(final JsonWriter out, @Nullable final Object value,
+			final PdefFieldMask fields) throws IOException {
+		if (value == null) {
+			out.nullValue();
+		} else if (fields.isAll() || value instanceof PrimitiveCollection) {
+			gson.toJson(value, value.getClass(), out);
+		} else if (value instanceof Struct) {
+			writeStruct(out, value, fields);
+		} else if (value instanceof Collection) {
+			out.beginArray();
+			for (Object element : (Collection<?>) value) {
+				write(out, element, fields);
+			}
+			out.endArray();
+		} else if (value instanceof Map) {
+			out.beginObject();
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				Object key = entry.getKey();
+				out.name(key instanceof Enum<?> ? PdefEnums.toLowercase((Enum<?>) key)
+				                                : String.valueOf(key));
+				write(out, entry.getValue(), fields);
+			}
+			out.endObject();
+		} else {
+			gson.toJson(value, value.getClass(), out);
+		}
+	}
+
+	/** Writes selected non-null struct fields in their declaration order as gson does. */
+	private static void writeStruct(final JsonWriter out, final Object struct,
+			final PdefFieldMask fields) throws IOException {
+		out.beginObject();
+		for (Field field : getStructFields(struct.getClass())) {
+			PdefFieldMask mask = fields.get(field.getName());
+			if (mask == null) {
+				continue;
+			}
+
+			Object value;
+			try {
+				value = field.get(struct);
+			} catch (IllegalAccessException e) {
+				throw new IllegalStateException(e);
+			}
+
+			if (value != null) {
+				out.name(field.getName());
+				write(out, value, mask);
+			}
+		}
+		out.endObject();
+	}
+
+	private static Field[] getStructFields(final Class<?> cls) {
+		Field[] fields = structFields.get(cls);
+		if (fields != null) {
+			return fields;
+		}
+
+		List<Field> list = new ArrayList<Field>();
+		for (Field field : cls.getDeclaredFields()) {
+			int modifiers = field.getModifiers();
+			if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+				continue;
+			}
+
+			field.setAccessible(true);
+			list.add(field);
+		}
+
+		fields = list.toArray(new Field[list.size()]);
+		structFields.putIfAbsent(cls, fields);
+		return fields;
+	}
+
+	/**
+	 * Creates JSON adapters and caches struct fields and enum names of a type and of all
+	 * types reachable from it, so that first requests do not create them.
+	 */
+	static void warmUp(final Type type) {
+		if (type == null) throw new NullPointerException("type");
+		warmUp(type, new HashSet<Type>());
+	}
+
+	private static void warmUp(final Type type, final Set<Type> visited) {
+		if (!visited.add(type)) {
+			return;
+		}
+
+		Class<?> cls;
+		if (type instanceof ParameterizedType) {
+			ParameterizedType ptype = (ParameterizedType) type;
+			for (Type arg : ptype.getActualTypeArguments()) {
+				warmUp(arg, visited);
+			}
+			cls = (Class<?>) ptype.getRawType();
+		} else if (type instanceof Class<?>) {
+			cls = (Class<?>) type;
+		} else {
+			return;
+		}
+
+		if (cls.isPrimitive() || cls == Object.class) {
+			return;
+		}
+		if (cls.isEnum()) {
+			PdefEnums.forClass(cls);
+		} else if (Struct.class.isAssignableFrom(cls)) {
+			for (Field field : getStructFields(cls)) {
+				warmUp(field.getGenericType(), visited);
+			}
+		}
+		gson.getAdapter(TypeToken.get(type));
+	}
+
+	/**
+	 * Parses a JSON object into values by their field names and types, unknown fields
+	 * are skipped, absent fields are returned as nulls.
+	 */
+	public static Object[] parseFields(final Reader reader, final String[] names,
+			final Type[] types) {
+		if (reader == null) throw new NullPointerException("reader");
+		if (names.length != types.length) {
+			throw new IllegalArgumentException("Names and types lengths differ");
+		}
+
+		Object[] values = new Object[names.length];
+		try {
+			JsonReader in = new JsonReader(reader);
+			in.beginObject();
+			while (in.hasNext()) {
+				String name = in.nextName();
+				int index = indexOf(names, name);
+				if (index == -1) {
+					in.skipValue();
+				} else {
+					values[index] = gson.fromJson(in, types[index]);
+				}
+			}
+			in.endObject();
+		} catch (IOException e) {
+			throw new JsonIOException(e);
+		}
+
+		return values;
+	}
+
+	private static int indexOf(final String[] names, final String name) {
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Lazily parses a UTF-8 JSON value, lists and maps of structs and collections
+	 * are decoded on first access. The lists and maps are read-only.
+	 */
+	public static Object parseLazy(final byte[] json, final Type type) {
+		if (json == null) throw new NullPointerException("json");
+		if (type == null) throw new NullPointerException("type");
+
+		return PdefLazyJson.parse(json, type);
+	}
+
+	/** Lazily parses the data of a UTF-8 {"data": ...} response, see {@link #parseLazy}. */
+	public static Object parseLazyData(final byte[] json, final Type dataType) {
+		if (json == null) throw new NullPointerException("json");
+		if (dataType == null) throw new NullPointerException("dataType");
+
+		return PdefLazyJson.parseData(json, dataType);
+	}
+
+	/**
+	 * Serializes a {"data": [...]} response from an iterator element by element,
+	 * flushes the writer after every flushSize elements.
+	 */
+	public static void serializeStream(final Iterator<?> data, final Writer writer,
+			final int flushSize) {
+		serializeStream(data, writer, flushSize, null);
+	}
+
+	/** Serializes a {"data": [...]} response stream, writes only the fields selected by a mask. */
+	public static void serializeStream(final Iterator<?> data, final Writer writer,
+			final int flushSize, @Nullable final PdefFieldMask fields) {
+		if (data == null) throw new NullPointerException("data");
+		if (writer == null) throw new NullPointerException("writer");
+		if (flushSize < 1) throw new IllegalArgumentException("flushSize must be positive");
+
+		try {
+			JsonWriter out = new JsonWriter(writer);
+			out.beginObject();
+			out.name(DATA_FIELD);
+			out.beginArray();
+
+			int count = 0;
+			while (data.hasNext()) {
+				Object element = data.next();
+				if (element == null) {
+					out.nullValue();
+				} else if (fields != null) {
+					write(out, element, fields);
+				} else {
+					gson.toJson(element, element.getClass(), out);
+				}
+
+				if (++count % flushSize == 0) {
+					out.flush();
+				}
+			}
+
+			out.endArray();
+			out.endObject();
+			out.flush();
+		} catch (IOException e) {
+			throw new JsonIOException(e);
+		}
+	}
+
+	/**
+	 * Serializes a response into UTF-8 bytes for non-HTTP transports. Stream lists are
+	 * serialized element by element and closed, masks select the written result fields.
+	 */
+	static byte[] serializeResponse(final PdefResponse<?> response,
+			@Nullable final PdefFieldMask fields) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Writer writer = new OutputStreamWriter(out, PdefClient.UTF8);
+
+		Object data = response.getData();
+		if (data instanceof PdefStreamList) {
+			PdefStreamList<?> list = (PdefStreamList<?>) data;
+			try {
+				serializeStream(list.iterator(), writer, Integer.MAX_VALUE, fields);
+			} finally {
+				list.close();
+			}
+		} else if (fields != null) {
+			serializeData(data, fields, writer);
+		} else {
+			response.toJson(writer);
+		}
+
+		writer.flush();
+		return out.toByteArray();
+	}
+
+	/**
+	 * Serializes a {"data": [...]} response from a list, encodes its chunks in parallel.
+	 *
+	 * Chunks of chunkSize elements are encoded into separate buffers on an executor and
+	 * written in order, the output is identical to the serial encoding. The number of
+	 * encoded chunks which wait to be written is bounded by the number of executor threads.
+	 */
+	public static void serializeParallel(final List<?> data, final Writer writer,
+			final ExecutorService executor, final int parallelism, final int chunkSize,
+			@Nullable final PdefFieldMask fields) {
+		if (data == null) throw new NullPointerException("data");
+		if (writer == null) throw new NullPointerException("writer");
+		if (executor == null) throw new NullPointerException("executor");
+		if (parallelism < 1) throw new IllegalArgumentException("parallelism must be positive");
+		if (chunkSize < 1) throw new IllegalArgumentException("chunkSize must be positive");
+
+		int size = data.size();
+		Deque<Future<String>> window = new ArrayDeque<Future<String>>();
+		try {
+			writer.write("{\"" + DATA_FIELD + "\":[");
+
+			int next = 0;
+			boolean first = true;
+			while (next < size || !window.isEmpty()) {
+				// Keep up to parallelism chunks in flight, write them in order.
+				while (next < size && window.size() < parallelism) {
+					int end = Math.min(next + chunkSize, size);
+					window.add(executor.submit(new ChunkEncoder(data.subList(next, end), fields)));
+					next = end;
+				}
+
+				if (!first) {
+					writer.write(',');
+				}
+				writer.write(getChunk(window.poll()));
+				first = false;
+			}
+
+			writer.write("]}");
+			writer.flush();
+		} catch (IOException e) {
+			throw new JsonIOException(e);
+		} finally {
+			for (Future<String> future : window) {
+				future.cancel(true);
+			}
+		}
+	}
+
+	private static String getChunk(final Future<String> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while encoding a list chunk");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new JsonIOException(cause);
+		}
+	}
+
+	/** Encodes list elements into a comma-separated string without array brackets. */
+	private static class ChunkEncoder implements Callable<String> {
+		private final List<?> elements;
+		private final PdefFieldMask fields;
+
+		private ChunkEncoder(final List<?> elements, @Nullable final PdefFieldMask fields) {
+			this.elements = elements;
+			this.fields = fields;
+		}
+
+		@Override
+		public String call() throws IOException {
+			StringWriter buffer = new StringWriter(elements.size() * 64);
+			JsonWriter out = new JsonWriter(buffer);
+			out.setLenient(true);
+			out.beginArray();
+			for (Object element : elements) {
+				if (element == null) {
+					out.nullValue();
+				} else if (fields != null) {
+					write(out, element, fields);
+				} else {
+					gson.toJson(element, element.getClass(), out);
+				}
+			}
+			out.endArray();
+			out.flush();
+
+			// Strip the brackets, chunks are joined into one array.
+			StringBuffer sb = buffer.getBuffer();
+			return sb.substring(1, sb.length() - 1);
+		}
+	}
+
+	/**
+	 * Returns a lazy list of a {"data": [...]} response array, the elements are parsed
+	 * on demand while iterating. The stream is closed when the array is fully read
+	 * or when the list is closed.
+	 */
+	public static <T> PdefStreamList<T> parseStream(final InputStream stream,
+			final Type elementType) {
+		if (stream == null) throw new NullPointerException("stream");
+		if (elementType == null) throw new NullPointerException("elementType");
+
+		StreamIterator<T> iterator = new StreamIterator<T>(gson, stream, elementType);
+		return new PdefStreamList<T>(iterator, iterator);
+	}
+
+	/** Returns a lazy list of a {"data": [...]} response array which interns parsed values. */
+	public static <T> PdefStreamList<T> parseStream(final InputStream stream,
+			final Type elementType, final PdefInterner interner) {
+		if (stream == null) throw new NullPointerException("stream");
+		if (elementType == null) throw new NullPointerException("elementType");
+		if (interner == null) throw new NullPointerException("interner");
+
+		StreamIterator<T> iterator = new StreamIterator<T>(getGson(interner), stream, elementType);
+		return new PdefStreamList<T>(iterator, iterator);
+	}
+
+	/** Lazily parses response data array elements. */
+	private static class StreamIterator<T> implements Iterator<T>, Closeable {
+		private final Gson gson;
+		private final JsonReader reader;
+		private final Type elementType;
+		private boolean started;
+		private boolean closed;
+
+		private StreamIterator(final Gson gson, final InputStream stream, final Type elementType) {
+			this.gson = gson;
+			this.reader = new JsonReader(new InputStreamReader(stream, PdefClient.UTF8));
+			this.elementType = elementType;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (closed) {
+				return false;
+			}
+
+			try {
+				if (!started && !start()) {
+					close();
+					return false;
+				}
+
+				if (reader.hasNext()) {
+					return true;
+				}
+
+				reader.endArray();
+				close();
+				return false;
+			} catch (IOException e) {
+				closeQuietly();
+				throw new JsonIOException(e);
+			} catch (RuntimeException e) {
+				closeQuietly();
+				throw e;
+			}
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+
+			return gson.fromJson(reader, elementType);
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+
+			closed = true;
+			reader.close();
+		}
+
+		/** Skips the response fields until the data array, returns false when there is no data. */
+		private boolean start() throws IOException {
+			started = true;
+			reader.beginObject();
+
+			while (reader.hasNext()) {
+				if (reader.nextName().equals(DATA_FIELD) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+					reader.beginArray();
+					return true;
+				}
+				reader.skipValue();
+			}
+
+			reader.endObject();
+			return false;
+		}
+
+		private void closeQuietly() {
+			try {
+				close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
 	/** Excludes fields from java exception classes. */
 	private static class ExceptionExclusionStrategy implements ExclusionStrategy {
 		@Override
@@ -95,37 +656,489 @@ public class PdefJson {
 	}
 
 	private static class EnumTypeAdapter<T> extends TypeAdapter<T> {
-		private final Map<String, T> lowercaseToConstant;
+		private final PdefEnums enums;
 
 		private EnumTypeAdapter(final Class<T> enumType) {
-			lowercaseToConstant = new HashMap<String, T>();
-
-			for (T constant : enumType.getEnumConstants()) {
-				lowercaseToConstant.put(toLowercase(constant), constant);
-			}
+			enums = PdefEnums.forClass(enumType);
 		}
 
 		public void write(JsonWriter out, T value) throws IOException {
 			if (value == null) {
 				out.nullValue();
 			} else {
-				out.value(toLowercase(value));
+				out.value(enums.name((Enum<?>) value));
 			}
 		}
 
+		@SuppressWarnings("unchecked")
 		public T read(JsonReader reader) throws IOException {
 			if (reader.peek() == JsonToken.NULL) {
 				reader.nextNull();
 				return null;
 			} else {
-				String s = reader.nextString();
-				s = s.toLowerCase();
-				return lowercaseToConstant.get(s);
+				return (T) enums.find(reader.nextString());
+			}
+		}
+	}
+
+	/** Interns parsed strings, map keys and boxed values. */
+	private static class InterningTypeAdapterFactory implements TypeAdapterFactory {
+		private final PdefInterner interner;
+
+		private InterningTypeAdapterFactory(final PdefInterner interner) {
+			this.interner = interner;
+		}
+
+		@Override
+		public <T> TypeAdapter<T> create(final Gson gson, final TypeToken<T> type) {
+			Class<? super T> rawType = type.getRawType();
+			boolean string = rawType == String.class;
+			if (!string && !isInternedValue(rawType)) {
+				return null;
+			}
+
+			final TypeAdapter<T> delegate = gson.getDelegateAdapter(this, type);
+			final boolean interningString = string;
+			return new TypeAdapter<T>() {
+				@Override
+				public void write(final JsonWriter out, final T value) throws IOException {
+					delegate.write(out, value);
+				}
+
+				@Override
+				@SuppressWarnings("unchecked")
+				public T read(final JsonReader in) throws IOException {
+					T value = delegate.read(in);
+					return interningString ? (T) interner.intern((String) value)
+					                       : interner.internValue(value);
+				}
+			};
+		}
+
+		private boolean isInternedValue(final Class<?> cls) {
+			return interner.isInternValues() && (cls == Integer.class
+					|| cls == Long.class
+					|| cls == Short.class
+					|| cls == Double.class
+					|| cls == Float.class
+					|| cls == PdefInstant.class);
+		}
+	}
+
+	/** Parses enum sets and maps with enum keys as EnumSets and EnumMaps. */
+	private static class EnumCollectionTypeAdapterFactory implements TypeAdapterFactory {
+		@SuppressWarnings("unchecked")
+		public <T> TypeAdapter<T> create(final Gson gson, final TypeToken<T> type) {
+			Class<? super T> rawType = type.getRawType();
+			if (!(type.getType() instanceof ParameterizedType)) {
+				// Runtime enum maps, i.e. response data, are written with lowercase keys.
+				if (!EnumMap.class.isAssignableFrom(rawType)) {
+					return null;
+				}
+				return (TypeAdapter<T>) new EnumMapAdapter(null, gson.getAdapter(Object.class));
 			}
+
+			Type[] args = ((ParameterizedType) type.getType()).getActualTypeArguments();
+			if (!(args[0] instanceof Class<?>) || !((Class<?>) args[0]).isEnum()) {
+				return null;
+			}
+
+			Class<?> enumType = (Class<?>) args[0];
+			if (Set.class.isAssignableFrom(rawType) && rawType.isAssignableFrom(EnumSet.class)) {
+				return (TypeAdapter<T>) new EnumSetAdapter(enumType, gson.getAdapter(enumType));
+			} else if (Map.class.isAssignableFrom(rawType)
+					&& rawType.isAssignableFrom(EnumMap.class)) {
+				TypeAdapter<?> valueAdapter = gson.getAdapter(TypeToken.get(args[1]));
+				return (TypeAdapter<T>) new EnumMapAdapter(enumType, valueAdapter);
+			}
+			return null;
 		}
+	}
 
-		private String toLowercase(Object o) {
-			return o.toString().toLowerCase(Locale.US);
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static class EnumSetAdapter extends TypeAdapter<Set<?>> {
+		private final Class enumType;
+		private final TypeAdapter elementAdapter;
+
+		private EnumSetAdapter(final Class<?> enumType, final TypeAdapter<?> elementAdapter) {
+			this.enumType = enumType;
+			this.elementAdapter = elementAdapter;
+		}
+
+		@Override
+		public void write(final JsonWriter out, final Set<?> value) throws IOException {
+			if (value == null) {
+				out.nullValue();
+				return;
+			}
+
+			out.beginArray();
+			for (Object element : value) {
+				elementAdapter.write(out, element);
+			}
+			out.endArray();
+		}
+
+		@Override
+		public Set<?> read(final JsonReader in) throws IOException {
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+
+			// Unknown enum values are skipped, enum sets cannot contain nulls.
+			EnumSet set = EnumSet.noneOf(enumType);
+			in.beginArray();
+			while (in.hasNext()) {
+				Object element = elementAdapter.read(in);
+				if (element != null) {
+					set.add(element);
+				}
+			}
+			in.endArray();
+			return set;
+		}
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static class EnumMapAdapter extends TypeAdapter<Map<?, ?>> {
+		private final Class enumType;
+		private final TypeAdapter valueAdapter;
+
+		private EnumMapAdapter(@Nullable final Class<?> enumType,
+				final TypeAdapter<?> valueAdapter) {
+			this.enumType = enumType;
+			this.valueAdapter = valueAdapter;
+		}
+
+		@Override
+		public void write(final JsonWriter out, final Map<?, ?> value) throws IOException {
+			if (value == null) {
+				out.nullValue();
+				return;
+			}
+
+			out.beginObject();
+			for (Map.Entry<?, ?> entry : value.entrySet()) {
+				out.name(PdefEnums.toLowercase((Enum<?>) entry.getKey()));
+				valueAdapter.write(out, entry.getValue());
+			}
+			out.endObject();
+		}
+
+		@Override
+		public Map<?, ?> read(final JsonReader in) throws IOException {
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+
+			if (enumType == null) {
+				throw new JsonParseException("Cannot parse an enum map without a key type");
+			}
+
+			// Unknown enum keys are skipped, enum maps cannot contain null keys.
+			PdefEnums enums = PdefEnums.forClass(enumType);
+			EnumMap map = new EnumMap(enumType);
+			in.beginObject();
+			while (in.hasNext()) {
+				Enum<?> key = enums.find(in.nextName());
+				Object value = valueAdapter.read(in);
+				if (key != null) {
+					map.put(key, value);
+				}
+			}
+			in.endObject();
+			return map;
+		}
+	}
+
+	/** Serializes immutable structs by their fields and parses them via their builders. */
+	private static class ImmutableStructTypeAdapterFactory implements TypeAdapterFactory {
+		public <T> TypeAdapter<T> create(final Gson gson, final TypeToken<T> type) {
+			Class<? super T> rawType = type.getRawType();
+			if (rawType == AbstractImmutableStruct.class
+					|| !AbstractImmutableStruct.class.isAssignableFrom(rawType)) {
+				return null;
+			}
+
+			TypeAdapter<T> delegate = gson.getDelegateAdapter(this, type);
+			Class<?> builderClass = AbstractImmutableStruct.getBuilderClass(rawType);
+			return new ImmutableStructTypeAdapter<T>(delegate, gson.getAdapter(builderClass));
+		}
+	}
+
+	private static class ImmutableStructTypeAdapter<T> extends TypeAdapter<T> {
+		private final TypeAdapter<T> delegate;
+		private final TypeAdapter<?> builderAdapter;
+
+		private ImmutableStructTypeAdapter(final TypeAdapter<T> delegate,
+				final TypeAdapter<?> builderAdapter) {
+			this.delegate = delegate;
+			this.builderAdapter = builderAdapter;
+		}
+
+		@Override
+		public void write(final JsonWriter out, final T value) throws IOException {
+			delegate.write(out, value);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public T read(final JsonReader reader) throws IOException {
+			StructBuilder<?> builder = (StructBuilder<?>) builderAdapter.read(reader);
+			return builder == null ? null : (T) builder.build();
+		}
+	}
+
+	private static class InstantAdapter extends TypeAdapter<PdefInstant> {
+		private final DateAdapter dateAdapter = new DateAdapter();
+
+		@Override
+		public void write(final JsonWriter out, final PdefInstant value) throws IOException {
+			dateAdapter.write(out, value == null ? null : value.toDate());
+		}
+
+		@Override
+		public PdefInstant read(final JsonReader reader) throws IOException {
+			return PdefInstant.fromDate(dateAdapter.read(reader));
+		}
+	}
+
+	// Primitive collection adapters read and write numbers without boxing.
+
+	private static class IntListAdapter extends TypeAdapter<PdefIntList> {
+		@Override
+		public void write(final JsonWriter out, final PdefIntList value) throws IOException {
+			if (value == null) {
+				out.nullValue();
+				return;
+			}
+
+			out.beginArray();
+			for (int i = 0, size = value.size(); i < size; i++) {
+				out.value(value.getInt(i));
+			}
+			out.endArray();
+		}
+
+		@Override
+		public PdefIntList read(final JsonReader in) throws IOException {
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+
+			PdefIntList list = new PdefIntList();
+			in.beginArray();
+			while (in.hasNext()) {
+				list.addInt(in.nextInt());
+			}
+			in.endArray();
+			return list;
+		}
+	}
+
+	private static class LongListAdapter extends TypeAdapter<PdefLongList> {
+		@Override
+		public void write(final JsonWriter out, final PdefLongList value) throws IOException {
+			if (value == null) {
+				out.nullValue();
+				return;
+			}
+
+			out.beginArray();
+			for (int i = 0, size = value.size(); i < size; i++) {
+				out.value(value.getLong(i));
+			}
+			out.endArray();
+		}
+
+		@Override
+		public PdefLongList read(final JsonReader in) throws IOException {
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+
+			PdefLongList list = new PdefLongList();
+			in.beginArray();
+			while (in.hasNext()) {
+				list.addLong(in.nextLong());
+			}
+			in.endArray();
+			return list;
+		}
+	}
+
+	private static class FloatListAdapter extends TypeAdapter<PdefFloatList> {
+		@Override
+		public void write(final JsonWriter out, final PdefFloatList value) throws IOException {
+			if (value == null) {
+				out.nullValue();
+				return;
+			}
+
+			// Floats are written as numbers, doubles would print their binary approximations.
+			out.beginArray();
+			for (int i = 0, size = value.size(); i < size; i++) {
+				out.value(Float.valueOf(value.getFloat(i)));
+			}
+			out.endArray();
+		}
+
+		@Override
+		public PdefFloatList read(final JsonReader in) throws IOException {
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+
+			PdefFloatList list = new PdefFloatList();
+			in.beginArray();
+			while (in.hasNext()) {
+				list.addFloat((float) in.nextDouble());
+			}
+			in.endArray();
+			return list;
+		}
+	}
+
+	private static class DoubleListAdapter extends TypeAdapter<PdefDoubleList> {
+		@Override
+		public void write(final JsonWriter out, final PdefDoubleList value) throws IOException {
+			if (value == null) {
+				out.nullValue();
+				return;
+			}
+
+			out.beginArray();
+			for (int i = 0, size = value.size(); i < size; i++) {
+				out.value(value.getDouble(i));
+			}
+			out.endArray();
+		}
+
+		@Override
+		public PdefDoubleList read(final JsonReader in) throws IOException {
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+
+			PdefDoubleList list = new PdefDoubleList();
+			in.beginArray();
+			while (in.hasNext()) {
+				list.addDouble(in.nextDouble());
+			}
+			in.endArray();
+			return list;
+		}
+	}
+
+	private static class LongSetAdapter extends TypeAdapter<PdefLongSet> {
+		@Override
+		public void write(final JsonWriter out, final PdefLongSet value) throws IOException {
+			if (value == null) {
+				out.nullValue();
+				return;
+			}
+
+			out.beginArray();
+			for (long element : value.toLongArray()) {
+				out.value(element);
+			}
+			out.endArray();
+		}
+
+		@Override
+		public PdefLongSet read(final JsonReader in) throws IOException {
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+
+			PdefLongSet set = new PdefLongSet();
+			in.beginArray();
+			while (in.hasNext()) {
+				set.add(in.nextLong());
+			}
+			in.endArray();
+			return set;
+		}
+	}
+
+	private static class LongLongMapAdapter extends TypeAdapter<PdefLongLongMap> {
+		@Override
+		public void write(final JsonWriter out, final PdefLongLongMap value) throws IOException {
+			if (value == null) {
+				out.nullValue();
+				return;
+			}
+
+			out.beginObject();
+			for (PdefLongLongMap.Cursor cursor = value.cursor(); cursor.next(); ) {
+				out.name(Long.toString(cursor.key()));
+				out.value(cursor.value());
+			}
+			out.endObject();
+		}
+
+		@Override
+		public PdefLongLongMap read(final JsonReader in) throws IOException {
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+
+			PdefLongLongMap map = new PdefLongLongMap();
+			in.beginObject();
+			while (in.hasNext()) {
+				map.put(parseKey(in.nextName()), in.nextLong());
+			}
+			in.endObject();
+			return map;
+		}
+	}
+
+	private static class LongDoubleMapAdapter extends TypeAdapter<PdefLongDoubleMap> {
+		@Override
+		public void write(final JsonWriter out, final PdefLongDoubleMap value) throws IOException {
+			if (value == null) {
+				out.nullValue();
+				return;
+			}
+
+			out.beginObject();
+			for (PdefLongDoubleMap.Cursor cursor = value.cursor(); cursor.next(); ) {
+				out.name(Long.toString(cursor.key()));
+				out.value(cursor.value());
+			}
+			out.endObject();
+		}
+
+		@Override
+		public PdefLongDoubleMap read(final JsonReader in) throws IOException {
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+
+			PdefLongDoubleMap map = new PdefLongDoubleMap();
+			in.beginObject();
+			while (in.hasNext()) {
+				map.put(parseKey(in.nextName()), in.nextDouble());
+			}
+			in.endObject();
+			return map;
+		}
+	}
+
+	private static long parseKey(final String name) {
+		try {
+			return Long.parseLong(name);
+		} catch (NumberFormatException e) {
+			throw new JsonSyntaxException("Expected a number map key, got \"" + name + "\"", e);
 		}
 	}
 
@@ -0,0 +1,580 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import com.google.gson.JsonSyntaxException;
+
+import java.lang.reflect.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Lazy JSON parser of UTF-8 byte arrays.
+ *
+ * Lists and maps of structs and collections are returned as read-only views over raw
+ * JSON slices, their elements are decoded on first access and cached. Mutable structs
+ * are decoded field by field, so their list and map fields stay lazy at every nesting level.
+ * Unread subtrees are skipped by scanning strings and brackets without tokenizing them.
+ * Sets, immutable structs, exceptions and collections of scalars are decoded eagerly.
+ */
+final class PdefLazyJson {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final byte[] DATA_FIELD = PdefJson.DATA_FIELD.getBytes(UTF8);
+	private static final ConcurrentMap<Class<?>, StructFields> fieldsCache =
+			new ConcurrentHashMap<Class<?>, StructFields>();
+
+	private PdefLazyJson() {}
+
+	/** Lazily parses a JSON value. */
+	static Object parse(final byte[] json, final Type type) {
+		int start = skipWhitespace(json, 0);
+		int end = skipValue(json, start);
+		if (skipWhitespace(json, end) != json.length) {
+			throw malformed(json, end);
+		}
+
+		return decode(json, start, end, type);
+	}
+
+	/** Lazily parses the data field of a {"data": ...} response, returns null when it is absent. */
+	static Object parseData(final byte[] json, final Type dataType) {
+		int pos = skipWhitespace(json, 0);
+		if (isNull(json, pos)) {
+			return null;
+		}
+
+		pos = expect(json, pos, '{');
+		while (peek(json, pos) != '}') {
+			int nameEnd = skipString(json, pos);
+			int start = skipWhitespace(json, expect(json, nameEnd, ':'));
+			int end = skipValue(json, start);
+
+			if (equals(json, pos + 1, nameEnd - 1, DATA_FIELD)) {
+				return decode(json, start, end, dataType);
+			}
+			pos = next(json, end, '}');
+		}
+		return null;
+	}
+
+	static Object decode(final byte[] json, final int start, final int end, final Type type) {
+		if (isNull(json, start)) {
+			return null;
+		}
+
+		Class<?> cls = rawType(type);
+		if (cls == List.class || cls == Collection.class) {
+			Type elementType = typeArgument(type, 0);
+			if (isLazy(elementType)) {
+				return new LazyList<Object>(json, start, end, elementType);
+			}
+		} else if (cls == Map.class) {
+			Type valueType = typeArgument(type, 1);
+			if (isLazy(valueType)) {
+				return new LazyMap<Object, Object>(json, start, end, typeArgument(type, 0),
+						valueType);
+			}
+		} else if (isLazyStruct(cls)) {
+			return decodeStruct(json, start, end, cls);
+		} else if (cls == String.class) {
+			return decodeString(json, start, end);
+		}
+
+		return PdefJson.parse(new String(json, start, end - start, UTF8), type);
+	}
+
+	/** Returns true when values of a type are worth decoding lazily. */
+	private static boolean isLazy(final Type type) {
+		Class<?> cls = rawType(type);
+		return cls == List.class
+				|| cls == Collection.class
+				|| cls == Map.class
+				|| isLazyStruct(cls);
+	}
+
+	private static boolean isLazyStruct(final Class<?> cls) {
+		return Struct.class.isAssignableFrom(cls)
+				&& !AbstractImmutableStruct.class.isAssignableFrom(cls)
+				&& !Throwable.class.isAssignableFrom(cls)
+				&& !Modifier.isAbstract(cls.getModifiers());
+	}
+
+	private static Object decodeStruct(final byte[] json, final int start, final int end,
+			final Class<?> cls) {
+		StructFields fields = StructFields.forClass(cls);
+		Object struct = fields.newInstance();
+
+		int pos = expect(json, start, '{');
+		while (peek(json, pos) != '}') {
+			int nameEnd = skipString(json, pos);
+			int valueStart = skipWhitespace(json, expect(json, nameEnd, ':'));
+			int valueEnd = skipValue(json, valueStart);
+
+			Field field = fields.get(decodeString(json, pos, nameEnd));
+			if (field != null) {
+				Object value = decodeField(json, valueStart, valueEnd, field);
+				if (value != null || !field.getType().isPrimitive()) {
+					fields.set(field, struct, value);
+				}
+			}
+			pos = next(json, valueEnd, '}');
+		}
+
+		if (pos + 1 != end) {
+			throw malformed(json, pos);
+		}
+		return struct;
+	}
+
+	private static Object decodeField(final byte[] json, final int start, final int end,
+			final Field field) {
+		Class<?> cls = field.getType();
+		if (isNull(json, start)) {
+			return null;
+		} else if (cls == int.class || cls == Integer.class) {
+			return Integer.valueOf(literal(json, start, end));
+		} else if (cls == long.class || cls == Long.class) {
+			return Long.valueOf(literal(json, start, end));
+		} else if (cls == short.class || cls == Short.class) {
+			return Short.valueOf(literal(json, start, end));
+		} else if (cls == double.class || cls == Double.class) {
+			return Double.valueOf(literal(json, start, end));
+		} else if (cls == float.class || cls == Float.class) {
+			return Float.valueOf(literal(json, start, end));
+		} else if (cls == boolean.class || cls == Boolean.class) {
+			return Boolean.valueOf(literal(json, start, end));
+		} else if (cls.isEnum()) {
+			return PdefEnums.forClass(cls).find(decodeString(json, start, end));
+		}
+
+		return decode(json, start, end, field.getGenericType());
+	}
+
+	private static Object decodeKey(final byte[] json, final int start, final int end,
+			final Type keyType) {
+		String key = decodeString(json, start, end);
+		if (keyType == String.class) {
+			return key;
+		}
+
+		return PdefJson.parse(new String(json, start, end - start, UTF8), keyType);
+	}
+
+	private static String literal(final byte[] json, final int start, final int end) {
+		if (json[start] == '"') {
+			return decodeString(json, start, end);
+		}
+		return new String(json, start, end - start, UTF8);
+	}
+
+	/** Decodes a quoted string, strings without escapes are decoded without a json parser. */
+	private static String decodeString(final byte[] json, final int start, final int end) {
+		if (json[start] != '"') {
+			throw malformed(json, start);
+		}
+
+		for (int i = start + 1; i < end - 1; i++) {
+			if (json[i] == '\\') {
+				return PdefJson.parse(new String(json, start, end - start, UTF8), String.class);
+			}
+		}
+		return new String(json, start + 1, end - start - 2, UTF8);
+	}
+
+	// Scanning.
+
+	static int skipWhitespace(final byte[] json, int pos) {
+		while (pos < json.length) {
+			byte c = json[pos];
+			if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+				break;
+			}
+			pos++;
+		}
+		return pos;
+	}
+
+	/** Returns the end of a value, nested objects and arrays are skipped by counting brackets. */
+	static int skipValue(final byte[] json, final int pos) {
+		if (pos >= json.length) {
+			throw malformed(json, pos);
+		}
+
+		byte c = json[pos];
+		if (c == '"') {
+			return skipString(json, pos);
+		} else if (c == '{' || c == '[') {
+			int depth = 0;
+			for (int i = pos; i < json.length; i++) {
+				c = json[i];
+				if (c == '"') {
+					i = skipString(json, i) - 1;
+				} else if (c == '{' || c == '[') {
+					depth++;
+				} else if ((c == '}' || c == ']') && --depth == 0) {
+					return i + 1;
+				}
+			}
+			throw malformed(json, json.length);
+		}
+
+		int i = pos;
+		while (i < json.length && !isDelimiter(json[i])) {
+			i++;
+		}
+		if (i == pos) {
+			throw malformed(json, pos);
+		}
+		return i;
+	}
+
+	private static int skipString(final byte[] json, final int pos) {
+		if (pos >= json.length || json[pos] != '"') {
+			throw malformed(json, pos);
+		}
+
+		for (int i = pos + 1; i < json.length; i++) {
+			byte c = json[i];
+			if (c == '\\') {
+				i++;
+			} else if (c == '"') {
+				return i + 1;
+			}
+		}
+		throw malformed(json, json.length);
+	}
+
+	/** Skips whitespace and an expected character, returns the next non-whitespace position. */
+	private static int expect(final byte[] json, final int pos, final char c) {
+		int i = skipWhitespace(json, pos);
+		if (i >= json.length || json[i] != c) {
+			throw malformed(json, i);
+		}
+		return skipWhitespace(json, i + 1);
+	}
+
+	/** Skips a value separator, returns the next value position or the position of a close bracket. */
+	private static int next(final byte[] json, final int pos, final char close) {
+		int i = skipWhitespace(json, pos);
+		if (i < json.length && json[i] == ',') {
+			return skipWhitespace(json, i + 1);
+		} else if (i < json.length && json[i] == close) {
+			return i;
+		}
+		throw malformed(json, i);
+	}
+
+	private static byte peek(final byte[] json, final int pos) {
+		if (pos >= json.length) {
+			throw malformed(json, pos);
+		}
+		return json[pos];
+	}
+
+	private static boolean isDelimiter(final byte c) {
+		return c == ',' || c == ':' || c == '}' || c == ']'
+				|| c == ' ' || c == '\n' || c == '\r' || c == '\t';
+	}
+
+	private static boolean isNull(final byte[] json, final int pos) {
+		return pos < json.length && json[pos] == 'n';
+	}
+
+	private static boolean equals(final byte[] json, final int start, final int end,
+			final byte[] bytes) {
+		if (end - start != bytes.length) {
+			return false;
+		}
+
+		for (int i = 0; i < bytes.length; i++) {
+			if (json[start + i] != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static JsonSyntaxException malformed(final byte[] json, final int pos) {
+		return new JsonSyntaxException("Malformed JSON at position " + pos
+				+ (pos < json.length ? "" : ", unexpected end of input"));
+	}
+
+	// Types.
+
+	private static Class<?> rawType(final Type type) {
+		if (type instanceof Class<?>) {
+			return (Class<?>) type;
+		} else if (type instanceof ParameterizedType) {
+			return (Class<?>) ((ParameterizedType) type).getRawType();
+		}
+		return Object.class;
+	}
+
+	private static Type typeArgument(final Type type, final int index) {
+		if (type instanceof ParameterizedType) {
+			return ((ParameterizedType) type).getActualTypeArguments()[index];
+		}
+		return Object.class;
+	}
+
+	/** Cached reflective fields of a mutable struct class, they are named as json fields. */
+	private static class StructFields {
+		private final Constructor<?> constructor;
+		private final Map<String, Field> fields;
+
+		private StructFields(final Class<?> cls) {
+			try {
+				constructor = cls.getDeclaredConstructor();
+				constructor.setAccessible(true);
+			} catch (NoSuchMethodException e) {
+				throw new IllegalArgumentException("Struct has no default constructor " + cls, e);
+			}
+
+			fields = new HashMap<String, Field>();
+			for (Field field : cls.getDeclaredFields()) {
+				int modifiers = field.getModifiers();
+				if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+					continue;
+				}
+
+				field.setAccessible(true);
+				fields.put(field.getName(), field);
+			}
+		}
+
+		static StructFields forClass(final Class<?> cls) {
+			StructFields fields = fieldsCache.get(cls);
+			if (fields != null) {
+				return fields;
+			}
+
+			fields = new StructFields(cls);
+			StructFields existing = fieldsCache.putIfAbsent(cls, fields);
+			return existing != null ? existing : fields;
+		}
+
+		Field get(final String name) {
+			return fields.get(name);
+		}
+
+		Object newInstance() {
+			try {
+				return constructor.newInstance();
+			} catch (Exception e) {
+				throw new IllegalStateException("Failed to instantiate a struct", e);
+			}
+		}
+
+		void set(final Field field, final Object struct, final Object value) {
+			try {
+				field.set(struct, value);
+			} catch (IllegalAccessException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	/** Read-only list of raw json elements, the elements are decoded on first access. */
+	private static class LazyList<E> extends AbstractList<E> implements RandomAccess {
+		private static final Object UNDECODED = new Object();
+
+		private final byte[] json;
+		private final int start;
+		private final int end;
+		private final Type elementType;
+		private int[] bounds;
+		private Object[] elements;
+
+		private LazyList(final byte[] json, final int start, final int end,
+				final Type elementType) {
+			this.json = json;
+			this.start = start;
+			this.end = end;
+			this.elementType = elementType;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public synchronized E get(final int index) {
+			index();
+			if (index < 0 || index >= elements.length) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", size: " + elements.length);
+			}
+
+			Object element = elements[index];
+			if (element == UNDECODED) {
+				element = decode(json, bounds[index * 2], bounds[index * 2 + 1], elementType);
+				elements[index] = element;
+			}
+			return (E) element;
+		}
+
+		@Override
+		public synchronized int size() {
+			index();
+			return elements.length;
+		}
+
+		/** Finds element bounds on first access. */
+		private void index() {
+			if (elements != null) {
+				return;
+			}
+
+			int[] bounds = new int[16];
+			int size = 0;
+			int pos = expect(json, start, '[');
+			while (peek(json, pos) != ']') {
+				int valueEnd = skipValue(json, pos);
+				if (size * 2 == bounds.length) {
+					bounds = Arrays.copyOf(bounds, bounds.length * 2);
+				}
+				bounds[size * 2] = pos;
+				bounds[size * 2 + 1] = valueEnd;
+				size++;
+				pos = next(json, valueEnd, ']');
+			}
+
+			if (pos + 1 != end) {
+				throw malformed(json, pos);
+			}
+
+			this.bounds = bounds;
+			this.elements = new Object[size];
+			Arrays.fill(elements, UNDECODED);
+		}
+	}
+
+	/** Read-only map of raw json values, keys are decoded on first access, values on demand. */
+	private static class LazyMap<K, V> extends AbstractMap<K, V> {
+		private final byte[] json;
+		private final int start;
+		private final int end;
+		private final Type keyType;
+		private final Type valueType;
+		private Map<K, Object> entries;
+
+		private LazyMap(final byte[] json, final int start, final int end, final Type keyType,
+				final Type valueType) {
+			this.json = json;
+			this.start = start;
+			this.end = end;
+			this.keyType = keyType;
+			this.valueType = valueType;
+		}
+
+		@Override
+		public synchronized V get(final Object key) {
+			index();
+			return resolve(key, entries.get(key));
+		}
+
+		@Override
+		public synchronized boolean containsKey(final Object key) {
+			index();
+			return entries.containsKey(key);
+		}
+
+		@Override
+		public synchronized int size() {
+			index();
+			return entries.size();
+		}
+
+		@Override
+		public synchronized Set<Entry<K, V>> entrySet() {
+			index();
+			return new AbstractSet<Entry<K, V>>() {
+				@Override
+				public Iterator<Entry<K, V>> iterator() {
+					final Iterator<K> keys = entries.keySet().iterator();
+					return new Iterator<Entry<K, V>>() {
+						@Override
+						public boolean hasNext() {
+							return keys.hasNext();
+						}
+
+						@Override
+						public Entry<K, V> next() {
+							K key = keys.next();
+							return new SimpleImmutableEntry<K, V>(key, get(key));
+						}
+
+						@Override
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return entries.size();
+				}
+			};
+		}
+
+		@SuppressWarnings("unchecked")
+		private V resolve(final Object key, final Object value) {
+			if (!(value instanceof Slice)) {
+				return (V) value;
+			}
+
+			Slice slice = (Slice) value;
+			Object decoded = decode(json, slice.start, slice.end, valueType);
+			entries.put((K) key, decoded);
+			return (V) decoded;
+		}
+
+		/** Decodes keys and finds value bounds on first access. */
+		@SuppressWarnings("unchecked")
+		private void index() {
+			if (entries != null) {
+				return;
+			}
+
+			Map<K, Object> entries = new LinkedHashMap<K, Object>();
+			int pos = expect(json, start, '{');
+			while (peek(json, pos) != '}') {
+				int keyEnd = skipString(json, pos);
+				int valueStart = skipWhitespace(json, expect(json, keyEnd, ':'));
+				int valueEnd = skipValue(json, valueStart);
+
+				K key = (K) decodeKey(json, pos, keyEnd, keyType);
+				entries.put(key, new Slice(valueStart, valueEnd));
+				pos = next(json, valueEnd, '}');
+			}
+
+			if (pos + 1 != end) {
+				throw malformed(json, pos);
+			}
+			this.entries = entries;
+		}
+	}
+
+	private static class Slice {
+		private final int start;
+		private final int end;
+
+		private Slice(final int start, final int end) {
+			this.start = start;
+			this.end = end;
+		}
+	}
+}
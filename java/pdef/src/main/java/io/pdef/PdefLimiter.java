@@ -0,0 +1,193 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adaptive concurrency limiter, sheds requests above a limit which is adjusted
+ * by an additive-increase/multiplicative-decrease algorithm from observed latencies.
+ *
+ * The limit grows by one when the in-flight requests use at least a half of it, and
+ * decreases by a backoff ratio when a latency exceeds the minimum observed latency
+ * multiplied by a tolerance. The minimum latency is periodically replaced by the minimum
+ * of the last window of samples to follow changes in the server performance.
+ */
+public class PdefLimiter {
+	static final int DEFAULT_INITIAL_LIMIT = 20;
+	static final int DEFAULT_MIN_LIMIT = 1;
+	static final int DEFAULT_MAX_LIMIT = 1000;
+	static final double BACKOFF_RATIO = 0.9;
+	static final double LATENCY_TOLERANCE = 2.0;
+	static final int MIN_LATENCY_RESET_SAMPLES = 1000;
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final boolean perMethod;
+	private final ConcurrentMap<String, PdefLimiter> methods;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicLong shedCount = new AtomicLong();
+	private volatile int limit;
+
+	// Guarded by this.
+	private double estimatedLimit;
+	private long minLatency = Long.MAX_VALUE;
+	private long windowMinLatency = Long.MAX_VALUE;
+	private int samples;
+
+	/** Creates a limiter with the default limits, shared by all methods. */
+	public PdefLimiter() {
+		this(DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT, false);
+	}
+
+	/**
+	 * Creates a limiter.
+	 *
+	 * @param perMethod when true, each interface method gets its own limiter
+	 *                  with the same settings, see {@link #forMethod(Class, String)}.
+	 */
+	public PdefLimiter(final int initialLimit, final int minLimit, final int maxLimit,
+			final boolean perMethod) {
+		if (minLimit < 1) throw new IllegalArgumentException("minLimit must be positive");
+		if (maxLimit < minLimit) throw new IllegalArgumentException("maxLimit < minLimit");
+		if (initialLimit < minLimit || initialLimit > maxLimit) {
+			throw new IllegalArgumentException("initialLimit must be in [minLimit, maxLimit]");
+		}
+
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.perMethod = perMethod;
+		this.methods = perMethod ? new ConcurrentHashMap<String, PdefLimiter>() : null;
+
+		this.limit = initialLimit;
+		this.estimatedLimit = initialLimit;
+	}
+
+	/**
+	 * Returns a limiter for an interface method, or this limiter when per-method limits
+	 * are disabled or the name is not a method of the interface. Unknown names share
+	 * this limiter, so clients cannot grow the per-method limiters with random paths.
+	 */
+	public PdefLimiter forMethod(final Class<?> iface, final String method) {
+		if (!perMethod) {
+			return this;
+		}
+		if (iface == null) throw new NullPointerException("iface");
+		if (method == null) throw new NullPointerException("method");
+
+		PdefLimiter limiter = methods.get(method);
+		if (limiter != null) {
+			return limiter;
+		}
+		if (PdefMethodDescriptor.find(iface, method, 0, method.length()) == null) {
+			return this;
+		}
+
+		limiter = new PdefLimiter(limit, minLimit, maxLimit, false);
+		PdefLimiter existing = methods.putIfAbsent(method, limiter);
+		return existing != null ? existing : limiter;
+	}
+
+	/** Tries to acquire a permit, returns false and counts a shed request when over the limit. */
+	public boolean tryAcquire() {
+		while (true) {
+			int current = inFlight.get();
+			if (current >= limit) {
+				shedCount.incrementAndGet();
+				return false;
+			}
+
+			if (inFlight.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/** Releases an acquired permit and adjusts the limit using the request latency. */
+	public void release(final long latencyNanos) {
+		int current = inFlight.getAndDecrement();
+		if (latencyNanos < 0) {
+			return;
+		}
+
+		synchronized (this) {
+			// A single sample taken under overload would raise the minimum above
+			// the uncontended latency and hide the overload, use the window minimum.
+			if (latencyNanos < windowMinLatency) {
+				windowMinLatency = latencyNanos;
+			}
+			if (++samples >= MIN_LATENCY_RESET_SAMPLES) {
+				samples = 0;
+				minLatency = windowMinLatency;
+				windowMinLatency = Long.MAX_VALUE;
+			} else if (latencyNanos < minLatency) {
+				minLatency = latencyNanos;
+			}
+
+			if (latencyNanos > minLatency * LATENCY_TOLERANCE) {
+				estimatedLimit = Math.max(minLimit, estimatedLimit * BACKOFF_RATIO);
+			} else if (current * 2 >= estimatedLimit) {
+				estimatedLimit = Math.min(maxLimit, estimatedLimit + 1);
+			}
+
+			limit = (int) estimatedLimit;
+		}
+	}
+
+	/** Returns the current concurrency limit. */
+	public int getLimit() {
+		return limit;
+	}
+
+	/** Returns the number of acquired permits. */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/** Returns the number of shed requests, including the per-method ones. */
+	public long getShedCount() {
+		long count = shedCount.get();
+		if (perMethod) {
+			for (PdefLimiter limiter : methods.values()) {
+				count += limiter.getShedCount();
+			}
+		}
+		return count;
+	}
+
+	/** Returns an unmodifiable map of per-method limiters, empty when they are disabled. */
+	public Map<String, PdefLimiter> getMethods() {
+		if (!perMethod) {
+			return Collections.emptyMap();
+		}
+		return Collections.unmodifiableMap(methods);
+	}
+
+	@Override
+	public String toString() {
+		return "PdefLimiter{limit=" + limit
+				+ ", inFlight=" + inFlight.get()
+				+ ", shedCount=" + getShedCount()
+				+ '}';
+	}
+}
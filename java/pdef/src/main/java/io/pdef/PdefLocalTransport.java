@@ -0,0 +1,140 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * In-process transport which dispatches client requests directly to a handler in the same JVM,
+ * i.e. in co-located services and integration tests.
+ *
+ * <pre>
+ * PdefHandler&lt;Blog&gt; handler = new PdefHandler&lt;Blog&gt;(Blog.class, blog);
+ * PdefClient&lt;Blog&gt; client = new PdefClient&lt;Blog&gt;("local:", Blog.class)
+ *         .setTransport(new PdefLocalTransport(handler));
+ * </pre>
+ *
+ * By default, requests and results are serialized exactly as over HTTP but without sockets.
+ * In the copy mode, invocation chains skip serialization altogether, their arguments and
+ * results are isolated with {@link PdefCopy}. Server exceptions are rethrown
+ * as {@link PdefClientException}s in both modes.
+ */
+public class PdefLocalTransport implements PdefTransport {
+	private final PdefHandler<?> handler;
+	private volatile boolean copyResults;
+
+	public PdefLocalTransport(final PdefHandler<?> handler) {
+		if (handler == null) throw new NullPointerException("handler");
+		this.handler = handler;
+	}
+
+	public PdefHandler<?> getHandler() {
+		return handler;
+	}
+
+	public boolean isCopyResults() {
+		return copyResults;
+	}
+
+	/**
+	 * Enables the zero-serialization mode. In this mode, invocation chains are passed
+	 * to the handler as they are, arguments and results are deep copied instead of being
+	 * serialized. Immutable structs and collections are shared. Calls with field masks
+	 * are still serialized.
+	 */
+	public PdefLocalTransport setCopyResults(final boolean copyResults) {
+		this.copyResults = copyResults;
+		return this;
+	}
+
+	@Override
+	public byte[] send(final PdefRequest request) throws IOException {
+		if (request == null) throw new NullPointerException("request");
+
+		Object jsonPost = request.getJsonPost();
+		if (jsonPost != null && request.getJsonPostReader() == null) {
+			// Servers read json posts from readers.
+			request.setJsonPostReader(new StringReader(PdefJson.serialize(jsonPost)));
+		}
+
+		PdefResponse<Object> response;
+		try {
+			response = handler.handle(request);
+		} catch (PdefClientException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			throw new PdefClientException(e);
+		}
+
+		return PdefJson.serializeResponse(response, request.getFields());
+	}
+
+	/** Invokes a client invocation chain and returns a copy of its result. */
+	Object invoke(final List<PdefInvocation> invocations) {
+		List<PdefInvocation> copies = new ArrayList<PdefInvocation>(invocations.size());
+		for (PdefInvocation invocation : invocations) {
+			Object[] args = invocation.getArgs();
+			for (int i = 0; i < args.length; i++) {
+				args[i] = PdefCopy.copy(args[i]);
+			}
+			copies.add(PdefInvocation.wrap(invocation.getMethod(), args));
+		}
+
+		Object result;
+		try {
+			result = handler.handle(copies);
+		} catch (PdefClientException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			throw new PdefClientException(e);
+		}
+
+		if (result instanceof PdefStreamList) {
+			// Copy streamed elements lazily, closing the list closes the server one.
+			PdefStreamList<?> list = (PdefStreamList<?>) result;
+			return new PdefStreamList<Object>(new CopyIterator(list.iterator()), list);
+		}
+		return PdefCopy.copy(result);
+	}
+
+	private static class CopyIterator implements Iterator<Object> {
+		private final Iterator<?> iterator;
+
+		CopyIterator(final Iterator<?> iterator) {
+			this.iterator = iterator;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return iterator.hasNext();
+		}
+
+		@Override
+		public Object next() {
+			return PdefCopy.copy(iterator.next());
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Open-addressing map of long keys to double values, stores pdef maps of integer keys
+ * to double values without boxing.
+ *
+ * It is a {@code Map<Long, Double>}, use the primitive methods and {@link #cursor()} to avoid
+ * boxing. Absent keys have zero values in the primitive methods.
+ */
+public class PdefLongDoubleMap extends AbstractMap<Long, Double>
+		implements PrimitiveCollection, Serializable {
+	private static final long serialVersionUID = 1L;
+	private static final PdefLongDoubleMap EMPTY =
+			new PdefLongDoubleMap(new long[2], new double[2], false, 0, 0, true);
+
+	/** Hash table keys, zero marks a free slot, the zero key is stored separately. */
+	private long[] keys;
+	private double[] values;
+	private boolean hasZeroKey;
+	private double zeroKeyValue;
+	private int size;
+	private final boolean immutable;
+
+	public PdefLongDoubleMap() {
+		this(8);
+	}
+
+	public PdefLongDoubleMap(final int expectedSize) {
+		this(new long[PdefLongHash.tableSize(expectedSize)],
+				new double[PdefLongHash.tableSize(expectedSize)], false, 0, 0, false);
+	}
+
+	private PdefLongDoubleMap(final long[] keys, final double[] values, final boolean hasZeroKey,
+			final double zeroKeyValue, final int size, final boolean immutable) {
+		this.keys = keys;
+		this.values = values;
+		this.hasZeroKey = hasZeroKey;
+		this.zeroKeyValue = zeroKeyValue;
+		this.size = size;
+		this.immutable = immutable;
+	}
+
+	/** Returns an empty immutable map. */
+	public static PdefLongDoubleMap empty() {
+		return EMPTY;
+	}
+
+	public boolean containsKey(final long key) {
+		if (key == 0) {
+			return hasZeroKey;
+		}
+		return keys[PdefLongHash.find(keys, key)] == key;
+	}
+
+	/** Returns a value or zero when the key is absent. */
+	public double get(final long key) {
+		return getOrDefault(key, 0);
+	}
+
+	public double getOrDefault(final long key, final double defaultValue) {
+		if (key == 0) {
+			return hasZeroKey ? zeroKeyValue : defaultValue;
+		}
+
+		int slot = PdefLongHash.find(keys, key);
+		return keys[slot] == key ? values[slot] : defaultValue;
+	}
+
+	/** Puts a value and returns the previous value or zero. */
+	public double put(final long key, final double value) {
+		checkMutable();
+		if (key == 0) {
+			double previous = hasZeroKey ? zeroKeyValue : 0;
+			if (!hasZeroKey) {
+				hasZeroKey = true;
+				size++;
+			}
+			zeroKeyValue = value;
+			return previous;
+		}
+
+		int slot = PdefLongHash.find(keys, key);
+		if (keys[slot] == key) {
+			double previous = values[slot];
+			values[slot] = value;
+			return previous;
+		}
+
+		keys[slot] = key;
+		values[slot] = value;
+		size++;
+		if (PdefLongHash.isFull(keys, size)) {
+			rehash();
+		}
+		return 0;
+	}
+
+	/** Removes a key and returns its value or zero. */
+	public double remove(final long key) {
+		checkMutable();
+		if (key == 0) {
+			if (!hasZeroKey) {
+				return 0;
+			}
+			hasZeroKey = false;
+			size--;
+			return zeroKeyValue;
+		}
+
+		int slot = PdefLongHash.find(keys, key);
+		if (keys[slot] != key) {
+			return 0;
+		}
+
+		double previous = values[slot];
+		int mask = keys.length - 1;
+		int last = slot;
+		for (int next = (last + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+			if (PdefLongHash.canShift(keys, last, next)) {
+				keys[last] = keys[next];
+				values[last] = values[next];
+				last = next;
+			}
+		}
+		keys[last] = 0;
+		size--;
+		return previous;
+	}
+
+	/** Returns a cursor over the map entries, the map must not be modified while iterating. */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	@Override
+	public boolean containsKey(final Object key) {
+		return key instanceof Long && containsKey(((Long) key).longValue());
+	}
+
+	@Override
+	public Double get(final Object key) {
+		if (!(key instanceof Long)) {
+			return null;
+		}
+
+		long k = (Long) key;
+		return containsKey(k) ? get(k) : null;
+	}
+
+	@Override
+	public Double put(final Long key, final Double value) {
+		long k = key;
+		Double previous = containsKey(k) ? get(k) : null;
+		put(k, value.doubleValue());
+		return previous;
+	}
+
+	@Override
+	public Double remove(final Object key) {
+		if (!(key instanceof Long)) {
+			return null;
+		}
+
+		long k = (Long) key;
+		return containsKey(k) ? remove(k) : null;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void clear() {
+		checkMutable();
+		keys = new long[keys.length];
+		hasZeroKey = false;
+		size = 0;
+	}
+
+	@Override
+	public Set<Entry<Long, Double>> entrySet() {
+		return new AbstractSet<Entry<Long, Double>>() {
+			@Override
+			public Iterator<Entry<Long, Double>> iterator() {
+				final Cursor cursor = cursor();
+				return new Iterator<Entry<Long, Double>>() {
+					private boolean hasNext = cursor.next();
+
+					@Override
+					public boolean hasNext() {
+						return hasNext;
+					}
+
+					@Override
+					public Entry<Long, Double> next() {
+						if (!hasNext) {
+							throw new NoSuchElementException();
+						}
+
+						Entry<Long, Double> entry = new SimpleImmutableEntry<Long, Double>(
+								cursor.key(), cursor.value());
+						hasNext = cursor.next();
+						return entry;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException("Use PdefLongDoubleMap.remove(long)");
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	@Override
+	public PdefLongDoubleMap copy() {
+		return immutable ? this : new PdefLongDoubleMap(keys.clone(), values.clone(), hasZeroKey,
+				zeroKeyValue, size, false);
+	}
+
+	@Override
+	public PdefLongDoubleMap toImmutable() {
+		if (immutable) {
+			return this;
+		}
+		return size == 0 ? EMPTY : new PdefLongDoubleMap(keys.clone(), values.clone(), hasZeroKey,
+				zeroKeyValue, size, true);
+	}
+
+	@Override
+	public boolean isImmutable() {
+		return immutable;
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o) return true;
+		if (!(o instanceof PdefLongDoubleMap)) return super.equals(o);
+
+		PdefLongDoubleMap that = (PdefLongDoubleMap) o;
+		if (size != that.size) return false;
+		for (Cursor cursor = cursor(); cursor.next(); ) {
+			long key = cursor.key();
+			if (!that.containsKey(key) || Double.doubleToLongBits(that.get(key)) != Double.doubleToLongBits(cursor.value())) return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = 0;
+		for (Cursor cursor = cursor(); cursor.next(); ) {
+			long key = cursor.key();
+			long bits = Double.doubleToLongBits(cursor.value());
+			int valueHash = (int) (bits ^ (bits >>> 32));
+			result += (int) (key ^ (key >>> 32)) ^ valueHash;
+		}
+		return result;
+	}
+
+	private void rehash() {
+		long[] oldKeys = keys;
+		double[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new double[oldKeys.length * 2];
+		for (int i = 0; i < oldKeys.length; i++) {
+			long key = oldKeys[i];
+			if (key != 0) {
+				int slot = PdefLongHash.find(keys, key);
+				keys[slot] = key;
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private void checkMutable() {
+		if (immutable) {
+			throw new UnsupportedOperationException("Immutable map");
+		}
+	}
+
+	/** Map entries cursor, call {@link #next()} before reading each entry. */
+	public final class Cursor {
+		private int slot = -2;
+
+		private Cursor() {}
+
+		/** Moves to the next entry and returns false when there are no more entries. */
+		public boolean next() {
+			if (slot == -2) {
+				slot = -1;
+				if (hasZeroKey) {
+					return true;
+				}
+			}
+
+			while (++slot < keys.length) {
+				if (keys[slot] != 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public long key() {
+			return slot == -1 ? 0 : keys[slot];
+		}
+
+		public double value() {
+			return slot == -1 ? zeroKeyValue : values[slot];
+		}
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+/**
+ * Linear probing helpers of open-addressing long hash tables.
+ * Tables have power of two sizes, zero marks free slots.
+ */
+final class PdefLongHash {
+	private static final float LOAD_FACTOR = 0.75f;
+
+	private PdefLongHash() {}
+
+	/** Returns a table size which holds an expected number of keys. */
+	static int tableSize(final int expectedSize) {
+		if (expectedSize < 0) throw new IllegalArgumentException("expectedSize is negative");
+
+		int size = 2;
+		while (size * LOAD_FACTOR <= expectedSize) {
+			size <<= 1;
+		}
+		return size;
+	}
+
+	static boolean isFull(final long[] keys, final int size) {
+		return size >= keys.length * LOAD_FACTOR;
+	}
+
+	static int slot(final long key, final int mask) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	/** Returns the slot of a non-zero key or the free slot where it should be inserted. */
+	static int find(final long[] keys, final long key) {
+		int mask = keys.length - 1;
+		int slot = slot(key, mask);
+		while (keys[slot] != 0 && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Returns true when a key at the next slot can be moved to a freed last slot,
+	 * i.e. its home slot is not in the cyclic range (last, next].
+	 */
+	static boolean canShift(final long[] keys, final int last, final int next) {
+		int home = slot(keys[next], keys.length - 1);
+		return last <= next ? (home <= last || home > next) : (home <= last && home > next);
+	}
+}
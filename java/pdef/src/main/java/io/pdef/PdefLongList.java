@@ -0,0 +1,239 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Growable long list, stores pdef int64 elements without boxing.
+ *
+ * It is a {@code List<Long>}, use the primitive methods to avoid boxing.
+ */
+public class PdefLongList extends AbstractList<Long>
+		implements RandomAccess, PrimitiveCollection, Serializable {
+	private static final long serialVersionUID = 1L;
+	private static final long[] EMPTY_ELEMENTS = new long[0];
+	private static final PdefLongList EMPTY = new PdefLongList(EMPTY_ELEMENTS, 0, true);
+
+	private long[] elements;
+	private int size;
+	private final boolean immutable;
+
+	public PdefLongList() {
+		this(EMPTY_ELEMENTS, 0, false);
+	}
+
+	public PdefLongList(final int capacity) {
+		this(new long[capacity], 0, false);
+	}
+
+	private PdefLongList(final long[] elements, final int size, final boolean immutable) {
+		this.elements = elements;
+		this.size = size;
+		this.immutable = immutable;
+	}
+
+	/** Returns a new mutable list with the elements. */
+	public static PdefLongList of(final long... elements) {
+		return new PdefLongList(elements.clone(), elements.length, false);
+	}
+
+	/** Returns an empty immutable list. */
+	public static PdefLongList empty() {
+		return EMPTY;
+	}
+
+	public long getLong(final int index) {
+		checkIndex(index);
+		return elements[index];
+	}
+
+	public long setLong(final int index, final long element) {
+		checkMutable();
+		checkIndex(index);
+		long old = elements[index];
+		elements[index] = element;
+		return old;
+	}
+
+	public void addLong(final long element) {
+		checkMutable();
+		if (size == elements.length) {
+			grow(size + 1);
+		}
+		elements[size++] = element;
+		modCount++;
+	}
+
+	public void addLong(final int index, final long element) {
+		checkMutable();
+		if (index < 0 || index > size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		}
+		if (size == elements.length) {
+			grow(size + 1);
+		}
+		System.arraycopy(elements, index, elements, index + 1, size - index);
+		elements[index] = element;
+		size++;
+		modCount++;
+	}
+
+	public long removeLongAt(final int index) {
+		checkMutable();
+		checkIndex(index);
+		long old = elements[index];
+		System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+		size--;
+		modCount++;
+		return old;
+	}
+
+	public int indexOfLong(final long element) {
+		for (int i = 0; i < size; i++) {
+			if (elements[i] == element) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public boolean containsLong(final long element) {
+		return indexOfLong(element) >= 0;
+	}
+
+	/** Returns a new array of the list elements. */
+	public long[] toLongArray() {
+		return Arrays.copyOf(elements, size);
+	}
+
+	public void ensureCapacity(final int capacity) {
+		checkMutable();
+		if (capacity > elements.length) {
+			grow(capacity);
+		}
+	}
+
+	@Override
+	public Long get(final int index) {
+		return getLong(index);
+	}
+
+	@Override
+	public Long set(final int index, final Long element) {
+		return setLong(index, element);
+	}
+
+	@Override
+	public boolean add(final Long element) {
+		addLong(element);
+		return true;
+	}
+
+	@Override
+	public void add(final int index, final Long element) {
+		addLong(index, element);
+	}
+
+	@Override
+	public Long remove(final int index) {
+		return removeLongAt(index);
+	}
+
+	@Override
+	public int indexOf(final Object o) {
+		return o instanceof Long ? indexOfLong((Long) o) : -1;
+	}
+
+	@Override
+	public boolean contains(final Object o) {
+		return indexOf(o) >= 0;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void clear() {
+		checkMutable();
+		size = 0;
+		modCount++;
+	}
+
+	@Override
+	public PdefLongList copy() {
+		return immutable ? this : new PdefLongList(toLongArray(), size, false);
+	}
+
+	@Override
+	public PdefLongList toImmutable() {
+		if (immutable) {
+			return this;
+		}
+		return size == 0 ? EMPTY : new PdefLongList(toLongArray(), size, true);
+	}
+
+	@Override
+	public boolean isImmutable() {
+		return immutable;
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o) return true;
+		if (!(o instanceof PdefLongList)) return super.equals(o);
+
+		PdefLongList that = (PdefLongList) o;
+		if (size != that.size) return false;
+		for (int i = 0; i < size; i++) {
+			if (elements[i] != that.elements[i]) return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = 1;
+		for (int i = 0; i < size; i++) {
+			long element = elements[i];
+			result = 31 * result + (int) (element ^ (element >>> 32));
+		}
+		return result;
+	}
+
+	private void grow(final int minCapacity) {
+		int capacity = Math.max(elements.length + (elements.length >> 1), 10);
+		elements = Arrays.copyOf(elements, Math.max(capacity, minCapacity));
+	}
+
+	private void checkIndex(final int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		}
+	}
+
+	private void checkMutable() {
+		if (immutable) {
+			throw new UnsupportedOperationException("Immutable list");
+		}
+	}
+}
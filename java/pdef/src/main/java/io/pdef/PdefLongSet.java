@@ -0,0 +1,291 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Open-addressing long hash set, stores pdef int16, int32 and int64 elements without boxing.
+ *
+ * It is a {@code Set<Long>}, use the primitive methods to avoid boxing.
+ * Its iterator does not support removal, use {@link #remove(long)}.
+ */
+public class PdefLongSet extends AbstractSet<Long> implements PrimitiveCollection, Serializable {
+	private static final long serialVersionUID = 1L;
+	private static final PdefLongSet EMPTY = new PdefLongSet(new long[2], false, 0, true);
+
+	/** Hash table keys, zero marks a free slot, the zero element is stored separately. */
+	private long[] keys;
+	private boolean hasZero;
+	private int size;
+	private final boolean immutable;
+
+	public PdefLongSet() {
+		this(8);
+	}
+
+	public PdefLongSet(final int expectedSize) {
+		this(new long[PdefLongHash.tableSize(expectedSize)], false, 0, false);
+	}
+
+	private PdefLongSet(final long[] keys, final boolean hasZero, final int size,
+			final boolean immutable) {
+		this.keys = keys;
+		this.hasZero = hasZero;
+		this.size = size;
+		this.immutable = immutable;
+	}
+
+	/** Returns a new mutable set with the elements. */
+	public static PdefLongSet of(final long... elements) {
+		PdefLongSet set = new PdefLongSet(elements.length);
+		for (long element : elements) {
+			set.add(element);
+		}
+		return set;
+	}
+
+	/** Returns an empty immutable set. */
+	public static PdefLongSet empty() {
+		return EMPTY;
+	}
+
+	public boolean contains(final long element) {
+		if (element == 0) {
+			return hasZero;
+		}
+		return keys[PdefLongHash.find(keys, element)] == element;
+	}
+
+	public boolean add(final long element) {
+		checkMutable();
+		if (element == 0) {
+			if (hasZero) {
+				return false;
+			}
+			hasZero = true;
+			size++;
+			return true;
+		}
+
+		int slot = PdefLongHash.find(keys, element);
+		if (keys[slot] == element) {
+			return false;
+		}
+
+		keys[slot] = element;
+		size++;
+		if (PdefLongHash.isFull(keys, size)) {
+			rehash();
+		}
+		return true;
+	}
+
+	public boolean remove(final long element) {
+		checkMutable();
+		if (element == 0) {
+			if (!hasZero) {
+				return false;
+			}
+			hasZero = false;
+			size--;
+			return true;
+		}
+
+		int slot = PdefLongHash.find(keys, element);
+		if (keys[slot] != element) {
+			return false;
+		}
+
+		int mask = keys.length - 1;
+		int last = slot;
+		for (int next = (last + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+			if (PdefLongHash.canShift(keys, last, next)) {
+				keys[last] = keys[next];
+				last = next;
+			}
+		}
+		keys[last] = 0;
+		size--;
+		return true;
+	}
+
+	/** Returns a new array of the set elements. */
+	public long[] toLongArray() {
+		long[] array = new long[size];
+		int i = 0;
+		if (hasZero) {
+			array[i++] = 0;
+		}
+		for (long key : keys) {
+			if (key != 0) {
+				array[i++] = key;
+			}
+		}
+		return array;
+	}
+
+	@Override
+	public boolean contains(final Object o) {
+		return o instanceof Long && contains(((Long) o).longValue());
+	}
+
+	@Override
+	public boolean add(final Long element) {
+		return add(element.longValue());
+	}
+
+	@Override
+	public boolean remove(final Object o) {
+		return o instanceof Long && remove(((Long) o).longValue());
+	}
+
+	/** Returns a cursor over the set elements, the set must not be modified while iterating. */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/** Returns an iterator over the hash table, elements are boxed, use {@link #cursor()}. */
+	@Override
+	public Iterator<Long> iterator() {
+		final Cursor cursor = cursor();
+		return new Iterator<Long>() {
+			private boolean hasNext = cursor.next();
+
+			@Override
+			public boolean hasNext() {
+				return hasNext;
+			}
+
+			@Override
+			public Long next() {
+				if (!hasNext) {
+					throw new NoSuchElementException();
+				}
+
+				long element = cursor.value();
+				hasNext = cursor.next();
+				return element;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("Use PdefLongSet.remove(long)");
+			}
+		};
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void clear() {
+		checkMutable();
+		keys = new long[keys.length];
+		hasZero = false;
+		size = 0;
+	}
+
+	@Override
+	public PdefLongSet copy() {
+		return immutable ? this : new PdefLongSet(keys.clone(), hasZero, size, false);
+	}
+
+	@Override
+	public PdefLongSet toImmutable() {
+		if (immutable) {
+			return this;
+		}
+		return size == 0 ? EMPTY : new PdefLongSet(keys.clone(), hasZero, size, true);
+	}
+
+	@Override
+	public boolean isImmutable() {
+		return immutable;
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o) return true;
+		if (!(o instanceof PdefLongSet)) return super.equals(o);
+
+		PdefLongSet that = (PdefLongSet) o;
+		if (size != that.size || hasZero != that.hasZero) return false;
+		for (long key : keys) {
+			if (key != 0 && !that.contains(key)) return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = 0;
+		for (long key : keys) {
+			result += (int) (key ^ (key >>> 32));
+		}
+		return result;
+	}
+
+	private void rehash() {
+		long[] old = keys;
+		keys = new long[old.length * 2];
+		for (long key : old) {
+			if (key != 0) {
+				keys[PdefLongHash.find(keys, key)] = key;
+			}
+		}
+	}
+
+	private void checkMutable() {
+		if (immutable) {
+			throw new UnsupportedOperationException("Immutable set");
+		}
+	}
+
+	/** Set elements cursor, call {@link #next()} before reading each element. */
+	public final class Cursor {
+		private int slot = -2;
+
+		private Cursor() {}
+
+		/** Moves to the next element and returns false when there are no more elements. */
+		public boolean next() {
+			if (slot == -2) {
+				slot = -1;
+				if (hasZero) {
+					return true;
+				}
+			}
+
+			while (++slot < keys.length) {
+				if (keys[slot] != 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public long value() {
+			return slot == -1 ? 0 : keys[slot];
+		}
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import javax.annotation.Nullable;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Pdef method descriptor caches method reflection data, so that requests are routed
+ * and parsed without calling reflection methods which copy arrays on each call.
+ */
+final class PdefMethodDescriptor {
+	private static final ConcurrentMap<Class<?>, PdefMethodDescriptor[]> interfaces =
+			new ConcurrentHashMap<Class<?>, PdefMethodDescriptor[]>();
+
+	private final Method method;
+	private final String name;
+	private final Type[] argTypes;
+	private final Class<?>[] argClasses;
+	private final String[] argNames;
+	private final boolean post;
+	private final boolean request;
+	private final boolean dataTypeResult;
+	private final PdefPriority priority;
+
+	private PdefMethodDescriptor(final Method method) {
+		this.method = method;
+		this.name = method.getName();
+		this.argTypes = method.getGenericParameterTypes();
+		this.argClasses = method.getParameterTypes();
+		this.argNames = argNames(method.getParameterAnnotations());
+		this.post = method.isAnnotationPresent(POST.class);
+		this.request = method.isAnnotationPresent(Request.class);
+		this.dataTypeResult = isDataType(method.getReturnType());
+
+		Priority annotation = method.getAnnotation(Priority.class);
+		this.priority = annotation == null ? null : annotation.value();
+	}
+
+	/** Returns cached descriptors of all interface methods. */
+	static PdefMethodDescriptor[] forInterface(final Class<?> iface) {
+		PdefMethodDescriptor[] descriptors = interfaces.get(iface);
+		if (descriptors != null) {
+			return descriptors;
+		}
+
+		Method[] methods = iface.getMethods();
+		descriptors = new PdefMethodDescriptor[methods.length];
+		for (int i = 0; i < methods.length; i++) {
+			descriptors[i] = new PdefMethodDescriptor(methods[i]);
+		}
+
+		PdefMethodDescriptor[] existing = interfaces.putIfAbsent(iface, descriptors);
+		return existing != null ? existing : descriptors;
+	}
+
+	/** Returns a cached method descriptor. */
+	static PdefMethodDescriptor forMethod(final Method method) {
+		for (PdefMethodDescriptor descriptor : forInterface(method.getDeclaringClass())) {
+			if (descriptor.method.equals(method)) {
+				return descriptor;
+			}
+		}
+
+		throw new IllegalArgumentException("Method is not found " + method);
+	}
+
+	/** Returns an interface and all subinterfaces reachable from its methods. */
+	static Set<Class<?>> withSubinterfaces(final Class<?> iface) {
+		Set<Class<?>> result = new LinkedHashSet<Class<?>>();
+		addSubinterfaces(iface, result);
+		return result;
+	}
+
+	private static void addSubinterfaces(final Class<?> iface, final Set<Class<?>> result) {
+		if (!result.add(iface)) {
+			return;
+		}
+
+		for (PdefMethodDescriptor descriptor : forInterface(iface)) {
+			if (descriptor.hasInterfaceResult()) {
+				addSubinterfaces(descriptor.method.getReturnType(), result);
+			}
+		}
+	}
+
+	/** Finds a method by a name in a string region, does not allocate a name string. */
+	@Nullable
+	static PdefMethodDescriptor find(final Class<?> iface, final String s, final int start,
+			final int end) {
+		int length = end - start;
+		for (PdefMethodDescriptor descriptor : forInterface(iface)) {
+			String name = descriptor.name;
+			if (name.length() == length && s.regionMatches(start, name, 0, length)) {
+				return descriptor;
+			}
+		}
+
+		return null;
+	}
+
+	Method getMethod() {
+		return method;
+	}
+
+	String getName() {
+		return name;
+	}
+
+	/** Returns generic argument types, the array must not be modified. */
+	Type[] getArgTypes() {
+		return argTypes;
+	}
+
+	/** Returns raw argument classes, the array must not be modified. */
+	Class<?>[] getArgClasses() {
+		return argClasses;
+	}
+
+	int getArgCount() {
+		return argTypes.length;
+	}
+
+	/** Returns an argument name or throws IllegalArgumentException when it is absent. */
+	String getArgName(final int index) {
+		String argName = argNames[index];
+		if (argName == null) {
+			throw new IllegalArgumentException("No method argument name, "
+					+ "pdef method arguments must be annotated with @io.pdef.Name");
+		}
+		return argName;
+	}
+
+	boolean isPost() {
+		return post;
+	}
+
+	boolean isRequest() {
+		return request;
+	}
+
+	/** Returns an annotated method priority or null. */
+	@Nullable
+	PdefPriority getPriority() {
+		return priority;
+	}
+
+	boolean hasDataTypeResult() {
+		return dataTypeResult;
+	}
+
+	boolean hasInterfaceResult() {
+		return !dataTypeResult;
+	}
+
+	static boolean isDataType(final Class<?> cls) {
+		return !cls.isInterface() || cls == List.class || cls == Set.class || cls == Map.class;
+	}
+
+	private static String[] argNames(final Annotation[][] annotations) {
+		String[] names = new String[annotations.length];
+		for (int i = 0; i < annotations.length; i++) {
+			for (Annotation ann : annotations[i]) {
+				if (ann instanceof Name) {
+					names[i] = ((Name) ann).value();
+					break;
+				}
+			}
+		}
+		return names;
+	}
+}
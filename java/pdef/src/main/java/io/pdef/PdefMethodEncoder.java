@@ -0,0 +1,280 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Client method encoder, it is compiled once per method on first use and serializes
+ * invocation arguments into requests without reflection lookups. Argument names and
+ * the method path are precomputed, arguments are written by writers chosen by their
+ * declared types.
+ */
+final class PdefMethodEncoder {
+	private static final ConcurrentMap<Method, PdefMethodEncoder> encoders =
+			new ConcurrentHashMap<Method, PdefMethodEncoder>();
+
+	private static final ThreadLocal<DateFormat> DATE_FORMAT = new ThreadLocal<DateFormat>() {
+		@Override
+		protected DateFormat initialValue() {
+			DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+			dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+			return dateFormat;
+		}
+	};
+
+	private final String path;
+	private final boolean post;
+	private final boolean request;
+	private final String[] argNames;
+	private final ArgWriter[] argWriters;
+	private final RequestField[] requestFields;
+
+	private PdefMethodEncoder(final Method method) {
+		this.path = "/" + method.getName();
+		this.post = method.isAnnotationPresent(POST.class);
+		this.request = method.isAnnotationPresent(Request.class);
+
+		Class<?>[] argClasses = method.getParameterTypes();
+		Annotation[][] annotations = method.getParameterAnnotations();
+		this.argNames = new String[argClasses.length];
+		this.argWriters = new ArgWriter[argClasses.length];
+		for (int i = 0; i < argClasses.length; i++) {
+			argNames[i] = argName(annotations[i]);
+			argWriters[i] = writerFor(argClasses[i]);
+		}
+
+		this.requestFields = request && argClasses.length == 1
+				? requestFields(argClasses[0]) : new RequestField[0];
+	}
+
+	/** Returns a cached method encoder, compiles it on first use. */
+	static PdefMethodEncoder forMethod(final Method method) {
+		PdefMethodEncoder encoder = encoders.get(method);
+		if (encoder != null) {
+			return encoder;
+		}
+
+		encoder = new PdefMethodEncoder(method);
+		PdefMethodEncoder existing = encoders.putIfAbsent(method, encoder);
+		return existing != null ? existing : encoder;
+	}
+
+	/** Returns the method path segment, i.e. "/method". */
+	String getPath() {
+		return path;
+	}
+
+	boolean isPost() {
+		return post;
+	}
+
+	boolean isRequest() {
+		return request;
+	}
+
+	/** Appends urlencoded arguments to a path. */
+	void writePathArgs(final StringBuilder path, final Object[] args) {
+		for (int i = 0; i < args.length; i++) {
+			path.append('/');
+			PdefClient.urlencode(path, write(argWriters[i], args[i]));
+		}
+	}
+
+	/** Puts arguments into params by their names, expands a request struct into fields. */
+	void writeParams(final Map<String, String> params, final Object[] args) {
+		if (request) {
+			writeRequest(params, args[0]);
+			return;
+		}
+
+		for (int i = 0; i < args.length; i++) {
+			params.put(getArgName(i), write(argWriters[i], args[i]));
+		}
+	}
+
+	/** Returns a request struct or a map of argument names to values. */
+	Object toJsonPost(final Object[] args) {
+		if (request) {
+			return args[0] == null ? new HashMap<String, Object>() : args[0];
+		}
+
+		Map<String, Object> json = new LinkedHashMap<String, Object>();
+		for (int i = 0; i < args.length; i++) {
+			json.put(getArgName(i), args[i]);
+		}
+		return json;
+	}
+
+	private void writeRequest(final Map<String, String> params, final Object request) {
+		if (request == null) {
+			return;
+		}
+
+		for (RequestField field : requestFields) {
+			Object value;
+			try {
+				value = field.field.get(request);
+			} catch (IllegalAccessException e) {
+				throw new RuntimeException(e);
+			}
+			if (value != null) {
+				// Absent params are parsed as nulls.
+				params.put(field.name, field.writer.write(value));
+			}
+		}
+	}
+
+	private String getArgName(final int index) {
+		String argName = argNames[index];
+		if (argName == null) {
+			throw new IllegalArgumentException("No method argument name, "
+					+ "pdef method arguments must be annotated with @io.pdef.Name");
+		}
+		return argName;
+	}
+
+	private static String write(final ArgWriter writer, final Object value) {
+		return value == null ? "" : writer.write(value);
+	}
+
+	private static String argName(final Annotation[] annotations) {
+		for (Annotation ann : annotations) {
+			if (ann instanceof Name) {
+				return ((Name) ann).value();
+			}
+		}
+		return null;
+	}
+
+	/** Returns accessible instance fields of a request struct, the server parses the same. */
+	private static RequestField[] requestFields(final Class<?> cls) {
+		List<RequestField> fields = new ArrayList<RequestField>();
+		for (Field field : cls.getDeclaredFields()) {
+			int modifiers = field.getModifiers();
+			if (Modifier.isStatic(modifiers) || field.isSynthetic()) {
+				continue;
+			}
+
+			field.setAccessible(true);
+			fields.add(new RequestField(field, writerFor(field.getType())));
+		}
+		return fields.toArray(new RequestField[fields.size()]);
+	}
+
+	/** Returns an argument writer for a declared argument type. */
+	static ArgWriter writerFor(final Class<?> cls) {
+		if (cls == String.class) {
+			return ArgWriter.STRING;
+		} else if (cls == boolean.class || cls == Boolean.class) {
+			return ArgWriter.BOOLEAN;
+		} else if (cls.isPrimitive() || Number.class.isAssignableFrom(cls)) {
+			return ArgWriter.NUMBER;
+		} else if (cls == Date.class) {
+			return ArgWriter.DATE;
+		} else if (cls == PdefInstant.class) {
+			return ArgWriter.INSTANT;
+		} else if (Enum.class.isAssignableFrom(cls)) {
+			return ArgWriter.ENUM;
+		} else if (cls == Object.class) {
+			return ArgWriter.ANY;
+		}
+		return ArgWriter.JSON;
+	}
+
+	/** Writes a non-null argument value into a string. */
+	enum ArgWriter {
+		STRING {
+			@Override
+			String write(final Object value) {
+				return (String) value;
+			}
+		},
+		BOOLEAN {
+			@Override
+			String write(final Object value) {
+				return ((Boolean) value) ? "1" : "0";
+			}
+		},
+		NUMBER {
+			@Override
+			String write(final Object value) {
+				return value.toString();
+			}
+		},
+		DATE {
+			@Override
+			String write(final Object value) {
+				return DATE_FORMAT.get().format((Date) value);
+			}
+		},
+		INSTANT {
+			@Override
+			String write(final Object value) {
+				return DATE_FORMAT.get().format(((PdefInstant) value).toDate());
+			}
+		},
+		ENUM {
+			@Override
+			String write(final Object value) {
+				return PdefEnums.toLowercase((Enum<?>) value);
+			}
+		},
+		JSON {
+			@Override
+			String write(final Object value) {
+				return PdefJson.serialize(value);
+			}
+		},
+		/** Writes values of undeclared types, chooses a writer by a value class. */
+		ANY {
+			@Override
+			String write(final Object value) {
+				ArgWriter writer = writerFor(value.getClass());
+				return writer == ANY ? JSON.write(value) : writer.write(value);
+			}
+		};
+
+		abstract String write(Object value);
+	}
+
+	private static class RequestField {
+		private final Field field;
+		private final String name;
+		private final ArgWriter writer;
+
+		RequestField(final Field field, final ArgWriter writer) {
+			this.field = field;
+			this.name = field.getName();
+			this.writer = writer;
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package io.pdef;
+
+/** Thrown when a server rejects a request because it is overloaded. */
+public class PdefOverloadException extends PdefException {
+	public PdefOverloadException() {
+		super();
+	}
+
+	public PdefOverloadException(final String s) {
+		super(s);
+	}
+
+	public PdefOverloadException(final String s, final Throwable throwable) {
+		super(s, throwable);
+	}
+
+	public PdefOverloadException(final Throwable throwable) {
+		super(throwable);
+	}
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.pdef;
+
+import javax.annotation.Nullable;
+
+/** Request priority classes from the highest to the lowest one, see {@link PdefScheduler}. */
+public enum PdefPriority {
+	/** User-facing requests. */
+	INTERACTIVE,
+
+	/** Default priority. */
+	NORMAL,
+
+	/** Background and batch requests. */
+	BATCH;
+
+	/** Returns a priority by its case-insensitive name or null. */
+	@Nullable
+	public static PdefPriority find(@Nullable final String name) {
+		return name == null ? null : (PdefPriority) PdefEnums.forClass(PdefPriority.class)
+				.find(name);
+	}
+}
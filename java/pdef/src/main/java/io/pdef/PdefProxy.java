@@ -1,5 +1,6 @@
 package io.pdef;
 
+import javax.annotation.Nullable;
 import java.lang.reflect.*;
 import java.util.ArrayList;
 import java.util.List;
@@ -13,15 +14,36 @@ public class PdefProxy<T> implements InvocationHandler {
 	private final Class<T> iface;
 	private final PdefClient<?> client;
 	private final List<PdefInvocation> parent;
+	private final PdefFieldMask fields;
+	private final long waitMillis;
 
 	/** Creates a custom client. */
 	static <T> T create(final Class<T> iface, final PdefClient<?> client) {
-		PdefProxy<T> proxy = new PdefProxy<T>(iface, new ArrayList<PdefInvocation>(), client);
+		return create(iface, client, null);
+	}
+
+	/** Creates a custom client which requests only the result fields selected by a mask. */
+	static <T> T create(final Class<T> iface, final PdefClient<?> client,
+			@Nullable final PdefFieldMask fields) {
+		return create(iface, client, fields, 0);
+	}
+
+	/** Creates a custom client which waits for held results to change, see PdefClient#watch. */
+	static <T> T create(final Class<T> iface, final PdefClient<?> client,
+			@Nullable final PdefFieldMask fields, final long waitMillis) {
+		PdefProxy<T> proxy = new PdefProxy<T>(iface, new ArrayList<PdefInvocation>(), client,
+				fields, waitMillis);
 		return proxy.toProxy();
 	}
 
+	/** Creates and caches a proxy class of an interface. */
+	static void warmUp(final Class<?> iface) {
+		getProxyClass(iface);
+	}
+
 	private PdefProxy(final Class<T> iface, final List<PdefInvocation> parent,
-			final PdefClient<?> client) {
+			final PdefClient<?> client, @Nullable final PdefFieldMask fields,
+			final long waitMillis) {
 		if (iface == null) throw new NullPointerException("iface");
 		if (parent == null) throw new NullPointerException("parent");
 		if (client == null) throw new NullPointerException("client");
@@ -29,6 +51,8 @@ public class PdefProxy<T> implements InvocationHandler {
 		this.iface = iface;
 		this.client = client;
 		this.parent = parent;
+		this.fields = fields;
+		this.waitMillis = waitMillis;
 	}
 
 	private T toProxy() {
@@ -50,12 +74,13 @@ public class PdefProxy<T> implements InvocationHandler {
 		invocations.add(new PdefInvocation(method, args));
 
 		if (PdefHandler.hasDataTypeResult(method)) {
-			return client.handle(invocations);
+			return client.handle(invocations, fields, waitMillis);
 
 		} else {
 			@SuppressWarnings("unchecked")
 			Class<Object> nextIface = (Class<Object>) method.getReturnType();
-			PdefProxy<?> next = new PdefProxy<Object>(nextIface, invocations, client);
+			PdefProxy<?> next = new PdefProxy<Object>(nextIface, invocations, client, fields,
+					waitMillis);
 			return next.toProxy();
 		}
 	}
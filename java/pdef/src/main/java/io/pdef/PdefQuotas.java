@@ -0,0 +1,386 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.pdef;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-caller fair-share quotas, they protect a shared server from noisy callers.
+ *
+ * Each caller has a token bucket which allows a weighted rate of requests with bursts.
+ * A bucket is a single atomic theoretical arrival time (the generic cell rate algorithm),
+ * so requests are admitted or rejected by one compare-and-set without locks. Buckets are
+ * stored in a concurrent map, callers above a max number share one {@link #OTHER} bucket.
+ *
+ * When the server runs max in-flight requests, callers wait in a weighted fair queue for
+ * a bounded time. Freed slots go to the waiting requests with the least virtual finish
+ * times, so a caller with a twice larger weight gets twice more slots under saturation.
+ */
+public class PdefQuotas {
+	/** Name of a caller which is shared by unknown callers and callers above the max. */
+	public static final String OTHER = "*";
+	static final int DEFAULT_MAX_CALLERS = 10000;
+
+	/** Result of an admission. */
+	public enum Admission {
+		/** The request is admitted, release it after handling. */
+		ADMITTED,
+
+		/** The caller exceeded its rate quota. */
+		RATE_LIMITED,
+
+		/** The server is saturated and the request has not got a slot in time. */
+		SHED
+	}
+
+	private final double rate;
+	private final int burst;
+	private final int maxInFlight;
+	private final long maxWaitMillis;
+	private final int maxCallers;
+	private final ConcurrentMap<String, Caller> callers = new ConcurrentHashMap<String, Caller>();
+	private final ConcurrentMap<String, Double> weights = new ConcurrentHashMap<String, Double>();
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	// Guarded by the queue.
+	private final PriorityQueue<Waiter> queue = new PriorityQueue<Waiter>();
+	private double virtualTime;
+	private long sequence;
+	private volatile int queueLength;
+
+	/**
+	 * Creates quotas.
+	 *
+	 * @param rate          requests per second per unit of a caller weight, zero for no rates.
+	 * @param burst         max requests which a caller can send at once above its rate.
+	 * @param maxInFlight   max concurrent requests of all callers.
+	 * @param maxWaitMillis max time to wait in the fair queue, zero to shed immediately.
+	 */
+	public PdefQuotas(final double rate, final int burst, final int maxInFlight,
+			final long maxWaitMillis) {
+		this(rate, burst, maxInFlight, maxWaitMillis, DEFAULT_MAX_CALLERS);
+	}
+
+	public PdefQuotas(final double rate, final int burst, final int maxInFlight,
+			final long maxWaitMillis, final int maxCallers) {
+		if (rate < 0) throw new IllegalArgumentException("rate is negative");
+		if (burst < 1) throw new IllegalArgumentException("burst must be positive");
+		if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight must be positive");
+		if (maxWaitMillis < 0) throw new IllegalArgumentException("maxWaitMillis is negative");
+		if (maxCallers < 1) throw new IllegalArgumentException("maxCallers must be positive");
+
+		this.rate = rate;
+		this.burst = burst;
+		this.maxInFlight = maxInFlight;
+		this.maxWaitMillis = maxWaitMillis;
+		this.maxCallers = maxCallers;
+	}
+
+	/** Sets a caller weight, it multiplies the caller rate and its share of the fair queue. */
+	public PdefQuotas setWeight(final String caller, final double weight) {
+		if (caller == null) throw new NullPointerException("caller");
+		if (weight <= 0) throw new IllegalArgumentException("weight must be positive");
+
+		weights.put(caller, weight);
+		Caller existing = callers.get(caller);
+		if (existing != null) {
+			existing.weight = weight;
+		}
+		return this;
+	}
+
+	/** Returns a caller by its name, null or unknown callers above the max share OTHER. */
+	public Caller forCaller(@Nullable final String name) {
+		String key = name == null ? OTHER : name;
+		Caller caller = callers.get(key);
+		if (caller != null) {
+			return caller;
+		}
+
+		if (callers.size() >= maxCallers && !weights.containsKey(key)) {
+			key = OTHER;
+			caller = callers.get(key);
+			if (caller != null) {
+				return caller;
+			}
+		}
+
+		Double weight = weights.get(key);
+		caller = new Caller(key, weight == null ? 1 : weight);
+		Caller existing = callers.putIfAbsent(key, caller);
+		return existing != null ? existing : caller;
+	}
+
+	public double getRate() {
+		return rate;
+	}
+
+	public int getBurst() {
+		return burst;
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	public long getMaxWaitMillis() {
+		return maxWaitMillis;
+	}
+
+	/** Returns the number of admitted requests of all callers. */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/** Returns the number of requests waiting in the fair queue. */
+	public int getQueued() {
+		return queueLength;
+	}
+
+	/** Returns an unmodifiable map of callers by their names, they publish usage metrics. */
+	public Map<String, Caller> getCallers() {
+		return Collections.unmodifiableMap(callers);
+	}
+
+	private boolean tryAcquireSlot() {
+		while (true) {
+			int current = inFlight.get();
+			if (current >= maxInFlight) {
+				return false;
+			}
+
+			if (inFlight.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/** Passes a slot to a next waiter in the fair queue or releases it. */
+	private void releaseSlot() {
+		synchronized (queue) {
+			Waiter waiter = queue.poll();
+			if (waiter != null) {
+				queueLength--;
+				virtualTime = waiter.finish;
+				waiter.granted = true;
+				waiter.latch.countDown();
+				return;
+			}
+
+			inFlight.decrementAndGet();
+		}
+	}
+
+	/** Waits for a slot in the fair queue, returns false when the wait times out. */
+	private boolean awaitSlot(final Caller caller) {
+		if (maxWaitMillis == 0) {
+			return false;
+		}
+
+		Waiter waiter;
+		synchronized (queue) {
+			// A slot could have been released before the lock was acquired.
+			if (queue.isEmpty() && tryAcquireSlot()) {
+				return true;
+			}
+
+			double start = Math.max(virtualTime, caller.lastFinish);
+			waiter = new Waiter(start + 1 / caller.weight, caller.lastFinish, sequence++);
+			caller.lastFinish = waiter.finish;
+			queue.add(waiter);
+			queueLength++;
+		}
+
+		caller.queued.incrementAndGet();
+		try {
+			waiter.latch.await(maxWaitMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			caller.queued.decrementAndGet();
+		}
+
+		synchronized (queue) {
+			if (waiter.granted) {
+				return true;
+			}
+
+			// Undo the timed out request, so that shed callers do not lose their fair share.
+			queue.remove(waiter);
+			queueLength--;
+			if (caller.lastFinish == waiter.finish) {
+				caller.lastFinish = waiter.previousFinish;
+			}
+			return false;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "PdefQuotas{rate=" + rate
+				+ ", burst=" + burst
+				+ ", maxInFlight=" + maxInFlight
+				+ ", inFlight=" + inFlight.get()
+				+ ", queued=" + queueLength
+				+ ", callers=" + callers.size()
+				+ '}';
+	}
+
+	/** Caller quota, it is created on first use and publishes the caller usage metrics. */
+	public final class Caller {
+		private final String name;
+		private final AtomicLong arrival = new AtomicLong(Long.MIN_VALUE);
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final AtomicInteger queued = new AtomicInteger();
+		private final AtomicLong admittedCount = new AtomicLong();
+		private final AtomicLong rateLimitedCount = new AtomicLong();
+		private final AtomicLong shedCount = new AtomicLong();
+		private volatile double weight;
+
+		// Guarded by the quotas queue.
+		private double lastFinish;
+
+		private Caller(final String name, final double weight) {
+			this.name = name;
+			this.weight = weight;
+		}
+
+		/** Admits a request or returns a rejection reason, admitted requests must be released. */
+		public Admission acquire() {
+			return acquire(System.nanoTime());
+		}
+
+		Admission acquire(final long now) {
+			if (!tryAcquireRate(now)) {
+				rateLimitedCount.incrementAndGet();
+				return Admission.RATE_LIMITED;
+			}
+
+			if ((queueLength == 0 && tryAcquireSlot()) || awaitSlot(this)) {
+				inFlight.incrementAndGet();
+				admittedCount.incrementAndGet();
+				return Admission.ADMITTED;
+			}
+
+			shedCount.incrementAndGet();
+			return Admission.SHED;
+		}
+
+		/** Releases an admitted request. */
+		public void release() {
+			inFlight.decrementAndGet();
+			releaseSlot();
+		}
+
+		/** Takes a token from the bucket, the bucket is the next theoretical arrival time. */
+		private boolean tryAcquireRate(final long now) {
+			if (rate == 0) {
+				return true;
+			}
+
+			long interval = (long) (TimeUnit.SECONDS.toNanos(1) / (rate * weight));
+			long tolerance = interval * (burst - 1);
+			while (true) {
+				long tat = arrival.get();
+				if (tat != Long.MIN_VALUE && tat - now > tolerance) {
+					return false;
+				}
+
+				long next = (tat == Long.MIN_VALUE || tat - now < 0 ? now : tat) + interval;
+				if (arrival.compareAndSet(tat, next)) {
+					return true;
+				}
+			}
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public double getWeight() {
+			return weight;
+		}
+
+		/** Returns the number of admitted requests which are being handled. */
+		public int getInFlight() {
+			return inFlight.get();
+		}
+
+		/** Returns the number of requests waiting in the fair queue. */
+		public int getQueued() {
+			return queued.get();
+		}
+
+		public long getAdmittedCount() {
+			return admittedCount.get();
+		}
+
+		public long getRateLimitedCount() {
+			return rateLimitedCount.get();
+		}
+
+		public long getShedCount() {
+			return shedCount.get();
+		}
+
+		@Override
+		public String toString() {
+			return "Caller{name=" + name
+					+ ", weight=" + weight
+					+ ", inFlight=" + inFlight.get()
+					+ ", queued=" + queued.get()
+					+ ", admittedCount=" + admittedCount.get()
+					+ ", rateLimitedCount=" + rateLimitedCount.get()
+					+ ", shedCount=" + shedCount.get()
+					+ '}';
+		}
+	}
+
+	/** Request waiting in the fair queue, ordered by its virtual finish time. */
+	private static class Waiter implements Comparable<Waiter> {
+		private final double finish;
+		private final double previousFinish;
+		private final long sequence;
+		private final CountDownLatch latch = new CountDownLatch(1);
+		private boolean granted;
+
+		Waiter(final double finish, final double previousFinish, final long sequence) {
+			this.finish = finish;
+			this.previousFinish = previousFinish;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(final Waiter o) {
+			int result = Double.compare(finish, o.finish);
+			if (result != 0) {
+				return result;
+			}
+			return sequence < o.sequence ? -1 : (sequence == o.sequence ? 0 : 1);
+		}
+	}
+}
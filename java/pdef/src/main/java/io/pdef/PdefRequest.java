@@ -1,13 +1,21 @@
 package io.pdef;
 
+import javax.annotation.Nullable;
+import java.io.Reader;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
 public class PdefRequest extends AbstractStruct {
 	private String method;
 	private String relativePath;
-	private Map<String, String> query = new LinkedHashMap<String, String>();
-	private Map<String, String> post = new LinkedHashMap<String, String>();
+	private Map<String, String> query;
+	private Map<String, String> post;
+	private transient Object jsonPost;
+	private transient Reader jsonPostReader;
+	private transient PdefFieldMask fields;
+	private transient PdefPriority priority;
+	private transient long timeoutMillis;
+	private transient long waitMillis;
 
 	public PdefRequest() {}
 
@@ -16,6 +24,12 @@ public class PdefRequest extends AbstractStruct {
 		relativePath = another.relativePath;
 		query = PdefCopy.copy(another.query);
 		post = PdefCopy.copy(another.post);
+		jsonPost = another.jsonPost;
+		jsonPostReader = another.jsonPostReader;
+		fields = another.fields;
+		priority = another.priority;
+		timeoutMillis = another.timeoutMillis;
+		waitMillis = another.waitMillis;
 	}
 
 	public String getMethod() {
@@ -37,7 +51,7 @@ public class PdefRequest extends AbstractStruct {
 	}
 
 	public Map<String, String> getQuery() {
-		return query;
+		return query != null ? query : (query = new LinkedHashMap<String, String>());
 	}
 
 	public PdefRequest setQuery(final Map<String, String> query) {
@@ -46,7 +60,7 @@ public class PdefRequest extends AbstractStruct {
 	}
 
 	public Map<String, String> getPost() {
-		return post;
+		return post != null ? post : (post = new LinkedHashMap<String, String>());
 	}
 
 	public PdefRequest setPost(final Map<String, String> post) {
@@ -54,6 +68,73 @@ public class PdefRequest extends AbstractStruct {
 		return this;
 	}
 
+	/**
+	 * Returns post arguments which are sent as an application/json body instead of
+	 * the post params, either a map of argument names to values or a request struct.
+	 */
+	@Nullable
+	public Object getJsonPost() {
+		return jsonPost;
+	}
+
+	public PdefRequest setJsonPost(@Nullable final Object jsonPost) {
+		this.jsonPost = jsonPost;
+		return this;
+	}
+
+	/** Returns a server-side application/json body reader to parse post arguments from. */
+	@Nullable
+	public Reader getJsonPostReader() {
+		return jsonPostReader;
+	}
+
+	public PdefRequest setJsonPostReader(@Nullable final Reader jsonPostReader) {
+		this.jsonPostReader = jsonPostReader;
+		return this;
+	}
+
+	/** Returns a field mask of the result or null when all fields are requested. */
+	@Nullable
+	public PdefFieldMask getFields() {
+		return fields;
+	}
+
+	public PdefRequest setFields(@Nullable final PdefFieldMask fields) {
+		this.fields = fields;
+		return this;
+	}
+
+	/** Returns a request priority or null when it is set by the method annotations. */
+	@Nullable
+	public PdefPriority getPriority() {
+		return priority;
+	}
+
+	public PdefRequest setPriority(@Nullable final PdefPriority priority) {
+		this.priority = priority;
+		return this;
+	}
+
+	/** Returns max time for a scheduled request to start, zero for no timeout. */
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	public PdefRequest setTimeoutMillis(final long timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+		return this;
+	}
+
+	/** Returns max time to wait for a held result to change, zero for no wait. */
+	public long getWaitMillis() {
+		return waitMillis;
+	}
+
+	public PdefRequest setWaitMillis(final long waitMillis) {
+		this.waitMillis = waitMillis;
+		return this;
+	}
+
 	public boolean isPost() {
 		return "POST".equals(method);
 	}
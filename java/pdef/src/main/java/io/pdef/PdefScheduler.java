@@ -0,0 +1,348 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.pdef;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pdef scheduler runs requests on its own threads in priority classes.
+ *
+ * Higher priority requests always run first. Within a class, requests run earliest
+ * deadline first. A request without a timeout gets a deadline of its arrival plus the max
+ * starvation time. The oldest lower priority request which has waited longer than the max
+ * starvation time runs before higher priority ones, but at most one such request runs
+ * per max starvation time. So batch requests still progress under a flood of interactive
+ * ones, and an aged batch backlog does not delay interactive requests. Requests whose
+ * deadlines pass before they start are not run and fail with {@link PdefOverloadException}.
+ */
+public class PdefScheduler implements Closeable {
+	static final long DEFAULT_MAX_STARVATION_MILLIS = 1000;
+
+	private final int threads;
+	private final long maxStarvationNanos;
+	private final AtomicLong executedCount = new AtomicLong();
+	private final AtomicLong expiredCount = new AtomicLong();
+
+	// Guarded by the queues.
+	private final TaskQueue[] queues;
+	private long sequence;
+	private long lastPromotion;
+	private boolean closed;
+
+	/** Creates a scheduler with the default max starvation time. */
+	public PdefScheduler(final int threads) {
+		this(threads, DEFAULT_MAX_STARVATION_MILLIS);
+	}
+
+	/**
+	 * Creates a scheduler and starts its threads.
+	 *
+	 * @param threads               number of threads which run requests.
+	 * @param maxStarvationMillis   max time a lower priority request waits behind
+	 *                              higher priority ones.
+	 */
+	public PdefScheduler(final int threads, final long maxStarvationMillis) {
+		if (threads < 1) throw new IllegalArgumentException("threads must be positive");
+		if (maxStarvationMillis < 1) {
+			throw new IllegalArgumentException("maxStarvationMillis must be positive");
+		}
+
+		this.threads = threads;
+		this.maxStarvationNanos = TimeUnit.MILLISECONDS.toNanos(maxStarvationMillis);
+		this.lastPromotion = System.nanoTime() - maxStarvationNanos;
+		this.queues = new TaskQueue[PdefPriority.values().length];
+		for (int i = 0; i < queues.length; i++) {
+			queues[i] = new TaskQueue();
+		}
+
+		for (int i = 0; i < threads; i++) {
+			Thread worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work();
+				}
+			}, "pdef-scheduler-" + i);
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	/**
+	 * Runs a callable in a priority class, waits for its result and returns it.
+	 *
+	 * @param timeoutMillis max time for the callable to start, zero for no timeout.
+	 * @throws PdefOverloadException when the deadline passes before the callable starts.
+	 */
+	public <V> V execute(final PdefPriority priority, final long timeoutMillis,
+			final Callable<V> callable) {
+		Future<V> future = submit(priority, timeoutMillis, callable);
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new PdefException("Interrupted while waiting for an invocation", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else {
+				throw new RuntimeException(cause);
+			}
+		}
+	}
+
+	/** Queues a callable in a priority class and returns its future. */
+	<V> Future<V> submit(final PdefPriority priority, final long timeoutMillis,
+			final Callable<V> callable) {
+		if (priority == null) throw new NullPointerException("priority");
+		if (callable == null) throw new NullPointerException("callable");
+		if (timeoutMillis < 0) throw new IllegalArgumentException("timeoutMillis is negative");
+
+		long now = System.nanoTime();
+		boolean expires = timeoutMillis > 0;
+		long deadline = now + (expires ? TimeUnit.MILLISECONDS.toNanos(timeoutMillis)
+		                               : maxStarvationNanos);
+
+		synchronized (queues) {
+			if (closed) {
+				throw new PdefOverloadException("Scheduler is closed");
+			}
+
+			Task<V> task = new Task<V>(callable, now, deadline, expires, sequence++);
+			queues[priority.ordinal()].add(task);
+			queues.notify();
+			return task;
+		}
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public long getMaxStarvationMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxStarvationNanos);
+	}
+
+	/** Returns the number of requests waiting in a priority class. */
+	public int getQueued(final PdefPriority priority) {
+		synchronized (queues) {
+			return queues[priority.ordinal()].size();
+		}
+	}
+
+	// VisibleForTesting
+	int getArrivals(final PdefPriority priority) {
+		synchronized (queues) {
+			return queues[priority.ordinal()].byArrival.size();
+		}
+	}
+
+	/** Returns the number of run requests. */
+	public long getExecutedCount() {
+		return executedCount.get();
+	}
+
+	/** Returns the number of requests which have not started before their deadlines. */
+	public long getExpiredCount() {
+		return expiredCount.get();
+	}
+
+	/** Stops the threads and fails the queued requests. */
+	@Override
+	public void close() {
+		List<Task<?>> tasks = new ArrayList<Task<?>>();
+		synchronized (queues) {
+			if (closed) {
+				return;
+			}
+
+			closed = true;
+			for (TaskQueue queue : queues) {
+				queue.drainTo(tasks);
+			}
+			queues.notifyAll();
+		}
+
+		for (Task<?> task : tasks) {
+			task.fail(new PdefOverloadException("Scheduler is closed"));
+		}
+	}
+
+	private void work() {
+		while (true) {
+			Task<?> task;
+			try {
+				task = take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (task == null) {
+				return;
+			}
+
+			if (task.expires && task.deadline - System.nanoTime() < 0) {
+				expiredCount.incrementAndGet();
+				task.fail(new PdefOverloadException("Deadline exceeded before start"));
+				continue;
+			}
+
+			executedCount.incrementAndGet();
+			task.run();
+		}
+	}
+
+	/** Takes a next task or returns null when the scheduler is closed. */
+	private Task<?> take() throws InterruptedException {
+		synchronized (queues) {
+			while (true) {
+				if (closed) {
+					return null;
+				}
+
+				Task<?> task = poll(System.nanoTime());
+				if (task != null) {
+					return task;
+				}
+				queues.wait();
+			}
+		}
+	}
+
+	/**
+	 * Returns a head of the highest non-empty priority class, or the oldest starving
+	 * request of a lower class when no request has been promoted for the max starvation time.
+	 */
+	private Task<?> poll(final long now) {
+		int next = -1;
+		for (int i = 0; i < queues.length; i++) {
+			if (queues[i].size() > 0) {
+				next = i;
+				break;
+			}
+		}
+		if (next == -1) {
+			return null;
+		}
+
+		// Promotions are rate-limited, so that aged lower class requests do not invert priorities.
+		if (now - lastPromotion >= maxStarvationNanos) {
+			int starving = -1;
+			Task<?> oldest = null;
+			for (int i = next + 1; i < queues.length; i++) {
+				Task<?> task = queues[i].oldest();
+				if (task != null && now - task.arrival > maxStarvationNanos
+						&& (oldest == null || task.arrival - oldest.arrival < 0)) {
+					starving = i;
+					oldest = task;
+				}
+			}
+
+			if (starving != -1) {
+				lastPromotion = now;
+				return queues[starving].pollOldest();
+			}
+		}
+		return queues[next].poll();
+	}
+
+	/** Requests of one priority class, they are ordered by their deadlines and by their arrivals. */
+	private static class TaskQueue {
+		private final PriorityQueue<Task<?>> byDeadline = new PriorityQueue<Task<?>>();
+		private final LinkedHashSet<Task<?>> byArrival = new LinkedHashSet<Task<?>>();
+
+		int size() {
+			return byDeadline.size();
+		}
+
+		void add(final Task<?> task) {
+			byDeadline.add(task);
+			byArrival.add(task);
+		}
+
+		/** Removes and returns the earliest deadline request. */
+		Task<?> poll() {
+			Task<?> task = byDeadline.poll();
+			if (task != null) {
+				byArrival.remove(task);
+			}
+			return task;
+		}
+
+		/** Returns the oldest request or null. */
+		Task<?> oldest() {
+			return byArrival.isEmpty() ? null : byArrival.iterator().next();
+		}
+
+		/** Removes and returns the oldest request, it is rare, so its linear removal is fine. */
+		Task<?> pollOldest() {
+			Task<?> task = oldest();
+			byArrival.remove(task);
+			byDeadline.remove(task);
+			return task;
+		}
+
+		void drainTo(final List<Task<?>> tasks) {
+			tasks.addAll(byDeadline);
+			byDeadline.clear();
+			byArrival.clear();
+		}
+	}
+
+	/** Scheduled request, it is ordered by its deadline within a priority class. */
+	private static class Task<V> extends FutureTask<V> implements Comparable<Task<?>> {
+		private final long arrival;
+		private final long deadline;
+		private final boolean expires;
+		private final long sequence;
+
+		Task(final Callable<V> callable, final long arrival, final long deadline,
+				final boolean expires, final long sequence) {
+			super(callable);
+			this.arrival = arrival;
+			this.deadline = deadline;
+			this.expires = expires;
+			this.sequence = sequence;
+		}
+
+		void fail(final Throwable t) {
+			setException(t);
+		}
+
+		@Override
+		public int compareTo(final Task<?> o) {
+			long diff = deadline - o.deadline;
+			if (diff != 0) {
+				return diff < 0 ? -1 : 1;
+			}
+			return sequence < o.sequence ? -1 : (sequence == o.sequence ? 0 : 1);
+		}
+	}
+}
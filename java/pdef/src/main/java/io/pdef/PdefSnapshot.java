@@ -0,0 +1,404 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Read-only memory-mapped list or map of pdef data types.
+ *
+ * Snapshots are written once from lists or maps and opened without loading records
+ * on the heap. Records are decoded lazily straight from the mapped file on each access,
+ * lookups by indexes and keys take constant time. Snapshots are thread-safe, the file
+ * mapping is released when a snapshot is garbage collected.
+ *
+ * The file consists of UTF-8 JSON records, a record index, an open-addressing key table
+ * for maps and a fixed size trailer. Map keys are stored as strings.
+ */
+public final class PdefSnapshot<T> {
+	private static final int MAGIC = 0x50444653; // PDFS
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+	private static final int TRAILER_SIZE = 24;
+	private static final int INDEX_ENTRY_SIZE = 16;
+	private static final int SEGMENT_SIZE = 1 << 30;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final Class<T> cls;
+	private final ByteBuffer[] segments;
+	private final ByteBuffer index;
+	private final IntBuffer table;
+	private final int size;
+
+	private PdefSnapshot(final Class<T> cls, final ByteBuffer[] segments, final ByteBuffer index,
+			@Nullable final IntBuffer table, final int size) {
+		this.cls = cls;
+		this.segments = segments;
+		this.index = index;
+		this.table = table;
+		this.size = size;
+	}
+
+	/** Writes a list snapshot, records are accessed by their indexes. */
+	public static void write(final File file, final List<?> list) throws IOException {
+		if (file == null) throw new NullPointerException("file");
+		if (list == null) throw new NullPointerException("list");
+
+		write(file, list.toArray(), null);
+	}
+
+	/** Writes a map snapshot, records are accessed by their keys and by indexes in the map order. */
+	public static void write(final File file, final Map<?, ?> map) throws IOException {
+		if (file == null) throw new NullPointerException("file");
+		if (map == null) throw new NullPointerException("map");
+
+		Object[] values = new Object[map.size()];
+		String[] keys = new String[map.size()];
+		int i = 0;
+		for (Map.Entry<?, ?> entry : map.entrySet()) {
+			if (entry.getKey() == null) throw new NullPointerException("null map key");
+
+			keys[i] = String.valueOf(entry.getKey());
+			values[i++] = entry.getValue();
+		}
+
+		write(file, values, keys);
+	}
+
+	private static void write(final File file, final Object[] values, @Nullable final String[] keys)
+			throws IOException {
+		int count = values.length;
+		long[] offsets = new long[count];
+		int[] keyLengths = new int[count];
+		int[] valueLengths = new int[count];
+		int[] hashes = keys == null ? null : new int[count];
+
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			long position = HEADER_SIZE;
+
+			for (int i = 0; i < count; i++) {
+				byte[] key = keys == null ? new byte[0] : keys[i].getBytes(UTF8);
+				byte[] value = PdefJson.serialize(values[i]).getBytes(UTF8);
+				long length = (long) key.length + value.length;
+				if (length > SEGMENT_SIZE) {
+					throw new IOException("Snapshot record is too large, index=" + i);
+				}
+
+				// Records do not cross segment boundaries, so each one is in a single mapping.
+				long remaining = SEGMENT_SIZE - position % SEGMENT_SIZE;
+				if (length > remaining) {
+					pad(out, remaining);
+					position += remaining;
+				}
+
+				out.write(key);
+				out.write(value);
+				offsets[i] = position;
+				keyLengths[i] = key.length;
+				valueLengths[i] = value.length;
+				if (hashes != null) {
+					hashes[i] = hash(key);
+				}
+				position += length;
+			}
+
+			long indexOffset = position;
+			for (int i = 0; i < count; i++) {
+				out.writeLong(offsets[i]);
+				out.writeInt(keyLengths[i]);
+				out.writeInt(valueLengths[i]);
+			}
+
+			int tableSize = 0;
+			if (hashes != null) {
+				int[] table = buildTable(hashes);
+				tableSize = table.length;
+				for (int entry : table) {
+					out.writeInt(entry);
+				}
+			}
+
+			out.writeLong(indexOffset);
+			out.writeInt(count);
+			out.writeInt(tableSize);
+			out.writeInt(VERSION);
+			out.writeInt(MAGIC);
+		} finally {
+			out.close();
+		}
+	}
+
+	/** Returns a linear probing table of record indexes plus one, zero marks free slots. */
+	private static int[] buildTable(final int[] hashes) {
+		int[] table = new int[PdefLongHash.tableSize(hashes.length)];
+		int mask = table.length - 1;
+
+		for (int i = 0; i < hashes.length; i++) {
+			int slot = hashes[i] & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = i + 1;
+		}
+		return table;
+	}
+
+	private static void pad(final OutputStream out, final long length) throws IOException {
+		byte[] zeros = new byte[(int) Math.min(length, 1 << 16)];
+		for (long left = length; left > 0; left -= zeros.length) {
+			out.write(zeros, 0, (int) Math.min(left, zeros.length));
+		}
+	}
+
+	/** Opens a snapshot and maps it into memory, records are parsed as the given class. */
+	public static <T> PdefSnapshot<T> open(final File file, final Class<T> cls) throws IOException {
+		if (file == null) throw new NullPointerException("file");
+		if (cls == null) throw new NullPointerException("cls");
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			// Mappings stay valid after the channel is closed.
+			return open(raf.getChannel(), cls);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static <T> PdefSnapshot<T> open(final FileChannel channel, final Class<T> cls)
+			throws IOException {
+		long length = channel.size();
+		if (length < HEADER_SIZE + TRAILER_SIZE) {
+			throw new IOException("Not a pdef snapshot");
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+		readFully(channel, header, 0);
+		readFully(channel, trailer, length - TRAILER_SIZE);
+
+		long indexOffset = trailer.getLong(0);
+		int count = trailer.getInt(8);
+		int tableSize = trailer.getInt(12);
+		if (header.getInt(0) != MAGIC || trailer.getInt(20) != MAGIC) {
+			throw new IOException("Not a pdef snapshot");
+		} else if (header.getInt(4) != VERSION || trailer.getInt(16) != VERSION) {
+			throw new IOException("Unsupported pdef snapshot version " + header.getInt(4));
+		}
+
+		long indexLength = (long) count * INDEX_ENTRY_SIZE;
+		long tableLength = (long) tableSize * 4;
+		if (indexOffset + indexLength + tableLength + TRAILER_SIZE != length) {
+			throw new IOException("Corrupted pdef snapshot");
+		} else if (indexLength > Integer.MAX_VALUE || tableLength > Integer.MAX_VALUE) {
+			throw new IOException("Too many records in a pdef snapshot");
+		}
+
+		ByteBuffer[] segments = new ByteBuffer[(int) ((indexOffset + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+		for (int i = 0; i < segments.length; i++) {
+			long offset = (long) i * SEGMENT_SIZE;
+			long size = Math.min(SEGMENT_SIZE, indexOffset - offset);
+			segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+		}
+
+		ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, indexLength);
+		IntBuffer table = tableSize == 0 ? null : channel
+				.map(FileChannel.MapMode.READ_ONLY, indexOffset + indexLength, tableLength)
+				.asIntBuffer();
+		return new PdefSnapshot<T>(cls, segments, index, table, count);
+	}
+
+	private static void readFully(final FileChannel channel, final ByteBuffer buffer,
+			final long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException();
+			}
+		}
+	}
+
+	/** Returns the number of records. */
+	public int size() {
+		return size;
+	}
+
+	/** Returns true when the snapshot has been written from a map. */
+	public boolean hasKeys() {
+		return table != null;
+	}
+
+	/** Decodes a record by its index. */
+	public T get(final int index) {
+		checkIndex(index);
+		return decode(index);
+	}
+
+	/** Returns a record key by its index. */
+	public String getKey(final int index) {
+		if (table == null) throw new IllegalStateException("Snapshot has no keys");
+		checkIndex(index);
+
+		long offset = this.index.getLong(index * INDEX_ENTRY_SIZE);
+		int keyLength = this.index.getInt(index * INDEX_ENTRY_SIZE + 8);
+		ByteBuffer key = slice(offset, keyLength);
+		return UTF8.decode(key).toString();
+	}
+
+	/** Decodes a record by its key, returns null when the key is absent. */
+	@Nullable
+	public T getByKey(final Object key) {
+		int i = indexOf(key);
+		return i < 0 ? null : decode(i);
+	}
+
+	/** Returns true when the snapshot contains a key. */
+	public boolean containsKey(final Object key) {
+		return indexOf(key) >= 0;
+	}
+
+	/** Returns a random access list view which decodes records on each access. */
+	public List<T> asList() {
+		return new SnapshotList();
+	}
+
+	private void checkIndex(final int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		}
+	}
+
+	private int indexOf(final Object key) {
+		if (key == null) throw new NullPointerException("key");
+		if (table == null) throw new IllegalStateException("Snapshot has no keys");
+
+		byte[] bytes = String.valueOf(key).getBytes(UTF8);
+		int mask = table.capacity() - 1;
+		int slot = hash(bytes) & mask;
+
+		int entry;
+		while ((entry = table.get(slot)) != 0) {
+			if (keyEquals(entry - 1, bytes)) {
+				return entry - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	private boolean keyEquals(final int index, final byte[] key) {
+		long offset = this.index.getLong(index * INDEX_ENTRY_SIZE);
+		int keyLength = this.index.getInt(index * INDEX_ENTRY_SIZE + 8);
+		if (keyLength != key.length) {
+			return false;
+		}
+
+		ByteBuffer segment = segments[(int) (offset / SEGMENT_SIZE)];
+		int position = (int) (offset % SEGMENT_SIZE);
+		for (int i = 0; i < key.length; i++) {
+			if (segment.get(position + i) != key[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private T decode(final int index) {
+		int entry = index * INDEX_ENTRY_SIZE;
+		long offset = this.index.getLong(entry);
+		int keyLength = this.index.getInt(entry + 8);
+		int valueLength = this.index.getInt(entry + 12);
+
+		ByteBuffer value = slice(offset + keyLength, valueLength);
+		Reader reader = new InputStreamReader(new ByteBufferInputStream(value), UTF8);
+		return PdefJson.parse(reader, cls);
+	}
+
+	/** Returns a view of a record part, records never cross segment boundaries. */
+	private ByteBuffer slice(final long offset, final int length) {
+		ByteBuffer buffer = segments[(int) (offset / SEGMENT_SIZE)].duplicate();
+		int position = (int) (offset % SEGMENT_SIZE);
+		buffer.limit(position + length);
+		buffer.position(position);
+		return buffer;
+	}
+
+	private static int hash(final byte[] key) {
+		int h = 1;
+		for (byte b : key) {
+			h = 31 * h + b;
+		}
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	@Override
+	public String toString() {
+		return "PdefSnapshot{size=" + size + ", keys=" + hasKeys() + '}';
+	}
+
+	private class SnapshotList extends AbstractList<T> implements RandomAccess {
+		@Override
+		public T get(final int index) {
+			return PdefSnapshot.this.get(index);
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		private ByteBufferInputStream(final ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) {
+			if (len == 0) {
+				return 0;
+			} else if (!buffer.hasRemaining()) {
+				return -1;
+			}
+
+			int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
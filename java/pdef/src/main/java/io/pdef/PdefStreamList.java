@@ -0,0 +1,148 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Single-pass list view of an iterator, used to stream large list results.
+ *
+ * Servers return it from methods with list results to encode elements one by one
+ * without materializing them; clients receive it in the streaming mode to parse elements
+ * as they arrive. Iterate it once to stream the elements. The other list methods, i.e.
+ * size, get, equals or copying into another list, buffer the remaining elements first
+ * and the list becomes an ordinary one; they fail after the list has been iterated.
+ * Close it to release resources when it is not fully iterated.
+ */
+public class PdefStreamList<T> extends AbstractList<T> implements Closeable {
+	private final Iterator<T> iterator;
+	private final Closeable closeable;
+	private boolean iterated;
+	private List<T> buffer;
+
+	public PdefStreamList(final Iterator<T> iterator) {
+		this(iterator, null);
+	}
+
+	public PdefStreamList(final Iterator<T> iterator, @Nullable final Closeable closeable) {
+		if (iterator == null) throw new NullPointerException("iterator");
+
+		this.iterator = iterator;
+		this.closeable = closeable;
+	}
+
+	/** Creates a stream list from an iterator. */
+	public static <T> PdefStreamList<T> of(final Iterator<T> iterator) {
+		return new PdefStreamList<T>(iterator);
+	}
+
+	/** Creates a stream list from an iterable, it is iterated lazily. */
+	public static <T> PdefStreamList<T> of(final Iterable<T> iterable) {
+		if (iterable == null) throw new NullPointerException("iterable");
+		return new PdefStreamList<T>(iterable.iterator());
+	}
+
+	/** Returns true when the elements have been buffered and the list is not single-pass. */
+	public synchronized boolean isBuffered() {
+		return buffer != null;
+	}
+
+	@Override
+	public synchronized Iterator<T> iterator() {
+		if (buffer != null) {
+			return buffer.iterator();
+		}
+		if (iterated) {
+			throw new IllegalStateException("PdefStreamList can be iterated only once");
+		}
+
+		iterated = true;
+		return iterator;
+	}
+
+	@Override
+	public T get(final int index) {
+		return buffer().get(index);
+	}
+
+	@Override
+	public int size() {
+		return buffer().size();
+	}
+
+	@Override
+	public synchronized boolean isEmpty() {
+		// An unread stream is checked without buffering it.
+		if (buffer == null && !iterated) {
+			return !iterator.hasNext();
+		}
+		return buffer().isEmpty();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closeable != null) {
+			closeable.close();
+		}
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		return this == o || buffer().equals(o);
+	}
+
+	@Override
+	public int hashCode() {
+		return buffer().hashCode();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return buffer != null ? buffer.toString() : "PdefStreamList{iterated=" + iterated + '}';
+	}
+
+	/** Reads the remaining elements into a buffer and closes the stream. */
+	private synchronized List<T> buffer() {
+		if (buffer != null) {
+			return buffer;
+		}
+		if (iterated) {
+			throw new IllegalStateException("PdefStreamList has been iterated, cannot buffer it");
+		}
+
+		List<T> list = new ArrayList<T>();
+		try {
+			while (iterator.hasNext()) {
+				list.add(iterator.next());
+			}
+		} finally {
+			iterated = true;
+			try {
+				close();
+			} catch (IOException e) {
+				throw new IllegalStateException("Failed to close a PdefStreamList", e);
+			}
+		}
+		return buffer = list;
+	}
+}
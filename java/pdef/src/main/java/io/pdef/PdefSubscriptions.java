@@ -0,0 +1,335 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-poll subscriptions to GET results, they replace polling loops for watched resources.
+ *
+ * A subscription holds a result version and is parked without a thread until the result
+ * changes. The implementation signals changes with {@link #changed()}, then each invocation
+ * chain with subscriptions is evaluated and serialized once, and all its subscriptions which
+ * hold another version receive the same result. Subscriptions which hold the new version stay
+ * parked. Chains are evaluated on the thread which signals a change, or on an executor.
+ *
+ * HTTP clients subscribe with {@link PdefClient#watch(long)}, they send the held version
+ * in If-None-Match and a max wait in milliseconds in the X-Pdef-Wait header.
+ */
+public class PdefSubscriptions {
+	static final String WAIT_HEADER = "X-Pdef-Wait";
+
+	private final int maxSubscribers;
+	private final long maxWaitMillis;
+	private final Map<String, Topic> topics = new HashMap<String, Topic>();
+	private final AtomicLong changes = new AtomicLong();
+	private volatile Executor executor;
+	private int subscribers;
+
+	/**
+	 * Creates subscriptions.
+	 *
+	 * @param maxSubscribers max number of parked subscriptions, others are rejected.
+	 * @param maxWaitMillis  max wait of a subscription, longer client waits are truncated.
+	 */
+	public PdefSubscriptions(final int maxSubscribers, final long maxWaitMillis) {
+		if (maxSubscribers < 1) {
+			throw new IllegalArgumentException("maxSubscribers must be positive");
+		}
+		if (maxWaitMillis < 1) throw new IllegalArgumentException("maxWaitMillis must be positive");
+
+		this.maxSubscribers = maxSubscribers;
+		this.maxWaitMillis = maxWaitMillis;
+	}
+
+	public int getMaxSubscribers() {
+		return maxSubscribers;
+	}
+
+	public long getMaxWaitMillis() {
+		return maxWaitMillis;
+	}
+
+	@Nullable
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/** Sets an executor which evaluates changed chains, null to evaluate them in changed(). */
+	public PdefSubscriptions setExecutor(@Nullable final Executor executor) {
+		this.executor = executor;
+		return this;
+	}
+
+	/** Returns the number of parked subscriptions. */
+	public int getSubscribers() {
+		synchronized (topics) {
+			return subscribers;
+		}
+	}
+
+	/** Returns the number of signalled changes. */
+	public long getChanges() {
+		return changes.get();
+	}
+
+	/** Signals that results may have changed, all chains with subscriptions are evaluated. */
+	public void changed() {
+		signal(null);
+	}
+
+	/** Signals that results of chains which start with a method may have changed. */
+	public void changed(final String method) {
+		if (method == null) throw new NullPointerException("method");
+		signal(method);
+	}
+
+	/**
+	 * Parks a subscription until a result of an invocation chain differs from a held version.
+	 * The listener is called once with a new result or an evaluation error, possibly before
+	 * this method returns. A subscription which is not needed anymore must be cancelled.
+	 *
+	 * @param key       invocation chain key, i.e. a relative path with a query.
+	 * @param method    first method of the chain.
+	 * @param version   held result version.
+	 * @param changes   the number of changes before the held version was evaluated,
+	 *                  changes after it are not lost.
+	 * @param evaluator evaluates and serializes the chain result.
+	 * @throws PdefOverloadException if there are max subscribers.
+	 */
+	public Subscription subscribe(final String key, final String method, final String version,
+			final long changes, final Callable<String> evaluator, final Listener listener) {
+		if (key == null) throw new NullPointerException("key");
+		if (method == null) throw new NullPointerException("method");
+		if (version == null) throw new NullPointerException("version");
+		if (evaluator == null) throw new NullPointerException("evaluator");
+		if (listener == null) throw new NullPointerException("listener");
+
+		Subscription subscription;
+		synchronized (topics) {
+			if (subscribers >= maxSubscribers) {
+				throw new PdefOverloadException("Too many subscribers, max=" + maxSubscribers);
+			}
+
+			Topic topic = topics.get(key);
+			if (topic == null) {
+				topic = new Topic(key, method);
+				topics.put(key, topic);
+			}
+
+			subscription = new Subscription(topic, version, evaluator, listener);
+			topic.subscriptions.add(subscription);
+			subscribers++;
+		}
+
+		if (this.changes.get() != changes) {
+			schedule(subscription.topic);
+		}
+		return subscription;
+	}
+
+	private void signal(@Nullable final String method) {
+		// Increment before collecting topics, so that new subscriptions see the change.
+		changes.incrementAndGet();
+
+		List<Topic> changed = new ArrayList<Topic>();
+		synchronized (topics) {
+			for (Topic topic : topics.values()) {
+				if (method == null || method.equals(topic.method)) {
+					changed.add(topic);
+				}
+			}
+		}
+
+		for (Topic topic : changed) {
+			schedule(topic);
+		}
+	}
+
+	private void schedule(final Topic topic) {
+		Executor executor = this.executor;
+		if (executor == null) {
+			evaluate(topic);
+			return;
+		}
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				evaluate(topic);
+			}
+		});
+	}
+
+	/**
+	 * Evaluates a topic once and completes its subscriptions which hold other versions.
+	 * Changes during an evaluation are not lost, the evaluating thread repeats it.
+	 */
+	private void evaluate(final Topic topic) {
+		synchronized (topics) {
+			if (topic.evaluating) {
+				topic.changed = true;
+				return;
+			}
+			topic.evaluating = true;
+		}
+
+		boolean again = true;
+		while (again) {
+			Callable<String> evaluator;
+			synchronized (topics) {
+				topic.changed = false;
+				if (topic.subscriptions.isEmpty()) {
+					topic.evaluating = false;
+					return;
+				}
+				evaluator = topic.subscriptions.get(0).evaluator;
+			}
+
+			Result result = null;
+			Exception error = null;
+			try {
+				String json = evaluator.call();
+				result = new Result(PdefDelta.version(json), json);
+			} catch (Exception e) {
+				error = e;
+			}
+
+			List<Subscription> completed = new ArrayList<Subscription>();
+			synchronized (topics) {
+				Iterator<Subscription> iterator = topic.subscriptions.iterator();
+				while (iterator.hasNext()) {
+					Subscription subscription = iterator.next();
+					if (error == null && subscription.version.equals(result.version)) {
+						continue;
+					}
+
+					iterator.remove();
+					subscription.done = true;
+					subscribers--;
+					completed.add(subscription);
+				}
+
+				removeIfEmpty(topic);
+				again = topic.changed;
+				if (!again) {
+					topic.evaluating = false;
+				}
+			}
+
+			// Listeners write responses, call them without the lock.
+			for (Subscription subscription : completed) {
+				if (error == null) {
+					subscription.listener.onResult(result);
+				} else {
+					subscription.listener.onError(error);
+				}
+			}
+		}
+	}
+
+	// Guarded by topics.
+	private void removeIfEmpty(final Topic topic) {
+		if (topic.subscriptions.isEmpty() && topics.get(topic.key) == topic) {
+			topics.remove(topic.key);
+		}
+	}
+
+	/** Receives a new result of a subscription. */
+	public interface Listener {
+		/** Receives a result which differs from the held version. */
+		void onResult(Result result);
+
+		/** Receives an evaluation error, i.e. PdefOverloadException when it has been shed. */
+		void onError(Exception e);
+	}
+
+	/** Parked subscription, it is completed once by a result, an error or cancel. */
+	public final class Subscription {
+		private final Topic topic;
+		private final String version;
+		private final Callable<String> evaluator;
+		private final Listener listener;
+		private boolean done; // Guarded by topics.
+
+		private Subscription(final Topic topic, final String version,
+				final Callable<String> evaluator, final Listener listener) {
+			this.topic = topic;
+			this.version = version;
+			this.evaluator = evaluator;
+			this.listener = listener;
+		}
+
+		/** Cancels the subscription, returns false when it has already been completed. */
+		public boolean cancel() {
+			synchronized (topics) {
+				if (done) {
+					return false;
+				}
+
+				done = true;
+				topic.subscriptions.remove(this);
+				subscribers--;
+				removeIfEmpty(topic);
+				return true;
+			}
+		}
+	}
+
+	/** Serialized result and its version. */
+	public static final class Result {
+		private final String version;
+		private final String json;
+
+		Result(final String version, final String json) {
+			this.version = version;
+			this.json = json;
+		}
+
+		/** Returns a result version, see {@link PdefDelta#version(String)}. */
+		public String getVersion() {
+			return version;
+		}
+
+		/** Returns a serialized result, it is shared by all subscriptions of a chain. */
+		public String getJson() {
+			return json;
+		}
+	}
+
+	/** Parked subscriptions of one invocation chain, guarded by the topics. */
+	private static final class Topic {
+		private final String key;
+		private final String method;
+		private final List<Subscription> subscriptions = new ArrayList<Subscription>();
+		private boolean evaluating;
+		private boolean changed;
+
+		private Topic(final String key, final String method) {
+			this.key = key;
+			this.method = method;
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package io.pdef;
+
+import java.io.IOException;
+
+/**
+ * Sends client requests over a custom protocol instead of HTTP,
+ * see {@link PdefClient#setTransport(PdefTransport)}.
+ */
+public interface PdefTransport {
+	/**
+	 * Sends a request and returns a JSON response body, i.e. {"data": result}.
+	 *
+	 * @throws PdefClientException on error responses.
+	 */
+	byte[] send(PdefRequest request) throws IOException;
+}
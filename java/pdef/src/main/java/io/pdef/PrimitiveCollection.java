@@ -0,0 +1,33 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+/**
+ * Primitive-specialized pdef collection, stores numbers without boxing.
+ *
+ * Structs generated with the primitive collections option use them for numeric
+ * lists, sets and maps. Immutable collections are not copied.
+ */
+public interface PrimitiveCollection {
+	/** Returns a mutable copy or this collection when it is immutable. */
+	PrimitiveCollection copy();
+
+	/** Returns an immutable copy or this collection when it is immutable. */
+	PrimitiveCollection toImmutable();
+
+	boolean isImmutable();
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import io.pdef.test.TestInterface;
+import io.pdef.test.TestStruct;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.*;
+
+public class PdefBulkheadTest {
+	@Test
+	public void testExecute() throws Exception {
+		PdefBulkhead bulkhead = new PdefBulkhead(1, 0);
+		String result = bulkhead.execute(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return "hello";
+			}
+		});
+
+		assertThat(result).isEqualTo("hello");
+		assertThat(bulkhead.getInFlight()).isEqualTo(0);
+	}
+
+	@Test
+	public void testExecute_reject() throws Exception {
+		final PdefBulkhead bulkhead = new PdefBulkhead(1, 0);
+		bulkhead.execute(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				assertThat(bulkhead.getInFlight()).isEqualTo(1);
+				try {
+					bulkhead.execute(new Callable<Object>() {
+						@Override
+						public Object call() throws Exception {
+							return null;
+						}
+					});
+					fail("Expected an overload exception");
+				} catch (PdefOverloadException e) {
+					// Expected.
+				}
+				return null;
+			}
+		});
+
+		assertThat(bulkhead.getRejectedCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void testExecute_executor() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			PdefBulkhead bulkhead = new PdefBulkhead(1, 0, executor);
+			Thread thread = bulkhead.execute(new Callable<Thread>() {
+				@Override
+				public Thread call() throws Exception {
+					return Thread.currentThread();
+				}
+			});
+
+			assertThat(thread).isNotSameAs(Thread.currentThread());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testHandle_bulkheadPrefix() throws Exception {
+		PdefBulkhead bulkhead = new PdefBulkhead(1, 0);
+		PdefHandler<TestInterface> handler = new PdefHandler<TestInterface>(
+				TestInterface.class, mock(TestInterface.class))
+				.addBulkhead("interface0", new PdefBulkhead(1, 0))
+				.addBulkhead("interface0.get", bulkhead);
+
+		List<PdefInvocation> invocations = PdefHandler.parseRequest(new PdefRequest()
+				.setRelativePath("/interface0/true/1/a/get"), TestInterface.class);
+		assertThat(handler.getBulkhead(invocations)).isSameAs(bulkhead);
+
+		invocations = PdefHandler.parseRequest(new PdefRequest()
+				.setRelativePath("/void0"), TestInterface.class);
+		assertThat(handler.getBulkhead(invocations)).isNull();
+	}
+
+	@Test
+	public void testMatchesPrefix() throws Exception {
+		assertThat(PdefHandler.matchesPrefix("report", "report")).isTrue();
+		assertThat(PdefHandler.matchesPrefix("report.daily", "report")).isTrue();
+		assertThat(PdefHandler.matchesPrefix("reportDaily", "report")).isFalse();
+		assertThat(PdefHandler.matchesPrefix("interface0.get", "interface0.ge")).isFalse();
+	}
+
+	@Test
+	public void testExecute_streamHoldsSlotUntilClosed() throws Exception {
+		PdefBulkhead bulkhead = new PdefBulkhead(1, 0);
+		final CloseableIterator iterator = new CloseableIterator();
+		PdefStreamList<?> list = bulkhead.execute(new Callable<PdefStreamList<?>>() {
+			@Override
+			public PdefStreamList<?> call() throws Exception {
+				return new PdefStreamList<String>(iterator, iterator);
+			}
+		});
+		assertThat(bulkhead.getInFlight()).isEqualTo(1);
+
+		list.close();
+		list.close();
+		assertThat(bulkhead.getInFlight()).isEqualTo(0);
+		assertThat(iterator.closed).isEqualTo(2);
+	}
+
+	/**
+	 * Saturates a slow method on a fixed pool of "container" threads and checks
+	 * that a fast method on the same handler keeps its latency.
+	 */
+	@Test
+	public void testHandle_slowMethodDoesNotStarveFastMethods() throws Exception {
+		TestInterface server = mock(TestInterface.class);
+		when(server.request(any(TestStruct.class))).thenAnswer(new Answer<TestStruct>() {
+			@Override
+			public TestStruct answer(final InvocationOnMock invocation) throws Throwable {
+				Thread.sleep(500);
+				return null;
+			}
+		});
+
+		PdefBulkhead bulkhead = new PdefBulkhead(1, 0);
+		final PdefHandler<TestInterface> handler = new PdefHandler<TestInterface>(
+				TestInterface.class, server).addBulkhead("request", bulkhead);
+
+		ExecutorService container = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> slow = new ArrayList<Future<?>>();
+			for (int i = 0; i < 16; i++) {
+				slow.add(container.submit(new Runnable() {
+					@Override
+					public void run() {
+						handler.handle(new PdefRequest().setRelativePath("/request"));
+					}
+				}));
+			}
+
+			Thread.sleep(50);
+			long start = System.nanoTime();
+			container.submit(new Runnable() {
+				@Override
+				public void run() {
+					handler.handle(new PdefRequest().setRelativePath("/void0"));
+				}
+			}).get();
+			long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+			assertThat(latencyMillis).isLessThan(250);
+			assertThat(bulkhead.getRejectedCount()).isGreaterThan(0);
+		} finally {
+			container.shutdownNow();
+		}
+	}
+
+	private static class CloseableIterator implements Iterator<String>, Closeable {
+		int closed;
+
+		@Override
+		public boolean hasNext() {
+			return false;
+		}
+
+		@Override
+		public String next() {
+			throw new NoSuchElementException();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close() {
+			closed++;
+		}
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import io.pdef.test.TestStruct;
+import static org.fest.assertions.api.Assertions.assertThat;
+import org.junit.Test;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+public class PdefDeltaTest {
+	@Test
+	public void testDiff_struct() throws Exception {
+		TestStruct from = struct();
+		TestStruct to = struct();
+		to.setString0("changed").setLong0(10).setList0(Arrays.asList(1, 2, 4, 3))
+				.setMap0(new HashMap<Integer, String>(ImmutableMap.of(1, "a", 3, "c")));
+		to.getStruct0().setInt0(6);
+
+		JsonElement patch = PdefDelta.diff(tree(from), tree(to));
+		JsonElement result = PdefDelta.apply(tree(from), patch);
+
+		assertThat(PdefJson.parseTree(result, TestStruct.class)).isEqualTo(to);
+		assertThat(patch.toString()).doesNotContain("int0\":1");
+		assertThat(patch.toString()).contains("\"splice\":[2,0,[4]]");
+		assertThat(patch.toString()).contains("\"remove\":[\"2\"]");
+	}
+
+	@Test
+	public void testDiff_equal() throws Exception {
+		assertThat(PdefDelta.diff(tree(struct()), tree(struct()))).isNull();
+	}
+
+	@Test
+	public void testDiff_listItems() throws Exception {
+		List<TestStruct> from = new ArrayList<TestStruct>();
+		List<TestStruct> to = new ArrayList<TestStruct>();
+		for (int i = 0; i < 100; i++) {
+			from.add(new TestStruct().setInt0(i).setString0("string" + i));
+			to.add(new TestStruct().setInt0(i).setString0(i == 50 ? "changed" : "string" + i));
+		}
+
+		JsonElement patch = PdefDelta.diff(tree(from), tree(to));
+		assertThat(patch.toString())
+				.isEqualTo("{\"items\":{\"50\":{\"fields\":{\"string0\":{\"set\":\"changed\"}}}}}");
+		assertThat(PdefDelta.apply(tree(from), patch)).isEqualTo(tree(to));
+	}
+
+	@Test
+	public void testDiff_listRemove() throws Exception {
+		JsonElement from = tree(Arrays.asList(1, 2, 3, 4, 5));
+		JsonElement to = tree(Arrays.asList(1, 2, 5));
+
+		JsonElement patch = PdefDelta.diff(from, to);
+		assertThat(patch.toString()).isEqualTo("{\"splice\":[2,2,[]]}");
+		assertThat(PdefDelta.apply(from, patch)).isEqualTo(to);
+	}
+
+	@Test
+	public void testDiff_null() throws Exception {
+		JsonElement from = tree(struct());
+		JsonElement patch = PdefDelta.diff(from, tree(null));
+
+		assertThat(PdefDelta.apply(from, patch).isJsonNull()).isTrue();
+		assertThat(PdefDelta.apply(tree(null), PdefDelta.diff(tree(null), from))).isEqualTo(from);
+	}
+
+	@Test
+	public void testApply_shouldNotModifyBase() throws Exception {
+		JsonElement from = tree(struct());
+		JsonElement to = tree(struct().setString0("changed"));
+
+		PdefDelta.apply(from, PdefDelta.diff(from, to));
+		assertThat(from).isEqualTo(tree(struct()));
+	}
+
+	@Test
+	public void testApply_emptyPatch() throws Exception {
+		JsonElement base = tree(struct());
+
+		assertThat(PdefDelta.apply(base, null)).isSameAs(base);
+		assertThat(PdefDelta.apply(base, JsonNull.INSTANCE)).isSameAs(base);
+		assertThat(PdefDelta.apply(base, new JsonObject())).isSameAs(base);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testApply_mismatch() throws Exception {
+		JsonElement patch = PdefDelta.diff(tree(Arrays.asList(1, 2)), tree(Arrays.asList(1)));
+		PdefDelta.apply(tree(struct()), patch);
+	}
+
+	@Test
+	public void testParseETag() throws Exception {
+		assertThat(PdefDelta.parseETag("\"abc\"")).isEqualTo("abc");
+		assertThat(PdefDelta.parseETag("W/\"abc\"")).isEqualTo("abc");
+		assertThat(PdefDelta.parseETag("\"\"")).isNull();
+		assertThat(PdefDelta.parseETag(null)).isNull();
+	}
+
+	@Test
+	public void testAcceptsDelta() throws Exception {
+		assertThat(PdefDelta.acceptsDelta("pdef-delta")).isTrue();
+		assertThat(PdefDelta.acceptsDelta("vcdiff, pdef-delta;q=0.5")).isTrue();
+		assertThat(PdefDelta.acceptsDelta("vcdiff")).isFalse();
+		assertThat(PdefDelta.acceptsDelta(null)).isFalse();
+	}
+
+	@Test
+	public void testCache_evictsLeastRecentlyUsed() throws Exception {
+		PdefDeltaCache cache = new PdefDeltaCache(2);
+		cache.put("a", "1", tree(1));
+		cache.put("b", "2", tree(2));
+		cache.get("a");
+		cache.put("c", "3", tree(3));
+
+		assertThat(cache.size()).isEqualTo(2);
+		assertThat(cache.get("a").version).isEqualTo("1");
+		assertThat(cache.get("b")).isNull();
+	}
+
+	@Test
+	public void testClient() throws Exception {
+		TestStruct from = struct();
+		TestStruct to = struct().setString0("changed");
+		String delta = PdefJson.serialize(PdefDelta.diff(tree(from), tree(to)));
+
+		HttpURLConnection full = connection(200, "\"v1\"", "{\"data\":" + tree(from) + "}");
+		HttpURLConnection patch = connection(226, "\"v2\"", "{\"delta\":" + delta + "}");
+		HttpURLConnection unchanged = connection(304, "\"v2\"", null);
+		PdefConnectionFactory factory = mock(PdefConnectionFactory.class);
+		when(factory.openConnection(any(URL.class))).thenReturn(full, patch, unchanged);
+
+		PdefClient<Object> client = new PdefClient<Object>("http://localhost:8080", Object.class)
+				.setConnectionFactory(factory)
+				.setDeltas(new PdefDeltaCache(10));
+		PdefRequest request = new PdefRequest().setMethod("GET").setRelativePath("/get");
+
+		assertThat(client.handle(request, TestStruct.class)).isEqualTo(from);
+		assertThat(client.handle(request, TestStruct.class)).isEqualTo(to);
+		assertThat(client.handle(request, TestStruct.class)).isEqualTo(to);
+
+		verify(full).setRequestProperty("A-IM", "pdef-delta");
+		verify(full, never()).setRequestProperty(eq("If-None-Match"), anyString());
+		verify(patch).setRequestProperty("If-None-Match", "\"v1\"");
+		verify(unchanged).setRequestProperty("If-None-Match", "\"v2\"");
+	}
+
+	private static HttpURLConnection connection(final int status, final String etag,
+			final String body) throws IOException {
+		HttpURLConnection connection = mock(HttpURLConnection.class);
+		when(connection.getResponseCode()).thenReturn(status);
+		when(connection.getHeaderField("ETag")).thenReturn(etag);
+		if (body != null) {
+			when(connection.getInputStream())
+					.thenReturn(new ByteArrayInputStream(body.getBytes(PdefClient.UTF8)));
+		}
+		return connection;
+	}
+
+	private static TestStruct struct() {
+		return new TestStruct()
+				.setInt0(1)
+				.setString0("hello")
+				.setList0(Arrays.asList(1, 2, 3))
+				.setMap0(new HashMap<Integer, String>(ImmutableMap.of(1, "a", 2, "b")))
+				.setStruct0(new TestStruct().setInt0(5));
+	}
+
+	private static JsonElement tree(final Object o) {
+		return PdefJson.toJsonTree(o);
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import org.junit.Test;
+
+public class PdefFieldMaskTest {
+	@Test
+	public void testParse() throws Exception {
+		PdefFieldMask mask = PdefFieldMask.parse("id, author.name,author.id,comments");
+
+		assertThat(mask.includes("id")).isTrue();
+		assertThat(mask.includes("title")).isFalse();
+		assertThat(mask.get("author").includes("name")).isTrue();
+		assertThat(mask.get("author").includes("email")).isFalse();
+		assertThat(mask.get("comments").isAll()).isTrue();
+		assertThat(mask.toString()).isEqualTo("id,author.name,author.id,comments");
+		assertThat(PdefFieldMask.parse(mask.toString())).isEqualTo(mask);
+	}
+
+	@Test
+	public void testParse_empty() throws Exception {
+		assertThat(PdefFieldMask.parse(null)).isNull();
+		assertThat(PdefFieldMask.parse(" ")).isNull();
+	}
+
+	@Test
+	public void testOf_wholeFieldIncludesPaths() throws Exception {
+		PdefFieldMask mask = PdefFieldMask.of("author.name", "author", "author.id");
+
+		assertThat(mask.get("author").isAll()).isTrue();
+		assertThat(mask.toString()).isEqualTo("author");
+	}
+
+	@Test(expected = PdefException.class)
+	public void testParse_invalid() throws Exception {
+		PdefFieldMask.parse("id,author..name");
+	}
+}
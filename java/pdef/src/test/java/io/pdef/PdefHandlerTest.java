@@ -11,7 +11,9 @@ import static org.fest.assertions.api.Assertions.assertThat;
 import org.junit.Test;
 import static org.mockito.Mockito.*;
 
+import java.io.StringReader;
 import java.lang.reflect.Method;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -32,6 +34,56 @@ public class PdefHandlerTest {
 		verify(subface).get(0, "привет");
 	}
 
+	@Test
+	public void testWarmUp() throws Exception {
+		TestInterface iface = mock(TestInterface.class);
+		PdefHandler<TestInterface> server = new PdefHandler<TestInterface>(
+				TestInterface.class, iface);
+		assertThat(server.warmUp()).isSameAs(server);
+
+		server.handle(new PdefRequest().setRelativePath("/void0"));
+		verify(iface).void0();
+	}
+
+	@Test
+	public void testHandle_scheduler() throws Exception {
+		TestInterface iface = mock(TestInterface.class);
+		PdefScheduler scheduler = new PdefScheduler(1);
+		PdefHandler<TestInterface> server = new PdefHandler<TestInterface>(
+				TestInterface.class, iface).setScheduler(scheduler);
+		try {
+			server.handle(new PdefRequest().setRelativePath("/void0"));
+			verify(iface).void0();
+			assertThat(scheduler.getExecutedCount()).isEqualTo(1);
+		} finally {
+			scheduler.close();
+		}
+	}
+
+	@Test
+	public void testGetPriority() throws Exception {
+		Method batch = PriorityInterface.class.getMethod("batch");
+		Method normal = PriorityInterface.class.getMethod("normal");
+		List<PdefInvocation> batchChain = Collections.singletonList(
+				new PdefInvocation(batch, new Object[0]));
+		List<PdefInvocation> normalChain = Collections.singletonList(
+				new PdefInvocation(normal, new Object[0]));
+
+		assertThat(PdefHandler.getPriority(new PdefRequest(), batchChain))
+				.isEqualTo(PdefPriority.BATCH);
+		assertThat(PdefHandler.getPriority(new PdefRequest(), normalChain))
+				.isEqualTo(PdefPriority.NORMAL);
+		assertThat(PdefHandler.getPriority(
+				new PdefRequest().setPriority(PdefPriority.INTERACTIVE), batchChain))
+				.isEqualTo(PdefPriority.INTERACTIVE);
+	}
+
+	@Test
+	public void testWithSubinterfaces() throws Exception {
+		assertThat(PdefMethodDescriptor.withSubinterfaces(TestInterface.class))
+				.containsExactly(TestInterface.class, TestSubInterface.class);
+	}
+
 	@Test
 	public void testParseInvocation() throws Exception {
 		PdefRequest request = new PdefRequest()
@@ -50,6 +102,18 @@ public class PdefHandlerTest {
 		assertThat(invocation.getArgs()).isEqualTo(new Object[]{-1, "hello"});
 	}
 
+	@Test(expected = PdefException.class)
+	public void testParseInvocation_wrongNumberOfArgs() throws Exception {
+		PdefRequest request = new PdefRequest().setRelativePath("/interface0/false/-32/");
+		PdefHandler.parseRequest(request, TestInterface.class);
+	}
+
+	@Test(expected = PdefException.class)
+	public void testParseInvocation_notTerminal() throws Exception {
+		PdefRequest request = new PdefRequest().setRelativePath("/void0/void0");
+		PdefHandler.parseRequest(request, TestInterface.class);
+	}
+
 	@Test
 	public void testParseInvocation_request() throws Exception {
 		Map<String, String> query = ImmutableMap.<String, String>builder()
@@ -113,9 +177,38 @@ public class PdefHandlerTest {
 		assertThat(invocation.getArgs()).isEqualTo(args);
 	}
 
+	@Test
+	public void testParseInvocation_jsonPost() throws Exception {
+		TestStruct struct = new TestStruct().setInt0(32).setString0("привет");
+		Object[] args = new Object[]{true, (short) -16, -32, -64L, -1.5f, -2.5d, "привет",
+				new Date(1000), ImmutableList.of(1, 2, 3), ImmutableSet.of(4, 5, 6),
+				ImmutableMap.of(1, "a"), TestNumber.ONE, struct};
+		PdefInvocation post = new PdefInvocation(getMethod(TestInterface.class, "post"), args);
+
+		PdefRequest sent = PdefClient.serializeInvocations(Collections.singletonList(post), true);
+		assertThat(sent.getPost()).isEmpty();
+
+		PdefRequest request = new PdefRequest()
+				.setMethod("POST")
+				.setRelativePath(sent.getRelativePath())
+				.setJsonPostReader(new StringReader(PdefJson.serialize(sent.getJsonPost())));
+
+		List<PdefInvocation> invocations = PdefHandler.parseRequest(request, TestInterface.class);
+		assertThat(invocations).containsExactly(post);
+	}
+
 	public static Method getMethod(final Class<?> cls, final String name) {
 		Method method = PdefHandler.getMethod(cls, name);
 		assert method != null;
 		return method;
 	}
+
+	interface PriorityInterface {
+		@GET
+		@Priority(PdefPriority.BATCH)
+		String batch();
+
+		@GET
+		String normal();
+	}
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.pdef.immutable.TestImmutableStruct;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class PdefImmutableTest {
+	@Test
+	public void testBuild() throws Exception {
+		List<Integer> list = new ArrayList<Integer>(ImmutableList.of(1, 2, 3));
+		TestImmutableStruct struct = TestImmutableStruct.builder()
+				.setList0(list)
+				.build();
+		list.add(4);
+
+		assertThat(struct.getList0()).containsExactly(1, 2, 3);
+		try {
+			struct.getList0().add(4);
+			fail("Expected an UnsupportedOperationException");
+		} catch (UnsupportedOperationException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void testBuild_nestedCollections() throws Exception {
+		TestImmutableStruct struct = TestImmutableStruct.builder()
+				.setMap0(ImmutableMap.<String, List<Integer>>of("a",
+						new ArrayList<Integer>(ImmutableList.of(1))))
+				.build();
+
+		try {
+			struct.getMap0().get("a").add(2);
+			fail("Expected an UnsupportedOperationException");
+		} catch (UnsupportedOperationException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void testDefaults() throws Exception {
+		TestImmutableStruct struct = TestImmutableStruct.builder().build();
+
+		assertThat(struct.getList0()).isEmpty();
+		assertThat(struct.getSet0()).isEmpty();
+		assertThat(struct.getMap0()).isEmpty();
+		assertThat(struct.getStruct0()).isSameAs(TestImmutableStruct.getDefaultInstance());
+	}
+
+	@Test
+	public void testCopy() throws Exception {
+		TestImmutableStruct struct = fixtureStruct();
+
+		assertThat(struct.copy()).isSameAs(struct);
+		assertThat(PdefCopy.copy(struct)).isSameAs(struct);
+		assertThat(PdefCopy.copy(struct.getList0())).isSameAs(struct.getList0());
+	}
+
+	@Test
+	public void testToBuilder_sharesUnchangedFields() throws Exception {
+		TestImmutableStruct struct = fixtureStruct();
+		TestImmutableStruct modified = struct.toBuilder()
+				.setString0("Goodbye, world")
+				.build();
+
+		assertThat(modified).isNotEqualTo(struct);
+		assertThat(modified.getString0()).isEqualTo("Goodbye, world");
+		assertThat(modified.getList0()).isSameAs(struct.getList0());
+		assertThat(modified.getMap0()).isSameAs(struct.getMap0());
+		assertThat(modified.getStruct0()).isSameAs(struct.getStruct0());
+	}
+
+	@Test
+	public void testEqualsHashCode() throws Exception {
+		TestImmutableStruct struct0 = fixtureStruct();
+		TestImmutableStruct struct1 = fixtureStruct();
+
+		assertThat(struct0).isEqualTo(struct1);
+		assertThat(struct0.hashCode()).isEqualTo(struct1.hashCode());
+		assertThat(struct0.hashCode()).isEqualTo(struct0.hashCode());
+	}
+
+	@Test
+	public void testJson() throws Exception {
+		TestImmutableStruct struct0 = fixtureStruct();
+		String json = struct0.toJson();
+		TestImmutableStruct struct1 = TestImmutableStruct.parseJson(json);
+
+		assertThat(struct1).isEqualTo(struct0);
+		assertThat(json).contains("\"datetime0\":\"1970-01-01T00:00:00Z\"");
+		try {
+			struct1.getStruct0().getSet0().add("b");
+			fail("Expected an UnsupportedOperationException");
+		} catch (UnsupportedOperationException e) {
+			// Expected.
+		}
+	}
+
+	private TestImmutableStruct fixtureStruct() {
+		return TestImmutableStruct.builder()
+				.setInt0(-32)
+				.setDouble0(-1.5)
+				.setString0("Hello, world")
+				.setDatetime0(PdefInstant.ofEpochMilli(0))
+				.setList0(ImmutableList.of(1, 2))
+				.setSet0(ImmutableSet.of("a"))
+				.setMap0(ImmutableMap.<String, List<Integer>>of("a", ImmutableList.of(1)))
+				.setStruct0(TestImmutableStruct.builder()
+						.setInt0(1)
+						.setSet0(ImmutableSet.of("a"))
+						.build())
+				.build();
+	}
+}
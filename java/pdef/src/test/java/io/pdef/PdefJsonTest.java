@@ -19,13 +19,22 @@ package io.pdef;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.reflect.TypeToken;
 import io.pdef.test.TestException;
 import io.pdef.test.TestNumber;
 import io.pdef.test.TestStruct;
 import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
 import org.junit.Test;
 
-import java.util.Date;
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.Type;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class PdefJsonTest {
 	@Test
@@ -46,6 +55,210 @@ public class PdefJsonTest {
 		assertThat(e1).isEqualTo(e);
 	}
 
+	@Test
+	public void testSerializeStream() throws Exception {
+		List<TestStruct> list = ImmutableList.of(fixtureStruct(), new TestStruct().setInt0(1));
+		String expected = new PdefResponse<Object>().setData(list).toJson();
+
+		StringWriter writer = new StringWriter();
+		PdefJson.serializeStream(list.iterator(), writer, 1);
+		assertThat(writer.toString()).isEqualTo(expected);
+	}
+
+	@Test
+	public void testParseStream() throws Exception {
+		List<TestStruct> list = ImmutableList.of(fixtureStruct(), new TestStruct().setInt0(1));
+		String json = new PdefResponse<Object>().setData(list).toJson();
+
+		PdefStreamList<TestStruct> stream = PdefJson.parseStream(
+				new ByteArrayInputStream(json.getBytes("UTF-8")), TestStruct.class);
+		Iterator<TestStruct> iterator = stream.iterator();
+		assertThat(iterator.next()).isEqualTo(list.get(0));
+		assertThat(iterator.next()).isEqualTo(list.get(1));
+		assertThat(iterator.hasNext()).isFalse();
+	}
+
+	@Test
+	public void testParseStream_buffered() throws Exception {
+		List<TestStruct> list = ImmutableList.of(fixtureStruct(), new TestStruct().setInt0(1));
+		String json = new PdefResponse<Object>().setData(list).toJson();
+
+		PdefStreamList<TestStruct> stream = PdefJson.parseStream(
+				new ByteArrayInputStream(json.getBytes("UTF-8")), TestStruct.class);
+		assertThat(stream.isEmpty()).isFalse();
+		assertThat(stream.isBuffered()).isFalse();
+		assertThat(stream.size()).isEqualTo(2);
+		assertThat(stream.get(1)).isEqualTo(list.get(1));
+		assertThat(stream).isEqualTo(list);
+		assertThat(new ArrayList<TestStruct>(stream)).isEqualTo(list);
+	}
+
+	@Test
+	public void testStreamList_bufferAfterIteration() throws Exception {
+		PdefStreamList<String> stream = PdefStreamList.of(Arrays.asList("a", "b"));
+		stream.iterator().next();
+		try {
+			stream.size();
+			fail("Expected an illegal state exception");
+		} catch (IllegalStateException e) {
+			assertThat(e.getMessage()).contains("iterated");
+		}
+	}
+
+	@Test
+	public void testParseStream_noData() throws Exception {
+		PdefStreamList<TestStruct> stream = PdefJson.parseStream(
+				new ByteArrayInputStream("{\"data\": null}".getBytes("UTF-8")), TestStruct.class);
+		assertThat(stream.iterator().hasNext()).isFalse();
+	}
+
+	@Test
+	public void testSerializeFields() throws Exception {
+		TestStruct struct = fixtureStruct();
+		Map<String, List<TestStruct>> data = ImmutableMap.<String, List<TestStruct>>of(
+				"a", ImmutableList.of(struct));
+		PdefFieldMask fields = PdefFieldMask.of("int0", "list0", "struct0.int0", "enum0");
+
+		StringWriter out = new StringWriter();
+		PdefJson.serializeData(data, fields, out);
+		assertThat(out.toString()).isEqualTo("{\"data\":{\"a\":[{\"int0\":-32,"
+				+ "\"list0\":[1,2,3],\"enum0\":\"one\",\"struct0\":{\"int0\":0}}]}}");
+	}
+
+	@Test
+	public void testSerializeParallel() throws Exception {
+		List<TestStruct> list = new ArrayList<TestStruct>();
+		for (int i = 0; i < 2500; i++) {
+			list.add(i % 100 == 0 ? null : fixtureStruct().setInt0(i).setString0("<" + i + ">"));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			StringWriter out = new StringWriter();
+			PdefJson.serializeParallel(list, out, executor, 4, 100, null);
+			assertThat(out.toString()).isEqualTo(new PdefResponse<Object>().setData(list).toJson());
+
+			out = new StringWriter();
+			PdefJson.serializeParallel(new ArrayList<Object>(), out, executor, 4, 100, null);
+			assertThat(out.toString()).isEqualTo("{\"data\":[]}");
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testParseInterned() throws Exception {
+		String json = "[{\"string0\": \"active\", \"map0\": {\"1\": \"active\"}},"
+				+ "{\"string0\": \"active\", \"list0\": [1000, 1000]}]";
+		Type type = new TypeToken<List<TestStruct>>() {}.getType();
+		PdefInterner interner = new PdefInterner(64, 16, true);
+
+		@SuppressWarnings("unchecked")
+		List<TestStruct> list = (List<TestStruct>) PdefJson.parse(new StringReader(json), type,
+				interner);
+		TestStruct first = list.get(0);
+		TestStruct second = list.get(1);
+
+		assertThat(second.getString0()).isSameAs(first.getString0());
+		assertThat(first.getMap0().get(1)).isSameAs(first.getString0());
+		assertThat(second.getList0().get(1)).isSameAs(second.getList0().get(0));
+	}
+
+	@Test
+	public void testInterner() throws Exception {
+		PdefInterner interner = new PdefInterner(16, 4, false);
+		String a = interner.intern(new String("abc"));
+		String longString = new String("abcde");
+
+		assertThat(interner.intern(new String("abc"))).isSameAs(a);
+		assertThat(interner.intern(longString)).isSameAs(longString);
+		assertThat(interner.internValue(1000L)).isEqualTo(1000L);
+	}
+
+	@Test
+	public void testParseLazy() throws Exception {
+		List<TestStruct> list = ImmutableList.of(fixtureStruct(), new TestStruct().setInt0(1));
+		byte[] json = PdefJson.serialize(list).getBytes("UTF-8");
+		Type type = new TypeToken<List<TestStruct>>() {}.getType();
+
+		@SuppressWarnings("unchecked")
+		List<TestStruct> result = (List<TestStruct>) PdefJson.parseLazy(json, type);
+		assertThat(result).isNotInstanceOf(ArrayList.class);
+		assertThat(result.size()).isEqualTo(2);
+		assertThat(result.get(1)).isEqualTo(list.get(1));
+		assertThat(result).isEqualTo(list);
+	}
+
+	@Test
+	public void testParseLazyData() throws Exception {
+		Map<String, List<TestStruct>> map = ImmutableMap.<String, List<TestStruct>>of(
+				"a", ImmutableList.of(fixtureStruct()),
+				"b\"", ImmutableList.<TestStruct>of());
+		String json = new PdefResponse<Object>().setData(map).toJson();
+		Type type = new TypeToken<Map<String, List<TestStruct>>>() {}.getType();
+
+		@SuppressWarnings("unchecked")
+		Map<String, List<TestStruct>> result = (Map<String, List<TestStruct>>)
+				PdefJson.parseLazyData(json.getBytes("UTF-8"), type);
+		assertThat(result.get("b\"")).isEqualTo(ImmutableList.<TestStruct>of());
+		assertThat(result).isEqualTo(map);
+		assertThat(PdefJson.parseLazyData("{\"data\": null}".getBytes("UTF-8"), type)).isNull();
+		assertThat(PdefJson.parseLazyData("{}".getBytes("UTF-8"), type)).isNull();
+	}
+
+	@Test(expected = JsonSyntaxException.class)
+	public void testParseLazy_malformed() throws Exception {
+		Type type = new TypeToken<List<TestStruct>>() {}.getType();
+		List<?> result = (List<?>) PdefJson.parseLazy("[{}, {]".getBytes("UTF-8"), type);
+		result.size();
+	}
+
+	@Test
+	public void testEnum() throws Exception {
+		assertThat(PdefJson.serialize(TestNumber.TWO)).isEqualTo("\"two\"");
+		assertThat(PdefJson.parse("\"two\"", TestNumber.class)).isEqualTo(TestNumber.TWO);
+		assertThat(PdefJson.parse("\"TWO\"", TestNumber.class)).isEqualTo(TestNumber.TWO);
+		assertThat(PdefJson.parse("\"four\"", TestNumber.class)).isNull();
+	}
+
+	@Test
+	public void testEnumSet() throws Exception {
+		Type type = new TypeToken<Set<TestNumber>>() {}.getType();
+		Object set = PdefJson.parse("[\"one\", \"three\", \"four\"]", type);
+
+		assertThat(set).isInstanceOf(EnumSet.class);
+		assertThat(set).isEqualTo(EnumSet.of(TestNumber.ONE, TestNumber.THREE));
+		assertThat(PdefJson.serialize(set)).isEqualTo("[\"one\",\"three\"]");
+	}
+
+	@Test
+	public void testEnumMap() throws Exception {
+		Type type = new TypeToken<Map<TestNumber, Integer>>() {}.getType();
+		Object map = PdefJson.parse("{\"one\": 1, \"Two\": 2, \"four\": 4}", type);
+
+		EnumMap<TestNumber, Integer> expected = new EnumMap<TestNumber, Integer>(TestNumber.class);
+		expected.put(TestNumber.ONE, 1);
+		expected.put(TestNumber.TWO, 2);
+		assertThat(map).isInstanceOf(EnumMap.class);
+		assertThat(map).isEqualTo(expected);
+		assertThat(PdefJson.serialize(map)).isEqualTo("{\"one\":1,\"two\":2}");
+	}
+
+	@Test
+	public void testEnumCollectionsCopy() throws Exception {
+		EnumSet<TestNumber> set = EnumSet.of(TestNumber.ONE);
+		EnumMap<TestNumber, List<Integer>> map = new EnumMap<TestNumber, List<Integer>>(
+				TestNumber.class);
+		map.put(TestNumber.TWO, new ArrayList<Integer>(ImmutableList.of(1, 2)));
+
+		Set<TestNumber> setCopy = PdefCopy.copy(set);
+		Map<TestNumber, List<Integer>> mapCopy = PdefCopy.copy(map);
+
+		assertThat(setCopy).isInstanceOf(EnumSet.class).isEqualTo(set).isNotSameAs(set);
+		assertThat(mapCopy).isInstanceOf(EnumMap.class).isEqualTo(map).isNotSameAs(map);
+		assertThat(mapCopy.get(TestNumber.TWO)).isNotSameAs(map.get(TestNumber.TWO));
+	}
+
 	private TestStruct fixtureStruct() {
 		return new TestStruct()
 				.setBool0(true)
@@ -0,0 +1,162 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import io.pdef.test.TestInterface;
+import static org.fest.assertions.api.Assertions.assertThat;
+import org.junit.Test;
+
+public class PdefLimiterTest {
+	@Test
+	public void testTryAcquire_shedOverLimit() throws Exception {
+		PdefLimiter limiter = new PdefLimiter(2, 1, 10, false);
+
+		assertThat(limiter.tryAcquire()).isTrue();
+		assertThat(limiter.tryAcquire()).isTrue();
+		assertThat(limiter.tryAcquire()).isFalse();
+		assertThat(limiter.getInFlight()).isEqualTo(2);
+		assertThat(limiter.getShedCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void testRelease_increaseLimit() throws Exception {
+		PdefLimiter limiter = new PdefLimiter(2, 1, 10, false);
+		limiter.tryAcquire();
+		limiter.tryAcquire();
+
+		limiter.release(1000);
+		assertThat(limiter.getLimit()).isEqualTo(3);
+		assertThat(limiter.getInFlight()).isEqualTo(1);
+	}
+
+	@Test
+	public void testRelease_decreaseLimitOnHighLatency() throws Exception {
+		PdefLimiter limiter = new PdefLimiter(10, 1, 10, false);
+		limiter.tryAcquire();
+		limiter.release(1000);
+
+		for (int i = 0; i < 10; i++) {
+			limiter.tryAcquire();
+			limiter.release(10000);
+		}
+		assertThat(limiter.getLimit()).isLessThan(5);
+	}
+
+	@Test
+	public void testForMethod() throws Exception {
+		PdefLimiter limiter = new PdefLimiter(1, 1, 10, true);
+		PdefLimiter method0 = limiter.forMethod(TestInterface.class, "get");
+		PdefLimiter method1 = limiter.forMethod(TestInterface.class, "post");
+
+		assertThat(method0).isSameAs(limiter.forMethod(TestInterface.class, "get"));
+		assertThat(method0.tryAcquire()).isTrue();
+		assertThat(method0.tryAcquire()).isFalse();
+		assertThat(method1.tryAcquire()).isTrue();
+		assertThat(limiter.getShedCount()).isEqualTo(1);
+		assertThat(limiter.getMethods()).hasSize(2);
+	}
+
+	@Test
+	public void testForMethod_unknownMethodsShareLimiter() throws Exception {
+		PdefLimiter limiter = new PdefLimiter(1, 1, 10, true);
+		for (int i = 0; i < 100; i++) {
+			assertThat(limiter.forMethod(TestInterface.class, "random" + i)).isSameAs(limiter);
+		}
+		assertThat(limiter.getMethods()).isEmpty();
+	}
+
+	@Test
+	public void testForMethod_shared() throws Exception {
+		PdefLimiter limiter = new PdefLimiter();
+		assertThat(limiter.forMethod(TestInterface.class, "get")).isSameAs(limiter);
+		assertThat(limiter.getMethods()).isEmpty();
+	}
+
+	/**
+	 * Simulates a server with a fixed capacity under a growing number of clients, and checks
+	 * that the goodput (requests served within a latency objective) stays within a band
+	 * of the server capacity as the concurrency goes past the limit. Without a limiter
+	 * all requests share the server and miss the objective.
+	 */
+	@Test
+	public void testLoad_goodputBandPastLimit() throws Exception {
+		int capacity = 4;
+		long ideal = LOAD_TICKS * capacity / LOAD_SERVICE_TICKS;
+
+		for (int clients = capacity * 2; clients <= capacity * 64; clients *= 2) {
+			long goodput = runLoad(new PdefLimiter(capacity, 1, 1000, false), capacity, clients);
+			assertThat(goodput).isGreaterThanOrEqualTo(ideal * 9 / 10).isLessThanOrEqualTo(ideal);
+
+			if (clients >= capacity * 4) {
+				assertThat(runLoad(null, capacity, clients)).isZero();
+			}
+		}
+	}
+
+	private static final int LOAD_TICKS = 20000;
+	private static final int LOAD_SERVICE_TICKS = 10;
+
+	/**
+	 * Runs closed-loop clients against a processor-sharing server in discrete ticks,
+	 * a request needs the service ticks of work and in-flight requests above the capacity
+	 * share it. Shed clients retry on the next tick. Returns the goodput.
+	 */
+	private long runLoad(final PdefLimiter limiter, final int capacity, final int clients) {
+		long objective = LOAD_SERVICE_TICKS * 3;
+		long[] started = new long[clients];
+		double[] remaining = new double[clients];
+		boolean[] active = new boolean[clients];
+		long goodput = 0;
+
+		for (int tick = 0; tick < LOAD_TICKS; tick++) {
+			int inFlight = 0;
+			for (int i = 0; i < clients; i++) {
+				if (!active[i] && (limiter == null || limiter.tryAcquire())) {
+					active[i] = true;
+					started[i] = tick;
+					remaining[i] = LOAD_SERVICE_TICKS;
+				}
+				if (active[i]) {
+					inFlight++;
+				}
+			}
+
+			double share = Math.min(1.0, (double) capacity / inFlight);
+			for (int i = 0; i < clients; i++) {
+				if (!active[i]) {
+					continue;
+				}
+
+				remaining[i] -= share;
+				if (remaining[i] > 1e-9) {
+					continue;
+				}
+
+				active[i] = false;
+				long latency = tick + 1 - started[i];
+				if (limiter != null) {
+					limiter.release(latency);
+				}
+				if (latency <= objective) {
+					goodput++;
+				}
+			}
+		}
+
+		return goodput;
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import com.google.common.collect.Lists;
+import io.pdef.test.TestInterface;
+import io.pdef.test.TestStruct;
+import io.pdef.test.TestSubInterface;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class PdefLocalTransportTest {
+	TestInterface server;
+	TestSubInterface subServer;
+	PdefLocalTransport transport;
+	PdefClient<TestInterface> client;
+
+	@Before
+	public void setUp() throws Exception {
+		server = mock(TestInterface.class);
+		subServer = mock(TestSubInterface.class);
+		when(server.interface0(anyBoolean(), anyInt(), anyString())).thenReturn(subServer);
+
+		transport = new PdefLocalTransport(
+				new PdefHandler<TestInterface>(TestInterface.class, server));
+		client = new PdefClient<TestInterface>("local:", TestInterface.class)
+				.setTransport(transport);
+	}
+
+	@Test
+	public void testSerialize() throws Exception {
+		TestStruct struct = new TestStruct().setInt0(10).setString0("hello");
+		when(subServer.get(1, "привет")).thenReturn(2);
+		when(server.request(any(TestStruct.class))).thenReturn(struct);
+
+		assertThat(client.proxy().interface0(true, 0, "world").get(1, "привет")).isEqualTo(2);
+		TestStruct result = client.proxy().request(struct);
+		assertThat(result).isEqualTo(struct);
+		assertThat(result).isNotSameAs(struct);
+	}
+
+	@Test
+	public void testSerialize_warmUp() throws Exception {
+		when(subServer.get(1, "hello")).thenReturn(2);
+		assertThat(client.warmUp()).isSameAs(client);
+
+		assertThat(client.proxy().interface0(true, 0, "world").get(1, "hello")).isEqualTo(2);
+	}
+
+	@Test
+	public void testSerialize_jsonPost() throws Exception {
+		when(subServer.post(1, "привет")).thenReturn(3);
+		client.setJsonPost(true);
+
+		assertThat(client.proxy().interface0(false, 0, "world").post(1, "привет")).isEqualTo(3);
+	}
+
+	@Test
+	public void testSerialize_fields() throws Exception {
+		TestStruct struct = new TestStruct().setInt0(10).setString0("hello");
+		when(server.request(any(TestStruct.class))).thenReturn(struct);
+		transport.setCopyResults(true);
+
+		TestStruct result = client.proxy(PdefFieldMask.of("int0")).request(struct);
+		assertThat(result.getInt0()).isEqualTo(10);
+		assertThat(result.getString0()).isNull();
+	}
+
+	@Test
+	public void testCopyResults() throws Exception {
+		TestStruct struct = new TestStruct()
+				.setString0("hello")
+				.setList0(Lists.newArrayList(1, 2, 3));
+		when(server.request(any(TestStruct.class))).thenReturn(struct);
+		transport.setCopyResults(true);
+
+		TestStruct arg = new TestStruct().setString0("arg");
+		TestStruct result = client.proxy().request(arg);
+		assertThat(result).isEqualTo(struct);
+		assertThat(result).isNotSameAs(struct);
+		assertThat(result.getList0()).isNotSameAs(struct.getList0());
+
+		ArgumentCaptor<TestStruct> captor = ArgumentCaptor.forClass(TestStruct.class);
+		verify(server).request(captor.capture());
+		assertThat(captor.getValue()).isEqualTo(arg);
+		assertThat(captor.getValue()).isNotSameAs(arg);
+	}
+
+	@Test
+	public void testCopyResults_streamList() throws Exception {
+		TestStruct struct = new TestStruct().setString0("hello");
+		final PdefStreamList<TestStruct> list = PdefStreamList.of(Lists.newArrayList(struct));
+		PdefHandler<TestInterface> handler = new PdefHandler<TestInterface>(
+				TestInterface.class, server) {
+			@Override
+			Object handle(final List<PdefInvocation> invocations) {
+				return list;
+			}
+		};
+
+		transport = new PdefLocalTransport(handler).setCopyResults(true);
+		PdefStreamList<?> result = (PdefStreamList<?>) transport.invoke(
+				new ArrayList<PdefInvocation>());
+
+		Object element = result.iterator().next();
+		assertThat(element).isEqualTo(struct);
+		assertThat(element).isNotSameAs(struct);
+	}
+
+	@Test
+	public void testException() throws Exception {
+		when(subServer.get(1, "hello")).thenThrow(new IllegalStateException("failure"));
+
+		try {
+			client.proxy().interface0(true, 0, "world").get(1, "hello");
+			fail("Expected a PdefClientException");
+		} catch (PdefClientException e) {
+			assertThat(e.getCause()).isInstanceOf(IllegalStateException.class);
+		}
+
+		transport.setCopyResults(true);
+		try {
+			client.proxy().interface0(true, 0, "world").get(1, "hello");
+			fail("Expected a PdefClientException");
+		} catch (PdefClientException e) {
+			assertThat(e.getCause()).isInstanceOf(IllegalStateException.class);
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.pdef.test.TestInterface;
+import io.pdef.test.TestNumber;
+import io.pdef.test.TestStruct;
+import io.pdef.test.TestSubInterface;
+import static io.pdef.PdefHandlerTest.getMethod;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.data.MapEntry.entry;
+import org.junit.Test;
+
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+public class PdefMethodEncoderTest {
+	@Test
+	public void testUrlencode() throws Exception {
+		String[] strings = {"", "hello", "a b+c/d?e=f&g", "~!*'().-_", "привет", "日本語",
+				"😀", "a\uD83Db", "\uDE00", "\u007f\u0080߿ࠀ￿"};
+
+		for (String s : strings) {
+			assertThat(PdefClient.urlencode(s)).isEqualTo(URLEncoder.encode(s, "UTF-8"));
+		}
+	}
+
+	@Test
+	public void testSerializeInvocations_path() throws Exception {
+		List<PdefInvocation> invocations = Arrays.asList(
+				new PdefInvocation(getMethod(TestInterface.class, "interface0"),
+						new Object[]{true, -32, "a b/привет"}),
+				new PdefInvocation(getMethod(TestSubInterface.class, "get"),
+						new Object[]{1, "x+y"}));
+
+		PdefRequest request = PdefClient.serializeInvocations(invocations);
+		assertThat(request.getRelativePath())
+				.isEqualTo("/interface0/1/-32/a+b%2F%D0%BF%D1%80%D0%B8%D0%B2%D0%B5%D1%82/get");
+		assertThat(request.getQuery()).isEqualTo(ImmutableMap.of("int0", "1", "string0", "x+y"));
+		assertThat(PdefHandler.parseRequest(request, TestInterface.class))
+				.isEqualTo(invocations);
+	}
+
+	@Test
+	public void testSerializeInvocations_request() throws Exception {
+		TestStruct struct = new TestStruct()
+				.setBool0(true)
+				.setInt0(-32)
+				.setString0("привет")
+				.setDatetime0(new Date(1000))
+				.setList0(ImmutableList.of(1, 2, 3))
+				.setSet0(ImmutableSet.of(4))
+				.setEnum0(TestNumber.ONE);
+		PdefInvocation invocation = new PdefInvocation(getMethod(TestInterface.class, "request"),
+				new Object[]{struct});
+
+		PdefRequest request = PdefClient.serializeInvocations(Arrays.asList(invocation));
+		assertThat(request.getQuery()).contains(
+				entry("bool0", "1"),
+				entry("string0", "привет"),
+				entry("datetime0", "1970-01-01T00:00:01Z"),
+				entry("list0", "[1,2,3]"),
+				entry("enum0", "one"));
+		assertThat(request.getQuery()).doesNotContainKey("struct0");
+
+		List<PdefInvocation> parsed = PdefHandler.parseRequest(request, TestInterface.class);
+		assertThat(parsed.get(0).getArgs()[0]).isEqualTo(struct);
+	}
+
+	@Test
+	public void testSerializeInvocations_post() throws Exception {
+		Object[] args = new Object[]{false, (short) -16, -32, -64L, -1.5f, -2.5d, "привет",
+				new Date(1000), ImmutableList.of(1, 2, 3), ImmutableSet.of(4, 5, 6),
+				ImmutableMap.of(1, "a"), TestNumber.ONE, new TestStruct().setInt0(32)};
+		PdefInvocation post = new PdefInvocation(getMethod(TestInterface.class, "post"), args);
+
+		PdefRequest request = PdefClient.serializeInvocations(Arrays.asList(post));
+		assertThat(request.isPost()).isTrue();
+		assertThat(request.getPost().get("bool0")).isEqualTo("0");
+		assertThat(request.getPost().get("enum0")).isEqualTo("one");
+		assertThat(PdefHandler.parseRequest(request, TestInterface.class))
+				.containsExactly(post);
+	}
+
+	@Test
+	public void testWriterFor() throws Exception {
+		assertThat(PdefMethodEncoder.writerFor(String.class))
+				.isEqualTo(PdefMethodEncoder.ArgWriter.STRING);
+		assertThat(PdefMethodEncoder.writerFor(boolean.class))
+				.isEqualTo(PdefMethodEncoder.ArgWriter.BOOLEAN);
+		assertThat(PdefMethodEncoder.writerFor(Long.class))
+				.isEqualTo(PdefMethodEncoder.ArgWriter.NUMBER);
+		assertThat(PdefMethodEncoder.writerFor(TestNumber.class))
+				.isEqualTo(PdefMethodEncoder.ArgWriter.ENUM);
+		assertThat(PdefMethodEncoder.writerFor(List.class))
+				.isEqualTo(PdefMethodEncoder.ArgWriter.JSON);
+		assertThat(PdefMethodEncoder.ArgWriter.ANY.write(TestNumber.TWO)).isEqualTo("two");
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.pdef;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class PdefQuotasTest {
+	static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	public void testAcquire_rateLimited() throws Exception {
+		PdefQuotas quotas = new PdefQuotas(10, 2, 10, 0);
+		PdefQuotas.Caller caller = quotas.forCaller("caller");
+
+		assertThat(caller.acquire(0)).isEqualTo(PdefQuotas.Admission.ADMITTED);
+		assertThat(caller.acquire(0)).isEqualTo(PdefQuotas.Admission.ADMITTED);
+		assertThat(caller.acquire(0)).isEqualTo(PdefQuotas.Admission.RATE_LIMITED);
+		assertThat(caller.acquire(100 * MILLIS)).isEqualTo(PdefQuotas.Admission.ADMITTED);
+		assertThat(caller.getAdmittedCount()).isEqualTo(3);
+		assertThat(caller.getRateLimitedCount()).isEqualTo(1);
+		assertThat(caller.getInFlight()).isEqualTo(3);
+	}
+
+	@Test
+	public void testAcquire_weight() throws Exception {
+		PdefQuotas quotas = new PdefQuotas(10, 1, 10, 0).setWeight("heavy", 2);
+		PdefQuotas.Caller heavy = quotas.forCaller("heavy");
+		PdefQuotas.Caller light = quotas.forCaller("light");
+
+		assertThat(heavy.acquire(0)).isEqualTo(PdefQuotas.Admission.ADMITTED);
+		assertThat(light.acquire(0)).isEqualTo(PdefQuotas.Admission.ADMITTED);
+		assertThat(heavy.acquire(50 * MILLIS)).isEqualTo(PdefQuotas.Admission.ADMITTED);
+		assertThat(light.acquire(50 * MILLIS)).isEqualTo(PdefQuotas.Admission.RATE_LIMITED);
+	}
+
+	@Test
+	public void testAcquire_shed() throws Exception {
+		PdefQuotas quotas = new PdefQuotas(0, 1, 1, 0);
+		PdefQuotas.Caller caller0 = quotas.forCaller("caller0");
+		PdefQuotas.Caller caller1 = quotas.forCaller("caller1");
+
+		assertThat(caller0.acquire()).isEqualTo(PdefQuotas.Admission.ADMITTED);
+		assertThat(caller1.acquire()).isEqualTo(PdefQuotas.Admission.SHED);
+		assertThat(caller1.getShedCount()).isEqualTo(1);
+
+		caller0.release();
+		assertThat(caller1.acquire()).isEqualTo(PdefQuotas.Admission.ADMITTED);
+		assertThat(quotas.getInFlight()).isEqualTo(1);
+	}
+
+	@Test
+	public void testAcquire_fairQueue() throws Exception {
+		PdefQuotas quotas = new PdefQuotas(0, 1, 1, 10000);
+		PdefQuotas.Caller holder = quotas.forCaller("holder");
+		assertThat(holder.acquire()).isEqualTo(PdefQuotas.Admission.ADMITTED);
+
+		// The noisy caller queues two requests before the quiet one.
+		List<String> admitted = admitQueued(quotas, holder, "noisy", "noisy", "quiet");
+		assertThat(admitted).containsExactly("noisy", "quiet", "noisy");
+	}
+
+	@Test
+	public void testAcquire_fairQueueAfterTimeouts() throws Exception {
+		PdefQuotas quotas = new PdefQuotas(0, 1, 1, 100);
+		PdefQuotas.Caller holder = quotas.forCaller("holder");
+		assertThat(holder.acquire()).isEqualTo(PdefQuotas.Admission.ADMITTED);
+
+		// Timed out requests do not push the shed caller to the back of the queue.
+		PdefQuotas.Caller shed = quotas.forCaller("shed");
+		for (int i = 0; i < 3; i++) {
+			assertThat(shed.acquire()).isEqualTo(PdefQuotas.Admission.SHED);
+		}
+
+		List<String> admitted = admitQueued(quotas, holder, "noisy", "noisy", "shed");
+		assertThat(admitted).containsExactly("noisy", "shed", "noisy");
+	}
+
+	@Test
+	public void testAcquire_queueTimeout() throws Exception {
+		PdefQuotas quotas = new PdefQuotas(0, 1, 1, 10);
+		PdefQuotas.Caller caller = quotas.forCaller("caller");
+
+		assertThat(caller.acquire()).isEqualTo(PdefQuotas.Admission.ADMITTED);
+		assertThat(caller.acquire()).isEqualTo(PdefQuotas.Admission.SHED);
+		assertThat(quotas.getQueued()).isEqualTo(0);
+		assertThat(caller.getQueued()).isEqualTo(0);
+	}
+
+	@Test
+	public void testForCaller_maxCallers() throws Exception {
+		PdefQuotas quotas = new PdefQuotas(10, 1, 10, 0, 2);
+		PdefQuotas.Caller caller0 = quotas.forCaller("caller0");
+		PdefQuotas.Caller caller1 = quotas.forCaller("caller1");
+
+		assertThat(quotas.forCaller("caller0")).isSameAs(caller0);
+		assertThat(quotas.forCaller("caller1")).isSameAs(caller1);
+		assertThat(quotas.forCaller("caller2").getName()).isEqualTo(PdefQuotas.OTHER);
+		assertThat(quotas.forCaller(null).getName()).isEqualTo(PdefQuotas.OTHER);
+		assertThat(quotas.getCallers()).hasSize(3);
+	}
+
+	/** Queues requests of callers in order, releases the holder and returns the admitted order. */
+	private List<String> admitQueued(final PdefQuotas quotas, final PdefQuotas.Caller holder,
+			final String... names) throws InterruptedException {
+		final List<String> admitted = Collections.synchronizedList(new ArrayList<String>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < names.length; i++) {
+			final PdefQuotas.Caller caller = quotas.forCaller(names[i]);
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					if (caller.acquire() == PdefQuotas.Admission.ADMITTED) {
+						admitted.add(caller.getName());
+						caller.release();
+					}
+				}
+			});
+			thread.start();
+			threads.add(thread);
+
+			while (quotas.getQueued() < i + 1) {
+				Thread.sleep(1);
+			}
+		}
+
+		holder.release();
+		for (Thread thread : threads) {
+			thread.join(10000);
+		}
+		assertThat(quotas.getInFlight()).isEqualTo(0);
+		assertThat(quotas.getQueued()).isEqualTo(0);
+		return admitted;
+	}
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.pdef;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class PdefSchedulerTest {
+	PdefScheduler scheduler;
+
+	@After
+	public void tearDown() throws Exception {
+		if (scheduler != null) {
+			scheduler.close();
+		}
+	}
+
+	@Test
+	public void testExecute() throws Exception {
+		scheduler = new PdefScheduler(1);
+		String result = scheduler.execute(PdefPriority.NORMAL, 0, new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return "hello";
+			}
+		});
+
+		assertThat(result).isEqualTo("hello");
+		assertThat(scheduler.getExecutedCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void testSubmit_priorityAndDeadlineOrder() throws Exception {
+		scheduler = new PdefScheduler(1);
+		CountDownLatch latch = block();
+		List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		futures.add(scheduler.submit(PdefPriority.BATCH, 0, record(order, "batch")));
+		futures.add(scheduler.submit(PdefPriority.NORMAL, 0, record(order, "normal")));
+		futures.add(scheduler.submit(PdefPriority.INTERACTIVE, 0, record(order, "late")));
+		futures.add(scheduler.submit(PdefPriority.INTERACTIVE, 100, record(order, "early")));
+		assertThat(scheduler.getQueued(PdefPriority.INTERACTIVE)).isEqualTo(2);
+
+		latch.countDown();
+		for (Future<?> future : futures) {
+			future.get(10, TimeUnit.SECONDS);
+		}
+		assertThat(order).containsExactly("early", "late", "normal", "batch");
+	}
+
+	@Test
+	public void testSubmit_starvation() throws Exception {
+		scheduler = new PdefScheduler(1, 50);
+		CountDownLatch latch = block();
+		List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+		Future<?> batch = scheduler.submit(PdefPriority.BATCH, 0, record(order, "batch"));
+		Thread.sleep(100);
+		Future<?> interactive = scheduler.submit(PdefPriority.INTERACTIVE, 0,
+				record(order, "interactive"));
+
+		latch.countDown();
+		batch.get(10, TimeUnit.SECONDS);
+		interactive.get(10, TimeUnit.SECONDS);
+		assertThat(order).containsExactly("batch", "interactive");
+	}
+
+	@Test
+	public void testSubmit_deadlineExceeded() throws Exception {
+		scheduler = new PdefScheduler(1);
+		CountDownLatch latch = block();
+		List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+		Future<?> future = scheduler.submit(PdefPriority.NORMAL, 10, record(order, "expired"));
+		Thread.sleep(50);
+		latch.countDown();
+
+		try {
+			future.get(10, TimeUnit.SECONDS);
+			fail("ExecutionException expected");
+		} catch (ExecutionException e) {
+			assertThat(e.getCause()).isInstanceOf(PdefOverloadException.class);
+		}
+		assertThat(order).isEmpty();
+		assertThat(scheduler.getExpiredCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void testSubmit_interactiveLatencyUnderBatchFlood() throws Exception {
+		scheduler = new PdefScheduler(4);
+
+		// 400 batch requests of 5ms on 4 threads take at least 500ms.
+		List<Future<?>> batches = new ArrayList<Future<?>>();
+		long start = System.nanoTime();
+		for (int i = 0; i < 400; i++) {
+			batches.add(scheduler.submit(PdefPriority.BATCH, 0, sleep(5)));
+		}
+
+		for (int i = 0; i < 20; i++) {
+			scheduler.submit(PdefPriority.INTERACTIVE, 0, sleep(0)).get(10, TimeUnit.SECONDS);
+		}
+		int queuedBatches = scheduler.getQueued(PdefPriority.BATCH);
+
+		for (Future<?> batch : batches) {
+			batch.get(10, TimeUnit.SECONDS);
+		}
+		long batchTime = System.nanoTime() - start;
+
+		// Interactive requests have overtaken the batch backlog.
+		assertThat(queuedBatches).isGreaterThan(0);
+		assertThat(TimeUnit.NANOSECONDS.toMillis(batchTime)).isGreaterThanOrEqualTo(500);
+	}
+
+	@Test
+	public void testSubmit_starvationByOldestRequest() throws Exception {
+		scheduler = new PdefScheduler(1, 50);
+		CountDownLatch latch = block();
+		List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+		// The old request is not the earliest deadline one, it has a long timeout.
+		Future<?> old = scheduler.submit(PdefPriority.BATCH, 10000, record(order, "old"));
+		Thread.sleep(100);
+		Future<?> young = scheduler.submit(PdefPriority.BATCH, 0, record(order, "young"));
+		Future<?> interactive = scheduler.submit(PdefPriority.INTERACTIVE, 0,
+				record(order, "interactive"));
+
+		latch.countDown();
+		old.get(10, TimeUnit.SECONDS);
+		young.get(10, TimeUnit.SECONDS);
+		interactive.get(10, TimeUnit.SECONDS);
+		assertThat(order).containsExactly("old", "interactive", "young");
+	}
+
+	/**
+	 * Floods the scheduler with a batch backlog which ages far beyond the max starvation time
+	 * and checks that interactive requests keep their latency during the whole flood.
+	 */
+	@Test
+	public void testSubmit_interactiveLatencyUnderAgedBatchFlood() throws Exception {
+		scheduler = new PdefScheduler(2, 50);
+
+		// 300 batch requests of 5ms on 2 threads take at least 750ms, 15 max starvation times.
+		List<Future<?>> batches = new ArrayList<Future<?>>();
+		long start = System.nanoTime();
+		for (int i = 0; i < 300; i++) {
+			batches.add(scheduler.submit(PdefPriority.BATCH, 0, sleep(5)));
+		}
+
+		// Interactive requests arrive during 8 max starvation times after the backlog has aged.
+		Thread.sleep(100);
+		for (int i = 0; i < 40; i++) {
+			scheduler.submit(PdefPriority.INTERACTIVE, 0, sleep(0)).get(10, TimeUnit.SECONDS);
+			Thread.sleep(10);
+		}
+		long floodTime = System.nanoTime() - start;
+		int queuedBatches = scheduler.getQueued(PdefPriority.BATCH);
+
+		for (Future<?> batch : batches) {
+			batch.get(10, TimeUnit.SECONDS);
+		}
+
+		// The aged backlog has been queued during all interactive requests, they have not
+		// waited for it.
+		assertThat(queuedBatches).isGreaterThan(0);
+		assertThat(TimeUnit.NANOSECONDS.toMillis(floodTime)).isGreaterThanOrEqualTo(500);
+	}
+
+	@Test
+	public void testExecute_queuesEmptyAfterRun() throws Exception {
+		scheduler = new PdefScheduler(2, 50);
+		for (int i = 0; i < 1000; i++) {
+			scheduler.execute(PdefPriority.NORMAL, 0, sleep(0));
+		}
+
+		CountDownLatch latch = block();
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int i = 0; i < 100; i++) {
+			futures.add(scheduler.submit(PdefPriority.values()[i % 3], 0, sleep(0)));
+		}
+		latch.countDown();
+		for (Future<?> future : futures) {
+			future.get(10, TimeUnit.SECONDS);
+		}
+
+		for (PdefPriority priority : PdefPriority.values()) {
+			assertThat(scheduler.getQueued(priority)).isEqualTo(0);
+			assertThat(scheduler.getArrivals(priority)).isEqualTo(0);
+		}
+	}
+
+	@Test
+	public void testClose() throws Exception {
+		scheduler = new PdefScheduler(1);
+		CountDownLatch latch = block();
+		Future<?> future = scheduler.submit(PdefPriority.NORMAL, 0, sleep(0));
+
+		scheduler.close();
+		latch.countDown();
+		try {
+			future.get(10, TimeUnit.SECONDS);
+			fail("ExecutionException expected");
+		} catch (ExecutionException e) {
+			assertThat(e.getCause()).isInstanceOf(PdefOverloadException.class);
+		}
+	}
+
+	/** Blocks the only scheduler thread until the returned latch is released. */
+	private CountDownLatch block() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch latch = new CountDownLatch(1);
+		scheduler.submit(PdefPriority.INTERACTIVE, 0, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				started.countDown();
+				latch.await();
+				return null;
+			}
+		});
+
+		started.await();
+		return latch;
+	}
+
+	private static Callable<Object> record(final List<String> order, final String name) {
+		return new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				order.add(name);
+				return null;
+			}
+		};
+	}
+
+	private static Callable<Object> sleep(final long millis) {
+		return new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				Thread.sleep(millis);
+				return null;
+			}
+		};
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import io.pdef.test.TestNumber;
+import io.pdef.test.TestStruct;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+public class PdefSnapshotTest {
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("pdef-snapshot", ".bin");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		file.delete();
+	}
+
+	@Test
+	public void testList() throws Exception {
+		List<TestStruct> list = new ArrayList<TestStruct>();
+		for (int i = 0; i < 1000; i++) {
+			list.add(new TestStruct().setInt0(i).setString0("Привет " + i).setEnum0(TestNumber.TWO));
+		}
+		list.add(null);
+
+		PdefSnapshot.write(file, list);
+		PdefSnapshot<TestStruct> snapshot = PdefSnapshot.open(file, TestStruct.class);
+
+		assertThat(snapshot.size()).isEqualTo(1001);
+		assertThat(snapshot.hasKeys()).isFalse();
+		assertThat(snapshot.get(500)).isEqualTo(list.get(500));
+		assertThat(snapshot.get(1000)).isNull();
+		assertThat(snapshot.asList()).isEqualTo(list);
+	}
+
+	@Test
+	public void testMap() throws Exception {
+		Map<Long, TestStruct> map = new LinkedHashMap<Long, TestStruct>();
+		for (long i = 0; i < 1000; i++) {
+			map.put(i * 7, new TestStruct().setLong0(i));
+		}
+
+		PdefSnapshot.write(file, map);
+		PdefSnapshot<TestStruct> snapshot = PdefSnapshot.open(file, TestStruct.class);
+
+		assertThat(snapshot.size()).isEqualTo(1000);
+		assertThat(snapshot.hasKeys()).isTrue();
+		assertThat(snapshot.getByKey(70L)).isEqualTo(new TestStruct().setLong0(10));
+		assertThat(snapshot.getByKey("70")).isEqualTo(new TestStruct().setLong0(10));
+		assertThat(snapshot.getByKey(71L)).isNull();
+		assertThat(snapshot.containsKey(6993L)).isTrue();
+		assertThat(snapshot.getKey(10)).isEqualTo("70");
+		assertThat(snapshot.get(10)).isEqualTo(new TestStruct().setLong0(10));
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		PdefSnapshot.write(file, Collections.<String, TestStruct>emptyMap());
+		PdefSnapshot<TestStruct> snapshot = PdefSnapshot.open(file, TestStruct.class);
+
+		assertThat(snapshot.size()).isEqualTo(0);
+		assertThat(snapshot.getByKey("key")).isNull();
+	}
+
+	@Test
+	public void testOpen_notSnapshot() throws Exception {
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(new byte[64]);
+		out.close();
+
+		try {
+			PdefSnapshot.open(file, TestStruct.class);
+			fail("Expected an IOException");
+		} catch (IOException e) {
+			assertThat(e.getMessage()).isEqualTo("Not a pdef snapshot");
+		}
+	}
+}
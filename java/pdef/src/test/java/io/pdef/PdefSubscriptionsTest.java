@@ -0,0 +1,266 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import io.pdef.test.TestInterface;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+import org.junit.Test;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PdefSubscriptionsTest {
+	static final String V1 = PdefDelta.version("1");
+
+	PdefSubscriptions subscriptions = new PdefSubscriptions(10, 10000);
+
+	@Test
+	public void testChanged() throws Exception {
+		Listener listener = new Listener();
+		subscriptions.subscribe("/get", "get", V1, 0, evaluator(new AtomicInteger(), "2"),
+				listener);
+		assertThat(listener.results).isEmpty();
+
+		subscriptions.changed();
+		assertThat(listener.results).hasSize(1);
+		assertThat(listener.results.get(0).getJson()).isEqualTo("2");
+		assertThat(listener.results.get(0).getVersion()).isEqualTo(PdefDelta.version("2"));
+		assertThat(subscriptions.getSubscribers()).isEqualTo(0);
+	}
+
+	@Test
+	public void testChanged_fanOut() throws Exception {
+		AtomicInteger evaluations = new AtomicInteger();
+		List<Listener> listeners = new ArrayList<Listener>();
+		for (int i = 0; i < 3; i++) {
+			Listener listener = new Listener();
+			subscriptions.subscribe("/get", "get", V1, 0, evaluator(evaluations, "2"), listener);
+			listeners.add(listener);
+		}
+		subscriptions.changed("get");
+
+		PdefSubscriptions.Result result = listeners.get(0).results.get(0);
+		for (Listener listener : listeners) {
+			assertThat(listener.results).containsExactly(result);
+		}
+		assertThat(evaluations.get()).isEqualTo(1);
+	}
+
+	@Test
+	public void testChanged_unchangedResult() throws Exception {
+		AtomicInteger evaluations = new AtomicInteger();
+		Listener listener = new Listener();
+		subscriptions.subscribe("/get", "get", V1, 0, evaluator(evaluations, "1"), listener);
+		subscriptions.changed();
+
+		assertThat(listener.results).isEmpty();
+		assertThat(evaluations.get()).isEqualTo(1);
+		assertThat(subscriptions.getSubscribers()).isEqualTo(1);
+	}
+
+	@Test
+	public void testChanged_otherMethod() throws Exception {
+		AtomicInteger evaluations = new AtomicInteger();
+		Listener listener = new Listener();
+		subscriptions.subscribe("/get", "get", V1, 0, evaluator(evaluations, "2"), listener);
+		subscriptions.changed("other");
+
+		assertThat(listener.results).isEmpty();
+		assertThat(evaluations.get()).isEqualTo(0);
+	}
+
+	@Test
+	public void testChanged_duringEvaluation() throws Exception {
+		final AtomicInteger evaluations = new AtomicInteger();
+		Callable<String> evaluator = new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				if (evaluations.incrementAndGet() == 1) {
+					subscriptions.changed();
+					return "1";
+				}
+				return "2";
+			}
+		};
+
+		Listener listener = new Listener();
+		subscriptions.subscribe("/get", "get", V1, 0, evaluator, listener);
+		subscriptions.changed();
+
+		assertThat(evaluations.get()).isEqualTo(2);
+		assertThat(listener.results).hasSize(1);
+		assertThat(listener.results.get(0).getJson()).isEqualTo("2");
+	}
+
+	@Test
+	public void testChanged_error() throws Exception {
+		Callable<String> evaluator = new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				throw new PdefOverloadException();
+			}
+		};
+
+		Listener listener = new Listener();
+		subscriptions.subscribe("/get", "get", V1, 0, evaluator, listener);
+		subscriptions.changed();
+
+		assertThat(listener.errors).hasSize(1);
+		assertThat(listener.errors.get(0)).isInstanceOf(PdefOverloadException.class);
+		assertThat(subscriptions.getSubscribers()).isEqualTo(0);
+	}
+
+	@Test
+	public void testChanged_executor() throws Exception {
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+		subscriptions.setExecutor(new Executor() {
+			@Override
+			public void execute(final Runnable command) {
+				tasks.add(command);
+			}
+		});
+
+		Listener listener = new Listener();
+		subscriptions.subscribe("/get", "get", V1, 0, evaluator(new AtomicInteger(), "2"),
+				listener);
+		subscriptions.changed();
+		assertThat(listener.results).isEmpty();
+
+		tasks.get(0).run();
+		assertThat(listener.results).hasSize(1);
+	}
+
+	@Test
+	public void testSubscribe_changedBeforeSubscribing() throws Exception {
+		long changes = subscriptions.getChanges();
+		subscriptions.changed();
+
+		Listener listener = new Listener();
+		subscriptions.subscribe("/get", "get", V1, changes, evaluator(new AtomicInteger(), "2"),
+				listener);
+		assertThat(listener.results).hasSize(1);
+		assertThat(listener.results.get(0).getJson()).isEqualTo("2");
+	}
+
+	@Test
+	public void testSubscribe_maxSubscribers() throws Exception {
+		subscriptions = new PdefSubscriptions(1, 10000);
+		subscriptions.subscribe("/get", "get", V1, 0, evaluator(new AtomicInteger(), "2"),
+				new Listener());
+
+		try {
+			subscriptions.subscribe("/get", "get", V1, 0, evaluator(new AtomicInteger(), "2"),
+					new Listener());
+			fail("Expected an overload exception");
+		} catch (PdefOverloadException e) {
+			assertThat(subscriptions.getSubscribers()).isEqualTo(1);
+		}
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		AtomicInteger evaluations = new AtomicInteger();
+		Listener listener = new Listener();
+		PdefSubscriptions.Subscription subscription = subscriptions.subscribe("/get", "get",
+				V1, 0, evaluator(evaluations, "2"), listener);
+
+		assertThat(subscription.cancel()).isTrue();
+		assertThat(subscription.cancel()).isFalse();
+		assertThat(subscriptions.getSubscribers()).isEqualTo(0);
+
+		subscriptions.changed();
+		assertThat(listener.results).isEmpty();
+		assertThat(evaluations.get()).isEqualTo(0);
+	}
+
+	@Test
+	public void testCancel_completed() throws Exception {
+		Listener listener = new Listener();
+		PdefSubscriptions.Subscription subscription = subscriptions.subscribe("/get", "get",
+				V1, 0, evaluator(new AtomicInteger(), "2"), listener);
+		subscriptions.changed();
+
+		assertThat(subscription.cancel()).isFalse();
+		assertThat(listener.results).hasSize(1);
+	}
+
+	@Test
+	public void testWatch() throws Exception {
+		String etag = PdefDelta.etag(PdefDelta.version("1"));
+		HttpURLConnection full = connection(200, etag);
+		HttpURLConnection unchanged = connection(304, etag);
+		PdefConnectionFactory factory = mock(PdefConnectionFactory.class);
+		when(factory.openConnection(any(URL.class))).thenReturn(full, unchanged);
+
+		TestInterface client = new PdefClient<TestInterface>("http://localhost:8080",
+				TestInterface.class)
+				.setConnectionFactory(factory)
+				.setDeltas(new PdefDeltaCache(10))
+				.watch(30000);
+
+		assertThat(client.interface0(true, 1, "a").get(1, "hello")).isEqualTo(1);
+		assertThat(client.interface0(true, 1, "a").get(1, "hello")).isEqualTo(1);
+
+		verify(full, never()).setRequestProperty(eq("X-Pdef-Wait"), anyString());
+		verify(unchanged).setRequestProperty("If-None-Match", etag);
+		verify(unchanged).setRequestProperty("X-Pdef-Wait", "30000");
+	}
+
+	private static Callable<String> evaluator(final AtomicInteger evaluations,
+			final String json) {
+		return new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				evaluations.incrementAndGet();
+				return json;
+			}
+		};
+	}
+
+	private static HttpURLConnection connection(final int status, final String etag)
+			throws Exception {
+		HttpURLConnection connection = mock(HttpURLConnection.class);
+		when(connection.getResponseCode()).thenReturn(status);
+		when(connection.getHeaderField("ETag")).thenReturn(etag);
+		when(connection.getInputStream()).thenReturn(
+				new ByteArrayInputStream("{\"data\":1}".getBytes(PdefClient.UTF8)));
+		return connection;
+	}
+
+	static class Listener implements PdefSubscriptions.Listener {
+		final List<PdefSubscriptions.Result> results = new ArrayList<PdefSubscriptions.Result>();
+		final List<Exception> errors = new ArrayList<Exception>();
+
+		@Override
+		public void onResult(final PdefSubscriptions.Result result) {
+			results.add(result);
+		}
+
+		@Override
+		public void onError(final Exception e) {
+			errors.add(e);
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright: 2013 Pdef <http://pdef.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pdef;
+
+import com.google.common.collect.ImmutableList;
+import io.pdef.primitive.TestPrimitiveStruct;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+import org.junit.Test;
+
+import java.util.*;
+
+public class PrimitiveCollectionTest {
+	@Test
+	public void testIntList() throws Exception {
+		PdefIntList list = new PdefIntList();
+		for (int i = 0; i < 100; i++) {
+			list.addInt(i);
+		}
+		list.removeIntAt(0);
+		list.addInt(0, -1);
+
+		assertThat(list.size()).isEqualTo(100);
+		assertThat(list.getInt(0)).isEqualTo(-1);
+		assertThat(list.getInt(99)).isEqualTo(99);
+		assertThat(list.indexOfInt(50)).isEqualTo(50);
+	}
+
+	@Test
+	public void testIntList_equalsArrayList() throws Exception {
+		PdefIntList list = PdefIntList.of(1, 2, 3);
+		List<Integer> expected = ImmutableList.of(1, 2, 3);
+
+		assertThat(list).isEqualTo(expected);
+		assertThat(list.hashCode()).isEqualTo(expected.hashCode());
+	}
+
+	@Test
+	public void testDoubleList_immutable() throws Exception {
+		PdefDoubleList list = PdefDoubleList.of(1.5, 2.5);
+		PdefDoubleList immutable = list.toImmutable();
+
+		assertThat(immutable).isEqualTo(list);
+		assertThat(immutable.toImmutable()).isSameAs(immutable);
+		assertThat(immutable.copy()).isSameAs(immutable);
+		try {
+			immutable.addDouble(3.5);
+			fail("Expected an UnsupportedOperationException");
+		} catch (UnsupportedOperationException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void testLongSet() throws Exception {
+		Random random = new Random(0);
+		PdefLongSet set = new PdefLongSet();
+		Set<Long> expected = new HashSet<Long>();
+
+		for (int i = 0; i < 10000; i++) {
+			long element = random.nextInt(1000) - 500;
+			if (random.nextBoolean()) {
+				assertThat(set.add(element)).isEqualTo(expected.add(element));
+			} else {
+				assertThat(set.remove(element)).isEqualTo(expected.remove(element));
+			}
+		}
+
+		assertThat(set).isEqualTo(expected);
+		assertThat(set.hashCode()).isEqualTo(expected.hashCode());
+		for (long element = -500; element < 500; element++) {
+			assertThat(set.contains(element)).isEqualTo(expected.contains(element));
+		}
+
+		assertThat(new HashSet<Long>(set)).isEqualTo(expected);
+		Set<Long> cursored = new HashSet<Long>();
+		for (PdefLongSet.Cursor cursor = set.cursor(); cursor.next(); ) {
+			assertThat(cursored.add(cursor.value())).isTrue();
+		}
+		assertThat(cursored).isEqualTo(expected);
+	}
+
+	@Test
+	public void testLongDoubleMap() throws Exception {
+		Random random = new Random(0);
+		PdefLongDoubleMap map = new PdefLongDoubleMap();
+		Map<Long, Double> expected = new HashMap<Long, Double>();
+
+		for (int i = 0; i < 10000; i++) {
+			long key = random.nextInt(1000) - 500;
+			double value = random.nextDouble();
+			if (random.nextBoolean()) {
+				map.put(key, value);
+				expected.put(key, value);
+			} else {
+				map.remove(key);
+				expected.remove(key);
+			}
+		}
+
+		assertThat(map).isEqualTo(expected);
+		assertThat(map.hashCode()).isEqualTo(expected.hashCode());
+		assertThat(map.get(1000)).isEqualTo(0.0);
+	}
+
+	@Test
+	public void testCopy() throws Exception {
+		PdefLongLongMap map = new PdefLongLongMap();
+		map.put(0, 1);
+		map.put(1, 2);
+
+		PdefLongLongMap copy = (PdefLongLongMap) PdefCopy.copy(map);
+		copy.put(2, 3);
+
+		assertThat(copy).isNotSameAs(map);
+		assertThat(map.size()).isEqualTo(2);
+		assertThat(copy.get(0)).isEqualTo(1);
+	}
+
+	@Test
+	public void testStructCopy() throws Exception {
+		TestPrimitiveStruct struct = fixtureStruct();
+		TestPrimitiveStruct copy = struct.copy();
+
+		assertThat(copy).isEqualTo(struct);
+		assertThat(copy.getInts()).isNotSameAs(struct.getInts());
+	}
+
+	@Test
+	public void testJson() throws Exception {
+		TestPrimitiveStruct struct = fixtureStruct();
+		String json = struct.toJson();
+		TestPrimitiveStruct parsed = TestPrimitiveStruct.parseJson(json);
+
+		assertThat(parsed).isEqualTo(struct);
+		assertThat(json).contains("\"floats\":[0.1,-2.5]");
+		assertThat(json).contains("\"series\":{\"1400000000\":0.5}");
+	}
+
+	private TestPrimitiveStruct fixtureStruct() {
+		PdefLongLongMap counts = new PdefLongLongMap();
+		counts.put(1, 10);
+		counts.put(0, 20);
+		PdefLongDoubleMap series = new PdefLongDoubleMap();
+		series.put(1400000000L, 0.5);
+
+		return new TestPrimitiveStruct()
+				.setInts(PdefIntList.of(1, 2, 3))
+				.setLongs(PdefLongList.of(Long.MAX_VALUE, Long.MIN_VALUE))
+				.setFloats(PdefFloatList.of(0.1f, -2.5f))
+				.setDoubles(PdefDoubleList.of(0.1, 1e100))
+				.setIds(PdefLongSet.of(0, 1, -1))
+				.setCounts(counts)
+				.setSeries(series)
+				.setNames(ImmutableList.of("a", "b"));
+	}
+}